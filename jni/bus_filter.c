@@ -0,0 +1,192 @@
+//
+// bus_filter.c
+//
+// Runs on whatever thread posts the message, mostly streaming threads: never block,
+// never call into Java here. Events go into the ring and the engine thread delivers them.
+
+#include "bus_filter.h"
+#include "jni_utils.h"
+
+void
+bus_filter_init (BusFilter *filter) {
+    atomic_init (&filter->mask, 0);
+    for (gint i = 0; i < UI_EVENT_TYPE_COUNT; i++) {
+        atomic_init (&filter->min_interval_ms[i], 0);
+        atomic_init (&filter->last_emit_us[i], 0);
+        atomic_init (&filter->suppressed[i], 0);
+    }
+    // QoS and buffering arrive per buffer on a struggling stream; element messages
+    // (level, spectrum) per interval of the posting element
+    atomic_store (&filter->min_interval_ms[UI_EVENT_QOS], 250);
+    atomic_store (&filter->min_interval_ms[UI_EVENT_BUFFERING], 200);
+    atomic_store (&filter->min_interval_ms[UI_EVENT_ELEMENT], 100);
+}
+
+void
+bus_filter_set_mask (BusFilter *filter, guint mask) {
+    atomic_store (&filter->mask, mask);
+}
+
+gboolean
+bus_filter_wants (BusFilter *filter, guint kind) {
+    return (atomic_load_explicit (&filter->mask, memory_order_relaxed) & kind) != 0;
+}
+
+static gint
+kind_to_event_type (guint kind) {
+    switch (kind) {
+        case BUS_KIND_STATE: return UI_EVENT_STATE;
+        case BUS_KIND_QOS: return UI_EVENT_QOS;
+        case BUS_KIND_BUFFERING: return UI_EVENT_BUFFERING;
+        case BUS_KIND_LATENCY: return UI_EVENT_LATENCY;
+        case BUS_KIND_WARNING: return UI_EVENT_WARNING;
+        case BUS_KIND_EOS: return UI_EVENT_EOS;
+        case BUS_KIND_ELEMENT: return UI_EVENT_ELEMENT;
+        default: return -1;
+    }
+}
+
+gboolean
+bus_filter_set_rate_limit (BusFilter *filter, guint kind, gint min_interval_ms) {
+    gint type = kind_to_event_type (kind);
+    if (type < 0) {
+        return FALSE;
+    }
+    atomic_store (&filter->min_interval_ms[type], MAX (0, min_interval_ms));
+    return TRUE;
+}
+
+gboolean
+bus_filter_admit (BusFilter *filter, UiEventType type, gboolean force,
+                  gint64 values[UI_EVENT_VALUE_COUNT]) {
+    gint64 now = g_get_monotonic_time ();
+    gint64 interval_us = (gint64) atomic_load_explicit (&filter->min_interval_ms[type], memory_order_relaxed) * 1000;
+    long long last = atomic_load_explicit (&filter->last_emit_us[type], memory_order_relaxed);
+
+    if (!force && interval_us > 0) {
+        // Several streaming threads may race for the same slot: only one of them wins it
+        if (now - last < interval_us
+            || !atomic_compare_exchange_strong (&filter->last_emit_us[type], &last, now)) {
+            atomic_fetch_add_explicit (&filter->suppressed[type], 1, memory_order_relaxed);
+            return FALSE;
+        }
+    } else {
+        atomic_store_explicit (&filter->last_emit_us[type], now, memory_order_relaxed);
+    }
+    values[UI_EVENT_SUPPRESSED] = atomic_exchange_explicit (&filter->suppressed[type], 0, memory_order_relaxed);
+    return TRUE;
+}
+
+static void
+forward_qos (CustomData *data, GstMessage *msg) {
+    gint64 values[UI_EVENT_VALUE_COUNT] = { 0 };
+    if (!bus_filter_admit (&data->bus_filter, UI_EVENT_QOS, FALSE, values)) {
+        return;
+    }
+
+    gboolean live;
+    guint64 running_time, stream_time, timestamp, duration;
+    gint64 jitter;
+    gdouble proportion;
+    gint quality;
+    GstFormat format;
+    guint64 processed, dropped;
+    gst_message_parse_qos (msg, &live, &running_time, &stream_time, &timestamp, &duration);
+    gst_message_parse_qos_values (msg, &jitter, &proportion, &quality);
+    gst_message_parse_qos_stats (msg, &format, &processed, &dropped);
+
+    // The counters are cumulative, so rate limiting loses resolution, not drops
+    values[0] = (gint64) processed;
+    values[1] = (gint64) dropped;
+    values[2] = jitter;
+    values[3] = (gint64) (proportion * 1000000);
+    values[4] = live;
+    push_ui_event (data, UI_EVENT_QOS, GST_MESSAGE_SRC_NAME (msg), NULL, values);
+}
+
+static void
+forward_buffering (CustomData *data, GstMessage *msg) {
+    gint percent;
+    gst_message_parse_buffering (msg, &percent);
+
+    // Always let the end of buffering through, the UI must not get stuck at 97%
+    gint64 values[UI_EVENT_VALUE_COUNT] = { 0 };
+    if (!bus_filter_admit (&data->bus_filter, UI_EVENT_BUFFERING, percent >= 100, values)) {
+        return;
+    }
+
+    GstBufferingMode mode;
+    gint avg_in, avg_out;
+    gint64 left;
+    gst_message_parse_buffering_stats (msg, &mode, &avg_in, &avg_out, &left);
+    values[0] = percent;
+    values[1] = mode;
+    values[2] = avg_in;
+    values[3] = avg_out;
+    values[4] = left;
+    push_ui_event (data, UI_EVENT_BUFFERING, GST_MESSAGE_SRC_NAME (msg), NULL, values);
+}
+
+static void
+forward_warning (CustomData *data, GstMessage *msg) {
+    gint64 values[UI_EVENT_VALUE_COUNT] = { 0 };
+    if (!bus_filter_admit (&data->bus_filter, UI_EVENT_WARNING, FALSE, values)) {
+        return;
+    }
+
+    GError *err = NULL;
+    gchar *debug_info = NULL;
+    gst_message_parse_warning (msg, &err, &debug_info);
+    GST_WARNING ("Warning from element %s: %s (%s)", GST_MESSAGE_SRC_NAME (msg),
+                 err->message, debug_info ? debug_info : "no debug info");
+    push_ui_event (data, UI_EVENT_WARNING, GST_MESSAGE_SRC_NAME (msg), err->message, values);
+    g_clear_error (&err);
+    g_free (debug_info);
+}
+
+static void
+forward_element (CustomData *data, GstMessage *msg) {
+    const GstStructure *structure = gst_message_get_structure (msg);
+    if (!structure) {
+        return;
+    }
+    gint64 values[UI_EVENT_VALUE_COUNT] = { 0 };
+    if (!bus_filter_admit (&data->bus_filter, UI_EVENT_ELEMENT, FALSE, values)) {
+        return;
+    }
+
+    gchar *text = gst_structure_to_string (structure);
+    push_ui_event (data, UI_EVENT_ELEMENT, GST_MESSAGE_SRC_NAME (msg), text, values);
+    g_free (text);
+}
+
+GstBusSyncReply
+bus_filter_sync_handler (GstBus *bus, GstMessage *msg, gpointer user_data) {
+    CustomData *data = (CustomData *) user_data;
+    BusFilter *filter = &data->bus_filter;
+
+    switch (GST_MESSAGE_TYPE (msg)) {
+        case GST_MESSAGE_QOS:
+            if (bus_filter_wants (filter, BUS_KIND_QOS)) forward_qos (data, msg);
+            break;
+        case GST_MESSAGE_BUFFERING:
+            if (bus_filter_wants (filter, BUS_KIND_BUFFERING)) forward_buffering (data, msg);
+            break;
+        case GST_MESSAGE_WARNING:
+            if (bus_filter_wants (filter, BUS_KIND_WARNING)) forward_warning (data, msg);
+            break;
+        case GST_MESSAGE_EOS:
+            if (bus_filter_wants (filter, BUS_KIND_EOS)) {
+                gint64 values[UI_EVENT_VALUE_COUNT] = { 0 };
+                push_ui_event (data, UI_EVENT_EOS, GST_MESSAGE_SRC_NAME (msg), NULL, values);
+            }
+            break;
+        case GST_MESSAGE_ELEMENT:
+            if (bus_filter_wants (filter, BUS_KIND_ELEMENT)) forward_element (data, msg);
+            break;
+        default:
+            // State changes, errors and latency are handled on the engine thread
+            break;
+    }
+    return GST_BUS_PASS;
+}
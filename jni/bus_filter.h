@@ -0,0 +1,49 @@
+//
+// bus_filter.h
+//
+// Forwards typed bus messages (QoS, buffering, latency, warnings, EOS, element
+// messages) to Java through the UI event ring. A bus sync handler checks each
+// message against the set of kinds Java listens to before doing any work, so
+// high-frequency messages cost one atomic load when nobody is subscribed, and
+// rate limits each kind so a stuttering stream cannot flood the UI thread.
+
+#ifndef GSTREAMER_PIPELINER_1_0_BUS_FILTER_H
+#define GSTREAMER_PIPELINER_1_0_BUS_FILTER_H
+
+#include <gst/gst.h>
+#include <stdatomic.h>
+#include "event_ring.h"
+
+// Message kinds, must match the KIND_* constants in BusMessageListener
+typedef enum {
+    BUS_KIND_STATE = 1 << 0,
+    BUS_KIND_QOS = 1 << 1,
+    BUS_KIND_BUFFERING = 1 << 2,
+    BUS_KIND_LATENCY = 1 << 3,
+    BUS_KIND_WARNING = 1 << 4,
+    BUS_KIND_EOS = 1 << 5,
+    BUS_KIND_ELEMENT = 1 << 6
+} BusKind;
+
+typedef struct _BusFilter {
+    atomic_uint mask;                                  /* BusKind bits somebody listens to */
+    atomic_int min_interval_ms[UI_EVENT_TYPE_COUNT];   /* 0 delivers every message */
+    atomic_llong last_emit_us[UI_EVENT_TYPE_COUNT];
+    atomic_uint suppressed[UI_EVENT_TYPE_COUNT];       /* Rate limited since the last delivered event */
+} BusFilter;
+
+void bus_filter_init (BusFilter *filter);
+void bus_filter_set_mask (BusFilter *filter, guint mask);
+gboolean bus_filter_set_rate_limit (BusFilter *filter, guint kind, gint min_interval_ms);
+gboolean bus_filter_wants (BusFilter *filter, guint kind);
+
+// Returns TRUE if an event of this type may go out now and, if so, stores how many
+// were suppressed before it in values[UI_EVENT_SUPPRESSED]. force skips the rate limit.
+gboolean bus_filter_admit (BusFilter *filter, UiEventType type, gboolean force,
+                           gint64 values[UI_EVENT_VALUE_COUNT]);
+
+// Sync handler for the current pipeline's bus; user_data is the CustomData.
+// Always passes the message on to the async watch.
+GstBusSyncReply bus_filter_sync_handler (GstBus *bus, GstMessage *msg, gpointer user_data);
+
+#endif //GSTREAMER_PIPELINER_1_0_BUS_FILTER_H
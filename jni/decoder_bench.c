@@ -0,0 +1,279 @@
+//
+// decoder_bench.c
+//
+// The benchmark decodes a file as fast as the decoder can go: filesrc ! parsebin !
+// decoder ! fakesink sync=false. Timing starts at the first decoded frame and ends at
+// the last, so plugin loading, demuxer setup and caps negotiation are not counted.
+// CPU time is the whole process's, so the numbers are only meaningful while nothing
+// else is playing.
+
+#include "decoder_bench.h"
+#include <glib/gstdio.h>
+#include <string.h>
+#include <time.h>
+
+GST_DEBUG_CATEGORY_STATIC (bench_debug);
+#define GST_CAT_DEFAULT bench_debug
+
+#define BENCH_TIMEOUT_S 120
+
+const gchar *const decoder_bench_thread_properties[] = {"max-threads", "n-threads", "threads", NULL};
+
+typedef struct _BenchCounters {
+    gint64 frames;
+    gint64 first_wall_ns;
+    gint64 last_wall_ns;
+    gint64 first_cpu_ns;
+    gint64 last_cpu_ns;
+} BenchCounters;
+
+static void
+bench_init_once (void) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (bench_debug, "decoderbench", 0, "Decoder benchmark");
+        g_once_init_leave (&initialized, 1);
+    }
+}
+
+static gint64
+cpu_time_ns (void) {
+    struct timespec ts;
+    clock_gettime (CLOCK_PROCESS_CPUTIME_ID, &ts);
+    return (gint64) ts.tv_sec * G_GINT64_CONSTANT (1000000000) + ts.tv_nsec;
+}
+
+// Factories of the given type whose pads on the given side can take the caps, highest rank first
+static GList *
+list_factories (GstElementFactoryListType type, const gchar *caps_string, GstPadDirection direction) {
+    GstCaps *caps = gst_caps_from_string (caps_string);
+    if (!caps) {
+        GST_WARNING ("Invalid caps %s", caps_string);
+        return NULL;
+    }
+    GList *all = gst_element_factory_list_get_elements (type | GST_ELEMENT_FACTORY_TYPE_MEDIA_VIDEO,
+                                                        GST_RANK_MARGINAL);
+    GList *matching = gst_element_factory_list_filter (all, caps, direction, FALSE);
+    gst_plugin_feature_list_free (all);
+    gst_caps_unref (caps);
+    return g_list_sort (matching, gst_plugin_feature_rank_compare_func);
+}
+
+gchar **
+decoder_bench_candidates (const gchar *caps_string) {
+    bench_init_once ();
+    GList *factories = list_factories (GST_ELEMENT_FACTORY_TYPE_DECODER, caps_string, GST_PAD_SINK);
+    GPtrArray *names = g_ptr_array_new ();
+    for (GList *l = factories; l; l = l->next) {
+        g_ptr_array_add (names, g_strdup (gst_plugin_feature_get_name (GST_PLUGIN_FEATURE (l->data))));
+    }
+    g_ptr_array_add (names, NULL);
+    gst_plugin_feature_list_free (factories);
+    GST_DEBUG ("%u decoders for %s", names->len - 1, caps_string);
+    return (gchar **) g_ptr_array_free (names, FALSE);
+}
+
+gboolean
+decoder_bench_describe (const gchar *factory_name, gint64 *out) {
+    GstElementFactory *factory = gst_element_factory_find (factory_name);
+    if (!factory) {
+        return FALSE;
+    }
+    // Properties live on the element class, which needs the plugin loaded
+    GstPluginFeature *loaded = gst_plugin_feature_load (GST_PLUGIN_FEATURE (factory));
+    gst_object_unref (factory);
+    if (!loaded) {
+        return FALSE;
+    }
+    const gchar *klass = gst_element_factory_get_metadata (GST_ELEMENT_FACTORY (loaded), GST_ELEMENT_METADATA_KLASS);
+    GType type = gst_element_factory_get_element_type (GST_ELEMENT_FACTORY (loaded));
+    GObjectClass *object_class = g_type_class_ref (type);
+
+    out[BENCH_DESCRIBE_RANK] = gst_plugin_feature_get_rank (loaded);
+    out[BENCH_DESCRIBE_THREAD_PROPERTY] = -1;
+    for (gint i = 0; decoder_bench_thread_properties[i]; i++) {
+        if (g_object_class_find_property (object_class, decoder_bench_thread_properties[i])) {
+            out[BENCH_DESCRIBE_THREAD_PROPERTY] = i;
+            break;
+        }
+    }
+    out[BENCH_DESCRIBE_THREAD_TYPE] = g_object_class_find_property (object_class, "thread-type") != NULL;
+    out[BENCH_DESCRIBE_HARDWARE] = klass && strstr (klass, "Hardware") != NULL;
+
+    g_type_class_unref (object_class);
+    gst_object_unref (loaded);
+    return TRUE;
+}
+
+gchar *
+decoder_bench_codec (const gchar *factory_name) {
+    GstElementFactory *factory = gst_element_factory_find (factory_name);
+    if (!factory) {
+        return NULL;
+    }
+    gchar *codec = NULL;
+    const gchar *klass = gst_element_factory_get_metadata (factory, GST_ELEMENT_METADATA_KLASS);
+    if (klass && strstr (klass, "Decoder") && strstr (klass, "Video")) {
+        for (const GList *l = gst_element_factory_get_static_pad_templates (factory); l && !codec; l = l->next) {
+            GstStaticPadTemplate *templ = (GstStaticPadTemplate *) l->data;
+            if (templ->direction != GST_PAD_SINK) {
+                continue;
+            }
+            GstCaps *caps = gst_static_pad_template_get_caps (templ);
+            if (!gst_caps_is_any (caps) && gst_caps_get_size (caps) > 0) {
+                codec = g_strdup (gst_structure_get_name (gst_caps_get_structure (caps, 0)));
+            }
+            gst_caps_unref (caps);
+        }
+    }
+    gst_object_unref (factory);
+    return codec;
+}
+
+// Plays the pipeline until EOS; FALSE on error, timeout or failure to start
+static gboolean
+run_to_eos (GstElement *pipeline) {
+    gboolean ok = FALSE;
+    if (gst_element_set_state (pipeline, GST_STATE_PLAYING) != GST_STATE_CHANGE_FAILURE) {
+        GstBus *bus = gst_element_get_bus (pipeline);
+        GstMessage *msg = gst_bus_timed_pop_filtered (bus, BENCH_TIMEOUT_S * GST_SECOND,
+                                                      GST_MESSAGE_EOS | GST_MESSAGE_ERROR);
+        if (!msg) {
+            GST_WARNING ("Timed out after %d s", BENCH_TIMEOUT_S);
+        } else if (GST_MESSAGE_TYPE (msg) == GST_MESSAGE_ERROR) {
+            GError *err = NULL;
+            gst_message_parse_error (msg, &err, NULL);
+            GST_INFO ("Failed: %s", err ? err->message : "unknown error");
+            g_clear_error (&err);
+        } else {
+            ok = TRUE;
+        }
+        if (msg) {
+            gst_message_unref (msg);
+        }
+        gst_object_unref (bus);
+    }
+    gst_element_set_state (pipeline, GST_STATE_NULL);
+    return ok;
+}
+
+gboolean
+decoder_bench_prepare_clip (const gchar *caps_string, gint width, gint height, gint frames,
+                            const gchar *path) {
+    bench_init_once ();
+    GList *encoders = list_factories (GST_ELEMENT_FACTORY_TYPE_ENCODER, caps_string, GST_PAD_SRC);
+    // A parser converts whatever stream format the encoder picks into one the muxer takes
+    GList *parsers = list_factories (GST_ELEMENT_FACTORY_TYPE_PARSER, caps_string, GST_PAD_SINK);
+    const gchar *parser = parsers ? gst_plugin_feature_get_name (GST_PLUGIN_FEATURE (parsers->data)) : "identity";
+    gboolean ok = FALSE;
+    for (GList *l = encoders; l && !ok; l = l->next) {
+        const gchar *encoder = gst_plugin_feature_get_name (GST_PLUGIN_FEATURE (l->data));
+        // A moving, textured pattern: a static frame would make every decoder look fast
+        gchar *launch = g_strdup_printf (
+                "videotestsrc num-buffers=%d pattern=smpte horizontal-speed=4 ! "
+                "video/x-raw,width=%d,height=%d,framerate=30/1 ! videoconvert ! %s ! %s ! %s ! "
+                "matroskamux ! filesink location=\"%s\"",
+                frames, width, height, encoder, caps_string, parser, path);
+        GError *error = NULL;
+        GstElement *pipeline = gst_parse_launch (launch, &error);
+        if (error) {
+            GST_INFO ("Cannot encode with %s: %s", encoder, error->message);
+            g_clear_error (&error);
+        }
+        if (pipeline) {
+            gint64 start_us = g_get_monotonic_time ();
+            ok = run_to_eos (pipeline);
+            gst_object_unref (pipeline);
+            if (ok) {
+                GST_INFO ("Encoded %d frames of %s %dx%d with %s in %" G_GINT64_FORMAT " ms", frames,
+                          caps_string, width, height, encoder, (g_get_monotonic_time () - start_us) / 1000);
+            } else {
+                g_unlink (path);
+            }
+        }
+        g_free (launch);
+    }
+    gst_plugin_feature_list_free (encoders);
+    gst_plugin_feature_list_free (parsers);
+    if (!ok) {
+        GST_WARNING ("No working encoder for %s, cannot make a benchmark clip", caps_string);
+    }
+    return ok;
+}
+
+static GstPadProbeReturn
+count_frame_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    BenchCounters *counters = (BenchCounters *) user_data;
+    gint64 wall_ns = g_get_monotonic_time () * 1000;
+    gint64 cpu_ns = cpu_time_ns ();
+    if (counters->frames++ == 0) {
+        counters->first_wall_ns = wall_ns;
+        counters->first_cpu_ns = cpu_ns;
+    }
+    counters->last_wall_ns = wall_ns;
+    counters->last_cpu_ns = cpu_ns;
+    return GST_PAD_PROBE_OK;
+}
+
+gboolean
+decoder_bench_run (const gchar *path, const gchar *decoder, gint64 *out) {
+    bench_init_once ();
+    gchar *launch = g_strdup_printf ("filesrc location=\"%s\" ! parsebin ! %s ! fakesink name=bench_sink sync=false",
+                                     path, decoder);
+    GError *error = NULL;
+    GstElement *pipeline = gst_parse_launch (launch, &error);
+    g_free (launch);
+    if (error) {
+        GST_INFO ("Cannot benchmark %s: %s", decoder, error->message);
+        g_clear_error (&error);
+        if (pipeline) {
+            gst_object_unref (pipeline);
+        }
+        return FALSE;
+    }
+
+    BenchCounters counters = {0};
+    GstElement *sink = gst_bin_get_by_name (GST_BIN (pipeline), "bench_sink");
+    GstPad *pad = gst_element_get_static_pad (sink, "sink");
+    gst_pad_add_probe (pad, GST_PAD_PROBE_TYPE_BUFFER, count_frame_probe, &counters, NULL);
+    gst_object_unref (pad);
+    gst_object_unref (sink);
+
+    // Streaming threads are joined by the switch to NULL, so counters is safe to read after
+    gboolean ok = run_to_eos (pipeline) && counters.frames > 1;
+    gst_object_unref (pipeline);
+
+    out[BENCH_RESULT_FRAMES] = counters.frames;
+    out[BENCH_RESULT_WALL_NS] = counters.last_wall_ns - counters.first_wall_ns;
+    out[BENCH_RESULT_CPU_NS] = counters.last_cpu_ns - counters.first_cpu_ns;
+    GST_INFO ("%s: %" G_GINT64_FORMAT " frames in %" G_GINT64_FORMAT " ms, cpu %" G_GINT64_FORMAT " ms%s",
+              decoder, out[BENCH_RESULT_FRAMES], out[BENCH_RESULT_WALL_NS] / 1000000,
+              out[BENCH_RESULT_CPU_NS] / 1000000, ok ? "" : " (failed)");
+    return ok;
+}
+
+void
+decoder_bench_promote (const gchar *factory_name) {
+    bench_init_once ();
+    gchar *codec = decoder_bench_codec (factory_name);
+    if (!codec) {
+        return;
+    }
+    GstElementFactory *winner = gst_element_factory_find (factory_name);
+    GList *factories = list_factories (GST_ELEMENT_FACTORY_TYPE_DECODER, codec, GST_PAD_SINK);
+    guint best_other = 0;
+    for (GList *l = factories; l; l = l->next) {
+        if (l->data != (gpointer) winner) {
+            best_other = MAX (best_other, gst_plugin_feature_get_rank (GST_PLUGIN_FEATURE (l->data)));
+        }
+    }
+    if (winner && gst_plugin_feature_get_rank (GST_PLUGIN_FEATURE (winner)) <= best_other) {
+        gst_plugin_feature_set_rank (GST_PLUGIN_FEATURE (winner), best_other + 1);
+        GST_INFO ("Promoted %s to rank %u for %s", factory_name, best_other + 1, codec);
+    }
+    gst_plugin_feature_list_free (factories);
+    if (winner) {
+        gst_object_unref (winner);
+    }
+    g_free (codec);
+}
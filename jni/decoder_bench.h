@@ -0,0 +1,53 @@
+//
+// decoder_bench.h
+//
+// Decoder selection support: lists the video decoders the registry has for a codec,
+// encodes a short synthetic clip to benchmark them on, times one decoder
+// configuration on a clip, and promotes a winner's rank so auto-plugging bins
+// (decodebin, playbin, uridecodebin) pick it too. All calls are synchronous and
+// meant for a background thread.
+
+#ifndef GSTREAMER_PIPELINER_1_0_DECODER_BENCH_H
+#define GSTREAMER_PIPELINER_1_0_DECODER_BENCH_H
+
+#include <gst/gst.h>
+
+// Layout returned by decoder_bench_describe, must match DecoderTuner.java
+enum {
+    BENCH_DESCRIBE_RANK,
+    BENCH_DESCRIBE_THREAD_PROPERTY,  /* Index into decoder_bench_thread_properties, -1 if none */
+    BENCH_DESCRIBE_THREAD_TYPE,      /* 1 if the decoder has a thread-type property (libav) */
+    BENCH_DESCRIBE_HARDWARE,         /* 1 if the factory's klass says Hardware */
+    BENCH_DESCRIBE_COUNT
+};
+
+// Layout returned by decoder_bench_run, must match DecoderTuner.java
+enum {
+    BENCH_RESULT_FRAMES,             /* Frames that reached the sink */
+    BENCH_RESULT_WALL_NS,            /* First to last frame */
+    BENCH_RESULT_CPU_NS,             /* Process CPU time over the same span */
+    BENCH_RESULT_COUNT
+};
+
+// Names of the properties that set a decoder's thread count, NULL terminated
+extern const gchar *const decoder_bench_thread_properties[];
+
+// Decoder factories accepting the given caps (e.g. "video/x-h264"), highest rank first,
+// NULL terminated; free with g_strfreev
+gchar **decoder_bench_candidates (const gchar *caps_string);
+gboolean decoder_bench_describe (const gchar *factory_name, gint64 *out);
+// Media type a video decoder factory accepts, e.g. "video/x-h264"; NULL if not a video decoder
+gchar *decoder_bench_codec (const gchar *factory_name);
+
+// Encodes frames of a moving test pattern to a Matroska file with the first encoder
+// that produces the given caps
+gboolean decoder_bench_prepare_clip (const gchar *caps_string, gint width, gint height, gint frames,
+                                     const gchar *path);
+// Decodes the clip (any container parsebin understands) with the given decoder
+// description, e.g. "avdec_h264 max-threads=4", as fast as possible
+gboolean decoder_bench_run (const gchar *path, const gchar *decoder, gint64 *out);
+
+// Raises the factory's rank above every other decoder for the same codec
+void decoder_bench_promote (const gchar *factory_name);
+
+#endif //GSTREAMER_PIPELINER_1_0_DECODER_BENCH_H
@@ -0,0 +1,93 @@
+//
+// event_ring.c
+//
+// Per-slot sequence numbers (Vyukov's bounded queue): a producer claims a slot with
+// one CAS on enqueue_pos, fills it and publishes it by bumping the slot sequence.
+// The consumer only reads slots whose sequence says they are published.
+
+#include "event_ring.h"
+#include <string.h>
+
+#define EVENT_RING_MASK (EVENT_RING_SIZE - 1)
+
+void
+event_ring_init (EventRing *ring) {
+    for (size_t i = 0; i < EVENT_RING_SIZE; i++) {
+        atomic_init (&ring->slots[i].sequence, i);
+        ring->slots[i].event.source = NULL;
+        ring->slots[i].event.text = NULL;
+    }
+    atomic_init (&ring->enqueue_pos, 0);
+    ring->dequeue_pos = 0;
+    atomic_init (&ring->drain_scheduled, 0);
+    atomic_init (&ring->dropped, 0);
+}
+
+// Queue an event; returns FALSE and drops it if the ring is full. values may be NULL.
+gboolean
+event_ring_push_full (EventRing *ring, UiEventType type, const gchar *source,
+                      const gchar *text, const gint64 values[UI_EVENT_VALUE_COUNT]) {
+    size_t pos = atomic_load_explicit (&ring->enqueue_pos, memory_order_relaxed);
+    EventRingSlot *slot;
+    for (;;) {
+        slot = &ring->slots[pos & EVENT_RING_MASK];
+        size_t sequence = atomic_load_explicit (&slot->sequence, memory_order_acquire);
+        intptr_t diff = (intptr_t) sequence - (intptr_t) pos;
+        if (diff == 0) {
+            if (atomic_compare_exchange_weak_explicit (&ring->enqueue_pos, &pos, pos + 1,
+                                                       memory_order_relaxed, memory_order_relaxed)) {
+                break;
+            }
+        } else if (diff < 0) {
+            atomic_fetch_add_explicit (&ring->dropped, 1, memory_order_relaxed);
+            return FALSE;
+        } else {
+            pos = atomic_load_explicit (&ring->enqueue_pos, memory_order_relaxed);
+        }
+    }
+
+    slot->event.type = type;
+    slot->event.timestamp_us = g_get_monotonic_time ();
+    slot->event.source = g_strdup (source);
+    slot->event.text = g_strdup (text);
+    if (values) {
+        memcpy (slot->event.values, values, sizeof (slot->event.values));
+    } else {
+        memset (slot->event.values, 0, sizeof (slot->event.values));
+    }
+    atomic_store_explicit (&slot->sequence, pos + 1, memory_order_release);
+    return TRUE;
+}
+
+gboolean
+event_ring_push (EventRing *ring, UiEventType type, const gchar *text) {
+    return event_ring_push_full (ring, type, NULL, text, NULL);
+}
+
+// Take the oldest published event; the caller owns out->source and out->text. Single consumer only.
+gboolean
+event_ring_pop (EventRing *ring, UiEvent *out) {
+    size_t pos = ring->dequeue_pos;
+    EventRingSlot *slot = &ring->slots[pos & EVENT_RING_MASK];
+    size_t sequence = atomic_load_explicit (&slot->sequence, memory_order_acquire);
+    if (sequence != pos + 1) {
+        return FALSE;
+    }
+
+    *out = slot->event;
+    slot->event.source = NULL;
+    slot->event.text = NULL;
+    atomic_store_explicit (&slot->sequence, pos + EVENT_RING_SIZE, memory_order_release);
+    ring->dequeue_pos = pos + 1;
+    return TRUE;
+}
+
+// Free anything still queued. Only safe once no producer can run.
+void
+event_ring_clear (EventRing *ring) {
+    UiEvent event;
+    while (event_ring_pop (ring, &event)) {
+        g_free (event.source);
+        g_free (event.text);
+    }
+}
@@ -0,0 +1,68 @@
+//
+// event_ring.h
+//
+// Bounded multi-producer, single-consumer ring of UI events. Producers (the engine
+// thread, streaming threads, the UI thread) never block; the engine thread drains
+// the ring and hands the whole batch to Java in one upcall.
+
+#ifndef GSTREAMER_PIPELINER_1_0_EVENT_RING_H
+#define GSTREAMER_PIPELINER_1_0_EVENT_RING_H
+
+#include <glib.h>
+#include <stdatomic.h>
+
+#define EVENT_RING_SIZE 256   /* Power of two */
+
+// Event types, must match the EVENT_* constants in BusListenerSet
+typedef enum {
+    UI_EVENT_MESSAGE = 0,
+    UI_EVENT_ERROR = 1,
+    UI_EVENT_STATE = 2,
+    UI_EVENT_INITIALIZED = 3,
+    UI_EVENT_QOS = 4,
+    UI_EVENT_BUFFERING = 5,
+    UI_EVENT_LATENCY = 6,
+    UI_EVENT_WARNING = 7,
+    UI_EVENT_EOS = 8,
+    UI_EVENT_ELEMENT = 9,
+    UI_EVENT_TYPE_COUNT
+} UiEventType;
+
+// Numeric payload per event. Layout by type:
+//   STATE      old state, new state, pending state (GstState)
+//   QOS        processed, dropped, jitter ns, proportion x 1e6, live
+//   BUFFERING  percent, mode (GstBufferingMode), avg in B/s, avg out B/s, left ms
+//   LATENCY    min ns, max ns (-1 if unlimited), live
+// The last slot always holds how many events of the type were rate limited before this one.
+#define UI_EVENT_VALUE_COUNT 6
+#define UI_EVENT_SUPPRESSED (UI_EVENT_VALUE_COUNT - 1)
+
+typedef struct _UiEvent {
+    gint type;
+    gint64 timestamp_us;   /* g_get_monotonic_time () when queued */
+    gchar *source;         /* Owned name of the posting element, may be NULL */
+    gchar *text;           /* Owned, may be NULL */
+    gint64 values[UI_EVENT_VALUE_COUNT];
+} UiEvent;
+
+typedef struct _EventRingSlot {
+    atomic_size_t sequence;
+    UiEvent event;
+} EventRingSlot;
+
+typedef struct _EventRing {
+    EventRingSlot slots[EVENT_RING_SIZE];
+    atomic_size_t enqueue_pos;
+    size_t dequeue_pos;            /* Consumer only */
+    atomic_int drain_scheduled;    /* Set while a drain is queued on the engine context */
+    atomic_uint dropped;           /* Events lost because the ring was full */
+} EventRing;
+
+void event_ring_init (EventRing *ring);
+gboolean event_ring_push (EventRing *ring, UiEventType type, const gchar *text);
+gboolean event_ring_push_full (EventRing *ring, UiEventType type, const gchar *source,
+                               const gchar *text, const gint64 values[UI_EVENT_VALUE_COUNT]);
+gboolean event_ring_pop (EventRing *ring, UiEvent *out);
+void event_ring_clear (EventRing *ring);
+
+#endif //GSTREAMER_PIPELINER_1_0_EVENT_RING_H
@@ -9,142 +9,664 @@
 #include <gst/video/video.h>
 #include <gst/gst.h>
 #include <android/log.h>
+#include <string.h>
+#include <malloc.h>
+#include <unistd.h>
+#include "perf_tracer.h"
 
 // GLOBAL VARIABLES
-pthread_t gst_app_thread;
 GST_DEBUG_CATEGORY_STATIC (debug_category);
 #define GST_CAT_DEFAULT debug_category
 
+#define FALLBACK_PIPELINE "videotestsrc pattern=ball ! videoconvert ! textoverlay text=FALLBACK font-desc=28 ! autovideosink"
+
+// Compositor of a mosaic pipeline, must match Mosaic.MIXER
+#define MOSAIC_MIXER "mosaic"
+// Shown in a tile whose new branch failed to build, so the mixer is never left waiting on it
+#define MOSAIC_EMPTY_TILE "videotestsrc pattern=black ! video/x-raw,width=64,height=36,framerate=5/1 ! queue"
+
+// Pipeline build or switch queued onto the worker thread
+typedef struct _SwapRequest {
+    CustomData *data;
+    gchar *launch_string;
+    gint64 requested_us;
+} SwapRequest;
+
 // FORWARD DECLARATIONS
 static void error_cb (GstBus * bus, GstMessage * msg, CustomData * data);
 static void state_changed_cb (GstBus * bus, GstMessage * msg, CustomData * data);
+static void latency_cb (GstBus * bus, GstMessage * msg, CustomData * data);
+static void cancel_tile_swaps (CustomData *data);
 
-// PRIVATE WORKER THREAD FUNCTION
+// Log an error and push it to the UI
+static void
+report_error (CustomData *data, const gchar *message) {
+    GST_ERROR("%s", message);
+    set_ui_error (message, data);
+}
 
-// Main method for native code
-static void *
-app_function (void *userdata)
-{
-    GstBus *bus;
-    CustomData *data = (CustomData *) userdata;
-    GSource *bus_source;
-    GError *error = NULL;
+static const gchar *
+current_launch_string (CustomData *data) {
+    return data->launch_string && *data->launch_string ? data->launch_string : FALLBACK_PIPELINE;
+}
 
-    GST_DEBUG_CATEGORY_INIT (debug_category, "pipeliner", 0, "Pipeliner");
-    gst_debug_set_threshold_for_name ("pipeliner", GST_LEVEL_DEBUG);
-    
-    // Set GStreamer debug level to maximum
-    gst_debug_set_default_threshold(GST_LEVEL_LOG);
-    
-    GST_DEBUG ("Worker thread started. CustomData at %p", data);
-
-    // Initialize error handling
-    pthread_mutex_init(&data->error_mutex, NULL);
-    data->error_message = NULL;
-
-    data->context = g_main_context_new ();
-    g_main_context_push_thread_default (data->context);
-
-    // Build gstreamer pipeline
-    const gchar *launch_string = NULL;
-    if (saved_pipeline_string && *saved_pipeline_string) {
-        launch_string = saved_pipeline_string;
-        GST_INFO("Using custom pipeline %s", launch_string);
-    } else {
-        // Fallback to safe pipeline
-        launch_string = "videotestsrc pattern=ball ! videoconvert ! textoverlay text=FALLBACK font-desc=28 ! autovideosink";
-        GST_INFO("Using default fallback pipeline %s", launch_string);
+// Heap in use by malloc. Other threads allocate at the same time, so deltas are estimates.
+static gint64
+heap_in_use (void) {
+    struct mallinfo info = mallinfo ();
+    return (gint64) info.uordblks;
+}
+
+// CPU time of one of our threads, -1 once it is gone. /proc has clock tick resolution
+// (usually 10 ms), plenty for per-pipeline figures.
+static gint64
+thread_cpu_ns (pid_t tid) {
+    gchar path[64];
+    gchar *contents = NULL;
+    g_snprintf (path, sizeof (path), "/proc/self/task/%d/stat", (gint) tid);
+    if (!g_file_get_contents (path, &contents, NULL, NULL)) {
+        return -1;
+    }
+
+    // The thread name may contain spaces: count fields from after it, state is field 3
+    gint64 result = -1;
+    gchar *fields = strrchr (contents, ')');
+    if (fields && fields[1] == ' ') {
+        gchar **parts = g_strsplit (fields + 2, " ", 0);
+        if (g_strv_length (parts) > 12) {
+            gint64 ticks = g_ascii_strtoll (parts[11], NULL, 10) + g_ascii_strtoll (parts[12], NULL, 10);  /* utime + stime */
+            result = ticks * (1000000000 / sysconf (_SC_CLK_TCK));
+        }
+        g_strfreev (parts);
+    }
+    g_free (contents);
+    return result;
+}
+
+// Called on the streaming thread itself. GStreamer reuses pooled threads across
+// pipelines, so only the CPU spent between entering and leaving this one counts.
+static void
+record_stream_thread (CustomData *data, gboolean entering) {
+    pid_t tid = gettid ();
+    gint64 cpu_ns = thread_cpu_ns (tid);
+    if (cpu_ns < 0) return;
+
+    g_mutex_lock (&data->threads_lock);
+    StreamThread *thread = NULL;
+    for (guint i = 0; i < data->stream_threads->len; i++) {
+        if (g_array_index (data->stream_threads, StreamThread, i).tid == tid) {
+            thread = &g_array_index (data->stream_threads, StreamThread, i);
+            break;
+        }
+    }
+    if (entering) {
+        if (!thread) {
+            StreamThread added = { .tid = tid };
+            g_array_append_val (data->stream_threads, added);
+            thread = &g_array_index (data->stream_threads, StreamThread, data->stream_threads->len - 1);
+        }
+        if (!thread->running) {
+            thread->running = TRUE;
+            thread->enter_cpu_ns = cpu_ns;
+        }
+    } else if (thread && thread->running) {
+        thread->running = FALSE;
+        thread->cpu_ns += MAX (0, cpu_ns - thread->enter_cpu_ns);
+    }
+    g_mutex_unlock (&data->threads_lock);
+}
+
+// Streaming threads post their stream status from inside the thread as they enter and
+// leave their loop; everything else goes on to the bus filter
+static GstBusSyncReply
+app_sync_handler (GstBus *bus, GstMessage *msg, gpointer user_data) {
+    if (recorder_handle_message (&((CustomData *) user_data)->recorder, msg)) {
+        return GST_BUS_DROP;
+    }
+    // Stamped as posted, not when the bus watch gets to it
+    if (GST_MESSAGE_TYPE (msg) == GST_MESSAGE_STATE_CHANGED && GST_IS_PIPELINE (GST_MESSAGE_SRC (msg))
+        && !GST_OBJECT_PARENT (GST_MESSAGE_SRC (msg))) {
+        GstState new_state;
+        gst_message_parse_state_changed (msg, NULL, &new_state, NULL);
+        startup_timeline_mark_state (&((CustomData *) user_data)->timeline, new_state, g_get_monotonic_time ());
+    }
+    if (GST_MESSAGE_TYPE (msg) == GST_MESSAGE_STREAM_STATUS) {
+        GstStreamStatusType type;
+        gst_message_parse_stream_status (msg, &type, NULL);
+        if (type == GST_STREAM_STATUS_TYPE_ENTER || type == GST_STREAM_STATUS_TYPE_LEAVE) {
+            record_stream_thread ((CustomData *) user_data, type == GST_STREAM_STATUS_TYPE_ENTER);
+        }
+    }
+    return bus_filter_sync_handler (bus, msg, user_data);
+}
+
+// Runs on a GStreamer pool thread so a slow teardown (RTSP, network sources) never blocks a switch
+static void
+teardown_pipeline_async (GstElement *pipeline, gpointer user_data) {
+    gint64 start = g_get_monotonic_time ();
+    gst_element_set_state (pipeline, GST_STATE_NULL);
+    GST_DEBUG("Old pipeline %p reached NULL in %" G_GINT64_FORMAT " ms", pipeline,
+              (g_get_monotonic_time () - start) / 1000);
+}
+
+typedef struct _FirstFrameWatch {
+    PoolTakeResult source;
+    gint64 from_us;
+} FirstFrameWatch;
+
+static GstPadProbeReturn
+first_frame_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    FirstFrameWatch *watch = (FirstFrameWatch *) user_data;
+    preroll_pool_record_first_frame (watch->source, g_get_monotonic_time () - watch->from_us);
+    return GST_PAD_PROBE_REMOVE;
+}
+
+// Time to first frame is measured at the video sink, from the moment the pipeline was requested
+static void
+watch_first_frame (GstElement *video_sink, PoolTakeResult source, gint64 from_us) {
+    if (!video_sink) return;
+    GstPad *pad = gst_element_get_static_pad (video_sink, "sink");
+    if (!pad) return;
+    FirstFrameWatch *watch = g_new0 (FirstFrameWatch, 1);
+    watch->source = source;
+    watch->from_us = from_us;
+    gst_pad_add_probe (pad, GST_PAD_PROBE_TYPE_BUFFER, first_frame_probe, watch, g_free);
+    gst_object_unref (pad);
+}
+
+// Put back the video sink of a hot pooled pipeline. Call with overlay_mutex held.
+static void
+attach_pooled_sink (CustomData *data) {
+    GST_DEBUG("Attaching pooled pipeline to native window %p", data->native_window);
+    data->video_sink = preroll_pool_attach (data->pipeline, &data->pooled, (guintptr) data->native_window);
+    watch_first_frame (data->video_sink, POOL_HIT_HOT, data->switch_requested_us);
+    startup_timeline_watch_sink (&data->timeline, data->video_sink);
+    watchdog_watch_sink (&data->watchdog, data->video_sink);
+    memset (&data->pooled, 0, sizeof (data->pooled));
+}
+
+static gboolean
+attach_pooled_sink_cb (gpointer user_data) {
+    CustomData *data = (CustomData *) user_data;
+    gboolean attached = FALSE;
+
+    pthread_mutex_lock(&data->overlay_mutex);
+    if (data->pooled.video_sink && data->native_window) {
+        attach_pooled_sink (data);
+        attached = TRUE;
+    }
+    pthread_mutex_unlock(&data->overlay_mutex);
+
+    // The surface arrived before the sink existed, so report readiness now
+    if (attached) {
+        check_initialization_complete (get_jni_env (), data);
+    }
+    return G_SOURCE_REMOVE;
+}
+
+// Detach the current pipeline from the engine and hand it off for teardown
+static void
+release_pipeline (CustomData *data) {
+    cancel_tile_swaps (data);
+    preroll_pool_release (&data->pooled);
+    if (!data->pipeline) return;
+
+    GstElement *old_pipeline = data->pipeline;
+    GstBus *bus = gst_element_get_bus (old_pipeline);
+    if (data->bus_source) {
+        g_source_destroy (data->bus_source);
+        g_source_unref (data->bus_source);
+        data->bus_source = NULL;
+    }
+    gst_bus_set_sync_handler (bus, NULL, NULL, NULL);
+    g_signal_handlers_disconnect_by_data (bus, data);
+    gst_object_unref (bus);
+    recorder_abort (&data->recorder);
+    watchdog_detach (&data->watchdog);
+    startup_timeline_detach (&data->timeline);
+
+    pthread_mutex_lock(&data->overlay_mutex);
+    GstElement *old_sink = data->video_sink;
+    data->video_sink = NULL;
+    data->pipeline = NULL;
+    pthread_mutex_unlock(&data->overlay_mutex);
+
+    // The window can only feed one producer: release it now, synchronously, so the
+    // new sink can bind it. The rest of the old pipeline goes down in the background.
+    if (old_sink) {
+        gst_element_set_locked_state (old_sink, TRUE);
+        gst_element_set_state (old_sink, GST_STATE_NULL);
+        gst_object_unref (old_sink);
     }
+    gst_element_call_async (old_pipeline, teardown_pipeline_async, NULL, NULL);
+    gst_object_unref (old_pipeline);
+}
 
-    data->pipeline = gst_parse_launch (launch_string, &error);
+static void
+watchdog_notify (const gchar *message, gpointer user_data) {
+    set_ui_message (message, (CustomData *) user_data);
+}
+
+// Make a pipeline the current one, taking it from the preroll pool if it is warm there
+// and parsing it otherwise. Called on the worker thread only.
+static gboolean
+install_pipeline (CustomData *data, const gchar *launch_string, gint64 requested_us) {
+    GError *error = NULL;
+    PooledPipeline pooled;
+    PoolTakeResult source = preroll_pool_take (launch_string, &pooled);
+    GstElement *pipeline = pooled.pipeline;
+    gint64 build_bytes = 0;
+    pooled.pipeline = NULL;
+    if (!pipeline) {
+        gint64 heap_before = heap_in_use ();
+        pipeline = gst_parse_launch (launch_string, &error);
+        build_bytes = MAX (0, heap_in_use () - heap_before);
+    }
+    gint64 built_us = g_get_monotonic_time ();
     if (error) {
         gchar *message = g_strdup_printf ("Unable to build pipeline: %s", error->message);
-        GST_ERROR("%s", message);
-        
-        // Store error in mutex-protected buffer AND call UI directly
-        pthread_mutex_lock(&data->error_mutex);
-        if (data->error_message) {
-            g_free(data->error_message);
-        }
-        data->error_message = g_strdup(message);
-        pthread_mutex_unlock(&data->error_mutex);
-        
-        set_ui_message (message, data);
+        report_error (data, message);
         g_free (message);
         g_clear_error (&error);
-        
-        // Cleanup and exit - pipeline is NULL, can't continue
-        // NOTE: Do NOT destroy error_mutex here - it must live as long as CustomData
-        data->pipeline = NULL;
-        g_main_context_pop_thread_default (data->context);
-        g_main_context_unref (data->context);
-        data->context = NULL;
-        return NULL;
+        if (pipeline) {
+            gst_object_unref (pipeline);
+        }
+        return FALSE;
     }
 
-    gst_element_set_state (data->pipeline, GST_STATE_READY);
-
-    data->video_sink = gst_bin_get_by_interface (GST_BIN (data->pipeline), GST_TYPE_VIDEO_OVERLAY);
-    if (!data->video_sink) {
-        GST_ERROR("Could not find video sink in pipeline");
-    } else {
-        // If we already have a native window (e.g., after reinit), apply it now
-        if (data->native_window) {
-            GST_DEBUG("Applying existing native window %p to new pipeline", data->native_window);
-            gst_video_overlay_set_window_handle (GST_VIDEO_OVERLAY (data->video_sink), (guintptr) data->native_window);
-        }
+    release_pipeline (data);
+    // The tracer follows one pipeline: the activity's, not the engine's background ones
+    if (!data->handle) {
+        perf_tracer_track (pipeline);
     }
+    g_mutex_lock (&data->threads_lock);
+    g_array_set_size (data->stream_threads, 0);
+    g_mutex_unlock (&data->threads_lock);
+    data->installed_us = g_get_monotonic_time ();
+    data->build_bytes = build_bytes;
+    startup_timeline_begin (&data->timeline, pipeline, requested_us, built_us, source);
 
-    bus = gst_element_get_bus (data->pipeline);
-    bus_source = gst_bus_create_watch (bus);
-    g_source_set_callback (bus_source, (GSourceFunc) gst_bus_async_signal_func, NULL, NULL);
-    g_source_attach (bus_source, data->context);
-    g_source_unref (bus_source);
+    GstBus *bus = gst_element_get_bus (pipeline);
+    data->bus_source = gst_bus_create_watch (bus);
+    g_source_set_callback (data->bus_source, (GSourceFunc) gst_bus_async_signal_func, NULL, NULL);
+    g_source_attach (data->bus_source, data->context);
     g_signal_connect (G_OBJECT (bus), "message::error", (GCallback) error_cb, data);
     g_signal_connect (G_OBJECT (bus), "message::state-changed", (GCallback) state_changed_cb, data);
+    g_signal_connect (G_OBJECT (bus), "message::latency", (GCallback) latency_cb, data);
+    gst_bus_set_sync_handler (bus, app_sync_handler, data, NULL);
     gst_object_unref (bus);
+    data->switch_requested_us = requested_us;
 
-    GST_DEBUG("Entering main loop... (CustomData:%p)", data);
-    data->main_loop = g_main_loop_new (data->context, FALSE);
-    
-    // NOTE: Do NOT call check_initialization_complete here
-    // It makes JNI calls which can only be done from the UI thread.
-    // It will be called from gst_app_set_window when the surface is ready.
-    
-    g_main_loop_run (data->main_loop);
-    GST_DEBUG("Exiting main loop... (CustomData:%p)", data);
-
-    // More cleanup...
-    if (data->pipeline) {
-        gst_element_set_state (data->pipeline, GST_STATE_NULL);
+    if (source == POOL_HIT_HOT) {
+        // Already streaming into a fakesink: the video sink goes back in once there is a window
+        watchdog_attach (&data->watchdog, pipeline, data->context, watchdog_notify, data);
+        pthread_mutex_lock(&data->overlay_mutex);
+        data->pipeline = pipeline;
+        data->pooled = pooled;
+        if (data->native_window) {
+            attach_pooled_sink (data);
+        }
+        pthread_mutex_unlock(&data->overlay_mutex);
+        if (data->target_state != GST_STATE_PLAYING) {
+            gst_element_set_state (pipeline, data->target_state);
+        }
+        return TRUE;
+    }
+
+    GstElement *video_sink = gst_bin_get_by_interface (GST_BIN (pipeline), GST_TYPE_VIDEO_OVERLAY);
+    if (!video_sink) {
+        GST_ERROR("Could not find video sink in pipeline");
+    }
+
+    // Re-bind the existing native window, if any, to the new sink
+    pthread_mutex_lock(&data->overlay_mutex);
+    data->pipeline = pipeline;
+    data->video_sink = video_sink;
+    if (video_sink && data->native_window) {
+        GST_DEBUG("Applying existing native window %p to new pipeline", data->native_window);
+        gst_video_overlay_set_window_handle (GST_VIDEO_OVERLAY (video_sink), (guintptr) data->native_window);
+    }
+    pthread_mutex_unlock(&data->overlay_mutex);
+    watch_first_frame (video_sink, source, requested_us);
+    startup_timeline_watch_sink (&data->timeline, video_sink);
+    watchdog_attach (&data->watchdog, pipeline, data->context, watchdog_notify, data);
+
+    gst_element_set_state (pipeline, GST_STATE_READY);
+    if (data->target_state > GST_STATE_READY) {
+        gst_element_set_state (pipeline, data->target_state);
     }
+    return TRUE;
+}
+
+// Record and report the duration of the pending switch
+static void
+finish_switch (CustomData *data) {
+    data->last_switch_us = g_get_monotonic_time () - data->switch_started_us;
+    data->switch_started_us = 0;
+    gchar *latency = g_strdup_printf ("Switched pipeline in %" G_GINT64_FORMAT " ms",
+                                      data->last_switch_us / 1000);
+    GST_INFO("%s", latency);
+    __android_log_print (ANDROID_LOG_INFO, "GStreamer", "%s", latency);
+    set_ui_message (latency, data);
+    g_free (latency);
+}
+
+static gboolean
+swap_pipeline_cb (gpointer user_data) {
+    SwapRequest *request = (SwapRequest *) user_data;
+    CustomData *data = request->data;
+
+    data->switch_started_us = request->requested_us;
+    if (!install_pipeline (data, request->launch_string, request->requested_us)) {
+        data->switch_started_us = 0;
+    } else if (data->target_state <= GST_STATE_READY
+               || (GST_STATE (data->pipeline) >= data->target_state && GST_STATE_PENDING (data->pipeline) == GST_STATE_VOID_PENDING)) {
+        // Nothing left to wait for: not prerolling, or a hot pooled pipeline already running
+        finish_switch (data);
+    }
+    return G_SOURCE_REMOVE;
+}
+
+static void
+swap_request_free (gpointer user_data) {
+    SwapRequest *request = (SwapRequest *) user_data;
+    g_free (request->launch_string);
+    g_free (request);
+}
+
+typedef struct _StateRequest {
+    CustomData *data;
+    GstState state;
+} StateRequest;
+
+static gboolean
+set_state_cb (gpointer user_data) {
+    StateRequest *request = (StateRequest *) user_data;
+    if (request->data->pipeline) {
+        gst_element_set_state (request->data->pipeline, request->state);
+    }
+    return G_SOURCE_REMOVE;
+}
+
+static gboolean
+start_pipeline_cb (gpointer user_data) {
+    SwapRequest *request = (SwapRequest *) user_data;
+    // On failure the worker keeps going, so a corrected pipeline can be swapped in later
+    install_pipeline (request->data, request->launch_string, request->requested_us);
+    return G_SOURCE_REMOVE;
+}
+
+typedef struct _StopRequest {
+    CustomData *data;
+    GMutex lock;
+    GCond cond;
+    gboolean done;
+} StopRequest;
 
-    if (data->video_sink) {
-        gst_object_unref (data->video_sink);
-        data->video_sink = NULL;
+// Unbind from the worker: after this nothing of data is left on its context
+static gboolean
+stop_cb (gpointer user_data) {
+    StopRequest *request = (StopRequest *) user_data;
+    CustomData *data = request->data;
+
+    GST_DEBUG("Stopping pipeline (CustomData:%p)", data);
+    // No more drains: whatever is still queued has nobody to go to
+    atomic_store (&data->events.drain_scheduled, 1);
+    GSource *drain = atomic_exchange (&data->drain_source, NULL);
+    if (drain) {
+        g_source_destroy (drain);
+        g_source_unref (drain);
     }
+
     if (data->pipeline) {
-        gst_object_unref (data->pipeline);
-        data->pipeline = NULL;
-    }
-
-    g_main_loop_unref (data->main_loop);
-    data->main_loop = NULL;
-    
-    // Clean up error storage
-    // NOTE: Do NOT destroy error_mutex here - it will be destroyed in nativeFinalize
-    pthread_mutex_lock(&data->error_mutex);
-    if (data->error_message) {
-        g_free(data->error_message);
-        data->error_message = NULL;
-    }
-    pthread_mutex_unlock(&data->error_mutex);
-    
-    g_main_context_pop_thread_default (data->context);
-    g_main_context_unref (data->context);
-    data->context = NULL;
+        perf_tracer_untrack (data->pipeline);
+    }
+    release_pipeline (data);
+
+    g_mutex_lock (&request->lock);
+    request->done = TRUE;
+    g_cond_signal (&request->cond);
+    g_mutex_unlock (&request->lock);
+    return G_SOURCE_REMOVE;
+}
+
+// MOSAIC TILE SWAP
+// One tile's branch is replaced while the mixer and the other tiles keep running: the
+// pad feeding the tile is blocked with an idle probe, then on the worker the old branch
+// is unlinked, stopped and removed, and the new one is built as a bin and linked to
+// the same mixer pad, which keeps its position and size. Pending swaps are listed in
+// data->tile_swaps (worker thread only) so releasing the pipeline can cancel them.
+
+typedef struct _TileSwap {
+    CustomData *data;          /* NULL once cancelled */
+    GMainContext *context;     /* Worker context the swap finishes on */
+    guint index;
+    GstElement *pipeline;
+    GstPad *mixer_pad;         /* Compositor sink pad of the tile */
+    GstPad *branch_pad;        /* Old branch's pad feeding it, NULL if the tile is empty */
+    gulong probe_id;
+    atomic_int scheduled;
+    gchar *old_prefix;
+    gchar *new_prefix;
+    gchar *description;
+} TileSwap;
+
+static void
+tile_swap_free (gpointer user_data) {
+    TileSwap *swap = (TileSwap *) user_data;
+    g_main_context_unref (swap->context);
+    if (swap->pipeline) {
+        gst_object_unref (swap->pipeline);
+    }
+    if (swap->mixer_pad) {
+        gst_object_unref (swap->mixer_pad);
+    }
+    if (swap->branch_pad) {
+        gst_object_unref (swap->branch_pad);
+    }
+    g_free (swap->old_prefix);
+    g_free (swap->new_prefix);
+    g_free (swap->description);
+    g_free (swap);
+}
 
-    return NULL;
+// Stop and remove every top-level element whose name starts with the prefix
+static void
+remove_branch (GstBin *bin, const gchar *prefix) {
+    GList *doomed = NULL;
+    GValue item = G_VALUE_INIT;
+    GstIterator *it = gst_bin_iterate_elements (bin);
+    while (gst_iterator_next (it, &item) == GST_ITERATOR_OK) {
+        GstElement *element = g_value_get_object (&item);
+        if (g_str_has_prefix (GST_ELEMENT_NAME (element), prefix)) {
+            doomed = g_list_prepend (doomed, gst_object_ref (element));
+        }
+        g_value_reset (&item);
+    }
+    g_value_unset (&item);
+    gst_iterator_free (it);
+
+    for (GList *l = doomed; l; l = l->next) {
+        GstElement *element = GST_ELEMENT (l->data);
+        gst_element_set_locked_state (element, TRUE);
+        gst_element_set_state (element, GST_STATE_NULL);
+        gst_bin_remove (bin, element);
+    }
+    GST_DEBUG ("Removed %u elements of branch %s", g_list_length (doomed), prefix);
+    g_list_free_full (doomed, gst_object_unref);
+}
+
+// Build the new branch as a bin whose unlinked output is ghosted, and feed the mixer pad
+static gboolean
+add_branch (TileSwap *swap) {
+    GError *error = NULL;
+    GstElement *branch = gst_parse_bin_from_description (swap->description, TRUE, &error);
+    if (error || !branch) {
+        gchar *message = g_strdup_printf ("Unable to build tile: %s", error ? error->message : "no bin");
+        report_error (swap->data, message);
+        g_free (message);
+        g_clear_error (&error);
+        if (branch) {
+            gst_object_unref (branch);
+        }
+        branch = gst_parse_bin_from_description (MOSAIC_EMPTY_TILE, TRUE, NULL);
+        if (!branch) return FALSE;
+    }
+
+    gchar *name = g_strdup_printf ("%sbin", swap->new_prefix);
+    gst_object_set_name (GST_OBJECT (branch), name);
+    g_free (name);
+    gst_bin_add (GST_BIN (swap->pipeline), branch);
+
+    GstPad *src = gst_element_get_static_pad (branch, "src");
+    GstPadLinkReturn linked = src ? gst_pad_link (src, swap->mixer_pad) : GST_PAD_LINK_NOFORMAT;
+    if (src) {
+        gst_object_unref (src);
+    }
+    if (linked != GST_PAD_LINK_OK) {
+        GST_ERROR ("Could not link new tile branch to %s: %d", GST_PAD_NAME (swap->mixer_pad), linked);
+        gst_element_set_state (branch, GST_STATE_NULL);
+        gst_bin_remove (GST_BIN (swap->pipeline), branch);
+        return FALSE;
+    }
+    // Live feeds, what mosaics are for, timestamp in running time and line up on their own
+    gst_element_sync_state_with_parent (branch);
+    return TRUE;
+}
+
+static gboolean
+finish_tile_swap_cb (gpointer user_data) {
+    TileSwap *swap = (TileSwap *) user_data;
+    CustomData *data = swap->data;
+
+    // The pipeline may have been released while the old branch drained
+    if (data) {
+        data->tile_swaps = g_slist_remove (data->tile_swaps, swap);
+    }
+    if (data && data->pipeline == swap->pipeline) {
+        if (swap->branch_pad) {
+            gst_pad_unlink (swap->branch_pad, swap->mixer_pad);
+        }
+        remove_branch (GST_BIN (swap->pipeline), swap->old_prefix);
+        if (add_branch (swap)) {
+            gchar *message = g_strdup_printf ("Swapped %s", GST_PAD_NAME (swap->mixer_pad));
+            GST_INFO ("%s", message);
+            set_ui_message (message, data);
+            g_free (message);
+        }
+    }
+
+    // Frees the swap once no probe callback is running any more
+    if (swap->branch_pad) {
+        gst_pad_remove_probe (swap->branch_pad, swap->probe_id);
+    } else {
+        tile_swap_free (swap);
+    }
+    return G_SOURCE_REMOVE;
+}
+
+static void
+schedule_finish_tile_swap (TileSwap *swap) {
+    // Always a new source, never inline: the probe may fire inside gst_pad_add_probe
+    GSource *source = g_idle_source_new ();
+    g_source_set_priority (source, G_PRIORITY_DEFAULT);
+    g_source_set_callback (source, finish_tile_swap_cb, swap, NULL);
+    g_source_attach (source, swap->context);
+    g_source_unref (source);
+}
+
+// Between two buffers: keep the pad blocked and let the worker do the swap
+static GstPadProbeReturn
+tile_idle_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    TileSwap *swap = (TileSwap *) user_data;
+    if (!atomic_exchange (&swap->scheduled, 1)) {
+        schedule_finish_tile_swap (swap);
+    }
+    return GST_PAD_PROBE_OK;
+}
+
+static gboolean
+start_tile_swap_cb (gpointer user_data) {
+    TileSwap *swap = (TileSwap *) user_data;
+    CustomData *data = swap->data;
+
+    GstElement *mixer = data->pipeline ? gst_bin_get_by_name (GST_BIN (data->pipeline), MOSAIC_MIXER) : NULL;
+    gchar *pad_name = g_strdup_printf ("sink_%u", swap->index);
+    swap->mixer_pad = mixer ? gst_element_get_static_pad (mixer, pad_name) : NULL;
+    g_free (pad_name);
+    if (mixer) {
+        gst_object_unref (mixer);
+    }
+    if (!swap->mixer_pad) {
+        GST_WARNING ("No mosaic tile %u in the current pipeline", swap->index);
+        tile_swap_free (swap);
+        return G_SOURCE_REMOVE;
+    }
+    swap->pipeline = gst_object_ref (data->pipeline);
+    data->tile_swaps = g_slist_prepend (data->tile_swaps, swap);
+
+    swap->branch_pad = gst_pad_get_peer (swap->mixer_pad);
+    if (!swap->branch_pad) {
+        // Nothing flowing into the tile, nothing to wait for
+        finish_tile_swap_cb (swap);
+        return G_SOURCE_REMOVE;
+    }
+    swap->probe_id = gst_pad_add_probe (swap->branch_pad, GST_PAD_PROBE_TYPE_IDLE,
+                                        tile_idle_probe, swap, tile_swap_free);
+    GST_DEBUG ("Waiting for tile %u to go idle", swap->index);
+    return G_SOURCE_REMOVE;
+}
+
+// Drop the swaps still waiting on the pipeline being released
+static void
+cancel_tile_swaps (CustomData *data) {
+    GSList *swaps = data->tile_swaps;
+    data->tile_swaps = NULL;
+    for (GSList *l = swaps; l; l = l->next) {
+        TileSwap *swap = (TileSwap *) l->data;
+        swap->data = NULL;
+        // Unless the probe already queued the finish, which then cleans up
+        if (!atomic_exchange (&swap->scheduled, 1)) {
+            gst_pad_remove_probe (swap->branch_pad, swap->probe_id);
+        }
+    }
+    g_slist_free (swaps);
+}
+
+// RECORDING
+
+typedef struct _RecordRequest {
+    CustomData *data;
+    gchar *location;
+    guint64 segment_ns;
+} RecordRequest;
+
+static void
+record_request_free (gpointer user_data) {
+    RecordRequest *request = (RecordRequest *) user_data;
+    g_free (request->location);
+    g_free (request);
+}
+
+static gboolean
+start_recording_cb (gpointer user_data) {
+    RecordRequest *request = (RecordRequest *) user_data;
+    CustomData *data = request->data;
+    const gchar *error = data->pipeline
+            ? recorder_start (&data->recorder, data->pipeline, data->context, request->location, request->segment_ns)
+            : "No pipeline to record";
+    if (error) {
+        report_error (data, error);
+    } else {
+        set_ui_message ("Recording", data);
+    }
+    return G_SOURCE_REMOVE;
+}
+
+static gboolean
+stop_recording_cb (gpointer user_data) {
+    recorder_stop (&((CustomData *) user_data)->recorder);
+    return G_SOURCE_REMOVE;
 }
 
 // Private bus handlers
@@ -155,34 +677,33 @@ error_cb (GstBus * bus, GstMessage * msg, CustomData * data) {
         GST_ERROR("NULL data in error_cb");
         return;
     }
-    
+
     GError *err;
     gchar *debug_info;
     gchar *message_string;
 
     gst_message_parse_error(msg, &err, &debug_info);
+    if (watchdog_handle_error (&data->watchdog, msg)) {
+        // A source failed: the watchdog restarts it, the rest of the pipeline keeps going
+        GST_WARNING("Source %s failed, restarting it: %s (%s)", GST_OBJECT_NAME (msg->src), err->message,
+                    debug_info ? debug_info : "no debug info");
+        g_clear_error(&err);
+        g_free(debug_info);
+        return;
+    }
     message_string = g_strdup_printf ("Error received from element %s: %s",
                                       GST_OBJECT_NAME (msg->src), err->message);
-    GST_ERROR("%s", message_string);
     if (debug_info) {
         GST_ERROR("Debug info: %s", debug_info);
     }
-    
-    // Store error message in thread-safe manner for Java to poll
-    pthread_mutex_lock(&data->error_mutex);
-    if (data->error_message) {
-        g_free(data->error_message);
-    }
-    data->error_message = g_strdup(message_string);
-    pthread_mutex_unlock(&data->error_mutex);
-    
-    // Also call UI directly like tutorial-3
-    set_ui_message (message_string, data);
-    
+
+    report_error (data, message_string);
+
     g_free (message_string);
     g_clear_error(&err);
     g_free(debug_info);
-    
+
+    data->switch_started_us = 0;
     if (data->pipeline) {
         gst_element_set_state(data->pipeline, GST_STATE_NULL);
     }
@@ -195,7 +716,7 @@ state_changed_cb (GstBus * bus, GstMessage * msg, CustomData * data) {
         GST_ERROR("NULL data or pipeline in state_changed_cb");
         return;
     }
-    
+
     GstState old_state, new_state, pending_state;
     gst_message_parse_state_changed(msg, &old_state, &new_state, &pending_state);
     /* Only pay attention to messages coming from the pipeline, not its children */
@@ -204,39 +725,136 @@ state_changed_cb (GstBus * bus, GstMessage * msg, CustomData * data) {
                                           gst_element_state_get_name (new_state));
         GST_INFO("%s", message);
         set_ui_message (message, data);
+        set_ui_state (old_state, new_state, pending_state, data);
         g_free (message);
+
+        // A switch is complete once the new pipeline reaches the requested state
+        if (data->switch_started_us && new_state >= data->target_state) {
+            finish_switch (data);
+        }
+    }
+}
+
+// An element's latency changed (e.g. a jitterbuffer or a live source reconfigured):
+// redistribute it over the pipeline, then report the new figure if Java listens
+static void
+latency_cb (GstBus * bus, GstMessage * msg, CustomData * data) {
+    if (!data || !data->pipeline) {
+        return;
+    }
+    gst_bin_recalculate_latency (GST_BIN (data->pipeline));
+
+    gint64 values[UI_EVENT_VALUE_COUNT] = { 0 };
+    if (!bus_filter_wants (&data->bus_filter, BUS_KIND_LATENCY)
+        || !bus_filter_admit (&data->bus_filter, UI_EVENT_LATENCY, FALSE, values)) {
+        return;
     }
+    GstQuery *query = gst_query_new_latency ();
+    if (gst_element_query (data->pipeline, query)) {
+        gboolean live;
+        GstClockTime min_latency, max_latency;
+        gst_query_parse_latency (query, &live, &min_latency, &max_latency);
+        values[0] = (gint64) min_latency;
+        values[1] = GST_CLOCK_TIME_IS_VALID (max_latency) ? (gint64) max_latency : -1;
+        values[2] = live;
+        GST_INFO ("Latency from %s, pipeline now %" GST_TIME_FORMAT " min, live %d",
+                  GST_MESSAGE_SRC_NAME (msg), GST_TIME_ARGS (min_latency), live);
+        push_ui_event (data, UI_EVENT_LATENCY, GST_MESSAGE_SRC_NAME (msg), NULL, values);
+    }
+    gst_query_unref (query);
 }
 
 // Public control functions will be called by JNI_bridge.c
 
-// Start gstreamer thread
+// Raises every category to LOG, or back to WARNING. Formatting at LOG costs a lot per buffer
+void
+gst_app_set_verbose_logging (gboolean verbose) {
+    gst_debug_set_default_threshold (verbose ? GST_LEVEL_LOG : GST_LEVEL_WARNING);
+    gst_debug_set_threshold_for_name ("pipeliner", verbose ? GST_LEVEL_LOG : GST_LEVEL_DEBUG);
+}
+
+// Bind to a worker and build the initial pipeline there
 void
 gst_app_start (CustomData *data){
-    GST_DEBUG("Starting gstreamer thread...");
-    pthread_create (&gst_app_thread, NULL, app_function, data);
+    static gsize debug_initialized = 0;
+    if (g_once_init_enter (&debug_initialized)) {
+        GST_DEBUG_CATEGORY_INIT (debug_category, "pipeliner", 0, "Pipeliner");
+        gst_debug_set_threshold_for_name ("pipeliner", GST_LEVEL_DEBUG);
+
+        // Everything else only logs problems; LOG level is opt-in, see gst_app_set_verbose_logging
+        gst_debug_set_default_threshold (GST_LEVEL_WARNING);
+        g_once_init_leave (&debug_initialized, 1);
+    }
+
+    pthread_mutex_init(&data->overlay_mutex, NULL);
+    event_ring_init (&data->events);
+    bus_filter_init (&data->bus_filter);
+    g_mutex_init (&data->threads_lock);
+    data->stream_threads = g_array_new (FALSE, TRUE, sizeof (StreamThread));
+    atomic_init (&data->drain_source, NULL);
+    recorder_init (&data->recorder);
+    watchdog_init (&data->watchdog);
+    startup_timeline_init (&data->timeline);
+    if (data->target_state == GST_STATE_VOID_PENDING) {
+        data->target_state = GST_STATE_READY;
+    }
+
+    // The worker's loop is already running, so this and every later request just queue
+    data->worker = worker_pool_acquire ();
+    data->context = worker_get_context (data->worker);
+
+    SwapRequest *request = g_new0 (SwapRequest, 1);
+    request->data = data;
+    request->launch_string = g_strdup (current_launch_string (data));
+    request->requested_us = g_get_monotonic_time ();
+    data->switch_requested_us = request->requested_us;
+    GST_INFO("Starting pipeline %d on worker %u: %s", data->handle, worker_get_index (data->worker),
+             request->launch_string);
+    g_main_context_invoke_full (data->context, G_PRIORITY_DEFAULT, start_pipeline_cb, request, swap_request_free);
 }
 
-// Stop gstreamer thread
+// Stop the pipeline and unbind from the worker. Requests queued before this still run
+// first; from the worker thread itself the invoke runs inline.
 void
 gst_app_stop (CustomData *data) {
-    if (!data) return;
+    if (!data || !data->worker) return;
+
+    StopRequest request = { .data = data };
+    g_mutex_init (&request.lock);
+    g_cond_init (&request.cond);
+    g_main_context_invoke (data->context, stop_cb, &request);
 
-    if (data->main_loop) {
-        GST_DEBUG("Stopping gstreamer thread...");
-        g_main_loop_quit(data->main_loop);
+    GST_DEBUG("Waiting on pipeline clean up...");
+    g_mutex_lock (&request.lock);
+    while (!request.done) {
+        g_cond_wait (&request.cond, &request.lock);
     }
+    g_mutex_unlock (&request.lock);
+    g_cond_clear (&request.cond);
+    g_mutex_clear (&request.lock);
 
-    GST_DEBUG("Waiting on thread clean up...");
-    pthread_join(gst_app_thread, NULL);
+    worker_pool_release (data->worker);
+    data->worker = NULL;
+    data->context = NULL;
+    g_array_free (data->stream_threads, TRUE);
+    data->stream_threads = NULL;
+    g_mutex_clear (&data->threads_lock);
+    g_free (data->launch_string);
+    data->launch_string = NULL;
 }
 
-// Set state
+// Set state, applied in order with pending pipeline switches
 void
 gst_app_set_state (CustomData *data, GstState state) {
-    if (!data || !data->pipeline) return;
+    if (!data) return;
     GST_DEBUG("Setting pipeline state to %s", gst_element_state_get_name(state));
-    gst_element_set_state (data->pipeline, state);
+    data->target_state = state;
+    if (!data->context) return;
+
+    StateRequest *request = g_new0 (StateRequest, 1);
+    request->data = data;
+    request->state = state;
+    g_main_context_invoke_full (data->context, G_PRIORITY_DEFAULT, set_state_cb, request, g_free);
 }
 
 // Set app window
@@ -249,6 +867,7 @@ gst_app_set_window (JNIEnv *env, CustomData *data, ANativeWindow *window) {
 
     GST_DEBUG ("Received surface %p (native window %p)", window, window);
 
+    pthread_mutex_lock(&data->overlay_mutex);
     if (data->native_window) {
         ANativeWindow_release (data->native_window);
         if (data->native_window == window) {
@@ -257,49 +876,196 @@ gst_app_set_window (JNIEnv *env, CustomData *data, ANativeWindow *window) {
                 gst_video_overlay_expose (GST_VIDEO_OVERLAY (data->video_sink));
                 gst_video_overlay_expose (GST_VIDEO_OVERLAY (data->video_sink));
             }
+            pthread_mutex_unlock(&data->overlay_mutex);
             return;
         } else {
             GST_DEBUG ("Released previous native window %p", data->native_window);
             data->initialized = FALSE;
         }
     }
-    
+
     data->native_window = window;
+    gboolean attach_pending = data->pooled.video_sink != NULL;
+    pthread_mutex_unlock(&data->overlay_mutex);
+
+    if (attach_pending && data->context) {
+        g_main_context_invoke (data->context, attach_pooled_sink_cb, data);
+    }
 
     check_initialization_complete (env, data);
 }
 
-// Save custom pipelines
+// Unbind the sink from the window and release it
+gboolean
+gst_app_clear_window (CustomData *data) {
+    if (!data) return FALSE;
+
+    GST_DEBUG ("Clearing native window %p", data->native_window);
+    pthread_mutex_lock(&data->overlay_mutex);
+    gboolean had_sink = data->video_sink != NULL;
+    if (had_sink) {
+        gst_video_overlay_set_window_handle (GST_VIDEO_OVERLAY (data->video_sink), (guintptr) NULL);
+    }
+    if (data->native_window) {
+        ANativeWindow_release (data->native_window);
+    }
+    data->native_window = NULL;
+    data->initialized = FALSE;
+    pthread_mutex_unlock(&data->overlay_mutex);
+    return had_sink;
+}
+
+// Save custom pipelines, built on start and swapped in on reinit
+void
+gst_app_set_pipeline_string(CustomData *data, const gchar *new_string) {
+    if (!data) return;
+    g_free (data->launch_string);
+    data->launch_string = g_strdup (new_string);
+    GST_DEBUG("Saved custom pipeline: %s", new_string);
+}
+
+// Swap in the saved pipeline string. The worker thread and its loop stay up; the old
+// pipeline goes to NULL in the background while the new one prerolls.
 void
-gst_app_set_pipeline_string(const gchar *new_string) {
-    if (saved_pipeline_string) {
-        g_free(saved_pipeline_string);
+gst_app_reinit(CustomData *data) {
+    if (!data || !data->context) return;
+
+    SwapRequest *request = g_new0 (SwapRequest, 1);
+    request->data = data;
+    request->launch_string = g_strdup (current_launch_string (data));
+    request->requested_us = g_get_monotonic_time ();
+    g_main_context_invoke_full (data->context, G_PRIORITY_DEFAULT, swap_pipeline_cb, request, swap_request_free);
+    GST_DEBUG("Queued pipeline switch");
+}
+
+// Replace one tile of a mosaic pipeline; the other tiles keep playing
+void
+gst_app_swap_tile (CustomData *data, guint index, const gchar *old_prefix, const gchar *new_prefix,
+                   const gchar *description) {
+    if (!data || !data->context || !old_prefix || !new_prefix || !description) return;
+
+    TileSwap *swap = g_new0 (TileSwap, 1);
+    swap->data = data;
+    swap->context = g_main_context_ref (data->context);
+    swap->index = index;
+    atomic_init (&swap->scheduled, 0);
+    swap->old_prefix = g_strdup (old_prefix);
+    swap->new_prefix = g_strdup (new_prefix);
+    swap->description = g_strdup (description);
+    // Owned by the start callback from here on: freed there or by the probe
+    g_main_context_invoke (data->context, start_tile_swap_cb, swap);
+    GST_DEBUG("Queued swap of tile %u: %s -> %s", index, old_prefix, new_prefix);
+}
+
+// Bytes waiting in queue and queue2 elements, the memory a pipeline holds beyond its build
+static gint64
+queued_bytes (GstElement *pipeline) {
+    gint64 total = 0;
+    GValue item = G_VALUE_INIT;
+    GstIterator *it = gst_bin_iterate_recurse (GST_BIN (pipeline));
+    gboolean done = FALSE;
+    while (!done) {
+        switch (gst_iterator_next (it, &item)) {
+            case GST_ITERATOR_OK: {
+                GObject *element = g_value_get_object (&item);
+                if (g_object_class_find_property (G_OBJECT_GET_CLASS (element), "current-level-bytes")) {
+                    guint bytes = 0;
+                    g_object_get (element, "current-level-bytes", &bytes, NULL);
+                    total += bytes;
+                }
+                g_value_reset (&item);
+                break;
+            }
+            case GST_ITERATOR_RESYNC:
+                total = 0;
+                gst_iterator_resync (it);
+                break;
+            default:
+                done = TRUE;
+                break;
+        }
     }
-    saved_pipeline_string = g_strdup(new_string);
-    GST_DEBUG("Saved custom pipeline: %s", saved_pipeline_string);
+    g_value_unset (&item);
+    gst_iterator_free (it);
+    return total;
 }
 
-// Thread-safe error polling for Java
-gchar*
-gst_app_get_error (CustomData *data) {
-    if (!data) {
-        return NULL;
+// Resource use of the current pipeline. Safe from any thread; reads /proc, so poll it
+// at human rates, not per frame.
+void
+gst_app_get_stats (CustomData *data, gint64 *out) {
+    memset (out, 0, sizeof (gint64) * APP_STAT_COUNT);
+    if (!data) return;
+    out[APP_STAT_WORKER] = data->worker ? worker_get_index (data->worker) : -1;
+
+    pthread_mutex_lock(&data->overlay_mutex);
+    GstElement *pipeline = data->pipeline ? gst_object_ref (data->pipeline) : NULL;
+    pthread_mutex_unlock(&data->overlay_mutex);
+    if (!pipeline) {
+        out[APP_STAT_STATE] = GST_STATE_NULL;
+        return;
+    }
+
+    GstState state, pending;
+    gst_element_get_state (pipeline, &state, &pending, 0);
+    out[APP_STAT_STATE] = state;
+    out[APP_STAT_PENDING_STATE] = pending;
+
+    g_mutex_lock (&data->threads_lock);
+    for (guint i = 0; i < data->stream_threads->len; i++) {
+        StreamThread *thread = &g_array_index (data->stream_threads, StreamThread, i);
+        out[APP_STAT_CPU_NS] += thread->cpu_ns;
+        if (thread->running) {
+            gint64 cpu_ns = thread_cpu_ns (thread->tid);
+            if (cpu_ns >= 0) {
+                out[APP_STAT_CPU_NS] += MAX (0, cpu_ns - thread->enter_cpu_ns);
+                out[APP_STAT_THREADS]++;
+            }
+        }
     }
-    
-    pthread_mutex_lock(&data->error_mutex);
-    gchar *error = data->error_message;
-    data->error_message = NULL;  // Clear after reading
-    pthread_mutex_unlock(&data->error_mutex);
-    
-    return error;  // Caller must g_free() this
+    g_mutex_unlock (&data->threads_lock);
+
+    out[APP_STAT_BUILD_BYTES] = data->build_bytes;
+    out[APP_STAT_QUEUED_BYTES] = queued_bytes (pipeline);
+    out[APP_STAT_UPTIME_MS] = (g_get_monotonic_time () - data->installed_us) / 1000;
+    gst_object_unref (pipeline);
 }
 
-// Reinit pipeline
+// Attach a recording branch to the current pipeline's tee; errors come back as UI errors
 void
-gst_app_reinit(CustomData *data) {
-    gst_app_stop(data);
-    data->initialized = FALSE;
-    gst_app_start(data);
-    GST_DEBUG("Reinitialized gstreamer with new pipeline");
+gst_app_start_recording (CustomData *data, const gchar *location, guint64 segment_ns) {
+    if (!data || !data->context || !location) return;
+
+    RecordRequest *request = g_new0 (RecordRequest, 1);
+    request->data = data;
+    request->location = g_strdup (location);
+    request->segment_ns = segment_ns;
+    g_main_context_invoke_full (data->context, G_PRIORITY_DEFAULT, start_recording_cb, request, record_request_free);
 }
 
+void
+gst_app_stop_recording (CustomData *data) {
+    if (!data || !data->context) return;
+    g_main_context_invoke (data->context, stop_recording_cb, data);
+}
+
+void
+gst_app_get_recording_stats (CustomData *data, gint64 *out) {
+    recorder_get_stats (&data->recorder, out);
+}
+
+void
+gst_app_set_stall_timeout (CustomData *data, guint stall_ms) {
+    if (!data) return;
+    watchdog_set_stall_ms (&data->watchdog, stall_ms);
+}
+
+void
+gst_app_get_watchdog_stats (CustomData *data, gint64 *out) {
+    watchdog_get_stats (&data->watchdog, out);
+}
+
+void
+gst_app_get_startup_timeline (CustomData *data, gint64 *out) {
+    startup_timeline_get (&data->timeline, out);
+}
@@ -11,36 +11,92 @@
 #include <android/native_window.h>
 #include <jni.h>
 #include <pthread.h>
+#include <sys/types.h>
+#include "preroll_pool.h"
+#include "event_ring.h"
+#include "bus_filter.h"
+#include "worker_pool.h"
+#include "recorder.h"
+#include "watchdog.h"
+#include "startup_timeline.h"
+
+// Layout returned by gst_app_get_stats, must match PipelineEngine.java
+enum {
+    APP_STAT_STATE,          /* GstState */
+    APP_STAT_PENDING_STATE,
+    APP_STAT_CPU_NS,         /* CPU time of the pipeline's streaming threads since they entered it;
+                                threads of a hot pooled pipeline started before it was installed are not seen */
+    APP_STAT_THREADS,        /* Streaming threads currently running for the pipeline */
+    APP_STAT_BUILD_BYTES,    /* Heap growth while parsing the pipeline, 0 if it came from the pool */
+    APP_STAT_QUEUED_BYTES,   /* Bytes held in queue and queue2 elements right now */
+    APP_STAT_UPTIME_MS,      /* Since the pipeline was installed */
+    APP_STAT_WORKER,         /* Index of the worker thread it runs on */
+    APP_STAT_COUNT
+};
+
+// A streaming thread seen in a pipeline, from its stream-status messages
+typedef struct _StreamThread {
+    pid_t tid;
+    gboolean running;
+    gint64 enter_cpu_ns;     /* Thread CPU time when it entered the pipeline */
+    gint64 cpu_ns;           /* Accumulated over the periods it has left */
+} StreamThread;
 
 typedef struct _CustomData {
     jobject app;                  /* Application instance (Global Reference) */
     GstElement *pipeline;         /* The running pipeline */
-    GMainContext *context;        /* GLib context */
-    GMainLoop *main_loop;         /* GLib main loop */
+    PipelineWorker *worker;       /* Shared engine thread this pipeline runs on */
+    GMainContext *context;        /* The worker's context, NULL until started */
+    gint handle;                  /* Pipeline manager handle, 0 for the activity's own pipeline */
+    gchar *launch_string;         /* Pipeline built on start and swapped in on reinit, NULL for the fallback */
     gboolean initialized;         /* Flag for initialized status */
     GstElement *video_sink;       /* The video sink element */
     ANativeWindow *native_window; /* The Android native window */
-    gchar *error_message;         /* Last error message (thread-safe storage) */
-    pthread_mutex_t error_mutex;  /* Mutex for error message access */
+    EventRing events;             /* UI events waiting for the next batched upcall */
+    BusFilter bus_filter;         /* Bus message kinds Java listens to, with rate limits */
+    pthread_mutex_t overlay_mutex; /* Guards video_sink and native_window across threads */
+    GSource *bus_source;          /* Bus watch of the current pipeline */
+    GstState target_state;        /* State the user asked for, applied to swapped-in pipelines */
+    gint64 switch_started_us;     /* Monotonic time of the pending switch request, 0 if none */
+    gint64 last_switch_us;        /* Duration of the last completed switch */
+    gint64 switch_requested_us;   /* When the current pipeline was requested, for time to first frame */
+    PooledPipeline pooled;        /* Detached sink of a hot pooled pipeline, waiting for a window */
+    _Atomic (GSource *) drain_source; /* Pending UI event drain on the worker context */
+    GMutex threads_lock;          /* Guards stream_threads */
+    GArray *stream_threads;       /* StreamThread of the current pipeline */
+    gint64 installed_us;          /* When the current pipeline was installed */
+    gint64 build_bytes;           /* Heap growth while parsing the current pipeline */
+    Recorder recorder;            /* Recording branch on the current pipeline's tee */
+    Watchdog watchdog;            /* Stall detection and source restarts for the current pipeline */
+    StartupTimeline timeline;     /* Startup marks of the current pipeline */
+    GSList *tile_swaps;           /* Mosaic tile swaps waiting for their branch to go idle, worker thread only */
 } CustomData;
 
 // PUBLIC CONTROL FUNCTIONS will be implemented in gstreamer_app.c
-// These functions wrap thread creation and control to keep the JNI_bridge clean.
+// These functions wrap worker binding and control to keep the JNI_bridge clean.
 
-// Function to start the Gstreamer worker thread
+// Bind to a pooled worker thread and build data->launch_string there
 void gst_app_start (CustomData *data);
 
-// Function to get and clear the last error (thread-safe)
-gchar* gst_app_get_error (CustomData *data);
-
-// Function to stop the Gstreamer worker thread
+// Tear the pipeline down on its worker and unbind; returns once it is done
 void gst_app_stop (CustomData *data);
+void gst_app_set_verbose_logging (gboolean verbose);                /* Default threshold LOG instead of WARNING */
 
 // Control Functions
 void gst_app_set_state (CustomData *data, GstState state);
 void gst_app_set_window (JNIEnv *env, CustomData *data, ANativeWindow *window);
-void gst_app_set_pipeline_string(const gchar *new_string);
-void gst_app_reinit(CustomData *data);                               /* This allows for dynamic pipeline changes */
+gboolean gst_app_clear_window (CustomData *data);                    /* Unbinds and releases the window; TRUE if a sink had it */
+void gst_app_set_pipeline_string(CustomData *data, const gchar *new_string);
+void gst_app_reinit(CustomData *data);                               /* Swaps in data->launch_string on the running worker */
+void gst_app_swap_tile (CustomData *data, guint index, const gchar *old_prefix,
+                        const gchar *new_prefix, const gchar *description); /* Rebuilds one mosaic tile in place */
+void gst_app_get_stats (CustomData *data, gint64 *out);              /* APP_STAT_COUNT values */
+void gst_app_start_recording (CustomData *data, const gchar *location, guint64 segment_ns);
+void gst_app_stop_recording (CustomData *data);                      /* The last segment is closed in the background */
+void gst_app_get_recording_stats (CustomData *data, gint64 *out);    /* RECORDER_STAT_COUNT values */
+void gst_app_set_stall_timeout (CustomData *data, guint stall_ms);   /* 0 disables the watchdog */
+void gst_app_get_watchdog_stats (CustomData *data, gint64 *out);     /* WATCHDOG_STAT_COUNT values */
+void gst_app_get_startup_timeline (CustomData *data, gint64 *out);   /* STARTUP_MARK_COUNT values */
 
 
 #endif //GSTREAMER_PIPELINER_1_0_GSTREAMER_APP_H
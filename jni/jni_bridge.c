@@ -8,6 +8,11 @@
 #include <android/native_window_jni.h>
 #include "gstreamer_app.h"
 #include "jni_utils.h"
+#include "preroll_pool.h"
+#include "perf_tracer.h"
+#include "decoder_bench.h"
+#include "pipeline_manager.h"
+#include "pipeline_validator.h"
 
 #include <glib.h>
 #include <gst/video/video.h>
@@ -34,9 +39,10 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativeInit (JNIEnv *env, jobject thi
     }
     
     __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeInit: about to call gst_app_start");
+    gst_app_set_pipeline_string (data, saved_pipeline_string);
     gst_app_start (data);
     __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeInit: gst_app_start returned");
-    GST_DEBUG ("Created CustomData at %p and started thread", data);
+    GST_DEBUG ("Created CustomData at %p and bound it to a worker", data);
 }
 
 JNIEXPORT void JNICALL
@@ -49,14 +55,16 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativeFinalize (JNIEnv *env, jobject
     data->app = NULL;
     
     gst_app_stop (data);
+    // Unbound from the worker: whatever is still queued has nobody to go to
+    event_ring_clear (&data->events);
 
     if (app_ref) {
         GST_DEBUG ("Deleting GlobalRef for app object at %p", app_ref);
         (*env)->DeleteGlobalRef (env, app_ref);
     }
 
-    // Destroy the error mutex before freeing CustomData
-    pthread_mutex_destroy(&data->error_mutex);
+    // Destroy the mutex before freeing CustomData
+    pthread_mutex_destroy(&data->overlay_mutex);
 
     GST_DEBUG ("Freeing CustomData at %p", data);
     g_free (data);
@@ -76,11 +84,13 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativePause (JNIEnv *env, jobject th
     gst_app_set_state (data, GST_STATE_PAUSED);
 }
 
-// Set or update pipeline string globaly
+// Set or update the pipeline string; kept globally too, since the activity sets it before nativeInit
 JNIEXPORT void JNICALL
 Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetPipeline (JNIEnv *env, jobject thiz, jstring pipeline_string) {
     const gchar *str = (*env)->GetStringUTFChars (env, pipeline_string, 0);
-    gst_app_set_pipeline_string(str);
+    g_free (saved_pipeline_string);
+    saved_pipeline_string = g_strdup (str);
+    gst_app_set_pipeline_string (GET_CUSTOM_DATA(env, thiz, custom_data_field_id), str);
     (*env)->ReleaseStringUTFChars (env, pipeline_string, str);
 }
 
@@ -92,18 +102,100 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativeReinit (JNIEnv *env, jobject t
     gst_app_reinit (data);
 }
 
-// Poll for errors (thread-safe)
-JNIEXPORT jstring JNICALL
-Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetError (JNIEnv *env, jobject thiz) {
+// Rebuild one tile of a mosaic pipeline from its new branch description
+JNIEXPORT void JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeSwapTile (JNIEnv *env, jobject thiz, jint index, jstring old_prefix,
+                                                          jstring new_prefix, jstring description) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data || index < 0) return;
+    const gchar *old_str = (*env)->GetStringUTFChars (env, old_prefix, 0);
+    const gchar *new_str = (*env)->GetStringUTFChars (env, new_prefix, 0);
+    const gchar *description_str = (*env)->GetStringUTFChars (env, description, 0);
+    gst_app_swap_tile (data, (guint) index, old_str, new_str, description_str);
+    (*env)->ReleaseStringUTFChars (env, description, description_str);
+    (*env)->ReleaseStringUTFChars (env, new_prefix, new_str);
+    (*env)->ReleaseStringUTFChars (env, old_prefix, old_str);
+}
+
+// Record the current pipeline's stream into segments named after the splitmuxsink pattern
+JNIEXPORT void JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeStartRecording (JNIEnv *env, jobject thiz, jstring location, jlong segment_ns) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return;
+    const gchar *location_str = (*env)->GetStringUTFChars (env, location, 0);
+    gst_app_start_recording (data, location_str, (guint64) segment_ns);
+    (*env)->ReleaseStringUTFChars (env, location, location_str);
+}
+
+JNIEXPORT void JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeStopRecording (JNIEnv *env, jobject thiz) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return;
+    gst_app_stop_recording (data);
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetRecordingStats (JNIEnv *env, jobject thiz) {
     CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
     if (!data) return NULL;
-    
-    gchar *error = gst_app_get_error(data);
-    if (!error) return NULL;
-    
-    jstring jerror = (*env)->NewStringUTF(env, error);
-    g_free(error);
-    return jerror;
+    gint64 stats[RECORDER_STAT_COUNT];
+    gst_app_get_recording_stats (data, stats);
+    jlongArray result = (*env)->NewLongArray (env, RECORDER_STAT_COUNT);
+    if (result) {
+        (*env)->SetLongArrayRegion (env, result, 0, RECORDER_STAT_COUNT, (const jlong *) stats);
+    }
+    return result;
+}
+
+// Stall timeout of the watchdog in ms, 0 disables it; applies from the next pipeline
+JNIEXPORT void JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetStallTimeout (JNIEnv *env, jobject thiz, jint stall_ms) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return;
+    gst_app_set_stall_timeout (data, stall_ms > 0 ? (guint) stall_ms : 0);
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetWatchdogStats (JNIEnv *env, jobject thiz) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return NULL;
+    gint64 stats[WATCHDOG_STAT_COUNT];
+    gst_app_get_watchdog_stats (data, stats);
+    jlongArray result = (*env)->NewLongArray (env, WATCHDOG_STAT_COUNT);
+    if (result) {
+        (*env)->SetLongArrayRegion (env, result, 0, WATCHDOG_STAT_COUNT, (const jlong *) stats);
+    }
+    return result;
+}
+
+// Startup marks of the current pipeline, CLOCK_MONOTONIC microseconds as in System.nanoTime()
+JNIEXPORT jlongArray JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetStartupTimeline (JNIEnv *env, jobject thiz) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return NULL;
+    gint64 marks[STARTUP_MARK_COUNT];
+    gst_app_get_startup_timeline (data, marks);
+    jlongArray result = (*env)->NewLongArray (env, STARTUP_MARK_COUNT);
+    if (result) {
+        (*env)->SetLongArrayRegion (env, result, 0, STARTUP_MARK_COUNT, (const jlong *) marks);
+    }
+    return result;
+}
+
+// Choose which bus message kinds (BusMessageListener.KIND_*) are forwarded to Java
+JNIEXPORT void JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetBusFilter (JNIEnv *env, jobject thiz, jint mask) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return;
+    bus_filter_set_mask (&data->bus_filter, (guint) mask);
+}
+
+// Deliver at most one message of a kind per interval, 0 for all of them
+JNIEXPORT jboolean JNICALL
+Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetBusRateLimit (JNIEnv *env, jobject thiz, jint kind, jint interval_ms) {
+    CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
+    if (!data) return JNI_FALSE;
+    return bus_filter_set_rate_limit (&data->bus_filter, (guint) kind, interval_ms) ? JNI_TRUE : JNI_FALSE;
 }
 
 // Receives Android surface and passes the native window handle
@@ -130,19 +222,9 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativeSurfaceFinalize (JNIEnv *env,
     CustomData *data = GET_CUSTOM_DATA(env, thiz, custom_data_field_id);
     if (!data) return;
 
-    GST_DEBUG ("Finalizing native window %p", data->native_window);
-
-    if (data->video_sink) {
-    gst_video_overlay_set_window_handle (GST_VIDEO_OVERLAY (data->video_sink), (guintptr) NULL);
-    gst_app_set_state (data, GST_STATE_READY);
+    if (gst_app_clear_window (data)) {
+        gst_app_set_state (data, GST_STATE_READY);
     }
-
-    if (data->native_window) {
-        ANativeWindow_release (data->native_window);
-    }
-
-    data->native_window = NULL;
-    data->initialized = FALSE;
 }
 
 JNIEXPORT jboolean JNICALL
@@ -152,19 +234,16 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativeClassInit (JNIEnv *env, jclass
     custom_data_field_id = (*env)->GetFieldID(env, klass, "native_custom_data", "J");
     __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeClassInit: custom_data_field_id = %p", custom_data_field_id);
     
-    set_message_method_id = (*env)->GetMethodID(env, klass, "setMessage", "(Ljava/lang/String;)V");
-    __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeClassInit: set_message_method_id = %p", set_message_method_id);
-    
-    on_gstreamer_initialized_method_id = (*env)->GetMethodID(env, klass, "onGStreamerInitialized", "()V");
-    __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeClassInit: on_gstreamer_initialized_method_id = %p", on_gstreamer_initialized_method_id);
-    
-    on_gstreamer_error_method_id = (*env)->GetMethodID(env, klass, "onGStreamerError", "(Ljava/lang/String;)V");
-    __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeClassInit: on_gstreamer_error_method_id = %p", on_gstreamer_error_method_id);
-    
-    on_gstreamer_state_changed_method_id = (*env)->GetMethodID(env, klass, "onGStreamerStateChanged", "(Ljava/lang/String;)V");
-    __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeClassInit: on_gstreamer_state_changed_method_id = %p", on_gstreamer_state_changed_method_id);
+    on_native_events_method_id = (*env)->GetMethodID(env, klass, "onNativeEvents", "([I[J[J[Ljava/lang/String;[Ljava/lang/String;)V");
+    __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "nativeClassInit: on_native_events_method_id = %p", on_native_events_method_id);
+
+    if (!string_class) {
+        jclass local_string_class = (*env)->FindClass(env, "java/lang/String");
+        string_class = (*env)->NewGlobalRef(env, local_string_class);
+        (*env)->DeleteLocalRef(env, local_string_class);
+    }
 
-    if (!custom_data_field_id || !set_message_method_id || !on_gstreamer_initialized_method_id || !on_gstreamer_error_method_id || !on_gstreamer_state_changed_method_id) {
+    if (!custom_data_field_id || !on_native_events_method_id || !string_class) {
         __android_log_print (ANDROID_LOG_ERROR, "JNI_BRIDGE", "Calling class does not implement all required methods");
         return JNI_FALSE;
     }
@@ -172,6 +251,256 @@ Java_com_kranzetech_pipeliner_GstreamerMain_nativeClassInit (JNIEnv *env, jclass
     return JNI_TRUE;
 }
 
+// PREROLL POOL (com.android.pipeliner.PrerollPool)
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_PrerollPool_nativeConfigure (JNIEnv *env, jclass klass, jint max_entries, jint max_hot_entries) {
+    preroll_pool_configure ((guint) max_entries, (guint) max_hot_entries);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_PrerollPool_nativeWarm (JNIEnv *env, jclass klass, jstring launch_string) {
+    const gchar *str = (*env)->GetStringUTFChars (env, launch_string, 0);
+    gboolean warmed = preroll_pool_warm (str);
+    (*env)->ReleaseStringUTFChars (env, launch_string, str);
+    return warmed ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_PrerollPool_nativeEvict (JNIEnv *env, jclass klass, jstring launch_string) {
+    const gchar *str = (*env)->GetStringUTFChars (env, launch_string, 0);
+    preroll_pool_evict (str);
+    (*env)->ReleaseStringUTFChars (env, launch_string, str);
+}
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_PrerollPool_nativeClear (JNIEnv *env, jclass klass) {
+    preroll_pool_clear ();
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_android_pipeliner_PrerollPool_nativeGetStats (JNIEnv *env, jclass klass) {
+    gint64 stats[POOL_STAT_COUNT];
+    preroll_pool_get_stats (stats);
+    jlongArray result = (*env)->NewLongArray (env, POOL_STAT_COUNT);
+    if (result) {
+        (*env)->SetLongArrayRegion (env, result, 0, POOL_STAT_COUNT, (const jlong *) stats);
+    }
+    return result;
+}
+
+// PERFORMANCE TRACER (com.android.pipeliner.PipelineTracer)
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_PipelineTracer_nativeSetEnabled (JNIEnv *env, jclass klass, jboolean enabled, jint sample_interval) {
+    perf_tracer_set_enabled (enabled, sample_interval);
+}
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_PipelineTracer_nativeSetVerboseLogging (JNIEnv *env, jclass klass, jboolean verbose) {
+    gst_app_set_verbose_logging (verbose);
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_android_pipeliner_PipelineTracer_nativeGetStats (JNIEnv *env, jclass klass) {
+    static gint64 snapshot[PERF_SNAPSHOT_MAX];  /* Too big for the stack, guarded by snapshot_lock */
+    static GMutex snapshot_lock;
+    g_mutex_lock (&snapshot_lock);
+    gsize count = perf_tracer_snapshot (snapshot);
+    jlongArray result = (*env)->NewLongArray (env, (jsize) count);
+    if (result) {
+        (*env)->SetLongArrayRegion (env, result, 0, (jsize) count, (const jlong *) snapshot);
+    }
+    g_mutex_unlock (&snapshot_lock);
+    return result;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_android_pipeliner_PipelineTracer_nativeGetElementNames (JNIEnv *env, jclass klass) {
+    gchar **names = perf_tracer_element_names (NULL);
+    guint count = g_strv_length (names);
+    jclass string_klass = (*env)->FindClass (env, "java/lang/String");
+    jobjectArray result = (*env)->NewObjectArray (env, (jsize) count, string_klass, NULL);
+    (*env)->DeleteLocalRef (env, string_klass);
+    for (guint i = 0; result && i < count; i++) {
+        jstring name = (*env)->NewStringUTF (env, names[i]);
+        (*env)->SetObjectArrayElement (env, result, (jsize) i, name);
+        (*env)->DeleteLocalRef (env, name);
+    }
+    g_strfreev (names);
+    return result;
+}
+
+// DECODER TUNER (com.android.pipeliner.DecoderTuner)
+
+static jobjectArray
+strv_to_java (JNIEnv *env, gchar **strv) {
+    guint count = g_strv_length (strv);
+    jclass string_klass = (*env)->FindClass (env, "java/lang/String");
+    jobjectArray result = (*env)->NewObjectArray (env, (jsize) count, string_klass, NULL);
+    (*env)->DeleteLocalRef (env, string_klass);
+    for (guint i = 0; result && i < count; i++) {
+        jstring str = (*env)->NewStringUTF (env, strv[i]);
+        (*env)->SetObjectArrayElement (env, result, (jsize) i, str);
+        (*env)->DeleteLocalRef (env, str);
+    }
+    return result;
+}
+
+static jlongArray
+values_to_java (JNIEnv *env, const gint64 *values, jsize count) {
+    jlongArray result = (*env)->NewLongArray (env, count);
+    if (result) {
+        (*env)->SetLongArrayRegion (env, result, 0, count, (const jlong *) values);
+    }
+    return result;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_android_pipeliner_DecoderTuner_nativeGetCandidates (JNIEnv *env, jclass klass, jstring caps_string) {
+    const gchar *caps = (*env)->GetStringUTFChars (env, caps_string, 0);
+    gchar **names = decoder_bench_candidates (caps);
+    (*env)->ReleaseStringUTFChars (env, caps_string, caps);
+    jobjectArray result = strv_to_java (env, names);
+    g_strfreev (names);
+    return result;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_android_pipeliner_DecoderTuner_nativeDescribe (JNIEnv *env, jclass klass, jstring factory_name) {
+    gint64 values[BENCH_DESCRIBE_COUNT];
+    const gchar *factory = (*env)->GetStringUTFChars (env, factory_name, 0);
+    gboolean found = decoder_bench_describe (factory, values);
+    (*env)->ReleaseStringUTFChars (env, factory_name, factory);
+    return found ? values_to_java (env, values, BENCH_DESCRIBE_COUNT) : NULL;
+}
+
+JNIEXPORT jstring JNICALL
+Java_com_android_pipeliner_DecoderTuner_nativeGetCodec (JNIEnv *env, jclass klass, jstring factory_name) {
+    const gchar *factory = (*env)->GetStringUTFChars (env, factory_name, 0);
+    gchar *codec = decoder_bench_codec (factory);
+    (*env)->ReleaseStringUTFChars (env, factory_name, factory);
+    jstring result = codec ? (*env)->NewStringUTF (env, codec) : NULL;
+    g_free (codec);
+    return result;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_DecoderTuner_nativePrepareClip (JNIEnv *env, jclass klass, jstring caps_string,
+                                                           jint width, jint height, jint frames, jstring clip_path) {
+    const gchar *caps = (*env)->GetStringUTFChars (env, caps_string, 0);
+    const gchar *path = (*env)->GetStringUTFChars (env, clip_path, 0);
+    gboolean ok = decoder_bench_prepare_clip (caps, width, height, frames, path);
+    (*env)->ReleaseStringUTFChars (env, clip_path, path);
+    (*env)->ReleaseStringUTFChars (env, caps_string, caps);
+    return ok ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_android_pipeliner_DecoderTuner_nativeRun (JNIEnv *env, jclass klass, jstring clip_path, jstring decoder_string) {
+    gint64 values[BENCH_RESULT_COUNT];
+    const gchar *path = (*env)->GetStringUTFChars (env, clip_path, 0);
+    const gchar *decoder = (*env)->GetStringUTFChars (env, decoder_string, 0);
+    gboolean ok = decoder_bench_run (path, decoder, values);
+    (*env)->ReleaseStringUTFChars (env, decoder_string, decoder);
+    (*env)->ReleaseStringUTFChars (env, clip_path, path);
+    return ok ? values_to_java (env, values, BENCH_RESULT_COUNT) : NULL;
+}
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_DecoderTuner_nativePromote (JNIEnv *env, jclass klass, jstring factory_name) {
+    const gchar *factory = (*env)->GetStringUTFChars (env, factory_name, 0);
+    decoder_bench_promote (factory);
+    (*env)->ReleaseStringUTFChars (env, factory_name, factory);
+}
+
+// PIPELINE VALIDATOR (com.android.pipeliner.PipelineValidator)
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_android_pipeliner_PipelineValidator_nativeCheck (JNIEnv *env, jclass klass, jstring launch_string,
+                                                          jint preroll_timeout_ms, jlongArray out) {
+    gint64 values[VALIDATE_RESULT_COUNT];
+    const gchar *launch = (*env)->GetStringUTFChars (env, launch_string, 0);
+    gchar **strings = pipeline_validator_check (launch, preroll_timeout_ms, values);
+    (*env)->ReleaseStringUTFChars (env, launch_string, launch);
+    (*env)->SetLongArrayRegion (env, out, 0, VALIDATE_RESULT_COUNT, (const jlong *) values);
+    jobjectArray result = strv_to_java (env, strings);
+    g_strfreev (strings);
+    return result;
+}
+
+// PIPELINE ENGINE (com.android.pipeliner.PipelineEngine)
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeAttach (JNIEnv *env, jobject thiz) {
+    jclass klass = (*env)->GetObjectClass (env, thiz);
+    engine_events_method_id = (*env)->GetMethodID (env, klass, "onNativeEvents", "(I[I[J[J[Ljava/lang/String;[Ljava/lang/String;)V");
+    (*env)->DeleteLocalRef (env, klass);
+    if (!engine_events_method_id) {
+        (*env)->ExceptionClear (env);
+        __android_log_print (ANDROID_LOG_ERROR, "JNI_BRIDGE", "PipelineEngine does not implement onNativeEvents");
+        return JNI_FALSE;
+    }
+    if (!string_class) {
+        jclass local_string_class = (*env)->FindClass (env, "java/lang/String");
+        string_class = (*env)->NewGlobalRef (env, local_string_class);
+        (*env)->DeleteLocalRef (env, local_string_class);
+    }
+    pipeline_manager_attach (env, thiz);
+    return JNI_TRUE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeConfigure (JNIEnv *env, jobject thiz, jint max_pipelines, jint worker_threads) {
+    pipeline_manager_configure ((guint) MAX (0, max_pipelines), (guint) MAX (0, worker_threads));
+}
+
+JNIEXPORT jint JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeCreate (JNIEnv *env, jobject thiz, jstring launch_string) {
+    const gchar *str = (*env)->GetStringUTFChars (env, launch_string, 0);
+    gint handle = pipeline_manager_create (str);
+    (*env)->ReleaseStringUTFChars (env, launch_string, str);
+    return handle;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeDestroy (JNIEnv *env, jobject thiz, jint handle) {
+    return pipeline_manager_destroy (handle) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeSetState (JNIEnv *env, jobject thiz, jint handle, jint state) {
+    return pipeline_manager_set_state (handle, (GstState) state) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeSetSurface (JNIEnv *env, jobject thiz, jint handle, jobject surface) {
+    ANativeWindow *window = NULL;
+    if (surface) {
+        window = ANativeWindow_fromSurface (env, surface);
+        if (!window) {
+            __android_log_print (ANDROID_LOG_ERROR, "JNI_BRIDGE", "Failed to get ANativeWindow from surface");
+            return JNI_FALSE;
+        }
+    }
+    gboolean found = pipeline_manager_set_window (env, handle, window);
+    if (!found && window) {
+        ANativeWindow_release (window);
+    }
+    return found ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeSetBusFilter (JNIEnv *env, jobject thiz, jint handle, jint mask) {
+    return pipeline_manager_set_bus_filter (handle, (guint) mask) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_android_pipeliner_PipelineEngine_nativeGetStats (JNIEnv *env, jobject thiz, jint handle) {
+    gint64 values[APP_STAT_COUNT];
+    return pipeline_manager_get_stats (handle, values) ? values_to_java (env, values, APP_STAT_COUNT) : NULL;
+}
+
 // JNI Registration
 
 // List of implemented native methods
@@ -185,7 +514,54 @@ static JNINativeMethod methods[] = {
         {"nativeClassInit", "()Z", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeClassInit},
         {"nativeSetPipeline", "(Ljava/lang/String;)V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetPipeline},
         {"nativeReinit", "()V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeReinit},
-        {"nativeGetError", "()Ljava/lang/String;", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetError}
+        {"nativeStartRecording", "(Ljava/lang/String;J)V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeStartRecording},
+        {"nativeStopRecording", "()V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeStopRecording},
+        {"nativeGetRecordingStats", "()[J", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetRecordingStats},
+        {"nativeSetStallTimeout", "(I)V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetStallTimeout},
+        {"nativeGetWatchdogStats", "()[J", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetWatchdogStats},
+        {"nativeGetStartupTimeline", "()[J", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeGetStartupTimeline},
+        {"nativeSwapTile", "(ILjava/lang/String;Ljava/lang/String;Ljava/lang/String;)V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeSwapTile},
+        {"nativeSetBusFilter", "(I)V", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetBusFilter},
+        {"nativeSetBusRateLimit", "(II)Z", (void *) Java_com_kranzetech_pipeliner_GstreamerMain_nativeSetBusRateLimit}
+};
+
+static JNINativeMethod pool_methods[] = {
+        {"nativeConfigure", "(II)V", (void *) Java_com_android_pipeliner_PrerollPool_nativeConfigure},
+        {"nativeWarm", "(Ljava/lang/String;)Z", (void *) Java_com_android_pipeliner_PrerollPool_nativeWarm},
+        {"nativeEvict", "(Ljava/lang/String;)V", (void *) Java_com_android_pipeliner_PrerollPool_nativeEvict},
+        {"nativeClear", "()V", (void *) Java_com_android_pipeliner_PrerollPool_nativeClear},
+        {"nativeGetStats", "()[J", (void *) Java_com_android_pipeliner_PrerollPool_nativeGetStats}
+};
+
+static JNINativeMethod tracer_methods[] = {
+        {"nativeSetEnabled", "(ZI)V", (void *) Java_com_android_pipeliner_PipelineTracer_nativeSetEnabled},
+        {"nativeSetVerboseLogging", "(Z)V", (void *) Java_com_android_pipeliner_PipelineTracer_nativeSetVerboseLogging},
+        {"nativeGetStats", "()[J", (void *) Java_com_android_pipeliner_PipelineTracer_nativeGetStats},
+        {"nativeGetElementNames", "()[Ljava/lang/String;", (void *) Java_com_android_pipeliner_PipelineTracer_nativeGetElementNames}
+};
+
+static JNINativeMethod tuner_methods[] = {
+        {"nativeGetCandidates", "(Ljava/lang/String;)[Ljava/lang/String;", (void *) Java_com_android_pipeliner_DecoderTuner_nativeGetCandidates},
+        {"nativeDescribe", "(Ljava/lang/String;)[J", (void *) Java_com_android_pipeliner_DecoderTuner_nativeDescribe},
+        {"nativeGetCodec", "(Ljava/lang/String;)Ljava/lang/String;", (void *) Java_com_android_pipeliner_DecoderTuner_nativeGetCodec},
+        {"nativePrepareClip", "(Ljava/lang/String;IIILjava/lang/String;)Z", (void *) Java_com_android_pipeliner_DecoderTuner_nativePrepareClip},
+        {"nativeRun", "(Ljava/lang/String;Ljava/lang/String;)[J", (void *) Java_com_android_pipeliner_DecoderTuner_nativeRun},
+        {"nativePromote", "(Ljava/lang/String;)V", (void *) Java_com_android_pipeliner_DecoderTuner_nativePromote}
+};
+
+static JNINativeMethod validator_methods[] = {
+        {"nativeCheck", "(Ljava/lang/String;I[J)[Ljava/lang/String;", (void *) Java_com_android_pipeliner_PipelineValidator_nativeCheck}
+};
+
+static JNINativeMethod engine_methods[] = {
+        {"nativeAttach", "()Z", (void *) Java_com_android_pipeliner_PipelineEngine_nativeAttach},
+        {"nativeConfigure", "(II)V", (void *) Java_com_android_pipeliner_PipelineEngine_nativeConfigure},
+        {"nativeCreate", "(Ljava/lang/String;)I", (void *) Java_com_android_pipeliner_PipelineEngine_nativeCreate},
+        {"nativeDestroy", "(I)Z", (void *) Java_com_android_pipeliner_PipelineEngine_nativeDestroy},
+        {"nativeSetState", "(II)Z", (void *) Java_com_android_pipeliner_PipelineEngine_nativeSetState},
+        {"nativeSetSurface", "(ILjava/lang/Object;)Z", (void *) Java_com_android_pipeliner_PipelineEngine_nativeSetSurface},
+        {"nativeSetBusFilter", "(II)Z", (void *) Java_com_android_pipeliner_PipelineEngine_nativeSetBusFilter},
+        {"nativeGetStats", "(I)[J", (void *) Java_com_android_pipeliner_PipelineEngine_nativeGetStats}
 };
 
 JNIEXPORT jint
@@ -205,6 +581,46 @@ JNI_OnLoad (JavaVM *vm, void *reserved) {
     __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "JNI_OnLoad: Found class, registering natives");
     
     (*env)->RegisterNatives (env, klass, methods, G_N_ELEMENTS (methods));
+
+    jclass pool_klass = (*env)->FindClass (env, "com/android/pipeliner/PrerollPool");
+    if (pool_klass) {
+        (*env)->RegisterNatives (env, pool_klass, pool_methods, G_N_ELEMENTS (pool_methods));
+    } else {
+        (*env)->ExceptionClear (env);
+        __android_log_print (ANDROID_LOG_WARN, "JNI_BRIDGE", "JNI_OnLoad: PrerollPool not found, pool disabled");
+    }
+
+    jclass tracer_klass = (*env)->FindClass (env, "com/android/pipeliner/PipelineTracer");
+    if (tracer_klass) {
+        (*env)->RegisterNatives (env, tracer_klass, tracer_methods, G_N_ELEMENTS (tracer_methods));
+    } else {
+        (*env)->ExceptionClear (env);
+        __android_log_print (ANDROID_LOG_WARN, "JNI_BRIDGE", "JNI_OnLoad: PipelineTracer not found, tracer disabled");
+    }
+
+    jclass tuner_klass = (*env)->FindClass (env, "com/android/pipeliner/DecoderTuner");
+    if (tuner_klass) {
+        (*env)->RegisterNatives (env, tuner_klass, tuner_methods, G_N_ELEMENTS (tuner_methods));
+    } else {
+        (*env)->ExceptionClear (env);
+        __android_log_print (ANDROID_LOG_WARN, "JNI_BRIDGE", "JNI_OnLoad: DecoderTuner not found, tuning disabled");
+    }
+
+    jclass validator_klass = (*env)->FindClass (env, "com/android/pipeliner/PipelineValidator");
+    if (validator_klass) {
+        (*env)->RegisterNatives (env, validator_klass, validator_methods, G_N_ELEMENTS (validator_methods));
+    } else {
+        (*env)->ExceptionClear (env);
+        __android_log_print (ANDROID_LOG_WARN, "JNI_BRIDGE", "JNI_OnLoad: PipelineValidator not found, validation disabled");
+    }
+
+    jclass engine_klass = (*env)->FindClass (env, "com/android/pipeliner/PipelineEngine");
+    if (engine_klass) {
+        (*env)->RegisterNatives (env, engine_klass, engine_methods, G_N_ELEMENTS (engine_methods));
+    } else {
+        (*env)->ExceptionClear (env);
+        __android_log_print (ANDROID_LOG_WARN, "JNI_BRIDGE", "JNI_OnLoad: PipelineEngine not found, multi-pipeline engine disabled");
+    }
     pthread_key_create (&current_jni_env, detach_current_thread);
     
     __android_log_print (ANDROID_LOG_INFO, "JNI_BRIDGE", "JNI_OnLoad: SUCCESS");
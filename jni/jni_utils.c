@@ -11,12 +11,10 @@
 JavaVM *java_vm = NULL;
 pthread_key_t current_jni_env;
 jfieldID custom_data_field_id = NULL;
-jmethodID set_message_method_id = NULL;
-jmethodID on_gstreamer_initialized_method_id = NULL;
-jmethodID on_gstreamer_error_method_id = NULL;
-jmethodID on_gstreamer_state_changed_method_id = NULL;
+jmethodID on_native_events_method_id = NULL;
+jmethodID engine_events_method_id = NULL;
+jclass string_class = NULL;
 gchar *saved_pipeline_string = NULL;
-extern pthread_t gst_app_thread;               /* Thread handle will be defined in gstreamer_app.c to manage thread lifecycle */
 
 // PRIVATE THREAD ATTACH AND DETACH FUNCTIONS
 
@@ -70,135 +68,156 @@ get_jni_env (void)
     return env;
 }
 
-// Change UI TextView content
-void
-set_ui_message (const gchar * message, CustomData * data)
+// Deliver every queued event to Java in one upcall. Runs on the pipeline's worker thread.
+static gboolean
+deliver_ui_events_cb (gpointer user_data)
 {
-    if (!message) {
-        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "NULL message in set_ui_message");
-        return;
+    CustomData *data = (CustomData *) user_data;
+    UiEvent events[EVENT_RING_SIZE];
+    jsize count = 0;
+
+    // Forget this source, then clear the flag: anything queued from here on schedules another drain
+    GSource *self = atomic_exchange (&data->drain_source, NULL);
+    if (self) {
+        g_source_unref (self);
     }
-    
-    if (!data) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL data in set_ui_message");
-        return;
+    atomic_store (&data->events.drain_scheduled, 0);
+    while (count < EVENT_RING_SIZE && event_ring_pop (&data->events, &events[count])) {
+        count++;
     }
-    
-    if (!data->app) {
-        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "NULL data->app in set_ui_message - UI not ready yet");
-        return;
+    if (count == 0) {
+        return G_SOURCE_REMOVE;
     }
-    
-    JNIEnv *env = get_jni_env ();
-    if (!env) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Failed to get JNI environment in set_ui_message");
-        return;
-    }
-    
-    if (!set_message_method_id) {
-        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "set_message_method_id not initialized - skipping UI update");
-        return;
+
+    // Managed pipelines report to the PipelineEngine, tagged with their handle
+    jmethodID method = data->handle ? engine_events_method_id : on_native_events_method_id;
+    JNIEnv *env = data->app && method ? get_jni_env () : NULL;
+    if (env) {
+        jintArray types = (*env)->NewIntArray (env, count);
+        jlongArray timestamps = (*env)->NewLongArray (env, count);
+        jlongArray values = (*env)->NewLongArray (env, count * UI_EVENT_VALUE_COUNT);
+        jobjectArray sources = (*env)->NewObjectArray (env, count, string_class, NULL);
+        jobjectArray texts = (*env)->NewObjectArray (env, count, string_class, NULL);
+        if (types && timestamps && values && sources && texts) {
+            jint type_values[EVENT_RING_SIZE];
+            jlong timestamp_values[EVENT_RING_SIZE];
+            for (jsize i = 0; i < count; i++) {
+                type_values[i] = events[i].type;
+                timestamp_values[i] = events[i].timestamp_us;
+                (*env)->SetLongArrayRegion (env, values, i * UI_EVENT_VALUE_COUNT, UI_EVENT_VALUE_COUNT,
+                                            (const jlong *) events[i].values);
+                if (events[i].source) {
+                    jstring source = (*env)->NewStringUTF (env, events[i].source);
+                    (*env)->SetObjectArrayElement (env, sources, i, source);
+                    (*env)->DeleteLocalRef (env, source);
+                }
+                if (events[i].text) {
+                    jstring text = (*env)->NewStringUTF (env, events[i].text);
+                    (*env)->SetObjectArrayElement (env, texts, i, text);
+                    (*env)->DeleteLocalRef (env, text);
+                }
+            }
+            (*env)->SetIntArrayRegion (env, types, 0, count, type_values);
+            (*env)->SetLongArrayRegion (env, timestamps, 0, count, timestamp_values);
+            if (data->handle) {
+                (*env)->CallVoidMethod (env, data->app, method, (jint) data->handle, types, timestamps, values, sources, texts);
+            } else {
+                (*env)->CallVoidMethod (env, data->app, method, types, timestamps, values, sources, texts);
+            }
+        }
+        if ((*env)->ExceptionCheck (env)) {
+            __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Exception thrown delivering %d UI events", count);
+            (*env)->ExceptionDescribe (env);
+            (*env)->ExceptionClear (env);
+        }
+        if (types) (*env)->DeleteLocalRef (env, types);
+        if (timestamps) (*env)->DeleteLocalRef (env, timestamps);
+        if (values) (*env)->DeleteLocalRef (env, values);
+        if (sources) (*env)->DeleteLocalRef (env, sources);
+        if (texts) (*env)->DeleteLocalRef (env, texts);
     }
-    
-    // Defensive: verify env is usable by checking for pending exceptions first
-    if ((*env)->ExceptionCheck(env)) {
-        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "Pending exception before NewStringUTF");
-        (*env)->ExceptionClear(env);
-        return;
+
+    for (jsize i = 0; i < count; i++) {
+        g_free (events[i].source);
+        g_free (events[i].text);
     }
-    
-    jstring jmessage = (*env)->NewStringUTF (env, message);
-    if (!jmessage || (*env)->ExceptionCheck(env)) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Failed to create jstring");
-        if ((*env)->ExceptionCheck(env)) {
-            (*env)->ExceptionClear(env);
-        }
-        return;
+    guint dropped = atomic_exchange (&data->events.dropped, 0);
+    if (dropped) {
+        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "Dropped %u UI events, ring full", dropped);
     }
-    
-    (*env)->CallVoidMethod (env, data->app, set_message_method_id, jmessage);
 
-    if ((*env)->ExceptionCheck (env)){
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Exception thrown in CallVoidMethod");
-        (*env)->ExceptionDescribe(env);
-        (*env)->ExceptionClear (env);
+    // More than one ring's worth was waiting: go again on the next iteration
+    if (count == EVENT_RING_SIZE) {
+        schedule_ui_events (data);
     }
-    (*env)->DeleteLocalRef (env, jmessage);
+    return G_SOURCE_REMOVE;
 }
 
-// Send error message to UI
+// Queue a drain on the worker thread unless one is already pending. At idle priority,
+// so events produced while handling the current bus messages go out in the same batch.
+// The source is remembered before it is attached, so stopping can always remove it
+// from the shared context.
 void
-set_ui_error (const gchar * error, CustomData * data)
+schedule_ui_events (CustomData *data)
 {
-    if (!data) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL data in set_ui_error");
+    if (atomic_exchange (&data->events.drain_scheduled, 1)) {
         return;
     }
-    
-    if (!data->app) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL data->app in set_ui_error");
+    if (!data->context) {
+        atomic_store (&data->events.drain_scheduled, 0);
         return;
     }
-    
-    if (!on_gstreamer_error_method_id) {
-        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "on_gstreamer_error_method_id not initialized - skipping error UI update");
-        return;
-    }
-    
-    JNIEnv *env = get_jni_env ();
-    if (!env) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Failed to get JNI environment in set_ui_error");
-        return;
-    }
-    
-    jstring jerror = (*env)->NewStringUTF (env, error);
-    if (!jerror) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Failed to create jstring in set_ui_error");
-        return;
-    }
-    
-    (*env)->CallVoidMethod (env, data->app, on_gstreamer_error_method_id, jerror);
-
-    if ((*env)->ExceptionCheck (env)){
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Exception thrown in set_ui_error");
-        (*env)->ExceptionClear (env);
-    }
-    (*env)->DeleteLocalRef (env, jerror);
+    GSource *source = g_idle_source_new ();
+    g_source_set_priority (source, G_PRIORITY_DEFAULT_IDLE);
+    g_source_set_callback (source, deliver_ui_events_cb, data, NULL);
+    atomic_store (&data->drain_source, source);
+    g_source_attach (source, data->context);
 }
 
-// Send state change message to UI
+// Queue an event for Java. Safe from any thread, never blocks.
 void
-set_ui_state (const gchar * state, CustomData * data)
+push_ui_event (CustomData *data, UiEventType type, const gchar *source, const gchar *text,
+               const gint64 values[UI_EVENT_VALUE_COUNT])
 {
     if (!data) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL data in set_ui_state");
+        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL data queuing UI event %d", type);
         return;
     }
-    
-    if (!data->app) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL app in set_ui_state");
-        return;
+    if (event_ring_push_full (&data->events, type, source, text, values)) {
+        schedule_ui_events (data);
     }
-    
-    if (!on_gstreamer_state_changed_method_id) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL method ID in set_ui_state");
-        return;
-    }
-    
-    JNIEnv *env = get_jni_env ();
-    if (!env) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Failed to get JNI environment in set_ui_state");
+}
+
+static void
+queue_ui_event (UiEventType type, const gchar *text, CustomData *data)
+{
+    push_ui_event (data, type, NULL, text, NULL);
+}
+
+// Change UI TextView content
+void
+set_ui_message (const gchar * message, CustomData * data)
+{
+    if (!message) {
+        __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "NULL message in set_ui_message");
         return;
     }
-    
-    jstring jstate = (*env)->NewStringUTF (env, state);
-    (*env)->CallVoidMethod (env, data->app, on_gstreamer_state_changed_method_id, jstate);
+    queue_ui_event (UI_EVENT_MESSAGE, message, data);
+}
 
-    if ((*env)->ExceptionCheck (env)){
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Exception thrown in set_ui_state");
-        (*env)->ExceptionClear (env);
-    }
-    (*env)->DeleteLocalRef (env, jstate);
+// Send error message to UI
+void
+set_ui_error (const gchar * error, CustomData * data)
+{
+    queue_ui_event (UI_EVENT_ERROR, error, data);
+}
+
+// Send state change message to UI
+void
+set_ui_state (GstState old_state, GstState new_state, GstState pending_state, CustomData * data)
+{
+    gint64 values[UI_EVENT_VALUE_COUNT] = { old_state, new_state, pending_state };
+    push_ui_event (data, UI_EVENT_STATE, NULL, gst_element_state_get_name (new_state), values);
 }
 
 // Check conditions to report that gstreamer is init
@@ -209,23 +228,10 @@ check_initialization_complete (JNIEnv *env, CustomData * data)
         __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL data in check_initialization_complete");
         return;
     }
-    
-    if (!env) {
-        __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "NULL JNI environment in check_initialization_complete");
-        return;
-    }
-    
-    if (!data->initialized && data->native_window && data->main_loop && data->video_sink && data->app){
-        if (!on_gstreamer_initialized_method_id) {
-            __android_log_print(ANDROID_LOG_WARN, "JNI_UTILS", "on_gstreamer_initialized_method_id not initialized - deferring");
-            return;
-        }
+
+    if (!data->initialized && data->native_window && data->context && data->video_sink && data->app){
         gst_video_overlay_set_window_handle (GST_VIDEO_OVERLAY (data->video_sink), (guintptr) data->native_window);
-        (*env)->CallVoidMethod (env, data->app, on_gstreamer_initialized_method_id);
-        if ((*env)->ExceptionCheck (env)){
-            __android_log_print(ANDROID_LOG_ERROR, "JNI_UTILS", "Exception thrown in check_initialization_complete (onGStreamerInitialized)");
-            (*env)->ExceptionClear (env);
-        }
+        queue_ui_event (UI_EVENT_INITIALIZED, NULL, data);
         data->initialized = TRUE;
     }
-}
\ No newline at end of file
+}
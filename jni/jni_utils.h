@@ -15,17 +15,19 @@
 extern JavaVM *java_vm;
 extern pthread_key_t current_jni_env;
 extern jfieldID custom_data_field_id;
-extern jmethodID set_message_method_id;
-extern jmethodID on_gstreamer_initialized_method_id;
-extern jmethodID on_gstreamer_error_method_id;
-extern jmethodID on_gstreamer_state_changed_method_id;
-extern gchar *saved_pipeline_string;                     /* global pipeline string */
+extern jmethodID on_native_events_method_id;           /* GstreamerMain.onNativeEvents, one call per batch */
+extern jmethodID engine_events_method_id;              /* PipelineEngine.onNativeEvents, same with the handle first */
+extern jclass string_class;                            /* Global reference to java.lang.String */
+extern gchar *saved_pipeline_string;                     /* Activity pipeline string, kept for the next nativeInit */
 
 // UTILITY FUNCTIONS will be implemented in jni_utils.c
 JNIEnv *get_jni_env (void);
 void set_ui_message (const gchar *message, CustomData *data);
 void set_ui_error (const gchar *error, CustomData *data);
-void set_ui_state (const gchar *state, CustomData *data);
+void set_ui_state (GstState old_state, GstState new_state, GstState pending_state, CustomData *data);
+void push_ui_event (CustomData *data, UiEventType type, const gchar *source, const gchar *text,
+                    const gint64 values[UI_EVENT_VALUE_COUNT]);
+void schedule_ui_events (CustomData *data);
 void detach_current_thread (void *env);
 
 // JNI POINTER ACCESS MACROS
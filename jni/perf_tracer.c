@@ -0,0 +1,507 @@
+//
+// perf_tracer.c
+//
+// Processing time is taken from the timestamps the core hands to the pad-push hooks,
+// so timing a buffer costs no extra clock reads:
+//   a buffer enters an element when its upstream peer's push starts (pad-push-pre),
+//   it has been processed when the element pushes it on (its own pad-push-pre), or,
+//   for sinks and queue inputs, when the upstream push returns (pad-push-post).
+// A small per-thread stack pairs the pre and post hooks. Only sampled buffers pay for
+// the latency query at the sinks and for measuring the hooks' own overhead.
+
+#include "perf_tracer.h"
+#include <stdatomic.h>
+#include <string.h>
+#include <gst/video/video.h>
+
+GST_DEBUG_CATEGORY_STATIC (perf_debug);
+#define GST_CAT_DEFAULT perf_debug
+
+typedef struct _ElementStats {
+    GstElement *element;        /* Reference held while the table is current */
+    gchar *name;
+    gint flags;
+    atomic_llong buffers_in;
+    atomic_llong buffers_out;
+    atomic_llong bytes_out;
+    atomic_llong proc_count;
+    atomic_llong proc_total_ns;
+    atomic_llong proc_max_ns;
+    atomic_llong latency_count;
+    atomic_llong latency_total_ns;
+    atomic_llong latency_max_ns;
+    atomic_llong proc_histogram[PERF_HISTOGRAM_BUCKETS];
+    atomic_llong latency_histogram[PERF_HISTOGRAM_BUCKETS];
+    gint64 snapshot_count;      /* Rate counter at the previous snapshot, under table_lock */
+} ElementStats;
+
+typedef struct _TracerTable {
+    guint generation;
+    GstElement *pipeline;
+    GstClockTime started;
+    atomic_int count;           /* Published slots; a slot is never reused */
+    ElementStats elements[PERF_MAX_ELEMENTS];
+} TracerTable;
+
+typedef struct _PushFrame {
+    GstPad *pad;                /* Pad the push started on */
+    ElementStats *stats;        /* Element receiving the buffer, or NULL */
+    GstClockTime ts;
+    gboolean emitted;           /* The receiver already pushed the buffer on */
+} PushFrame;
+
+#define PERF_MAX_DEPTH 32
+
+typedef struct _ThreadState {
+    PushFrame frames[PERF_MAX_DEPTH];
+    gint depth;                 /* May exceed PERF_MAX_DEPTH, deeper frames are not stored */
+    guint sample_counter;
+} ThreadState;
+
+typedef struct _PipelinerPerfTracer {
+    GstTracer parent;
+} PipelinerPerfTracer;
+
+typedef struct _PipelinerPerfTracerClass {
+    GstTracerClass parent_class;
+} PipelinerPerfTracerClass;
+
+static GType pipeliner_perf_tracer_get_type (void);
+G_DEFINE_TYPE (PipelinerPerfTracer, pipeliner_perf_tracer, GST_TYPE_TRACER);
+
+static GstTracer *tracer;
+static _Atomic (TracerTable *) current_table;
+static TracerTable *retired_table;     /* Kept one generation so late hooks never touch freed memory */
+static GMutex table_lock;
+static guint generation;
+static GstClockTime last_snapshot;
+static atomic_int enabled;
+static atomic_int sample_interval = 1;
+static atomic_llong hook_calls;
+static atomic_llong overhead_ns;
+static GPrivate thread_state_key = G_PRIVATE_INIT (g_free);
+
+static ThreadState *
+get_thread_state (void) {
+    ThreadState *state = g_private_get (&thread_state_key);
+    if (!state) {
+        state = g_new0 (ThreadState, 1);
+        g_private_set (&thread_state_key, state);
+    }
+    return state;
+}
+
+static ElementStats *
+lookup (TracerTable *table, GstObject *object) {
+    if (!object) {
+        return NULL;
+    }
+    gint count = atomic_load_explicit (&table->count, memory_order_acquire);
+    for (gint i = 0; i < count; i++) {
+        if ((GstObject *) table->elements[i].element == object) {
+            return &table->elements[i];
+        }
+    }
+    return NULL;
+}
+
+static gint
+histogram_bucket (gint64 ns) {
+    guint64 us = ns > 0 ? (guint64) ns / 1000 : 0;
+    return us == 0 ? 0 : MIN ((gint) g_bit_storage (us), PERF_HISTOGRAM_BUCKETS - 1);
+}
+
+static void
+update_max (atomic_llong *max, gint64 value) {
+    long long current = atomic_load_explicit (max, memory_order_relaxed);
+    while (value > current
+           && !atomic_compare_exchange_weak_explicit (max, &current, value, memory_order_relaxed, memory_order_relaxed)) {
+    }
+}
+
+static void
+record_proc (ElementStats *stats, gint64 ns) {
+    if (ns < 0) return;
+    atomic_fetch_add_explicit (&stats->proc_count, 1, memory_order_relaxed);
+    atomic_fetch_add_explicit (&stats->proc_total_ns, ns, memory_order_relaxed);
+    atomic_fetch_add_explicit (&stats->proc_histogram[histogram_bucket (ns)], 1, memory_order_relaxed);
+    update_max (&stats->proc_max_ns, ns);
+}
+
+// Age of a buffer on arrival at a sink: the pipeline clock's running time now minus
+// the buffer's running time. For live sources that is capture to display.
+static void
+record_latency (ElementStats *stats, GstPad *sink_pad, GstBuffer *buffer) {
+    GstClockTime pts = GST_BUFFER_PTS (buffer);
+    if (!GST_CLOCK_TIME_IS_VALID (pts)) return;
+
+    GstEvent *event = gst_pad_get_sticky_event (sink_pad, GST_EVENT_SEGMENT, 0);
+    if (!event) return;
+    const GstSegment *segment;
+    gst_event_parse_segment (event, &segment);
+    GstClockTime running_time = segment->format == GST_FORMAT_TIME
+                                ? gst_segment_to_running_time (segment, GST_FORMAT_TIME, pts)
+                                : GST_CLOCK_TIME_NONE;
+    gst_event_unref (event);
+    if (!GST_CLOCK_TIME_IS_VALID (running_time)) return;
+
+    GstClock *clock = gst_element_get_clock (stats->element);
+    if (!clock) return;
+    GstClockTime now = gst_clock_get_time (clock);
+    GstClockTime base_time = gst_element_get_base_time (stats->element);
+    gst_object_unref (clock);
+
+    gint64 ns = now > base_time + running_time ? (gint64) (now - base_time - running_time) : 0;
+    atomic_fetch_add_explicit (&stats->latency_count, 1, memory_order_relaxed);
+    atomic_fetch_add_explicit (&stats->latency_total_ns, ns, memory_order_relaxed);
+    atomic_fetch_add_explicit (&stats->latency_histogram[histogram_bucket (ns)], 1, memory_order_relaxed);
+    update_max (&stats->latency_max_ns, ns);
+}
+
+// Sampled hooks measure their own run time; it stands in for the unsampled ones too
+static void
+account_overhead (GstClockTime ts, gint interval) {
+    GstClockTime done = gst_util_get_timestamp ();
+    atomic_fetch_add_explicit (&hook_calls, interval, memory_order_relaxed);
+    atomic_fetch_add_explicit (&overhead_ns, (gint64) (done - ts) * interval, memory_order_relaxed);
+}
+
+static void
+push_pre (GstClockTime ts, GstPad *pad, GstBuffer *first, guint buffers, gsize bytes) {
+    if (!atomic_load_explicit (&enabled, memory_order_relaxed)) return;
+    TracerTable *table = atomic_load_explicit (&current_table, memory_order_acquire);
+    if (!table) return;
+
+    ThreadState *state = get_thread_state ();
+    gint interval = atomic_load_explicit (&sample_interval, memory_order_relaxed);
+    gboolean sampled = state->sample_counter++ % interval == 0;
+
+    ElementStats *src = lookup (table, GST_OBJECT_PARENT (pad));
+    if (src) {
+        atomic_fetch_add_explicit (&src->buffers_out, buffers, memory_order_relaxed);
+        atomic_fetch_add_explicit (&src->bytes_out, bytes, memory_order_relaxed);
+        if (state->depth > 0 && state->depth <= PERF_MAX_DEPTH) {
+            PushFrame *top = &state->frames[state->depth - 1];
+            if (top->stats == src && !top->emitted) {
+                record_proc (src, (gint64) (ts - top->ts));
+                top->emitted = TRUE;
+            }
+        }
+    }
+
+    GstPad *peer = GST_PAD_PEER (pad);
+    ElementStats *dst = peer ? lookup (table, GST_OBJECT_PARENT (peer)) : NULL;
+    if (dst) {
+        atomic_fetch_add_explicit (&dst->buffers_in, buffers, memory_order_relaxed);
+        if (sampled && first && (dst->flags & PERF_FLAG_SINK)) {
+            record_latency (dst, peer, first);
+        }
+    }
+
+    if (state->depth < PERF_MAX_DEPTH) {
+        PushFrame *frame = &state->frames[state->depth];
+        frame->pad = pad;
+        frame->stats = dst;
+        frame->ts = ts;
+        frame->emitted = FALSE;
+    }
+    state->depth++;
+
+    if (sampled) {
+        account_overhead (ts, interval);
+    }
+}
+
+static void
+push_buffer_pre_hook (GObject *self, GstClockTime ts, GstPad *pad, GstBuffer *buffer) {
+    push_pre (ts, pad, buffer, 1, gst_buffer_get_size (buffer));
+}
+
+static void
+push_list_pre_hook (GObject *self, GstClockTime ts, GstPad *pad, GstBufferList *list) {
+    guint length = gst_buffer_list_length (list);
+    push_pre (ts, pad, length ? gst_buffer_list_get (list, 0) : NULL, length,
+              gst_buffer_list_calculate_size (list));
+}
+
+// Runs even while disabled, so a push that started before disabling is still popped
+static void
+push_post_hook (GObject *self, GstClockTime ts, GstPad *pad, GstFlowReturn res) {
+    ThreadState *state = g_private_get (&thread_state_key);
+    if (!state || state->depth == 0) return;
+    if (state->depth > PERF_MAX_DEPTH) {
+        state->depth--;
+        return;
+    }
+    PushFrame *top = &state->frames[state->depth - 1];
+    if (top->pad != pad) return;
+    state->depth--;
+    // Nothing pushed on in the meantime: a sink rendered it or a queue stored it
+    if (top->stats && !top->emitted && atomic_load_explicit (&enabled, memory_order_relaxed)) {
+        record_proc (top->stats, (gint64) (ts - top->ts));
+    }
+}
+
+// Called with table_lock held
+static void
+add_element (TracerTable *table, GstElement *element) {
+    if (GST_IS_BIN (element)) {
+        // Bins only forward buffers; time their children instead
+        GstIterator *it = gst_bin_iterate_elements (GST_BIN (element));
+        GValue item = G_VALUE_INIT;
+        while (gst_iterator_next (it, &item) == GST_ITERATOR_OK) {
+            add_element (table, g_value_get_object (&item));
+            g_value_reset (&item);
+        }
+        g_value_unset (&item);
+        gst_iterator_free (it);
+        return;
+    }
+
+    gint count = atomic_load_explicit (&table->count, memory_order_relaxed);
+    if (count >= PERF_MAX_ELEMENTS || lookup (table, GST_OBJECT (element))) {
+        return;
+    }
+    ElementStats *stats = &table->elements[count];
+    stats->element = gst_object_ref (element);
+    stats->name = gst_object_get_name (GST_OBJECT (element));
+    if (GST_OBJECT_FLAG_IS_SET (element, GST_ELEMENT_FLAG_SOURCE)) stats->flags |= PERF_FLAG_SOURCE;
+    if (GST_OBJECT_FLAG_IS_SET (element, GST_ELEMENT_FLAG_SINK)) stats->flags |= PERF_FLAG_SINK;
+    if (GST_IS_VIDEO_OVERLAY (element)) stats->flags |= PERF_FLAG_VIDEO_SINK;
+    GObjectClass *klass = G_OBJECT_GET_CLASS (element);
+    if (g_object_class_find_property (klass, "current-level-buffers")
+        && g_object_class_find_property (klass, "max-size-buffers")) {
+        stats->flags |= PERF_FLAG_QUEUE;
+    }
+    atomic_store_explicit (&table->count, count + 1, memory_order_release);
+}
+
+static gboolean
+is_inside (GstObject *object, GstElement *pipeline) {
+    for (; object; object = GST_OBJECT_PARENT (object)) {
+        if (object == GST_OBJECT (pipeline)) return TRUE;
+    }
+    return FALSE;
+}
+
+// Elements created at run time, e.g. by decodebin once caps are known
+static void
+bin_add_post_hook (GObject *self, GstClockTime ts, GstBin *bin, GstElement *element, gboolean result) {
+    if (!result) return;
+    g_mutex_lock (&table_lock);
+    TracerTable *table = atomic_load (&current_table);
+    if (table && is_inside (GST_OBJECT (bin), table->pipeline)) {
+        add_element (table, element);
+    }
+    g_mutex_unlock (&table_lock);
+}
+
+static void
+pipeliner_perf_tracer_class_init (PipelinerPerfTracerClass *klass) {
+}
+
+static void
+pipeliner_perf_tracer_init (PipelinerPerfTracer *self) {
+    GstTracer *base = GST_TRACER (self);
+    gst_tracing_register_hook (base, "pad-push-pre", G_CALLBACK (push_buffer_pre_hook));
+    gst_tracing_register_hook (base, "pad-push-post", G_CALLBACK (push_post_hook));
+    gst_tracing_register_hook (base, "pad-push-list-pre", G_CALLBACK (push_list_pre_hook));
+    gst_tracing_register_hook (base, "pad-push-list-post", G_CALLBACK (push_post_hook));
+    gst_tracing_register_hook (base, "bin-add-post", G_CALLBACK (bin_add_post_hook));
+}
+
+void
+perf_tracer_init (void) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (perf_debug, "pipeliner-perf", 0, "Pipeliner performance tracer");
+        g_once_init_leave (&initialized, 1);
+    }
+}
+
+// Hooks cannot be unregistered, so the tracer is only created the first time it is
+// switched on and then lives as long as the process. Until then pushes pay nothing.
+static void
+ensure_tracer (void) {
+    static gsize created = 0;
+    if (g_once_init_enter (&created)) {
+        tracer = g_object_new (pipeliner_perf_tracer_get_type (), NULL);
+        g_once_init_leave (&created, 1);
+    }
+}
+
+void
+perf_tracer_set_enabled (gboolean enable, gint interval) {
+    perf_tracer_init ();
+    if (enable) {
+        ensure_tracer ();
+    }
+    atomic_store (&sample_interval, MAX (1, interval));
+    if (enable && !atomic_load (&enabled)) {
+        // Measure the overhead against the time the tracer has actually been on
+        g_mutex_lock (&table_lock);
+        TracerTable *table = atomic_load (&current_table);
+        if (table) {
+            table->started = gst_util_get_timestamp ();
+        }
+        atomic_store (&hook_calls, 0);
+        atomic_store (&overhead_ns, 0);
+        g_mutex_unlock (&table_lock);
+    }
+    atomic_store (&enabled, enable ? 1 : 0);
+    GST_INFO ("Performance tracer %s, timing every %d buffers", enable ? "on" : "off", MAX (1, interval));
+}
+
+gboolean
+perf_tracer_is_enabled (void) {
+    return atomic_load (&enabled) != 0;
+}
+
+static void
+table_release_elements (TracerTable *table) {
+    gint count = atomic_load (&table->count);
+    for (gint i = 0; i < count; i++) {
+        gst_clear_object (&table->elements[i].element);
+    }
+    gst_clear_object (&table->pipeline);
+}
+
+static void
+table_free (TracerTable *table) {
+    gint count = atomic_load (&table->count);
+    for (gint i = 0; i < count; i++) {
+        g_free (table->elements[i].name);
+    }
+    g_free (table);
+}
+
+// Called with table_lock held
+static void
+replace_table (TracerTable *table) {
+    TracerTable *old = atomic_exchange (&current_table, table);
+    if (retired_table) {
+        table_free (retired_table);
+    }
+    if (old) {
+        table_release_elements (old);
+    }
+    retired_table = old;
+    atomic_store (&hook_calls, 0);
+    atomic_store (&overhead_ns, 0);
+    last_snapshot = 0;
+}
+
+void
+perf_tracer_track (GstElement *pipeline) {
+    perf_tracer_init ();
+    TracerTable *table = g_new0 (TracerTable, 1);
+    table->pipeline = gst_object_ref (pipeline);
+    table->started = gst_util_get_timestamp ();
+    atomic_init (&table->count, 0);
+
+    g_mutex_lock (&table_lock);
+    table->generation = ++generation;
+    add_element (table, pipeline);
+    replace_table (table);
+    GST_DEBUG ("Tracking %d elements of %" GST_PTR_FORMAT, atomic_load (&table->count), pipeline);
+    g_mutex_unlock (&table_lock);
+}
+
+void
+perf_tracer_untrack (GstElement *pipeline) {
+    g_mutex_lock (&table_lock);
+    TracerTable *table = atomic_load (&current_table);
+    if (table && table->pipeline == pipeline) {
+        replace_table (NULL);
+    }
+    g_mutex_unlock (&table_lock);
+}
+
+static void
+read_queue_level (ElementStats *stats, gint64 *out) {
+    guint level_buffers, level_bytes, max_buffers, max_bytes;
+    guint64 level_time, max_time;
+    g_object_get (stats->element,
+                  "current-level-buffers", &level_buffers, "max-size-buffers", &max_buffers,
+                  "current-level-bytes", &level_bytes, "max-size-bytes", &max_bytes,
+                  "current-level-time", &level_time, "max-size-time", &max_time, NULL);
+
+    // The queue is full when the first of its limits is reached; 0 means unlimited
+    gint64 permille = 0;
+    if (max_buffers) permille = MAX (permille, (gint64) level_buffers * 1000 / max_buffers);
+    if (max_bytes) permille = MAX (permille, (gint64) level_bytes * 1000 / max_bytes);
+    if (max_time) permille = MAX (permille, (gint64) (level_time * 1000 / max_time));
+    out[PERF_FIELD_QUEUE_PERMILLE] = permille;
+    out[PERF_FIELD_QUEUE_TIME_NS] = (gint64) level_time;
+    out[PERF_FIELD_QUEUE_BUFFERS] = level_buffers;
+}
+
+gsize
+perf_tracer_snapshot (gint64 *out) {
+    g_mutex_lock (&table_lock);
+    TracerTable *table = atomic_load (&current_table);
+    GstClockTime now = gst_util_get_timestamp ();
+    GstClockTime interval = last_snapshot ? now - last_snapshot : 0;
+    gint count = table ? atomic_load (&table->count) : 0;
+    last_snapshot = now;
+
+    memset (out, 0, PERF_HEADER_COUNT * sizeof (gint64));
+    out[PERF_HEADER_GENERATION] = table ? table->generation : 0;
+    out[PERF_HEADER_ENABLED] = atomic_load (&enabled);
+    out[PERF_HEADER_SAMPLE_INTERVAL] = atomic_load (&sample_interval);
+    out[PERF_HEADER_ELEMENTS] = count;
+    out[PERF_HEADER_HOOK_CALLS] = atomic_load (&hook_calls);
+    out[PERF_HEADER_OVERHEAD_NS] = atomic_load (&overhead_ns);
+    out[PERF_HEADER_TRACKED_NS] = table ? (gint64) (now - table->started) : 0;
+    out[PERF_HEADER_INTERVAL_NS] = (gint64) interval;
+
+    for (gint i = 0; i < count; i++) {
+        ElementStats *stats = &table->elements[i];
+        gint64 *fields = out + PERF_HEADER_COUNT + i * PERF_ELEMENT_FIELD_COUNT;
+        memset (fields, 0, PERF_ELEMENT_FIELD_COUNT * sizeof (gint64));
+        fields[PERF_FIELD_FLAGS] = stats->flags;
+        fields[PERF_FIELD_BUFFERS_IN] = atomic_load_explicit (&stats->buffers_in, memory_order_relaxed);
+        fields[PERF_FIELD_BUFFERS_OUT] = atomic_load_explicit (&stats->buffers_out, memory_order_relaxed);
+        fields[PERF_FIELD_BYTES_OUT] = atomic_load_explicit (&stats->bytes_out, memory_order_relaxed);
+        fields[PERF_FIELD_PROC_COUNT] = atomic_load_explicit (&stats->proc_count, memory_order_relaxed);
+        fields[PERF_FIELD_PROC_TOTAL_NS] = atomic_load_explicit (&stats->proc_total_ns, memory_order_relaxed);
+        fields[PERF_FIELD_PROC_MAX_NS] = atomic_load_explicit (&stats->proc_max_ns, memory_order_relaxed);
+        fields[PERF_FIELD_LATENCY_COUNT] = atomic_load_explicit (&stats->latency_count, memory_order_relaxed);
+        fields[PERF_FIELD_LATENCY_TOTAL_NS] = atomic_load_explicit (&stats->latency_total_ns, memory_order_relaxed);
+        fields[PERF_FIELD_LATENCY_MAX_NS] = atomic_load_explicit (&stats->latency_max_ns, memory_order_relaxed);
+        for (gint b = 0; b < PERF_HISTOGRAM_BUCKETS; b++) {
+            fields[PERF_FIELD_PROC_HISTOGRAM + b] = atomic_load_explicit (&stats->proc_histogram[b], memory_order_relaxed);
+            fields[PERF_FIELD_LATENCY_HISTOGRAM + b] = atomic_load_explicit (&stats->latency_histogram[b], memory_order_relaxed);
+        }
+
+        gint64 counter = (stats->flags & PERF_FLAG_SINK) ? fields[PERF_FIELD_BUFFERS_IN] : fields[PERF_FIELD_BUFFERS_OUT];
+        if (interval > 0) {
+            fields[PERF_FIELD_RATE_MILLI] = (counter - stats->snapshot_count) * GST_SECOND * 1000 / (gint64) interval;
+        }
+        stats->snapshot_count = counter;
+
+        if (stats->flags & PERF_FLAG_QUEUE) {
+            read_queue_level (stats, fields);
+        } else {
+            fields[PERF_FIELD_QUEUE_PERMILLE] = -1;
+        }
+    }
+    g_mutex_unlock (&table_lock);
+    return PERF_HEADER_COUNT + (gsize) count * PERF_ELEMENT_FIELD_COUNT;
+}
+
+gchar **
+perf_tracer_element_names (guint *generation_out) {
+    g_mutex_lock (&table_lock);
+    TracerTable *table = atomic_load (&current_table);
+    gint count = table ? atomic_load (&table->count) : 0;
+    gchar **names = g_new0 (gchar *, count + 1);
+    for (gint i = 0; i < count; i++) {
+        names[i] = g_strdup (table->elements[i].name);
+    }
+    if (generation_out) {
+        *generation_out = table ? table->generation : 0;
+    }
+    g_mutex_unlock (&table_lock);
+    return names;
+}
@@ -0,0 +1,75 @@
+//
+// perf_tracer.h
+//
+// In-process GstTracer that times every element of the current pipeline: processing
+// time per buffer, buffer rates, end-to-end latency at the sinks and queue fill
+// levels. Hooks only update fixed-size counters and log2 histograms; the snapshot
+// copies them out. Off by default and switchable at runtime, with optional sampling
+// to bound the cost, and the hooks' own run time is measured and reported.
+
+#ifndef GSTREAMER_PIPELINER_1_0_PERF_TRACER_H
+#define GSTREAMER_PIPELINER_1_0_PERF_TRACER_H
+
+#include <gst/gst.h>
+
+#define PERF_MAX_ELEMENTS 64
+#define PERF_HISTOGRAM_BUCKETS 20   /* <1us, then [2^(k-1), 2^k) us, last one open ended */
+
+// Snapshot layout, must match PipelineTracer.java:
+// PERF_HEADER_COUNT header values, then PERF_ELEMENT_FIELD_COUNT values per element
+enum {
+    PERF_HEADER_GENERATION,      /* Changes when a new pipeline is tracked */
+    PERF_HEADER_ENABLED,
+    PERF_HEADER_SAMPLE_INTERVAL, /* Every Nth buffer is timed */
+    PERF_HEADER_ELEMENTS,
+    PERF_HEADER_HOOK_CALLS,      /* Hook invocations doing work since tracking started */
+    PERF_HEADER_OVERHEAD_NS,     /* Time spent inside those hooks */
+    PERF_HEADER_TRACKED_NS,      /* Time since tracking started */
+    PERF_HEADER_INTERVAL_NS,     /* Time since the previous snapshot, for the rates */
+    PERF_HEADER_COUNT
+};
+
+enum {
+    PERF_FIELD_FLAGS,            /* PERF_FLAG_* */
+    PERF_FIELD_BUFFERS_IN,
+    PERF_FIELD_BUFFERS_OUT,
+    PERF_FIELD_BYTES_OUT,
+    PERF_FIELD_RATE_MILLI,       /* Buffers per second x 1000 since the previous snapshot (out, or in for sinks) */
+    PERF_FIELD_PROC_COUNT,
+    PERF_FIELD_PROC_TOTAL_NS,
+    PERF_FIELD_PROC_MAX_NS,
+    PERF_FIELD_LATENCY_COUNT,
+    PERF_FIELD_LATENCY_TOTAL_NS,
+    PERF_FIELD_LATENCY_MAX_NS,
+    PERF_FIELD_QUEUE_PERMILLE,   /* Fill of the tightest limit, -1 if not a queue */
+    PERF_FIELD_QUEUE_TIME_NS,
+    PERF_FIELD_QUEUE_BUFFERS,
+    PERF_FIELD_PROC_HISTOGRAM,
+    PERF_FIELD_LATENCY_HISTOGRAM = PERF_FIELD_PROC_HISTOGRAM + PERF_HISTOGRAM_BUCKETS,
+    PERF_ELEMENT_FIELD_COUNT = PERF_FIELD_LATENCY_HISTOGRAM + PERF_HISTOGRAM_BUCKETS
+};
+
+enum {
+    PERF_FLAG_SOURCE = 1 << 0,
+    PERF_FLAG_SINK = 1 << 1,
+    PERF_FLAG_QUEUE = 1 << 2,
+    PERF_FLAG_VIDEO_SINK = 1 << 3
+};
+
+void perf_tracer_init (void);
+void perf_tracer_set_enabled (gboolean enabled, gint sample_interval);
+gboolean perf_tracer_is_enabled (void);
+
+// Start timing the given pipeline, dropping the previous one's numbers
+void perf_tracer_track (GstElement *pipeline);
+// Stop timing the pipeline, if it is still the tracked one
+void perf_tracer_untrack (GstElement *pipeline);
+
+#define PERF_SNAPSHOT_MAX (PERF_HEADER_COUNT + PERF_MAX_ELEMENTS * PERF_ELEMENT_FIELD_COUNT)
+
+// Fills out (up to PERF_SNAPSHOT_MAX values) and returns how many were written
+gsize perf_tracer_snapshot (gint64 *out);
+// Names of the tracked elements in snapshot order, NULL terminated, free with g_strfreev
+gchar **perf_tracer_element_names (guint *generation);
+
+#endif //GSTREAMER_PIPELINER_1_0_PERF_TRACER_H
@@ -0,0 +1,147 @@
+//
+// pipeline_manager.c
+//
+// Every call looks the handle up under manager_lock and holds it for the operation,
+// so a pipeline cannot be freed under a concurrent call. The calls only queue work on
+// the pipeline's worker or read stats, so the lock is never held for long; destroy
+// takes the pipeline out of the table first and stops it outside the lock.
+
+#include "pipeline_manager.h"
+#include "jni_utils.h"
+
+GST_DEBUG_CATEGORY_STATIC (manager_debug);
+#define GST_CAT_DEFAULT manager_debug
+
+static GMutex manager_lock;
+static GHashTable *pipelines = NULL;   /* handle -> CustomData */
+static gint next_handle = 1;
+static guint max_pipelines = 4;
+static jobject engine = NULL;          /* Global reference to the PipelineEngine */
+
+static void
+ensure_table (void) {
+    if (!pipelines) {
+        GST_DEBUG_CATEGORY_INIT (manager_debug, "pipelinemanager", 0, "Concurrent pipelines");
+        pipelines = g_hash_table_new (g_direct_hash, g_direct_equal);
+    }
+}
+
+void
+pipeline_manager_attach (JNIEnv *env, jobject engine_object) {
+    g_mutex_lock (&manager_lock);
+    ensure_table ();
+    if (!engine) {
+        engine = (*env)->NewGlobalRef (env, engine_object);
+    }
+    g_mutex_unlock (&manager_lock);
+}
+
+void
+pipeline_manager_configure (guint limit, guint worker_threads) {
+    g_mutex_lock (&manager_lock);
+    if (limit > 0) {
+        max_pipelines = MIN (limit, PIPELINE_MANAGER_MAX_PIPELINES);
+    }
+    g_mutex_unlock (&manager_lock);
+    if (worker_threads > 0 && !worker_pool_configure (worker_threads)) {
+        GST_WARNING ("Worker pool already running with %u threads", worker_pool_size ());
+    }
+}
+
+static CustomData *
+lookup (gint handle) {
+    return pipelines ? g_hash_table_lookup (pipelines, GINT_TO_POINTER (handle)) : NULL;
+}
+
+gint
+pipeline_manager_create (const gchar *launch_string) {
+    g_mutex_lock (&manager_lock);
+    ensure_table ();
+    if (!engine) {
+        g_mutex_unlock (&manager_lock);
+        return PIPELINE_MANAGER_ERROR_DETACHED;
+    }
+    if (g_hash_table_size (pipelines) >= max_pipelines) {
+        GST_WARNING ("Refusing pipeline, already running %u of %u", g_hash_table_size (pipelines), max_pipelines);
+        g_mutex_unlock (&manager_lock);
+        return PIPELINE_MANAGER_ERROR_LIMIT;
+    }
+
+    CustomData *data = g_new0 (CustomData, 1);
+    data->app = engine;
+    data->handle = next_handle++;
+    gst_app_set_pipeline_string (data, launch_string);
+    g_hash_table_insert (pipelines, GINT_TO_POINTER (data->handle), data);
+    // Parse errors come back asynchronously as an error event on the handle
+    gst_app_start (data);
+    GST_INFO ("Created pipeline %d, %u running", data->handle, g_hash_table_size (pipelines));
+    g_mutex_unlock (&manager_lock);
+    return data->handle;
+}
+
+gboolean
+pipeline_manager_destroy (gint handle) {
+    g_mutex_lock (&manager_lock);
+    CustomData *data = lookup (handle);
+    if (data) {
+        g_hash_table_remove (pipelines, GINT_TO_POINTER (handle));
+    }
+    g_mutex_unlock (&manager_lock);
+    if (!data) return FALSE;
+
+    gst_app_stop (data);
+    event_ring_clear (&data->events);
+    gst_app_clear_window (data);
+    // data->app is the engine's shared reference, not ours to delete
+    pthread_mutex_destroy (&data->overlay_mutex);
+    g_free (data);
+    GST_INFO ("Destroyed pipeline %d", handle);
+    return TRUE;
+}
+
+gboolean
+pipeline_manager_set_state (gint handle, GstState state) {
+    g_mutex_lock (&manager_lock);
+    CustomData *data = lookup (handle);
+    if (data) {
+        gst_app_set_state (data, state);
+    }
+    g_mutex_unlock (&manager_lock);
+    return data != NULL;
+}
+
+gboolean
+pipeline_manager_set_window (JNIEnv *env, gint handle, ANativeWindow *window) {
+    g_mutex_lock (&manager_lock);
+    CustomData *data = lookup (handle);
+    if (data && window) {
+        gst_app_set_window (env, data, window);
+    } else if (data && gst_app_clear_window (data)) {
+        // Same as the activity: a sink without a window must not keep rendering
+        gst_app_set_state (data, GST_STATE_READY);
+    }
+    g_mutex_unlock (&manager_lock);
+    return data != NULL;
+}
+
+gboolean
+pipeline_manager_set_bus_filter (gint handle, guint mask) {
+    g_mutex_lock (&manager_lock);
+    CustomData *data = lookup (handle);
+    if (data) {
+        bus_filter_set_mask (&data->bus_filter, mask);
+    }
+    g_mutex_unlock (&manager_lock);
+    return data != NULL;
+}
+
+gboolean
+pipeline_manager_get_stats (gint handle, gint64 *out) {
+    g_mutex_lock (&manager_lock);
+    CustomData *data = lookup (handle);
+    if (data) {
+        gst_app_get_stats (data, out);
+    }
+    g_mutex_unlock (&manager_lock);
+    return data != NULL;
+}
@@ -0,0 +1,36 @@
+//
+// pipeline_manager.h
+//
+// Runs several pipelines at once for the PipelineEngine Java API. Each pipeline gets
+// an integer handle, its own bus routing (events go to the engine tagged with the
+// handle) and its own surface binding, and is spread over the shared worker pool.
+// Handles are never reused within a process.
+
+#ifndef GSTREAMER_PIPELINER_1_0_PIPELINE_MANAGER_H
+#define GSTREAMER_PIPELINER_1_0_PIPELINE_MANAGER_H
+
+#include <jni.h>
+#include <android/native_window.h>
+#include "gstreamer_app.h"
+
+// Hard limit on concurrent pipelines, must match PipelineEngine.MAX_PIPELINES
+#define PIPELINE_MANAGER_MAX_PIPELINES 8
+
+// Errors returned by pipeline_manager_create instead of a handle, must match PipelineEngine.java
+#define PIPELINE_MANAGER_ERROR_LIMIT -1        /* Already running the configured maximum */
+#define PIPELINE_MANAGER_ERROR_DETACHED -2     /* No engine object to deliver events to */
+
+// Engine object every managed pipeline reports to; takes a global reference
+void pipeline_manager_attach (JNIEnv *env, jobject engine);
+// Limits: 0 keeps the current value. Worker threads only apply before the first pipeline.
+void pipeline_manager_configure (guint max_pipelines, guint worker_threads);
+
+gint pipeline_manager_create (const gchar *launch_string);
+gboolean pipeline_manager_destroy (gint handle);
+gboolean pipeline_manager_set_state (gint handle, GstState state);
+// A NULL window detaches the pipeline's surface and drops it to READY
+gboolean pipeline_manager_set_window (JNIEnv *env, gint handle, ANativeWindow *window);
+gboolean pipeline_manager_set_bus_filter (gint handle, guint mask);
+gboolean pipeline_manager_get_stats (gint handle, gint64 *out);
+
+#endif //GSTREAMER_PIPELINER_1_0_PIPELINE_MANAGER_H
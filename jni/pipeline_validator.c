@@ -0,0 +1,126 @@
+//
+// pipeline_validator.c
+//
+// Every check builds its own pipeline and polls its bus directly, without a main
+// loop, so checks on different threads share nothing but the registry. A pipeline
+// whose sources are all live reports NO_PREROLL once every element has started;
+// that is as far as a check can go without data and counts as a pass.
+
+#include "pipeline_validator.h"
+
+GST_DEBUG_CATEGORY_STATIC (validator_debug);
+#define GST_CAT_DEFAULT validator_debug
+
+static void
+validator_init_once (void) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (validator_debug, "pipelinevalidator", 0, "Pipeline validation");
+        g_once_init_leave (&initialized, 1);
+    }
+}
+
+static ValidateStatus
+status_for_parse_error (const GError *error) {
+    if (error->domain != GST_PARSE_ERROR) {
+        return VALIDATE_SYNTAX;
+    }
+    switch (error->code) {
+        case GST_PARSE_ERROR_NO_SUCH_ELEMENT:
+            return VALIDATE_MISSING_ELEMENT;
+        case GST_PARSE_ERROR_NO_SUCH_PROPERTY:
+        case GST_PARSE_ERROR_COULD_NOT_SET_PROPERTY:
+            return VALIDATE_BAD_PROPERTY;
+        case GST_PARSE_ERROR_LINK:
+        case GST_PARSE_ERROR_DELAYED_LINK:
+            return VALIDATE_LINK;
+        default:
+            return VALIDATE_SYNTAX;
+    }
+}
+
+// "element: message" of an error message
+static gchar *
+describe_error (GstMessage *msg) {
+    GError *err = NULL;
+    gst_message_parse_error (msg, &err, NULL);
+    gchar *text = g_strdup_printf ("%s: %s", GST_MESSAGE_SRC_NAME (msg), err ? err->message : "unknown error");
+    g_clear_error (&err);
+    return text;
+}
+
+static ValidateStatus
+preroll (GstElement *pipeline, gint timeout_ms, gchar **message) {
+    ValidateStatus status = VALIDATE_OK;
+    GstBus *bus = gst_element_get_bus (pipeline);
+    GstStateChangeReturn ret = gst_element_set_state (pipeline, GST_STATE_PAUSED);
+    if (ret == GST_STATE_CHANGE_FAILURE) {
+        GstMessage *msg = gst_bus_pop_filtered (bus, GST_MESSAGE_ERROR);
+        status = VALIDATE_STATE_CHANGE;
+        *message = msg ? describe_error (msg) : g_strdup ("Could not start the pipeline");
+        if (msg) {
+            gst_message_unref (msg);
+        }
+    } else if (ret == GST_STATE_CHANGE_ASYNC) {
+        GstMessage *msg = gst_bus_timed_pop_filtered (bus, (GstClockTime) timeout_ms * GST_MSECOND,
+                                                      GST_MESSAGE_ASYNC_DONE | GST_MESSAGE_ERROR);
+        if (!msg) {
+            status = VALIDATE_PREROLL_TIMEOUT;
+            *message = g_strdup_printf ("No data reached the sinks within %d ms", timeout_ms);
+        } else {
+            if (GST_MESSAGE_TYPE (msg) == GST_MESSAGE_ERROR) {
+                status = VALIDATE_PREROLL_ERROR;
+                *message = describe_error (msg);
+            }
+            gst_message_unref (msg);
+        }
+    }
+    // Streaming threads are joined here, before the pipeline goes
+    gst_element_set_state (pipeline, GST_STATE_NULL);
+    gst_object_unref (bus);
+    return status;
+}
+
+gchar **
+pipeline_validator_check (const gchar *launch_string, gint preroll_timeout_ms, gint64 *out) {
+    validator_init_once ();
+    out[VALIDATE_RESULT_STATUS] = VALIDATE_OK;
+    out[VALIDATE_RESULT_PREROLL_US] = -1;
+
+    GstParseContext *context = gst_parse_context_new ();
+    GError *error = NULL;
+    gchar *message = NULL;
+    gchar **missing = NULL;
+    gint64 start_us = g_get_monotonic_time ();
+    // Fatal errors: without the flag a pipeline that failed to link still comes back
+    GstElement *pipeline = gst_parse_launch_full (launch_string, context, GST_PARSE_FLAG_FATAL_ERRORS, &error);
+    out[VALIDATE_RESULT_PARSE_US] = g_get_monotonic_time () - start_us;
+
+    if (error) {
+        out[VALIDATE_RESULT_STATUS] = status_for_parse_error (error);
+        message = g_strdup (error->message);
+        missing = gst_parse_context_get_missing_elements (context);
+        g_clear_error (&error);
+    } else if (pipeline && preroll_timeout_ms > 0) {
+        start_us = g_get_monotonic_time ();
+        out[VALIDATE_RESULT_STATUS] = preroll (pipeline, preroll_timeout_ms, &message);
+        out[VALIDATE_RESULT_PREROLL_US] = g_get_monotonic_time () - start_us;
+    }
+    if (pipeline) {
+        gst_object_unref (gst_object_ref_sink (pipeline));
+    }
+    gst_parse_context_free (context);
+
+    GPtrArray *strings = g_ptr_array_new ();
+    g_ptr_array_add (strings, message ? message : g_strdup (""));
+    for (gchar **factory = missing; factory && *factory; factory++) {
+        g_ptr_array_add (strings, g_strdup (*factory));
+    }
+    g_ptr_array_add (strings, NULL);
+    g_strfreev (missing);
+
+    GST_DEBUG ("Status %" G_GINT64_FORMAT " in %" G_GINT64_FORMAT " + %" G_GINT64_FORMAT " us: %s",
+               out[VALIDATE_RESULT_STATUS], out[VALIDATE_RESULT_PARSE_US], out[VALIDATE_RESULT_PREROLL_US],
+               (const gchar *) strings->pdata[0]);
+    return (gchar **) g_ptr_array_free (strings, FALSE);
+}
@@ -0,0 +1,41 @@
+//
+// pipeline_validator.h
+//
+// Checks a launch string without playing it, for PipelineValidator: parsing it finds
+// syntax errors, unknown elements and properties and links that cannot be made, and
+// an optional preroll takes the built pipeline to PAUSED to see every element start
+// and, for non-live sources, data reach the sinks. The caller swaps sinks and
+// network sources out first. All calls are synchronous, meant for background
+// threads, and may run on several at once.
+
+#ifndef GSTREAMER_PIPELINER_1_0_PIPELINE_VALIDATOR_H
+#define GSTREAMER_PIPELINER_1_0_PIPELINE_VALIDATOR_H
+
+#include <gst/gst.h>
+
+// Layout of the values pipeline_validator_check fills in, must match PipelineValidator.java
+enum {
+    VALIDATE_RESULT_STATUS,          /* A ValidateStatus */
+    VALIDATE_RESULT_PARSE_US,
+    VALIDATE_RESULT_PREROLL_US,      /* -1 if not prerolled */
+    VALIDATE_RESULT_COUNT
+};
+
+// Must match PipelineValidator.STATUS_*
+typedef enum {
+    VALIDATE_OK,
+    VALIDATE_SYNTAX,                 /* Not a launch string gst_parse_launch understands */
+    VALIDATE_MISSING_ELEMENT,        /* No such element factory in the registry */
+    VALIDATE_BAD_PROPERTY,           /* No such property, or the value does not fit it */
+    VALIDATE_LINK,                   /* Two elements could not be linked */
+    VALIDATE_STATE_CHANGE,           /* An element failed to start */
+    VALIDATE_PREROLL_ERROR,          /* An error was posted while prerolling */
+    VALIDATE_PREROLL_TIMEOUT         /* No preroll within the timeout, no error either */
+} ValidateStatus;
+
+// Parses the launch string and, if preroll_timeout_ms > 0 and it parsed, prerolls it.
+// Returns the error message ("" if none) followed by the factories that were not
+// found, NULL terminated; free with g_strfreev.
+gchar **pipeline_validator_check (const gchar *launch_string, gint preroll_timeout_ms, gint64 *out);
+
+#endif //GSTREAMER_PIPELINER_1_0_PIPELINE_VALIDATOR_H
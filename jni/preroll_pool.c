@@ -0,0 +1,449 @@
+//
+// preroll_pool.c
+//
+// Every pooled pipeline is parsed and brought to READY (plugins loaded, elements
+// created). Live pipelines, up to max_hot_entries, additionally have their video
+// sink swapped for a fakesink and run in PLAYING, so the network stream is joined,
+// caps are negotiated and the decoder has seen a keyframe before the user asks for
+// it. Non-live pipelines stay in READY: they start quickly anyway, and prerolling
+// them into a fakesink would leave nothing to hand over.
+
+#include "preroll_pool.h"
+#include <gst/video/video.h>
+#include <android/log.h>
+#include <string.h>
+
+GST_DEBUG_CATEGORY_STATIC (pool_debug);
+#define GST_CAT_DEFAULT pool_debug
+
+typedef struct _PoolEntry {
+    gchar *launch_string;
+    PooledPipeline pooled;
+    gint failed;              /* Set from the bus sync handler on error */
+    gulong first_buffer_probe;
+    gint64 warmed_us;
+    gint64 first_buffer_us;   /* When the fakesink saw data, 0 until then */
+} PoolEntry;
+
+static GMutex pool_lock;
+static GList *entries = NULL;          /* Most recently warmed or used first */
+static guint max_entries = 3;
+static guint max_hot_entries = 1;      /* Hot entries decode continuously: this is the CPU budget */
+static gint64 take_counts[POOL_RESULT_COUNT];
+static gint64 ttff_sums[POOL_RESULT_COUNT];
+static gint64 ttff_counts[POOL_RESULT_COUNT];
+
+static void
+pool_init_once (void) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (pool_debug, "prerollpool", 0, "Pipeline preroll pool");
+        g_once_init_leave (&initialized, 1);
+    }
+}
+
+// Nobody watches a pooled pipeline's bus: note errors and drop everything else
+static GstBusSyncReply
+pool_bus_sync_handler (GstBus *bus, GstMessage *msg, gpointer user_data) {
+    PoolEntry *entry = (PoolEntry *) user_data;
+    if (GST_MESSAGE_TYPE (msg) == GST_MESSAGE_ERROR) {
+        GError *err = NULL;
+        gst_message_parse_error (msg, &err, NULL);
+        GST_WARNING ("Pooled pipeline failed: %s", err ? err->message : "unknown error");
+        g_clear_error (&err);
+        g_atomic_int_set (&entry->failed, 1);
+    }
+    return GST_BUS_DROP;
+}
+
+static GstPadProbeReturn
+first_buffer_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    PoolEntry *entry = (PoolEntry *) user_data;
+    entry->first_buffer_us = g_get_monotonic_time ();
+    entry->first_buffer_probe = 0;
+    return GST_PAD_PROBE_REMOVE;
+}
+
+static void
+pooled_pipeline_dispose (PooledPipeline *pooled) {
+    if (pooled->pipeline) {
+        gst_element_set_state (pooled->pipeline, GST_STATE_NULL);
+        gst_object_unref (pooled->pipeline);
+    }
+    if (pooled->video_sink) {
+        gst_element_set_state (pooled->video_sink, GST_STATE_NULL);
+        gst_object_unref (pooled->video_sink);
+    }
+    if (pooled->fakesink) {
+        gst_object_unref (pooled->fakesink);
+    }
+    if (pooled->tail_pad) {
+        gst_object_unref (pooled->tail_pad);
+    }
+    memset (pooled, 0, sizeof (*pooled));
+}
+
+// The probe points at the entry, so it must go before the entry does
+static void
+remove_first_buffer_probe (PoolEntry *entry) {
+    if (entry->first_buffer_probe && entry->pooled.fakesink) {
+        GstPad *fake_pad = gst_element_get_static_pad (entry->pooled.fakesink, "sink");
+        gst_pad_remove_probe (fake_pad, entry->first_buffer_probe);
+        gst_object_unref (fake_pad);
+    }
+    entry->first_buffer_probe = 0;
+}
+
+static void
+pool_entry_free (PoolEntry *entry) {
+    remove_first_buffer_probe (entry);
+    pooled_pipeline_dispose (&entry->pooled);
+    g_free (entry->launch_string);
+    g_free (entry);
+}
+
+static GList *
+find_entry (const gchar *launch_string) {
+    for (GList *l = entries; l; l = l->next) {
+        if (g_str_equal (((PoolEntry *) l->data)->launch_string, launch_string)) {
+            return l;
+        }
+    }
+    return NULL;
+}
+
+static guint
+count_hot_entries (void) {
+    guint hot = 0;
+    for (GList *l = entries; l; l = l->next) {
+        if (((PoolEntry *) l->data)->pooled.video_sink) {
+            hot++;
+        }
+    }
+    return hot;
+}
+
+// The direct child of the pipeline that is or contains the video overlay sink
+static GstElement *
+find_top_level_video_sink (GstElement *pipeline) {
+    GstElement *overlay = gst_bin_get_by_interface (GST_BIN (pipeline), GST_TYPE_VIDEO_OVERLAY);
+    if (!overlay) return NULL;
+
+    GstElement *element = overlay;
+    GstObject *parent;
+    while ((parent = gst_object_get_parent (GST_OBJECT (element))) != NULL) {
+        if (parent == GST_OBJECT (pipeline)) {
+            gst_object_unref (parent);
+            break;
+        }
+        gst_object_unref (element);
+        element = GST_ELEMENT (parent);
+    }
+    return element;
+}
+
+// Replace the video sink with a fakesink. The pipeline must not be streaming.
+static gboolean
+detach_video_sink (PoolEntry *entry) {
+    PooledPipeline *pooled = &entry->pooled;
+    GstElement *video_sink = find_top_level_video_sink (pooled->pipeline);
+    if (!video_sink) return FALSE;
+
+    GstPad *sink_pad = gst_element_get_static_pad (video_sink, "sink");
+    GstPad *tail_pad = sink_pad ? gst_pad_get_peer (sink_pad) : NULL;
+    if (sink_pad) gst_object_unref (sink_pad);
+    if (!tail_pad) {
+        gst_object_unref (video_sink);
+        return FALSE;
+    }
+
+    GstElement *fakesink = gst_element_factory_make ("fakesink", NULL);
+    if (!fakesink) {
+        gst_object_unref (tail_pad);
+        gst_object_unref (video_sink);
+        return FALSE;
+    }
+
+    gst_element_set_state (video_sink, GST_STATE_NULL);
+    gst_bin_remove (GST_BIN (pooled->pipeline), video_sink);  /* Unlinks; our reference keeps it alive */
+    gst_bin_add (GST_BIN (pooled->pipeline), gst_object_ref (fakesink));
+    GstPad *fake_pad = gst_element_get_static_pad (fakesink, "sink");
+    gst_pad_link (tail_pad, fake_pad);
+    entry->first_buffer_probe = gst_pad_add_probe (fake_pad, GST_PAD_PROBE_TYPE_BUFFER, first_buffer_probe, entry, NULL);
+    gst_object_unref (fake_pad);
+    gst_element_sync_state_with_parent (fakesink);
+
+    pooled->video_sink = video_sink;
+    pooled->fakesink = fakesink;
+    pooled->tail_pad = tail_pad;
+    return TRUE;
+}
+
+// Undo detach_video_sink. The pipeline must not be streaming.
+static void
+reattach_video_sink (PoolEntry *entry) {
+    PooledPipeline *pooled = &entry->pooled;
+    remove_first_buffer_probe (entry);
+    GstPad *fake_pad = gst_element_get_static_pad (pooled->fakesink, "sink");
+    gst_pad_unlink (pooled->tail_pad, fake_pad);
+    gst_object_unref (fake_pad);
+    gst_element_set_state (pooled->fakesink, GST_STATE_NULL);
+    gst_bin_remove (GST_BIN (pooled->pipeline), pooled->fakesink);
+    gst_object_unref (pooled->fakesink);
+
+    gst_bin_add (GST_BIN (pooled->pipeline), pooled->video_sink);
+    GstPad *sink_pad = gst_element_get_static_pad (pooled->video_sink, "sink");
+    gst_pad_link (pooled->tail_pad, sink_pad);
+    gst_object_unref (sink_pad);
+    gst_object_unref (pooled->video_sink);
+    gst_object_unref (pooled->tail_pad);
+
+    pooled->video_sink = NULL;
+    pooled->fakesink = NULL;
+    pooled->tail_pad = NULL;
+}
+
+void
+preroll_pool_configure (guint entries_limit, guint hot_limit) {
+    pool_init_once ();
+    g_mutex_lock (&pool_lock);
+    max_entries = entries_limit;
+    max_hot_entries = hot_limit;
+    g_mutex_unlock (&pool_lock);
+}
+
+// Parse and warm a pipeline, evicting the least recently used entries over the limit.
+// Blocking; called from the Java pool's background thread.
+gboolean
+preroll_pool_warm (const gchar *launch_string) {
+    pool_init_once ();
+    if (!launch_string || !*launch_string) return FALSE;
+
+    g_mutex_lock (&pool_lock);
+    GList *existing = find_entry (launch_string);
+    if (existing) {
+        PoolEntry *entry = existing->data;
+        if (!g_atomic_int_get (&entry->failed)) {
+            entries = g_list_remove_link (entries, existing);
+            entries = g_list_concat (existing, entries);
+            g_mutex_unlock (&pool_lock);
+            return TRUE;
+        }
+        entries = g_list_delete_link (entries, existing);
+        g_mutex_unlock (&pool_lock);
+        pool_entry_free (entry);
+        g_mutex_lock (&pool_lock);
+    }
+    gboolean may_go_hot = count_hot_entries () < max_hot_entries;
+    g_mutex_unlock (&pool_lock);
+
+    GError *error = NULL;
+    GstElement *pipeline = gst_parse_launch (launch_string, &error);
+    if (error) {
+        GST_INFO ("Not pooling unparsable pipeline: %s", error->message);
+        g_clear_error (&error);
+        if (pipeline) gst_object_unref (pipeline);
+        return FALSE;
+    }
+
+    gint64 start = g_get_monotonic_time ();
+    PoolEntry *entry = g_new0 (PoolEntry, 1);
+    entry->warmed_us = start;
+    entry->launch_string = g_strdup (launch_string);
+    entry->pooled.pipeline = pipeline;
+    GstBus *bus = gst_element_get_bus (pipeline);
+    gst_bus_set_sync_handler (bus, pool_bus_sync_handler, entry, NULL);
+    gst_object_unref (bus);
+
+    if (gst_element_set_state (pipeline, GST_STATE_READY) == GST_STATE_CHANGE_FAILURE) {
+        pool_entry_free (entry);
+        return FALSE;
+    }
+
+    if (may_go_hot && detach_video_sink (entry)) {
+        // Live sources do not preroll; anything else would preroll into the fakesink
+        if (gst_element_set_state (pipeline, GST_STATE_PAUSED) == GST_STATE_CHANGE_NO_PREROLL) {
+            gst_element_set_state (pipeline, GST_STATE_PLAYING);
+        } else {
+            gst_element_set_state (pipeline, GST_STATE_READY);
+            gst_element_get_state (pipeline, NULL, NULL, GST_CLOCK_TIME_NONE);
+            reattach_video_sink (entry);
+        }
+    }
+    GST_INFO ("Warmed %s pipeline in %" G_GINT64_FORMAT " ms",
+              entry->pooled.video_sink ? "hot" : "ready", (g_get_monotonic_time () - start) / 1000);
+
+    GList *evicted = NULL;
+    g_mutex_lock (&pool_lock);
+    entries = g_list_prepend (entries, entry);
+    while (g_list_length (entries) > max_entries) {
+        GList *last = g_list_last (entries);
+        entries = g_list_remove_link (entries, last);
+        evicted = g_list_concat (evicted, last);
+    }
+    g_mutex_unlock (&pool_lock);
+
+    // Teardown can block on the network, keep it outside the lock
+    g_list_free_full (evicted, (GDestroyNotify) pool_entry_free);
+    return TRUE;
+}
+
+void
+preroll_pool_evict (const gchar *launch_string) {
+    g_mutex_lock (&pool_lock);
+    GList *link = find_entry (launch_string);
+    if (link) {
+        entries = g_list_remove_link (entries, link);
+    }
+    g_mutex_unlock (&pool_lock);
+    if (link) {
+        g_list_free_full (link, (GDestroyNotify) pool_entry_free);
+    }
+}
+
+void
+preroll_pool_clear (void) {
+    g_mutex_lock (&pool_lock);
+    GList *all = entries;
+    entries = NULL;
+    g_mutex_unlock (&pool_lock);
+    g_list_free_full (all, (GDestroyNotify) pool_entry_free);
+}
+
+// Hand a pooled pipeline over to the caller, who takes ownership of everything in out
+PoolTakeResult
+preroll_pool_take (const gchar *launch_string, PooledPipeline *out) {
+    pool_init_once ();
+    memset (out, 0, sizeof (*out));
+
+    g_mutex_lock (&pool_lock);
+    GList *link = launch_string ? find_entry (launch_string) : NULL;
+    if (link) {
+        entries = g_list_remove_link (entries, link);
+    }
+    PoolTakeResult result = POOL_MISS;
+    PoolEntry *entry = link ? link->data : NULL;
+    if (entry && !g_atomic_int_get (&entry->failed)) {
+        result = entry->pooled.video_sink ? POOL_HIT_HOT : POOL_HIT_READY;
+    }
+    take_counts[result]++;
+    g_mutex_unlock (&pool_lock);
+
+    if (!entry) {
+        return POOL_MISS;
+    }
+    g_list_free (link);
+    if (result == POOL_MISS) {
+        pool_entry_free (entry);
+        return POOL_MISS;
+    }
+
+    remove_first_buffer_probe (entry);
+    GstBus *bus = gst_element_get_bus (entry->pooled.pipeline);
+    gst_bus_set_sync_handler (bus, NULL, NULL, NULL);
+    gst_object_unref (bus);
+
+    GST_INFO ("Pool hit (%s, warmed %" G_GINT64_FORMAT " ms ago, %s) for %s",
+              result == POOL_HIT_HOT ? "hot" : "ready",
+              (g_get_monotonic_time () - entry->warmed_us) / 1000,
+              entry->first_buffer_us ? "streaming" : "no data yet", launch_string);
+    *out = entry->pooled;
+    memset (&entry->pooled, 0, sizeof (entry->pooled));
+    pool_entry_free (entry);
+    return result;
+}
+
+typedef struct _AttachContext {
+    GstElement *pipeline;
+    GstElement *video_sink;
+    GstElement *fakesink;
+} AttachContext;
+
+static void
+attach_context_free (gpointer user_data) {
+    AttachContext *ctx = (AttachContext *) user_data;
+    gst_object_unref (ctx->pipeline);
+    gst_object_unref (ctx->video_sink);
+    gst_object_unref (ctx->fakesink);
+    g_free (ctx);
+}
+
+// Runs once the tail pad is idle: swap the fakesink for the video sink mid-stream
+static GstPadProbeReturn
+attach_idle_probe (GstPad *tail_pad, GstPadProbeInfo *info, gpointer user_data) {
+    AttachContext *ctx = (AttachContext *) user_data;
+
+    GstPad *fake_pad = gst_element_get_static_pad (ctx->fakesink, "sink");
+    gst_pad_unlink (tail_pad, fake_pad);
+    gst_object_unref (fake_pad);
+    gst_element_set_state (ctx->fakesink, GST_STATE_NULL);
+    gst_bin_remove (GST_BIN (ctx->pipeline), ctx->fakesink);
+
+    gst_bin_add (GST_BIN (ctx->pipeline), gst_object_ref (ctx->video_sink));
+    GstPad *sink_pad = gst_element_get_static_pad (ctx->video_sink, "sink");
+    gst_pad_link (tail_pad, sink_pad);
+    gst_object_unref (sink_pad);
+    gst_element_sync_state_with_parent (ctx->video_sink);
+
+    return GST_PAD_PROBE_REMOVE;
+}
+
+// Put a hot pipeline's video sink back, bound to the given window. Returns the overlay
+// element (new reference) so the caller can expose and re-bind it later.
+GstElement *
+preroll_pool_attach (GstElement *pipeline, PooledPipeline *pooled, guintptr window_handle) {
+    if (!pooled->video_sink) {
+        return gst_bin_get_by_interface (GST_BIN (pipeline), GST_TYPE_VIDEO_OVERLAY);
+    }
+
+    // READY creates the children of bins such as autovideosink, so the overlay can be found
+    gst_element_set_state (pooled->video_sink, GST_STATE_READY);
+    GstElement *overlay = GST_IS_VIDEO_OVERLAY (pooled->video_sink)
+            ? gst_object_ref (pooled->video_sink)
+            : gst_bin_get_by_interface (GST_BIN (pooled->video_sink), GST_TYPE_VIDEO_OVERLAY);
+    if (overlay && window_handle) {
+        gst_video_overlay_set_window_handle (GST_VIDEO_OVERLAY (overlay), window_handle);
+    }
+
+    AttachContext *ctx = g_new0 (AttachContext, 1);
+    ctx->pipeline = gst_object_ref (pipeline);
+    ctx->video_sink = pooled->video_sink;
+    ctx->fakesink = pooled->fakesink;
+    gst_pad_add_probe (pooled->tail_pad, GST_PAD_PROBE_TYPE_IDLE, attach_idle_probe, ctx, attach_context_free);
+    gst_object_unref (pooled->tail_pad);
+
+    pooled->video_sink = NULL;
+    pooled->fakesink = NULL;
+    pooled->tail_pad = NULL;
+    return overlay;
+}
+
+// Dispose of whatever is left of a taken pipeline that was never attached
+void
+preroll_pool_release (PooledPipeline *pooled) {
+    pooled_pipeline_dispose (pooled);
+}
+
+void
+preroll_pool_record_first_frame (PoolTakeResult result, gint64 ttff_us) {
+    g_mutex_lock (&pool_lock);
+    ttff_sums[result] += ttff_us;
+    ttff_counts[result]++;
+    g_mutex_unlock (&pool_lock);
+    __android_log_print (ANDROID_LOG_INFO, "PrerollPool", "First frame after %" G_GINT64_FORMAT " ms (%s)",
+                         ttff_us / 1000, result == POOL_HIT_HOT ? "hot hit" : result == POOL_HIT_READY ? "ready hit" : "miss");
+}
+
+void
+preroll_pool_get_stats (gint64 stats[POOL_STAT_COUNT]) {
+    g_mutex_lock (&pool_lock);
+    stats[POOL_STAT_ENTRIES] = g_list_length (entries);
+    stats[POOL_STAT_HOT_ENTRIES] = count_hot_entries ();
+    stats[POOL_STAT_HITS_HOT] = take_counts[POOL_HIT_HOT];
+    stats[POOL_STAT_HITS_READY] = take_counts[POOL_HIT_READY];
+    stats[POOL_STAT_MISSES] = take_counts[POOL_MISS];
+    stats[POOL_STAT_TTFF_HOT_US] = ttff_counts[POOL_HIT_HOT] ? ttff_sums[POOL_HIT_HOT] / ttff_counts[POOL_HIT_HOT] : 0;
+    stats[POOL_STAT_TTFF_READY_US] = ttff_counts[POOL_HIT_READY] ? ttff_sums[POOL_HIT_READY] / ttff_counts[POOL_HIT_READY] : 0;
+    stats[POOL_STAT_TTFF_MISS_US] = ttff_counts[POOL_MISS] ? ttff_sums[POOL_MISS] / ttff_counts[POOL_MISS] : 0;
+    g_mutex_unlock (&pool_lock);
+}
@@ -0,0 +1,55 @@
+//
+// preroll_pool.h
+//
+// Bounded pool of pipelines kept parsed (and, for live sources, streaming) in the
+// background, so switching to a favorite or recent pipeline skips parsing, plugin
+// loading, connection setup and waiting for caps and a keyframe.
+
+#ifndef GSTREAMER_PIPELINER_1_0_PREROLL_POOL_H
+#define GSTREAMER_PIPELINER_1_0_PREROLL_POOL_H
+
+#include <gst/gst.h>
+
+typedef enum {
+    POOL_MISS = 0,       /* Not pooled: parsed from scratch */
+    POOL_HIT_READY = 1,  /* Parsed and in READY, sink attached */
+    POOL_HIT_HOT = 2,    /* Live and streaming into a fakesink, video sink detached */
+    POOL_RESULT_COUNT
+} PoolTakeResult;
+
+// A pipeline handed over by the pool. For hot pipelines the video sink is detached
+// and must be put back with preroll_pool_attach() once a window is available.
+// The caller may move the pipeline reference out and set the field to NULL.
+typedef struct _PooledPipeline {
+    GstElement *pipeline;
+    GstElement *video_sink;  /* Detached top-level video sink, or NULL */
+    GstElement *fakesink;    /* Stand-in sink while detached, or NULL */
+    GstPad *tail_pad;        /* Upstream pad feeding the video sink, or NULL */
+} PooledPipeline;
+
+// Stats layout returned by preroll_pool_get_stats
+enum {
+    POOL_STAT_ENTRIES,
+    POOL_STAT_HOT_ENTRIES,
+    POOL_STAT_HITS_HOT,
+    POOL_STAT_HITS_READY,
+    POOL_STAT_MISSES,
+    POOL_STAT_TTFF_HOT_US,    /* Mean time to first frame per take result */
+    POOL_STAT_TTFF_READY_US,
+    POOL_STAT_TTFF_MISS_US,
+    POOL_STAT_COUNT
+};
+
+void preroll_pool_configure (guint max_entries, guint max_hot_entries);
+gboolean preroll_pool_warm (const gchar *launch_string);
+void preroll_pool_evict (const gchar *launch_string);
+void preroll_pool_clear (void);
+
+PoolTakeResult preroll_pool_take (const gchar *launch_string, PooledPipeline *out);
+GstElement *preroll_pool_attach (GstElement *pipeline, PooledPipeline *pooled, guintptr window_handle);
+void preroll_pool_release (PooledPipeline *pooled);
+
+void preroll_pool_record_first_frame (PoolTakeResult result, gint64 ttff_us);
+void preroll_pool_get_stats (gint64 stats[POOL_STAT_COUNT]);
+
+#endif //GSTREAMER_PIPELINER_1_0_PREROLL_POOL_H
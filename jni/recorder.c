@@ -0,0 +1,327 @@
+//
+// recorder.c
+//
+// The branch is a bin of queue ! [parser] ! splitmuxsink behind a requested tee pad.
+// The queue decouples the muxer and the disk from the display: a buffer probe on the
+// tee pad drops what the queue cannot take instead of letting the tee block, and the
+// recording then resumes at the next keyframe. Segments are Matroska, so a segment cut
+// short by a crash or a pipeline switch is still playable.
+//
+// Detaching blocks the tee pad with an idle probe, unlinks it and pushes EOS into the
+// branch. The bin forwards the EOS of splitmuxsink as an element message (it would
+// otherwise be swallowed until every sink is done), and on that the worker removes it.
+
+#include "recorder.h"
+#include <string.h>
+
+GST_DEBUG_CATEGORY_STATIC (recorder_debug);
+#define GST_CAT_DEFAULT recorder_debug
+
+#define RECORDER_BIN "rec_bin"
+#define RECORDER_QUEUE_BYTES (8 * 1024 * 1024)
+// Stops waiting for the last segment to close if EOS never comes out of the branch
+#define RECORDER_FINALIZE_TIMEOUT_MS 5000
+
+void
+recorder_init (Recorder *recorder) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (recorder_debug, "recorder", 0, "Record while watching");
+        g_once_init_leave (&initialized, 1);
+    }
+    memset (recorder, 0, sizeof (*recorder));
+    atomic_init (&recorder->finish_source, NULL);
+    atomic_init (&recorder->state, RECORDER_IDLE);
+    atomic_init (&recorder->keyframe_seen, 0);
+    atomic_init (&recorder->bytes, 0);
+    atomic_init (&recorder->segments, 0);
+    atomic_init (&recorder->dropped, 0);
+    atomic_init (&recorder->started_us, 0);
+    atomic_init (&recorder->stopped_us, 0);
+}
+
+// Streaming thread: start at a keyframe, and never let the tee wait on the branch
+static GstPadProbeReturn
+record_buffer_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    Recorder *recorder = (Recorder *) user_data;
+    GstBuffer *buffer = GST_PAD_PROBE_INFO_BUFFER (info);
+    if (!buffer) return GST_PAD_PROBE_OK;
+
+    if (!atomic_load (&recorder->keyframe_seen)) {
+        if (GST_BUFFER_FLAG_IS_SET (buffer, GST_BUFFER_FLAG_DELTA_UNIT)) {
+            atomic_fetch_add (&recorder->dropped, 1);
+            return GST_PAD_PROBE_DROP;
+        }
+        atomic_store (&recorder->keyframe_seen, 1);
+    }
+
+    gsize size = gst_buffer_get_size (buffer);
+    guint level = 0;
+    g_object_get (recorder->queue, "current-level-bytes", &level, NULL);
+    if (level + size > RECORDER_QUEUE_BYTES / 4 * 3) {
+        // Disk or muxer behind: skip ahead to the next keyframe rather than record garbage
+        atomic_store (&recorder->keyframe_seen, 0);
+        atomic_fetch_add (&recorder->dropped, 1);
+        return GST_PAD_PROBE_DROP;
+    }
+    atomic_fetch_add (&recorder->bytes, (long long) size);
+    return GST_PAD_PROBE_OK;
+}
+
+// Parser that turns what the tee carries into something the muxer takes (byte-stream
+// H.264 into avc, for one), or NULL if the caps need none
+static const gchar *
+parser_for_caps (GstCaps *caps) {
+    const gchar *media = gst_structure_get_name (gst_caps_get_structure (caps, 0));
+    if (g_str_equal (media, "video/x-h264")) return "h264parse";
+    if (g_str_equal (media, "video/x-h265")) return "h265parse";
+    if (g_str_equal (media, "video/x-av1")) return "av1parse";
+    return NULL;
+}
+
+static GstElement *
+make_branch (Recorder *recorder, GstCaps *caps, const gchar *location, guint64 segment_ns) {
+    GstElement *queue = gst_element_factory_make ("queue", "rec_queue");
+    GstElement *mux = gst_element_factory_make ("splitmuxsink", "rec_mux");
+    GstElement *container = gst_element_factory_make ("matroskamux", NULL);
+    const gchar *parser_name = parser_for_caps (caps);
+    GstElement *parser = parser_name ? gst_element_factory_make (parser_name, "rec_parse") : NULL;
+    if (!queue || !mux || !container) {
+        GST_WARNING ("Recording needs queue, splitmuxsink and matroskamux");
+        if (queue) gst_object_unref (queue);
+        if (mux) gst_object_unref (mux);
+        if (container) gst_object_unref (container);
+        if (parser) gst_object_unref (parser);
+        return NULL;
+    }
+
+    // Leaky only as a last resort; the buffer probe drops before the queue fills
+    g_object_set (queue, "max-size-buffers", 0, "max-size-time", (guint64) 0,
+                  "max-size-bytes", RECORDER_QUEUE_BYTES, "leaky", 2 /* downstream */, NULL);
+    g_object_set (mux, "location", location, "max-size-time", segment_ns, "muxer", container, NULL);
+
+    GstElement *bin = gst_bin_new (RECORDER_BIN);
+    g_object_set (bin, "message-forward", TRUE, NULL);
+    gst_bin_add_many (GST_BIN (bin), queue, mux, NULL);
+    gboolean linked;
+    if (parser) {
+        // Keep codec headers in every segment, not only the first
+        g_object_set (parser, "config-interval", -1, NULL);
+        gst_bin_add (GST_BIN (bin), parser);
+        linked = gst_element_link_many (queue, parser, mux, NULL);
+    } else {
+        linked = gst_element_link (queue, mux);
+    }
+    if (!linked) {
+        GST_WARNING ("Could not link recording branch for %" GST_PTR_FORMAT, caps);
+        gst_object_unref (gst_object_ref_sink (bin));
+        return NULL;
+    }
+
+    GstPad *sink = gst_element_get_static_pad (queue, "sink");
+    gst_element_add_pad (bin, gst_ghost_pad_new ("sink", sink));
+    gst_object_unref (sink);
+    recorder->queue = gst_object_ref (queue);
+    return bin;
+}
+
+const gchar *
+recorder_start (Recorder *recorder, GstElement *pipeline, GMainContext *context,
+                const gchar *location, guint64 segment_ns) {
+    if (atomic_load (&recorder->state) != RECORDER_IDLE) {
+        return "Already recording";
+    }
+    GstElement *tee = gst_bin_get_by_name (GST_BIN (pipeline), RECORDER_TEE);
+    if (!tee) {
+        return "Nothing to record: no parsed video stream in this pipeline";
+    }
+    GstPad *tee_sink = gst_element_get_static_pad (tee, "sink");
+    GstCaps *caps = gst_pad_get_current_caps (tee_sink);
+    gst_object_unref (tee_sink);
+    if (!caps) {
+        gst_object_unref (tee);
+        return "Nothing to record yet: the stream has not started";
+    }
+
+    GstElement *branch = make_branch (recorder, caps, location, segment_ns);
+    gst_caps_unref (caps);
+    if (!branch) {
+        gst_object_unref (tee);
+        return "Recording is not available in this build";
+    }
+
+    atomic_store (&recorder->keyframe_seen, 0);
+    atomic_store (&recorder->bytes, 0);
+    atomic_store (&recorder->segments, 0);
+    atomic_store (&recorder->dropped, 0);
+    atomic_store (&recorder->started_us, g_get_monotonic_time ());
+    atomic_store (&recorder->stopped_us, 0);
+
+    gst_bin_add (GST_BIN (pipeline), branch);
+    gst_element_sync_state_with_parent (branch);
+
+    GstPad *tee_pad = gst_element_request_pad (tee, gst_element_get_pad_template (tee, "src_%u"), NULL, NULL);
+    GstPad *branch_sink = gst_element_get_static_pad (branch, "sink");
+    recorder->buffer_probe = gst_pad_add_probe (tee_pad, GST_PAD_PROBE_TYPE_BUFFER,
+                                                record_buffer_probe, recorder, NULL);
+    GstPadLinkReturn linked = gst_pad_link (tee_pad, branch_sink);
+    gst_object_unref (branch_sink);
+    if (linked != GST_PAD_LINK_OK) {
+        GST_WARNING ("Could not link recording branch to the tee: %d", linked);
+        gst_pad_remove_probe (tee_pad, recorder->buffer_probe);
+        recorder->buffer_probe = 0;
+        gst_element_release_request_pad (tee, tee_pad);
+        gst_object_unref (tee_pad);
+        gst_element_set_locked_state (branch, TRUE);
+        gst_element_set_state (branch, GST_STATE_NULL);
+        gst_bin_remove (GST_BIN (pipeline), branch);
+        gst_object_unref (recorder->queue);
+        recorder->queue = NULL;
+        gst_object_unref (tee);
+        return "The recording branch could not be linked";
+    }
+
+    recorder->pipeline = gst_object_ref (pipeline);
+    recorder->branch = branch;
+    recorder->tee = tee;
+    recorder->tee_pad = tee_pad;
+    recorder->context = g_main_context_ref (context);
+    atomic_store (&recorder->state, RECORDER_RECORDING);
+    GST_INFO ("Recording to %s, %" G_GUINT64_FORMAT " s segments", location, segment_ns / GST_SECOND);
+    return NULL;
+}
+
+// Drop the recorder's references; remove says whether the branch still has to be
+// taken out of a running pipeline
+static void
+release_branch (Recorder *recorder, gboolean remove) {
+    if (recorder->buffer_probe) {
+        // Waits for a running callback, which reads the recorder
+        gst_pad_remove_probe (recorder->tee_pad, recorder->buffer_probe);
+        recorder->buffer_probe = 0;
+    }
+    if (remove) {
+        gst_element_release_request_pad (recorder->tee, recorder->tee_pad);
+        gst_element_set_locked_state (recorder->branch, TRUE);
+        gst_element_set_state (recorder->branch, GST_STATE_NULL);
+        gst_bin_remove (GST_BIN (recorder->pipeline), recorder->branch);
+    }
+    gst_object_unref (recorder->tee_pad);
+    gst_object_unref (recorder->tee);
+    gst_object_unref (recorder->queue);
+    gst_object_unref (recorder->pipeline);
+    g_main_context_unref (recorder->context);
+    recorder->tee_pad = NULL;
+    recorder->tee = NULL;
+    recorder->queue = NULL;
+    recorder->branch = NULL;
+    recorder->pipeline = NULL;
+    recorder->context = NULL;
+    atomic_store (&recorder->stopped_us, g_get_monotonic_time ());
+    atomic_store (&recorder->state, RECORDER_IDLE);
+}
+
+static void
+cancel_finish (Recorder *recorder) {
+    GSource *source = atomic_exchange (&recorder->finish_source, NULL);
+    if (source) {
+        g_source_destroy (source);
+        g_source_unref (source);
+    }
+}
+
+// Worker thread, on EOS out of the branch or on the timeout; whichever comes first
+static gboolean
+finish_cb (gpointer user_data) {
+    Recorder *recorder = (Recorder *) user_data;
+    cancel_finish (recorder);
+    if (atomic_load (&recorder->state) != RECORDER_FINALIZING || !recorder->branch) {
+        return G_SOURCE_REMOVE;
+    }
+    GST_INFO ("Recording finished: %lld segments, %lld bytes, %lld buffers dropped",
+              (long long) atomic_load (&recorder->segments), (long long) atomic_load (&recorder->bytes),
+              (long long) atomic_load (&recorder->dropped));
+    release_branch (recorder, TRUE);
+    return G_SOURCE_REMOVE;
+}
+
+static void
+schedule_finish (Recorder *recorder, GSource *source) {
+    g_source_set_callback (source, finish_cb, recorder, NULL);
+    // Stored before it is attached, so cancel_finish always sees it
+    GSource *previous = atomic_exchange (&recorder->finish_source, source);
+    if (previous) {
+        g_source_destroy (previous);
+        g_source_unref (previous);
+    }
+    g_source_attach (source, recorder->context);
+}
+
+// Between two buffers on the tee pad: cut the branch off and let it drain
+static GstPadProbeReturn
+detach_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    GstPad *branch_sink = gst_pad_get_peer (pad);
+    if (branch_sink) {
+        gst_pad_unlink (pad, branch_sink);
+        gst_pad_send_event (branch_sink, gst_event_new_eos ());
+        gst_object_unref (branch_sink);
+    }
+    return GST_PAD_PROBE_REMOVE;
+}
+
+void
+recorder_stop (Recorder *recorder) {
+    if (atomic_load (&recorder->state) != RECORDER_RECORDING) return;
+    atomic_store (&recorder->state, RECORDER_FINALIZING);
+    schedule_finish (recorder, g_timeout_source_new (RECORDER_FINALIZE_TIMEOUT_MS));
+    gst_pad_add_probe (recorder->tee_pad, GST_PAD_PROBE_TYPE_IDLE, detach_probe, NULL, NULL);
+    GST_DEBUG ("Detaching recording branch");
+}
+
+void
+recorder_abort (Recorder *recorder) {
+    cancel_finish (recorder);
+    if (!recorder->branch) return;
+    // The pipeline is on its way down: the branch goes with it, the open segment as it is
+    GST_INFO ("Recording cut off by pipeline release after %lld bytes", (long long) atomic_load (&recorder->bytes));
+    release_branch (recorder, FALSE);
+}
+
+gboolean
+recorder_handle_message (Recorder *recorder, GstMessage *msg) {
+    if (GST_MESSAGE_TYPE (msg) != GST_MESSAGE_ELEMENT || atomic_load (&recorder->state) == RECORDER_IDLE) {
+        return FALSE;
+    }
+    const GstStructure *structure = gst_message_get_structure (msg);
+    if (gst_structure_has_name (structure, "splitmuxsink-fragment-opened")) {
+        atomic_fetch_add (&recorder->segments, 1);
+        GST_DEBUG ("Recording segment %s", gst_structure_get_string (structure, "location"));
+        return FALSE;
+    }
+    if (!gst_structure_has_name (structure, "GstBinForwarded")
+            || g_strcmp0 (GST_OBJECT_NAME (GST_MESSAGE_SRC (msg)), RECORDER_BIN) != 0) {
+        return FALSE;
+    }
+
+    GstMessage *forwarded = NULL;
+    gst_structure_get (structure, "message", GST_TYPE_MESSAGE, &forwarded, NULL);
+    if (forwarded && GST_MESSAGE_TYPE (forwarded) == GST_MESSAGE_EOS
+            && atomic_load (&recorder->state) == RECORDER_FINALIZING) {
+        schedule_finish (recorder, g_idle_source_new ());
+    }
+    if (forwarded) {
+        gst_message_unref (forwarded);
+    }
+    return TRUE;
+}
+
+void
+recorder_get_stats (Recorder *recorder, gint64 *out) {
+    gint64 started = atomic_load (&recorder->started_us);
+    gint64 stopped = atomic_load (&recorder->stopped_us);
+    out[RECORDER_STAT_STATE] = atomic_load (&recorder->state);
+    out[RECORDER_STAT_BYTES] = atomic_load (&recorder->bytes);
+    out[RECORDER_STAT_SEGMENTS] = atomic_load (&recorder->segments);
+    out[RECORDER_STAT_DROPPED] = atomic_load (&recorder->dropped);
+    out[RECORDER_STAT_DURATION_MS] = started ? ((stopped ? stopped : g_get_monotonic_time ()) - started) / 1000 : 0;
+}
@@ -0,0 +1,70 @@
+//
+// recorder.h
+//
+// Record-while-watching. Pipelines get a tee right after their parser (or the AV1 RTP
+// depayloader) when they are built; recording attaches a queue ! splitmuxsink branch
+// to that tee at runtime and detaches it again, so the stream is written as it comes
+// in, without a second decode and without touching the display branch.
+
+#ifndef GSTREAMER_PIPELINER_1_0_RECORDER_H
+#define GSTREAMER_PIPELINER_1_0_RECORDER_H
+
+#include <gst/gst.h>
+#include <stdatomic.h>
+
+// Name of the tee the launch string gets, must match RecordingTap.TEE
+#define RECORDER_TEE "rec_tee"
+
+typedef enum {
+    RECORDER_IDLE = 0,
+    RECORDER_RECORDING = 1,
+    RECORDER_FINALIZING = 2     /* Detached, the last segment is being closed */
+} RecorderState;
+
+// Stats layout returned by recorder_get_stats, must match GstreamerMain.java
+enum {
+    RECORDER_STAT_STATE,
+    RECORDER_STAT_BYTES,        /* Stream bytes handed to the muxer, container overhead not included */
+    RECORDER_STAT_SEGMENTS,     /* Files opened so far */
+    RECORDER_STAT_DROPPED,      /* Buffers not recorded: before the first keyframe, or the branch fell behind */
+    RECORDER_STAT_DURATION_MS,  /* Since recording started */
+    RECORDER_STAT_COUNT
+};
+
+// The branch and its pads are only touched on the pipeline's worker thread; the stats
+// are updated from the streaming thread and may be read from anywhere.
+typedef struct _Recorder {
+    GstElement *pipeline;
+    GstElement *branch;         /* queue ! [parser] ! splitmuxsink bin, NULL when idle */
+    GstElement *queue;
+    GstElement *tee;
+    GstPad *tee_pad;            /* Requested tee pad feeding the branch */
+    gulong buffer_probe;
+    GMainContext *context;      /* Worker context the branch is removed on */
+    _Atomic (GSource *) finish_source;
+    atomic_int state;
+    atomic_int keyframe_seen;
+    atomic_llong bytes;
+    atomic_llong segments;
+    atomic_llong dropped;
+    atomic_llong started_us;
+    atomic_llong stopped_us;
+} Recorder;
+
+void recorder_init (Recorder *recorder);
+
+// Worker thread. location is a splitmuxsink pattern such as "/path/rec_%05d.mkv".
+// Returns NULL once recording, or why it could not start.
+const gchar *recorder_start (Recorder *recorder, GstElement *pipeline, GMainContext *context,
+                             const gchar *location, guint64 segment_ns);
+// Worker thread. Detaches the branch; the last segment is closed asynchronously.
+void recorder_stop (Recorder *recorder);
+// Worker thread, when the pipeline is released: drops the branch with the pipeline
+void recorder_abort (Recorder *recorder);
+
+// Bus sync handler, any thread. TRUE if the message was the recorder's own and must be dropped.
+gboolean recorder_handle_message (Recorder *recorder, GstMessage *msg);
+
+void recorder_get_stats (Recorder *recorder, gint64 *out);
+
+#endif //GSTREAMER_PIPELINER_1_0_RECORDER_H
@@ -0,0 +1,171 @@
+//
+// startup_timeline.c
+//
+// The first-buffer and first-frame probes stay on their pads until the pipeline is
+// released: removing them from inside the callback would race with detach removing
+// them by id. Once the mark is set they cost one atomic load per buffer.
+
+#include "startup_timeline.h"
+
+GST_DEBUG_CATEGORY_STATIC (startup_timeline_debug);
+#define GST_CAT_DEFAULT startup_timeline_debug
+
+typedef struct _ProbedPad {
+    GstPad *pad;
+    gulong probe;
+} ProbedPad;
+
+typedef struct _ProbedSource {
+    GstElement *element;
+    gulong pad_added;
+} ProbedSource;
+
+void
+startup_timeline_init (StartupTimeline *timeline) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (startup_timeline_debug, "startuptimeline", 0, "Startup timeline");
+        g_once_init_leave (&initialized, 1);
+    }
+    for (gint i = 0; i < STARTUP_MARK_COUNT; i++) {
+        atomic_init (&timeline->marks[i], 0);
+    }
+    g_mutex_init (&timeline->lock);
+    timeline->probes = NULL;
+    timeline->sources = NULL;
+}
+
+void
+startup_timeline_mark (StartupTimeline *timeline, gint mark, gint64 now_us) {
+    long long unset = 0;
+    if (atomic_compare_exchange_strong (&timeline->marks[mark], &unset, now_us)) {
+        GST_DEBUG ("Mark %d at +%" G_GINT64_FORMAT " ms", mark,
+                   (now_us - atomic_load (&timeline->marks[STARTUP_MARK_REQUESTED])) / 1000);
+    }
+}
+
+// Reaching a state implies the ones before it, which a fast change may not post
+void
+startup_timeline_mark_state (StartupTimeline *timeline, GstState state, gint64 now_us) {
+    if (state >= GST_STATE_READY) startup_timeline_mark (timeline, STARTUP_MARK_READY, now_us);
+    if (state >= GST_STATE_PAUSED) startup_timeline_mark (timeline, STARTUP_MARK_PAUSED, now_us);
+    if (state >= GST_STATE_PLAYING) startup_timeline_mark (timeline, STARTUP_MARK_PLAYING, now_us);
+}
+
+static GstPadProbeReturn
+first_buffer_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    StartupTimeline *timeline = (StartupTimeline *) user_data;
+    if (!atomic_load (&timeline->marks[STARTUP_MARK_FIRST_BUFFER])) {
+        startup_timeline_mark (timeline, STARTUP_MARK_FIRST_BUFFER, g_get_monotonic_time ());
+    }
+    return GST_PAD_PROBE_OK;
+}
+
+static GstPadProbeReturn
+first_frame_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    StartupTimeline *timeline = (StartupTimeline *) user_data;
+    if (!atomic_load (&timeline->marks[STARTUP_MARK_FIRST_FRAME])) {
+        startup_timeline_mark (timeline, STARTUP_MARK_FIRST_FRAME, g_get_monotonic_time ());
+    }
+    return GST_PAD_PROBE_OK;
+}
+
+static void
+probe_pad (StartupTimeline *timeline, GstPad *pad, GstPadProbeCallback callback) {
+    ProbedPad *probed = g_new0 (ProbedPad, 1);
+    probed->pad = gst_object_ref (pad);
+    probed->probe = gst_pad_add_probe (pad, GST_PAD_PROBE_TYPE_BUFFER | GST_PAD_PROBE_TYPE_BUFFER_LIST,
+                                       callback, timeline, NULL);
+    g_mutex_lock (&timeline->lock);
+    timeline->probes = g_list_prepend (timeline->probes, probed);
+    g_mutex_unlock (&timeline->lock);
+}
+
+static void
+source_pad_added (GstElement *element, GstPad *pad, gpointer user_data) {
+    StartupTimeline *timeline = (StartupTimeline *) user_data;
+    if (GST_PAD_DIRECTION (pad) == GST_PAD_SRC && !atomic_load (&timeline->marks[STARTUP_MARK_FIRST_BUFFER])) {
+        probe_pad (timeline, pad, first_buffer_probe);
+    }
+}
+
+void
+startup_timeline_begin (StartupTimeline *timeline, GstElement *pipeline, gint64 requested_us,
+                        gint64 built_us, PoolTakeResult source) {
+    for (gint i = 0; i < STARTUP_MARK_COUNT; i++) {
+        atomic_store (&timeline->marks[i], 0);
+    }
+    atomic_store (&timeline->marks[STARTUP_MARK_REQUESTED], requested_us);
+    atomic_store (&timeline->marks[STARTUP_MARK_BUILT], built_us);
+    atomic_store (&timeline->marks[STARTUP_MARK_POOL], source);
+
+    gint64 now = g_get_monotonic_time ();
+    startup_timeline_mark_state (timeline, GST_STATE (pipeline), now);
+    if (source == POOL_HIT_HOT) {
+        // Streamed into a fakesink before it was taken
+        startup_timeline_mark (timeline, STARTUP_MARK_FIRST_BUFFER, now);
+        return;
+    }
+
+    GstIterator *it = gst_bin_iterate_sources (GST_BIN (pipeline));
+    GValue item = G_VALUE_INIT;
+    while (gst_iterator_next (it, &item) == GST_ITERATOR_OK) {
+        ProbedSource *probed = g_new0 (ProbedSource, 1);
+        probed->element = GST_ELEMENT (g_value_dup_object (&item));
+        probed->pad_added = g_signal_connect (probed->element, "pad-added", G_CALLBACK (source_pad_added), timeline);
+        timeline->sources = g_list_prepend (timeline->sources, probed);
+
+        GstIterator *pads = gst_element_iterate_src_pads (probed->element);
+        GValue pad = G_VALUE_INIT;
+        while (gst_iterator_next (pads, &pad) == GST_ITERATOR_OK) {
+            probe_pad (timeline, GST_PAD (g_value_get_object (&pad)), first_buffer_probe);
+            g_value_reset (&pad);
+        }
+        g_value_unset (&pad);
+        gst_iterator_free (pads);
+        g_value_reset (&item);
+    }
+    g_value_unset (&item);
+    gst_iterator_free (it);
+}
+
+void
+startup_timeline_watch_sink (StartupTimeline *timeline, GstElement *sink) {
+    if (!sink) return;
+    GstPad *pad = gst_element_get_static_pad (sink, "sink");
+    if (pad) {
+        probe_pad (timeline, pad, first_frame_probe);
+        gst_object_unref (pad);
+    }
+}
+
+void
+startup_timeline_detach (StartupTimeline *timeline) {
+    for (GList *l = timeline->sources; l; l = l->next) {
+        ProbedSource *probed = (ProbedSource *) l->data;
+        g_signal_handler_disconnect (probed->element, probed->pad_added);
+        gst_object_unref (probed->element);
+        g_free (probed);
+    }
+    g_list_free (timeline->sources);
+    timeline->sources = NULL;
+
+    g_mutex_lock (&timeline->lock);
+    GList *probes = timeline->probes;
+    timeline->probes = NULL;
+    g_mutex_unlock (&timeline->lock);
+    for (GList *l = probes; l; l = l->next) {
+        ProbedPad *probed = (ProbedPad *) l->data;
+        gst_pad_remove_probe (probed->pad, probed->probe);
+        gst_object_unref (probed->pad);
+        g_free (probed);
+    }
+    g_list_free (probes);
+}
+
+void
+startup_timeline_get (StartupTimeline *timeline, gint64 *out) {
+    for (gint i = 0; i < STARTUP_MARK_COUNT; i++) {
+        out[i] = atomic_load (&timeline->marks[i]);
+    }
+}
@@ -0,0 +1,55 @@
+//
+// startup_timeline.h
+//
+// Native half of the startup timeline: when the current pipeline was requested,
+// built, reached each state, and when the first buffer left a source and the first
+// frame reached the video sink. Times are g_get_monotonic_time (), the clock behind
+// System.nanoTime(), so Java can line them up with its own marks.
+
+#ifndef GSTREAMER_PIPELINER_1_0_STARTUP_TIMELINE_H
+#define GSTREAMER_PIPELINER_1_0_STARTUP_TIMELINE_H
+
+#include <gst/gst.h>
+#include <stdatomic.h>
+#include "preroll_pool.h"
+
+// Marks layout returned by startup_timeline_get, must match StartupTimeline.java
+enum {
+    STARTUP_MARK_REQUESTED,     /* nativeInit or reinit asked for the pipeline */
+    STARTUP_MARK_BUILT,         /* gst_parse_launch returned, or the pool handed it over */
+    STARTUP_MARK_READY,
+    STARTUP_MARK_PAUSED,
+    STARTUP_MARK_PLAYING,
+    STARTUP_MARK_FIRST_BUFFER,  /* First buffer out of a source pad */
+    STARTUP_MARK_FIRST_FRAME,   /* First buffer at the video sink */
+    STARTUP_MARK_POOL,          /* PoolTakeResult of the build; a value, not a time */
+    STARTUP_MARK_COUNT
+};
+
+// Marks are written once per pipeline from any thread and 0 until reached; the rest
+// is only touched on the pipeline's worker thread
+typedef struct _StartupTimeline {
+    atomic_llong marks[STARTUP_MARK_COUNT];
+    GMutex lock;                /* Guards probes, also used from pad-added */
+    GList *probes;              /* Probed pads */
+    GList *sources;             /* Source elements with a pad-added handler */
+} StartupTimeline;
+
+void startup_timeline_init (StartupTimeline *timeline);
+
+// Worker thread. Starts the marks of a newly installed pipeline over and probes its
+// sources and sinks; states it already reached (a hot pooled pipeline) count as reached now.
+void startup_timeline_begin (StartupTimeline *timeline, GstElement *pipeline, gint64 requested_us,
+                             gint64 built_us, PoolTakeResult source);
+// Worker thread. A video sink put into the pipeline after begin (a pooled pipeline's)
+void startup_timeline_watch_sink (StartupTimeline *timeline, GstElement *sink);
+// Worker thread, before the pipeline is released; the marks stay readable
+void startup_timeline_detach (StartupTimeline *timeline);
+
+// Any thread. Sets a mark if it is not set yet.
+void startup_timeline_mark (StartupTimeline *timeline, gint mark, gint64 now_us);
+void startup_timeline_mark_state (StartupTimeline *timeline, GstState state, gint64 now_us);
+
+void startup_timeline_get (StartupTimeline *timeline, gint64 *out);
+
+#endif //GSTREAMER_PIPELINER_1_0_STARTUP_TIMELINE_H
@@ -0,0 +1,449 @@
+//
+// watchdog.c
+//
+// Restarting a source means NULL and back to the pipeline's state, with a flush of
+// the pads it feeds in between: the flush clears the EOS a failed source pushed and
+// whatever half-received data sits in jitterbuffers and queues. Sources with
+// sometimes pads (rtspsrc) lose their pads on NULL, and the links gst_parse_launch
+// made for them are one-shot, so the peers they had are remembered and new pads are
+// linked back to them from pad-added.
+//
+// Recovery time is measured at the sinks, from the last buffer before the stall to
+// the first one after it, so it is the freeze the viewer saw.
+
+#include "watchdog.h"
+#include <string.h>
+
+GST_DEBUG_CATEGORY_STATIC (watchdog_debug);
+#define GST_CAT_DEFAULT watchdog_debug
+
+#define WATCHDOG_MIN_BACKOFF_MS 500
+#define WATCHDOG_MAX_BACKOFF_MS 16000
+#define WATCHDOG_MIN_TICK_MS 100
+// A restart that brought data back but no keyframe in this many stall periods is retried
+#define WATCHDOG_KEYFRAME_PERIODS 4
+
+typedef struct _WatchedPad {
+    GstPad *pad;
+    gulong probe;
+} WatchedPad;
+
+typedef struct _WatchedSource {
+    Watchdog *watchdog;
+    GstElement *element;
+    gulong pad_added;
+    GList *peers;           /* Downstream pads it fed, to relink new pads to */
+    atomic_llong last_us;   /* Its own last buffer, to restart only the sources that stopped */
+} WatchedSource;
+
+void
+watchdog_init (Watchdog *watchdog) {
+    static gsize initialized = 0;
+    if (g_once_init_enter (&initialized)) {
+        GST_DEBUG_CATEGORY_INIT (watchdog_debug, "watchdog", 0, "Stall watchdog");
+        g_once_init_leave (&initialized, 1);
+    }
+    memset (watchdog, 0, sizeof (*watchdog));
+    g_mutex_init (&watchdog->lock);
+    atomic_init (&watchdog->stall_ms, WATCHDOG_DEFAULT_STALL_MS);
+    atomic_init (&watchdog->phase, WATCHDOG_OFF);
+    atomic_init (&watchdog->awaiting_keyframe, 0);
+    atomic_init (&watchdog->last_source_us, 0);
+    atomic_init (&watchdog->last_sink_us, 0);
+    atomic_init (&watchdog->stalls, 0);
+    atomic_init (&watchdog->restarts, 0);
+    atomic_init (&watchdog->source_errors, 0);
+    atomic_init (&watchdog->last_recovery_ms, 0);
+    atomic_init (&watchdog->max_recovery_ms, 0);
+}
+
+void
+watchdog_set_stall_ms (Watchdog *watchdog, guint stall_ms) {
+    atomic_store (&watchdog->stall_ms, (int) stall_ms);
+}
+
+static GstPadProbeReturn
+source_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    WatchedSource *source = (WatchedSource *) user_data;
+    gint64 now = g_get_monotonic_time ();
+    atomic_store (&source->last_us, now);
+    atomic_store (&source->watchdog->last_source_us, now);
+    return GST_PAD_PROBE_OK;
+}
+
+static GstPadProbeReturn
+sink_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    atomic_store (&((Watchdog *) user_data)->last_sink_us, g_get_monotonic_time ());
+    return GST_PAD_PROBE_OK;
+}
+
+// After a restart the decoder only gets data from a keyframe on
+static GstPadProbeReturn
+decoder_probe (GstPad *pad, GstPadProbeInfo *info, gpointer user_data) {
+    Watchdog *watchdog = (Watchdog *) user_data;
+    if (!atomic_load (&watchdog->awaiting_keyframe)) {
+        return GST_PAD_PROBE_OK;
+    }
+    if (GST_BUFFER_FLAG_IS_SET (GST_PAD_PROBE_INFO_BUFFER (info), GST_BUFFER_FLAG_DELTA_UNIT)) {
+        return GST_PAD_PROBE_DROP;
+    }
+    atomic_store (&watchdog->awaiting_keyframe, 0);
+    GST_DEBUG ("Keyframe after restart, decoding again");
+    return GST_PAD_PROBE_OK;
+}
+
+static void
+watch_pad (Watchdog *watchdog, GstPad *pad, GstPadProbeType type, GstPadProbeCallback callback,
+           gpointer user_data) {
+    WatchedPad *watched = g_new0 (WatchedPad, 1);
+    watched->pad = gst_object_ref (pad);
+    watched->probe = gst_pad_add_probe (pad, type, callback, user_data, NULL);
+    g_mutex_lock (&watchdog->lock);
+    watchdog->probes = g_list_prepend (watchdog->probes, watched);
+    g_mutex_unlock (&watchdog->lock);
+}
+
+static GList *
+collect (GstIterator *it) {
+    GList *items = NULL;
+    GValue item = G_VALUE_INIT;
+    while (gst_iterator_next (it, &item) == GST_ITERATOR_OK) {
+        items = g_list_prepend (items, g_value_dup_object (&item));
+        g_value_reset (&item);
+    }
+    g_value_unset (&item);
+    gst_iterator_free (it);
+    return items;
+}
+
+// Any thread: new pads of a source get watched, and linked back after a restart
+static void
+source_pad_added (GstElement *element, GstPad *pad, gpointer user_data) {
+    WatchedSource *source = (WatchedSource *) user_data;
+    Watchdog *watchdog = source->watchdog;
+    if (GST_PAD_DIRECTION (pad) != GST_PAD_SRC) return;
+    watch_pad (watchdog, pad, GST_PAD_PROBE_TYPE_BUFFER | GST_PAD_PROBE_TYPE_BUFFER_LIST, source_probe, source);
+
+    g_mutex_lock (&watchdog->lock);
+    for (GList *p = source->peers; p && !gst_pad_is_linked (pad); p = p->next) {
+        GstPad *peer = GST_PAD (p->data);
+        if (!gst_pad_is_linked (peer) && gst_pad_link (pad, peer) == GST_PAD_LINK_OK) {
+            GST_INFO ("Relinked %s:%s to %s:%s", GST_DEBUG_PAD_NAME (pad), GST_DEBUG_PAD_NAME (peer));
+        }
+    }
+    g_mutex_unlock (&watchdog->lock);
+}
+
+static gboolean
+is_live (GstElement *element) {
+    // Source bins (rtspsrc, srtsrc and friends) are network sources
+    if (GST_IS_BIN (element)) return TRUE;
+    if (!g_object_class_find_property (G_OBJECT_GET_CLASS (element), "is-live")) return FALSE;
+    gboolean live = FALSE;
+    g_object_get (element, "is-live", &live, NULL);
+    return live;
+}
+
+static gboolean
+is_video_decoder (GstElement *element) {
+    GstElementFactory *factory = gst_element_get_factory (element);
+    const gchar *klass = factory ? gst_element_factory_get_metadata (factory, GST_ELEMENT_METADATA_KLASS) : NULL;
+    return klass && strstr (klass, "Decoder") && strstr (klass, "Video");
+}
+
+static void
+notify (Watchdog *watchdog, const gchar *message) {
+    GST_INFO ("%s", message);
+    if (watchdog->notify) {
+        watchdog->notify (message, watchdog->notify_data);
+    }
+}
+
+static void
+restart_source (Watchdog *watchdog, WatchedSource *source, GstState target) {
+    g_mutex_lock (&watchdog->lock);
+    GList *pads = collect (gst_element_iterate_src_pads (source->element));
+    for (GList *p = pads; p; p = p->next) {
+        GstPad *peer = gst_pad_get_peer (GST_PAD (p->data));
+        if (peer && !g_list_find (source->peers, peer)) {
+            source->peers = g_list_prepend (source->peers, gst_object_ref (peer));
+        }
+        if (peer) {
+            gst_object_unref (peer);
+        }
+    }
+    g_list_free_full (pads, gst_object_unref);
+    GList *peers = g_list_copy_deep (source->peers, (GCopyFunc) gst_object_ref, NULL);
+    g_mutex_unlock (&watchdog->lock);
+
+    GST_INFO ("Restarting source %s", GST_OBJECT_NAME (source->element));
+    gst_element_set_state (source->element, GST_STATE_NULL);
+    // Clear the EOS of a failed source and the stale data downstream; keep running time
+    for (GList *p = peers; p; p = p->next) {
+        gst_pad_send_event (GST_PAD (p->data), gst_event_new_flush_start ());
+        gst_pad_send_event (GST_PAD (p->data), gst_event_new_flush_stop (FALSE));
+    }
+    g_list_free_full (peers, gst_object_unref);
+    gst_element_set_state (source->element, target);
+}
+
+// Restarts the given source, or with NULL every source quiet for a stall period (all
+// of them if none is: data arrives, but no keyframe comes out of it)
+static void
+restart_sources (Watchdog *watchdog, WatchedSource *only) {
+    gint64 now = g_get_monotonic_time ();
+    gint64 stall_us = (gint64) atomic_load (&watchdog->stall_ms) * 1000;
+    GstState target = GST_STATE_TARGET (watchdog->pipeline);
+
+    guint restarted = 0;
+    for (GList *l = watchdog->sources; l && !only; l = l->next) {
+        WatchedSource *source = (WatchedSource *) l->data;
+        if (now - atomic_load (&source->last_us) >= stall_us) {
+            restart_source (watchdog, source, target);
+            restarted++;
+        }
+    }
+    for (GList *l = watchdog->sources; l && (only || !restarted); l = l->next) {
+        WatchedSource *source = (WatchedSource *) l->data;
+        if (!only || source == only) {
+            restart_source (watchdog, source, target);
+        }
+    }
+
+    atomic_store (&watchdog->awaiting_keyframe, 1);
+    atomic_fetch_add (&watchdog->restarts, 1);
+    watchdog->attempts++;
+    watchdog->last_restart_us = now;
+    watchdog->next_restart_us = now + (gint64) watchdog->backoff_ms * 1000;
+    watchdog->backoff_ms = MIN (watchdog->backoff_ms * 2, WATCHDOG_MAX_BACKOFF_MS);
+
+    gchar *message = g_strdup_printf ("Stream stalled, reconnecting source (attempt %u)", watchdog->attempts);
+    notify (watchdog, message);
+    g_free (message);
+}
+
+static void
+enter_stall (Watchdog *watchdog, gint64 now) {
+    gint64 last_sink = atomic_load (&watchdog->last_sink_us);
+    atomic_store (&watchdog->phase, WATCHDOG_STALLED);
+    atomic_fetch_add (&watchdog->stalls, 1);
+    watchdog->stall_from_us = last_sink ? last_sink : now;
+    watchdog->backoff_ms = WATCHDOG_MIN_BACKOFF_MS;
+    watchdog->attempts = 0;
+    watchdog->next_restart_us = now;
+}
+
+static gboolean
+tick_cb (gpointer user_data) {
+    Watchdog *watchdog = (Watchdog *) user_data;
+    gint64 now = g_get_monotonic_time ();
+    gint64 stall_us = (gint64) atomic_load (&watchdog->stall_ms) * 1000;
+    if (!stall_us) return G_SOURCE_CONTINUE;   /* Disabled while running */
+
+    if (GST_STATE (watchdog->pipeline) != GST_STATE_PLAYING) {
+        // Paused on purpose is not a stall
+        if (atomic_load (&watchdog->phase) == WATCHDOG_WATCHING) {
+            atomic_store (&watchdog->last_source_us, now);
+            atomic_store (&watchdog->last_sink_us, watchdog->playing_seen ? now : 0);
+        }
+        return G_SOURCE_CONTINUE;
+    }
+
+    gint64 last_sink = atomic_load (&watchdog->last_sink_us);
+    gint64 last_source = atomic_load (&watchdog->last_source_us);
+    if (atomic_load (&watchdog->phase) == WATCHDOG_WATCHING) {
+        // Slow first connections are not stalls; errors before the first frame still restart
+        watchdog->playing_seen |= last_sink > 0;
+        if (!watchdog->playing_seen || now - last_sink < stall_us) return G_SOURCE_CONTINUE;
+        enter_stall (watchdog, now);
+        GST_WARNING ("No buffers at the sinks for %" G_GINT64_FORMAT " ms", (now - last_sink) / 1000);
+    }
+
+    if (last_sink > watchdog->stall_from_us) {
+        gint64 recovery_ms = (last_sink - watchdog->stall_from_us) / 1000;
+        atomic_store (&watchdog->last_recovery_ms, recovery_ms);
+        if (recovery_ms > atomic_load (&watchdog->max_recovery_ms)) {
+            atomic_store (&watchdog->max_recovery_ms, recovery_ms);
+        }
+        atomic_store (&watchdog->phase, WATCHDOG_WATCHING);
+        gchar *message = g_strdup_printf ("Stream recovered after %" G_GINT64_FORMAT " ms (%u restarts)",
+                                          recovery_ms, watchdog->attempts);
+        notify (watchdog, message);
+        g_free (message);
+        return G_SOURCE_CONTINUE;
+    }
+
+    // Restart while the source stays quiet, or brought data but never a keyframe
+    gboolean source_quiet = watchdog->attempts == 0
+            ? now - last_source >= stall_us
+            : last_source < watchdog->last_restart_us;
+    gboolean no_keyframe = watchdog->attempts > 0
+            && now - watchdog->last_restart_us > stall_us * WATCHDOG_KEYFRAME_PERIODS;
+    if (now >= watchdog->next_restart_us && (source_quiet || no_keyframe)) {
+        restart_sources (watchdog, NULL);
+    }
+    return G_SOURCE_CONTINUE;
+}
+
+void
+watchdog_attach (Watchdog *watchdog, GstElement *pipeline, GMainContext *context,
+                 WatchdogNotify notify_func, gpointer notify_data) {
+    guint stall_ms = (guint) atomic_load (&watchdog->stall_ms);
+    if (!stall_ms || watchdog->pipeline) return;
+
+    GList *elements = collect (gst_bin_iterate_sources (GST_BIN (pipeline)));
+    gboolean live = FALSE;
+    for (GList *l = elements; l; l = l->next) {
+        live |= is_live (GST_ELEMENT (l->data));
+    }
+    if (!live) {
+        GST_DEBUG ("Not watching %s, no live source", GST_OBJECT_NAME (pipeline));
+        g_list_free_full (elements, gst_object_unref);
+        return;
+    }
+
+    watchdog->pipeline = gst_object_ref (pipeline);
+    watchdog->context = g_main_context_ref (context);
+    watchdog->notify = notify_func;
+    watchdog->notify_data = notify_data;
+    watchdog->playing_seen = FALSE;
+    watchdog->attempts = 0;
+    atomic_store (&watchdog->awaiting_keyframe, 0);
+    atomic_store (&watchdog->last_source_us, 0);
+    atomic_store (&watchdog->last_sink_us, 0);
+    atomic_store (&watchdog->stalls, 0);
+    atomic_store (&watchdog->restarts, 0);
+    atomic_store (&watchdog->source_errors, 0);
+    atomic_store (&watchdog->last_recovery_ms, 0);
+    atomic_store (&watchdog->max_recovery_ms, 0);
+
+    for (GList *l = elements; l; l = l->next) {
+        WatchedSource *source = g_new0 (WatchedSource, 1);
+        source->watchdog = watchdog;
+        source->element = GST_ELEMENT (l->data);   /* Takes the reference */
+        atomic_init (&source->last_us, 0);
+        source->pad_added = g_signal_connect (source->element, "pad-added", G_CALLBACK (source_pad_added), source);
+        g_mutex_lock (&watchdog->lock);
+        watchdog->sources = g_list_prepend (watchdog->sources, source);
+        g_mutex_unlock (&watchdog->lock);
+        GList *pads = collect (gst_element_iterate_src_pads (source->element));
+        for (GList *p = pads; p; p = p->next) {
+            watch_pad (watchdog, GST_PAD (p->data), GST_PAD_PROBE_TYPE_BUFFER | GST_PAD_PROBE_TYPE_BUFFER_LIST,
+                       source_probe, source);
+        }
+        g_list_free_full (pads, gst_object_unref);
+    }
+    g_list_free (elements);
+
+    GList *sinks = collect (gst_bin_iterate_sinks (GST_BIN (pipeline)));
+    for (GList *l = sinks; l; l = l->next) {
+        watchdog_watch_sink (watchdog, GST_ELEMENT (l->data));
+    }
+    g_list_free_full (sinks, gst_object_unref);
+
+    // Decoders inside decodebin come later and are not gated
+    GList *all = collect (gst_bin_iterate_recurse (GST_BIN (pipeline)));
+    for (GList *l = all; l; l = l->next) {
+        GstPad *pad = is_video_decoder (GST_ELEMENT (l->data))
+                ? gst_element_get_static_pad (GST_ELEMENT (l->data), "sink") : NULL;
+        if (pad) {
+            watch_pad (watchdog, pad, GST_PAD_PROBE_TYPE_BUFFER, decoder_probe, watchdog);
+            gst_object_unref (pad);
+        }
+    }
+    g_list_free_full (all, gst_object_unref);
+
+    watchdog->tick = g_timeout_source_new (MAX (stall_ms / 4, WATCHDOG_MIN_TICK_MS));
+    g_source_set_callback (watchdog->tick, tick_cb, watchdog, NULL);
+    g_source_attach (watchdog->tick, context);
+    atomic_store (&watchdog->phase, WATCHDOG_WATCHING);
+    GST_INFO ("Watching %u sources of %s for %u ms stalls", g_list_length (watchdog->sources),
+              GST_OBJECT_NAME (pipeline), stall_ms);
+}
+
+void
+watchdog_watch_sink (Watchdog *watchdog, GstElement *sink) {
+    if (!watchdog->pipeline || !sink) return;
+    GstPad *pad = gst_element_get_static_pad (sink, "sink");
+    if (pad) {
+        watch_pad (watchdog, pad, GST_PAD_PROBE_TYPE_BUFFER | GST_PAD_PROBE_TYPE_BUFFER_LIST, sink_probe, watchdog);
+        gst_object_unref (pad);
+    }
+}
+
+static void
+watched_source_free (gpointer data) {
+    WatchedSource *source = (WatchedSource *) data;
+    g_list_free_full (source->peers, gst_object_unref);
+    gst_object_unref (source->element);
+    g_free (source);
+}
+
+void
+watchdog_detach (Watchdog *watchdog) {
+    if (!watchdog->pipeline) return;
+    atomic_store (&watchdog->phase, WATCHDOG_OFF);
+    g_source_destroy (watchdog->tick);
+    g_source_unref (watchdog->tick);
+    watchdog->tick = NULL;
+
+    for (GList *l = watchdog->sources; l; l = l->next) {
+        WatchedSource *source = (WatchedSource *) l->data;
+        g_signal_handler_disconnect (source->element, source->pad_added);
+    }
+    g_mutex_lock (&watchdog->lock);
+    GList *sources = watchdog->sources;
+    GList *probes = watchdog->probes;
+    watchdog->sources = NULL;
+    watchdog->probes = NULL;
+    g_mutex_unlock (&watchdog->lock);
+
+    // Waits for a callback in progress; none of them takes the lock
+    for (GList *l = probes; l; l = l->next) {
+        WatchedPad *watched = (WatchedPad *) l->data;
+        gst_pad_remove_probe (watched->pad, watched->probe);
+        gst_object_unref (watched->pad);
+        g_free (watched);
+    }
+    g_list_free (probes);
+    g_list_free_full (sources, watched_source_free);
+
+    gst_object_unref (watchdog->pipeline);
+    g_main_context_unref (watchdog->context);
+    watchdog->pipeline = NULL;
+    watchdog->context = NULL;
+}
+
+gboolean
+watchdog_handle_error (Watchdog *watchdog, GstMessage *msg) {
+    if (atomic_load (&watchdog->phase) == WATCHDOG_OFF) return FALSE;
+    WatchedSource *failed = NULL;
+    for (GList *l = watchdog->sources; l && !failed; l = l->next) {
+        WatchedSource *source = (WatchedSource *) l->data;
+        if (gst_object_has_as_ancestor (GST_MESSAGE_SRC (msg), GST_OBJECT (source->element))) {
+            failed = source;
+        }
+    }
+    if (!failed) return FALSE;
+
+    atomic_fetch_add (&watchdog->source_errors, 1);
+    gint64 now = g_get_monotonic_time ();
+    if (atomic_load (&watchdog->phase) == WATCHDOG_WATCHING) {
+        enter_stall (watchdog, now);
+    }
+    // Retries keep to the backoff; the tick restarts once it is due
+    if (now >= watchdog->next_restart_us) {
+        restart_sources (watchdog, failed);
+    }
+    return TRUE;
+}
+
+void
+watchdog_get_stats (Watchdog *watchdog, gint64 *out) {
+    out[WATCHDOG_STAT_PHASE] = atomic_load (&watchdog->phase);
+    out[WATCHDOG_STAT_STALLS] = atomic_load (&watchdog->stalls);
+    out[WATCHDOG_STAT_RESTARTS] = atomic_load (&watchdog->restarts);
+    out[WATCHDOG_STAT_SOURCE_ERRORS] = atomic_load (&watchdog->source_errors);
+    out[WATCHDOG_STAT_LAST_RECOVERY_MS] = atomic_load (&watchdog->last_recovery_ms);
+    out[WATCHDOG_STAT_MAX_RECOVERY_MS] = atomic_load (&watchdog->max_recovery_ms);
+}
@@ -0,0 +1,85 @@
+//
+// watchdog.h
+//
+// Stall watchdog for live pipelines. Buffer probes on the source and sink pads tell
+// when data stopped arriving; a stall, or an error from a source, restarts only the
+// source elements, with exponential backoff, while depayloaders, decoders and sinks
+// stay in place. After a restart the decoder is fed from the next keyframe on, so
+// display resumes clean instead of smearing until one comes by itself.
+
+#ifndef GSTREAMER_PIPELINER_1_0_WATCHDOG_H
+#define GSTREAMER_PIPELINER_1_0_WATCHDOG_H
+
+#include <gst/gst.h>
+#include <stdatomic.h>
+
+#define WATCHDOG_DEFAULT_STALL_MS 3000
+
+typedef enum {
+    WATCHDOG_OFF = 0,           /* Disabled, or not a live pipeline */
+    WATCHDOG_WATCHING = 1,
+    WATCHDOG_STALLED = 2        /* Restarting the sources until data reaches the sinks again */
+} WatchdogPhase;
+
+// Stats layout returned by watchdog_get_stats, must match StallWatchdog.java
+enum {
+    WATCHDOG_STAT_PHASE,
+    WATCHDOG_STAT_STALLS,           /* Stalls and source errors recovered from or being recovered from */
+    WATCHDOG_STAT_RESTARTS,         /* Source restarts, retries included */
+    WATCHDOG_STAT_SOURCE_ERRORS,
+    WATCHDOG_STAT_LAST_RECOVERY_MS, /* Last frame before the stall to first frame after it, 0 if none yet */
+    WATCHDOG_STAT_MAX_RECOVERY_MS,
+    WATCHDOG_STAT_COUNT
+};
+
+typedef void (*WatchdogNotify) (const gchar *message, gpointer user_data);
+
+// The fields without atomics are only touched on the pipeline's worker thread
+typedef struct _Watchdog {
+    atomic_int stall_ms;            /* 0 disables; takes effect on the next attach */
+    GstElement *pipeline;
+    GMainContext *context;
+    GSource *tick;
+    GList *sources;                 /* WatchedSource of each source element */
+    GMutex lock;                    /* Guards probes and the sources' peers, also used from pad-added */
+    GList *probes;                  /* WatchedPad */
+    WatchdogNotify notify;
+    gpointer notify_data;
+
+    gboolean playing_seen;          /* A buffer reached a sink; stalls only count after that */
+    gint64 stall_from_us;           /* Last sink buffer before the current stall */
+    gint64 last_restart_us;
+    gint64 next_restart_us;
+    guint backoff_ms;
+    guint attempts;
+
+    atomic_int phase;
+    atomic_int awaiting_keyframe;
+    atomic_llong last_source_us;
+    atomic_llong last_sink_us;
+    atomic_llong stalls;
+    atomic_llong restarts;
+    atomic_llong source_errors;
+    atomic_llong last_recovery_ms;
+    atomic_llong max_recovery_ms;
+} Watchdog;
+
+void watchdog_init (Watchdog *watchdog);
+// Any thread; applies to pipelines attached from then on
+void watchdog_set_stall_ms (Watchdog *watchdog, guint stall_ms);
+
+// Worker thread. Watches a newly installed pipeline if it is live and the watchdog enabled.
+void watchdog_attach (Watchdog *watchdog, GstElement *pipeline, GMainContext *context,
+                      WatchdogNotify notify, gpointer notify_data);
+// Worker thread. A sink put into the pipeline after attach (a pooled pipeline's video sink)
+void watchdog_watch_sink (Watchdog *watchdog, GstElement *sink);
+// Worker thread, before the pipeline is released; waits for running probes
+void watchdog_detach (Watchdog *watchdog);
+
+// Worker thread, from the bus. TRUE if the error came from a watched source and a
+// restart is under way, so the pipeline must be left running.
+gboolean watchdog_handle_error (Watchdog *watchdog, GstMessage *msg);
+
+void watchdog_get_stats (Watchdog *watchdog, gint64 *out);
+
+#endif //GSTREAMER_PIPELINER_1_0_WATCHDOG_H
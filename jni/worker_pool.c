@@ -0,0 +1,132 @@
+//
+// worker_pool.c
+//
+// Workers are assigned by load (pipelines bound), not round robin, so closing a
+// pipeline frees its slot for the next one. A busy pipeline only delays the bus
+// handling of the pipelines sharing its worker; streaming itself runs on GStreamer's
+// own threads.
+
+#include "worker_pool.h"
+#include <gst/gst.h>
+
+GST_DEBUG_CATEGORY_STATIC (worker_debug);
+#define GST_CAT_DEFAULT worker_debug
+
+struct _PipelineWorker {
+    guint index;
+    GThread *thread;
+    GMainContext *context;
+    GMainLoop *loop;
+    guint users;           /* Pipelines bound to this worker, guarded by pool_lock */
+};
+
+static GMutex pool_lock;
+static GCond started_cond;
+static PipelineWorker workers[WORKER_POOL_MAX_THREADS];
+static guint worker_count = 0;   /* 0 until the first acquire fixes it */
+static guint configured_threads = 0;
+
+static gboolean
+signal_started_cb (gpointer user_data) {
+    g_mutex_lock (&pool_lock);
+    g_cond_broadcast (&started_cond);
+    g_mutex_unlock (&pool_lock);
+    return G_SOURCE_REMOVE;
+}
+
+static gpointer
+worker_function (gpointer user_data) {
+    PipelineWorker *worker = (PipelineWorker *) user_data;
+    g_main_context_push_thread_default (worker->context);
+
+    // Runs once the loop owns the context: from then on invokes from other threads queue
+    GSource *started = g_idle_source_new ();
+    g_source_set_callback (started, signal_started_cb, NULL, NULL);
+    g_source_attach (started, worker->context);
+    g_source_unref (started);
+
+    GST_DEBUG ("Worker %u running", worker->index);
+    g_main_loop_run (worker->loop);
+
+    // Not reached: workers live as long as the process
+    g_main_context_pop_thread_default (worker->context);
+    return NULL;
+}
+
+gboolean
+worker_pool_configure (guint threads) {
+    g_mutex_lock (&pool_lock);
+    gboolean applied = worker_count == 0;
+    if (applied) {
+        configured_threads = MIN (threads, WORKER_POOL_MAX_THREADS);
+    }
+    g_mutex_unlock (&pool_lock);
+    return applied;
+}
+
+guint
+worker_pool_size (void) {
+    g_mutex_lock (&pool_lock);
+    guint size = worker_count;
+    g_mutex_unlock (&pool_lock);
+    return size;
+}
+
+PipelineWorker *
+worker_pool_acquire (void) {
+    g_mutex_lock (&pool_lock);
+    if (worker_count == 0) {
+        GST_DEBUG_CATEGORY_INIT (worker_debug, "workerpool", 0, "Pipeline worker threads");
+        // Bus handling is light: half the cores, at least two so one stall does not stop everything
+        worker_count = configured_threads ? configured_threads
+                                          : CLAMP (g_get_num_processors () / 2, 2, 4);
+        GST_INFO ("Pool of %u worker threads", worker_count);
+    }
+
+    PipelineWorker *worker = NULL;
+    for (guint i = 0; i < worker_count; i++) {
+        if (!worker || workers[i].users < worker->users) {
+            worker = &workers[i];
+        }
+    }
+    worker->users++;
+
+    if (!worker->thread) {
+        worker->index = (guint) (worker - workers);
+        worker->context = g_main_context_new ();
+        worker->loop = g_main_loop_new (worker->context, FALSE);
+        gchar *name = g_strdup_printf ("pipeline-worker-%u", worker->index);
+        worker->thread = g_thread_new (name, worker_function, worker);
+        g_free (name);
+    }
+    while (!g_main_loop_is_running (worker->loop)) {
+        g_cond_wait (&started_cond, &pool_lock);
+    }
+    g_mutex_unlock (&pool_lock);
+    return worker;
+}
+
+void
+worker_pool_release (PipelineWorker *worker) {
+    if (!worker) return;
+    g_mutex_lock (&pool_lock);
+    if (worker->users > 0) {
+        worker->users--;
+    }
+    g_mutex_unlock (&pool_lock);
+}
+
+GMainContext *
+worker_get_context (PipelineWorker *worker) {
+    return worker->context;
+}
+
+guint
+worker_get_index (PipelineWorker *worker) {
+    return worker->index;
+}
+
+gboolean
+worker_is_current (PipelineWorker *worker) {
+    return worker && g_main_context_is_owner (worker->context);
+}
@@ -0,0 +1,33 @@
+//
+// worker_pool.h
+//
+// Shared pool of engine threads, each running a GLib main loop on its own context.
+// Every running pipeline (the activity's and the ones the pipeline manager hands out)
+// is bound to one worker for its lifetime: its bus watch, state changes, switches
+// and UI event drains all run there. Workers start on first use and stay up.
+
+#ifndef GSTREAMER_PIPELINER_1_0_WORKER_POOL_H
+#define GSTREAMER_PIPELINER_1_0_WORKER_POOL_H
+
+#include <glib.h>
+
+#define WORKER_POOL_MAX_THREADS 8
+
+typedef struct _PipelineWorker PipelineWorker;
+
+// Number of worker threads; only takes effect before the first acquire.
+// 0 picks a default from the core count.
+gboolean worker_pool_configure (guint threads);
+guint worker_pool_size (void);
+
+// The worker with the fewest pipelines, started if needed. Its loop is running by the
+// time this returns, so g_main_context_invoke on its context always queues.
+PipelineWorker *worker_pool_acquire (void);
+void worker_pool_release (PipelineWorker *worker);
+
+GMainContext *worker_get_context (PipelineWorker *worker);
+guint worker_get_index (PipelineWorker *worker);
+// TRUE when called from the worker's own thread
+gboolean worker_is_current (PipelineWorker *worker);
+
+#endif //GSTREAMER_PIPELINER_1_0_WORKER_POOL_H
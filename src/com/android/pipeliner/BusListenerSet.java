@@ -0,0 +1,138 @@
+package com.android.pipeliner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bus listeners of one pipeline, the kinds each asked for, and the decoding of
+ * native events into BusMessageListener calls. Shared by GstreamerMain and
+ * PipelineEngine; use from the UI thread only.
+ */
+final class BusListenerSet {
+    // Event types delivered by onNativeEvents, must match UiEventType in event_ring.h
+    static final int EVENT_MESSAGE = 0;
+    static final int EVENT_ERROR = 1;
+    static final int EVENT_STATE = 2;
+    static final int EVENT_INITIALIZED = 3;
+    static final int EVENT_QOS = 4;
+    static final int EVENT_BUFFERING = 5;
+    static final int EVENT_LATENCY = 6;
+    static final int EVENT_WARNING = 7;
+    static final int EVENT_EOS = 8;
+    static final int EVENT_ELEMENT = 9;
+    static final int EVENT_VALUE_COUNT = 6; // UI_EVENT_VALUE_COUNT
+
+    private final LinkedHashMap<BusMessageListener, Integer> listeners = new LinkedHashMap<>();
+
+    // Each returns the union of all kinds, for the native bus filter
+    int put(BusMessageListener listener, int kinds) {
+        listeners.put(listener, kinds);
+        return mask();
+    }
+
+    int remove(BusMessageListener listener) {
+        listeners.remove(listener);
+        return mask();
+    }
+
+    int mask() {
+        int kinds = 0;
+        for (int listenerKinds : listeners.values()) {
+            kinds |= listenerKinds;
+        }
+        return kinds;
+    }
+
+    boolean contains(BusMessageListener listener) {
+        return listeners.containsKey(listener);
+    }
+
+    /**
+     * Delivers an error, state change or bus message event to the listeners that
+     * asked for it. Returns false for the types it does not handle (messages,
+     * initialization), which are the caller's business.
+     */
+    boolean dispatch(int type, long[] values, int offset, String source, String text) {
+        switch (type) {
+            case EVENT_ERROR:
+                // Not a subscribable kind: every listener hears about errors
+                for (BusMessageListener listener : new ArrayList<>(listeners.keySet())) {
+                    listener.onError(text);
+                }
+                return true;
+            case EVENT_STATE: {
+                PipelineState oldState = PipelineState.fromNative(values[offset]);
+                PipelineState newState = PipelineState.fromNative(values[offset + 1]);
+                PipelineState pending = PipelineState.fromNative(values[offset + 2]);
+                for (BusMessageListener listener : listenersFor(BusMessageListener.KIND_STATE)) {
+                    listener.onStateChanged(oldState, newState, pending);
+                }
+                return true;
+            }
+            default:
+                break;
+        }
+
+        // Bus messages: the native filter already dropped kinds nobody listens to
+        int kind = kindOf(type);
+        if (kind == 0) {
+            return false;
+        }
+        Object record = null;
+        if (type == EVENT_QOS) {
+            record = new BusMessageListener.QosRecord(source, values, offset);
+        } else if (type == EVENT_BUFFERING) {
+            record = new BusMessageListener.BufferingRecord(source, values, offset);
+        } else if (type == EVENT_LATENCY) {
+            record = new BusMessageListener.LatencyRecord(source, values, offset);
+        }
+        for (BusMessageListener listener : listenersFor(kind)) {
+            switch (type) {
+                case EVENT_QOS:
+                    listener.onQos((BusMessageListener.QosRecord) record);
+                    break;
+                case EVENT_BUFFERING:
+                    listener.onBuffering((BusMessageListener.BufferingRecord) record);
+                    break;
+                case EVENT_LATENCY:
+                    listener.onLatency((BusMessageListener.LatencyRecord) record);
+                    break;
+                case EVENT_WARNING:
+                    listener.onWarning(source, text);
+                    break;
+                case EVENT_EOS:
+                    listener.onEos(source);
+                    break;
+                case EVENT_ELEMENT:
+                    listener.onElementMessage(source, text);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    static int kindOf(int eventType) {
+        switch (eventType) {
+            case EVENT_QOS: return BusMessageListener.KIND_QOS;
+            case EVENT_BUFFERING: return BusMessageListener.KIND_BUFFERING;
+            case EVENT_LATENCY: return BusMessageListener.KIND_LATENCY;
+            case EVENT_WARNING: return BusMessageListener.KIND_WARNING;
+            case EVENT_EOS: return BusMessageListener.KIND_EOS;
+            case EVENT_ELEMENT: return BusMessageListener.KIND_ELEMENT;
+            default: return 0;
+        }
+    }
+
+    // Listeners for a kind, copied so a callback may add or remove listeners
+    private List<BusMessageListener> listenersFor(int kind) {
+        List<BusMessageListener> matching = new ArrayList<>(listeners.size());
+        for (Map.Entry<BusMessageListener, Integer> entry : listeners.entrySet()) {
+            if ((entry.getValue() & kind) != 0) {
+                matching.add(entry.getKey());
+            }
+        }
+        return matching;
+    }
+}
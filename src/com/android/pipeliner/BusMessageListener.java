@@ -0,0 +1,110 @@
+package com.android.pipeliner;
+
+/**
+ * Typed view of the running pipeline's bus. Register with
+ * GstreamerMain.addBusMessageListener and the KIND_* bits you care about; kinds
+ * nobody listens to are filtered in the native bus sync handler and never reach Java.
+ *
+ * QoS, buffering and element messages are rate limited natively (see
+ * GstreamerMain.setBusRateLimit); each record carries how many messages of its kind
+ * were skipped since the previous one. All callbacks run on the UI thread.
+ *
+ * The same listeners work per handle on PipelineEngine pipelines.
+ */
+public interface BusMessageListener {
+    // Must match BusKind in bus_filter.h
+    int KIND_STATE = 1;
+    int KIND_QOS = 1 << 1;
+    int KIND_BUFFERING = 1 << 2;
+    int KIND_LATENCY = 1 << 3;
+    int KIND_WARNING = 1 << 4;
+    int KIND_EOS = 1 << 5;
+    int KIND_ELEMENT = 1 << 6;
+    int KIND_ALL = KIND_STATE | KIND_QOS | KIND_BUFFERING | KIND_LATENCY | KIND_WARNING | KIND_EOS | KIND_ELEMENT;
+
+    // A sink or decoder dropped or was late with buffers
+    final class QosRecord {
+        public final String source;
+        public final long processed;    // Cumulative buffers handled by the element
+        public final long dropped;      // Cumulative buffers dropped by the element
+        public final long jitterNs;     // How late the buffer was, negative if early
+        public final double proportion; // Requested processing rate, 1.0 is real time
+        public final boolean live;
+        public final int suppressed;
+
+        QosRecord(String source, long[] values, int offset) {
+            this.source = source;
+            this.processed = values[offset];
+            this.dropped = values[offset + 1];
+            this.jitterNs = values[offset + 2];
+            this.proportion = values[offset + 3] / 1000000.0;
+            this.live = values[offset + 4] != 0;
+            this.suppressed = (int) values[offset + 5];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US, "%s: processed=%d dropped=%d jitter=%.1fms proportion=%.2f",
+                    source, processed, dropped, jitterNs / 1e6, proportion);
+        }
+    }
+
+    // Fill level of a queue2, multiqueue or network source
+    final class BufferingRecord {
+        public final String source;
+        public final int percent;
+        public final int mode;           // GstBufferingMode: 0 stream, 1 download, 2 timeshift, 3 live
+        public final int avgInBytesPerSec;
+        public final int avgOutBytesPerSec;
+        public final long leftMs;        // Estimated time until buffering completes
+        public final int suppressed;
+
+        BufferingRecord(String source, long[] values, int offset) {
+            this.source = source;
+            this.percent = (int) values[offset];
+            this.mode = (int) values[offset + 1];
+            this.avgInBytesPerSec = (int) values[offset + 2];
+            this.avgOutBytesPerSec = (int) values[offset + 3];
+            this.leftMs = values[offset + 4];
+            this.suppressed = (int) values[offset + 5];
+        }
+
+        @Override
+        public String toString() {
+            return source + ": " + percent + "% in=" + avgInBytesPerSec + "B/s out=" + avgOutBytesPerSec
+                    + "B/s left=" + leftMs + "ms";
+        }
+    }
+
+    // Pipeline latency after an element asked for it to be recalculated
+    final class LatencyRecord {
+        public final String source;      // Element that triggered the recalculation
+        public final long minNs;
+        public final long maxNs;         // -1 if unlimited
+        public final boolean live;
+
+        LatencyRecord(String source, long[] values, int offset) {
+            this.source = source;
+            this.minNs = values[offset];
+            this.maxNs = values[offset + 1];
+            this.live = values[offset + 2] != 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US, "%s: min=%.1fms max=%s live=%b",
+                    source, minNs / 1e6, maxNs < 0 ? "none" : String.format(java.util.Locale.US, "%.1fms", maxNs / 1e6), live);
+        }
+    }
+
+    // The pipeline failed and went to NULL; not a kind, every listener gets it
+    default void onError(String message) {}
+    default void onStateChanged(PipelineState oldState, PipelineState newState, PipelineState pending) {}
+    default void onQos(QosRecord qos) {}
+    default void onBuffering(BufferingRecord buffering) {}
+    default void onLatency(LatencyRecord latency) {}
+    default void onWarning(String source, String message) {}
+    default void onEos(String source) {}
+    // structure is the message's GstStructure serialized, e.g. "level, rms=(double){ -20.1 }"
+    default void onElementMessage(String source, String structure) {}
+}
@@ -0,0 +1,484 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks the fastest video decoder, and its thread settings, per codec and resolution.
+ *
+ * tune() finds the codecs the library decodes, encodes a short synthetic clip for each
+ * at the resolution the pipelines use, and decodes it with every decoder the registry
+ * offers for that codec (decoder_bench.c), trying several thread counts and, for
+ * libav, frame vs slice threading. The winner is the highest frame rate; within 5% of
+ * it the lowest CPU time per frame wins. Results are cached per device build.
+ *
+ * apply() then substitutes the winner into a launch string, and promotes its rank for
+ * pipelines that auto-plug their decoder (decodebin, playbin, uridecodebin).
+ */
+public class DecoderTuner {
+    private static final String TAG = "DecoderTuner";
+    private static final String PREFS_NAME = "DecoderTuner";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CHOICES = "choices";
+
+    // Layouts, must match decoder_bench.h
+    private static final int DESCRIBE_RANK = 0;
+    private static final int DESCRIBE_THREAD_PROPERTY = 1;
+    private static final int DESCRIBE_THREAD_TYPE = 2;
+    private static final int DESCRIBE_HARDWARE = 3;
+    private static final int RESULT_FRAMES = 0;
+    private static final int RESULT_WALL_NS = 1;
+    private static final int RESULT_CPU_NS = 2;
+    private static final String[] THREAD_PROPERTIES = {"max-threads", "n-threads", "threads"};
+
+    private static final int CLIP_FRAMES = 150;
+    private static final double TIE_MARGIN = 0.05;
+    private static final int[] HEIGHT_BUCKETS = {480, 720, 1080, 2160};
+    private static final int DEFAULT_HEIGHT = 720;
+
+    private static native String[] nativeGetCandidates(String caps);
+    private static native long[] nativeDescribe(String factory);
+    private static native String nativeGetCodec(String factory);
+    private static native boolean nativePrepareClip(String caps, int width, int height, int frames, String path);
+    private static native long[] nativeRun(String path, String decoder);
+    private static native void nativePromote(String factory);
+
+    public static class Trial {
+        public final String decoder;        // Launch description, e.g. "avdec_h264 max-threads=4"
+        public final double framesPerSecond;
+        public final double cpuMsPerFrame;
+
+        Trial(String decoder, long[] result) {
+            this.decoder = decoder;
+            long intervals = Math.max(1, result[RESULT_FRAMES] - 1);
+            this.framesPerSecond = result[RESULT_WALL_NS] <= 0 ? 0 : intervals * 1e9 / result[RESULT_WALL_NS];
+            this.cpuMsPerFrame = result[RESULT_CPU_NS] / 1e6 / intervals;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.0f fps, %.2f ms cpu/frame", decoder, framesPerSecond, cpuMsPerFrame);
+        }
+    }
+
+    public static class Choice {
+        public final String codec;          // e.g. "video/x-h264"
+        public final int height;            // Resolution bucket
+        public final String factory;
+        public final Map<String, String> properties;
+        public final double framesPerSecond;
+        public final double cpuMsPerFrame;
+        final List<String> candidates;      // Every decoder benchmarked for the codec, winner included
+
+        Choice(String codec, int height, String factory, Map<String, String> properties,
+               double framesPerSecond, double cpuMsPerFrame, List<String> candidates) {
+            this.codec = codec;
+            this.height = height;
+            this.factory = factory;
+            this.properties = Collections.unmodifiableMap(properties);
+            this.framesPerSecond = framesPerSecond;
+            this.cpuMsPerFrame = cpuMsPerFrame;
+            this.candidates = Collections.unmodifiableList(candidates);
+        }
+
+        public String description() {
+            return describe(factory, properties);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("codec", codec);
+            obj.put("height", height);
+            obj.put("factory", factory);
+            JSONObject props = new JSONObject();
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                props.put(property.getKey(), property.getValue());
+            }
+            obj.put("properties", props);
+            obj.put("fps", framesPerSecond);
+            obj.put("cpuMsPerFrame", cpuMsPerFrame);
+            obj.put("candidates", new JSONArray(candidates));
+            return obj;
+        }
+
+        static Choice fromJson(JSONObject obj) throws JSONException {
+            Map<String, String> properties = new LinkedHashMap<>();
+            JSONObject props = obj.getJSONObject("properties");
+            JSONArray names = props.names();
+            for (int i = 0; names != null && i < names.length(); i++) {
+                properties.put(names.getString(i), props.getString(names.getString(i)));
+            }
+            List<String> candidates = new ArrayList<>();
+            JSONArray array = obj.getJSONArray("candidates");
+            for (int i = 0; i < array.length(); i++) {
+                candidates.add(array.getString(i));
+            }
+            return new Choice(obj.getString("codec"), obj.getInt("height"), obj.getString("factory"), properties,
+                    obj.getDouble("fps"), obj.getDouble("cpuMsPerFrame"), candidates);
+        }
+    }
+
+    public static class Report {
+        public final List<Choice> choices = new ArrayList<>();
+        public final List<Trial> trials = new ArrayList<>();
+        public final List<String> failures = new ArrayList<>();
+
+        public String toText() {
+            StringBuilder text = new StringBuilder();
+            for (Choice choice : choices) {
+                text.append(String.format(Locale.US, "%s %dp: %s (%.0f fps)%n",
+                        choice.codec, choice.height, choice.description(), choice.framesPerSecond));
+            }
+            if (choices.isEmpty()) {
+                text.append("No decoders found for the codecs in the library\n");
+            }
+            for (String failure : failures) {
+                text.append(failure).append('\n');
+            }
+            text.append('\n');
+            for (Trial trial : trials) {
+                text.append(trial).append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    private static DecoderTuner instance;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "DecoderTuner");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final Map<String, Choice> choices = new HashMap<>(); // By key(codec, height)
+    private final Map<String, String> codecs = new HashMap<>();  // Factory -> codec, "" if not a decoder
+    private boolean loaded;
+    private boolean promoted;
+    private volatile int generation; // Bumped whenever apply() may return something new
+    private boolean nativeReady;
+    private boolean nativeFailed;
+
+    public static synchronized DecoderTuner getInstance(Context context) {
+        if (instance == null) {
+            instance = new DecoderTuner(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DecoderTuner(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Benchmarks the decoders for every codec and resolution the given pipelines
+     * decode. Takes from seconds to a few minutes; nothing else should be playing.
+     */
+    public CompletableFuture<Report> tune(List<PipelineItem> library) {
+        List<String> launches = new ArrayList<>(library.size());
+        for (PipelineItem item : library) {
+            launches.add(item.getPipeline());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Report report = new Report();
+            if (!ensureNative()) {
+                report.failures.add("GStreamer unavailable");
+                return report;
+            }
+            for (String target : findTargets(launches)) {
+                int slash = target.lastIndexOf('@');
+                tuneCodec(target.substring(0, slash), Integer.parseInt(target.substring(slash + 1)), report);
+            }
+            save();
+            return report;
+        }, executor);
+    }
+
+    // "codec@height" for every decoder in the launch strings, sorted
+    private TreeSet<String> findTargets(List<String> launches) {
+        TreeSet<String> targets = new TreeSet<>();
+        for (String launch : launches) {
+            GstLaunchModel model = GstLaunchModel.of(launch);
+            for (GstLaunchModel.Element element : model.getElements()) {
+                String codec = codecOf(element.factory);
+                if (!codec.isEmpty()) {
+                    targets.add(codec + "@" + bucket(heightOf(model)));
+                }
+            }
+        }
+        return targets;
+    }
+
+    private String codecOf(String factory) {
+        String codec = codecs.get(factory);
+        if (codec == null) {
+            codec = nativeGetCodec(factory);
+            codec = codec != null ? codec : "";
+            codecs.put(factory, codec);
+        }
+        return codec;
+    }
+
+    private void tuneCodec(String codec, int height, Report report) {
+        int width = height * 16 / 9 / 2 * 2;
+        File clip = new File(context.getCacheDir(), "bench_" + codec.replaceAll("[^a-zA-Z0-9]", "_") + "_" + height + ".mkv");
+        if (!clip.exists() && !nativePrepareClip(codec, width, height, CLIP_FRAMES, clip.getAbsolutePath())) {
+            report.failures.add(codec + " " + height + "p: no encoder to make a test clip");
+            return;
+        }
+
+        List<String> candidates = new ArrayList<>();
+        Trial best = null;
+        Map<String, String> bestProperties = null;
+        String bestFactory = null;
+        for (String factory : nativeGetCandidates(codec)) {
+            long[] description = nativeDescribe(factory);
+            if (description == null) {
+                continue;
+            }
+            candidates.add(factory);
+            for (Map<String, String> properties : variants(description)) {
+                String decoder = describe(factory, properties);
+                long[] result = nativeRun(clip.getAbsolutePath(), decoder);
+                if (result == null) {
+                    report.failures.add(decoder + ": failed");
+                    continue;
+                }
+                Trial trial = new Trial(decoder, result);
+                report.trials.add(trial);
+                if (best == null || beats(trial, best)) {
+                    best = trial;
+                    bestFactory = factory;
+                    bestProperties = properties;
+                }
+            }
+        }
+        if (best == null) {
+            report.failures.add(codec + " " + height + "p: no working decoder");
+            return;
+        }
+        Choice choice = new Choice(codec, height, bestFactory, bestProperties,
+                best.framesPerSecond, best.cpuMsPerFrame, candidates);
+        synchronized (this) {
+            load();
+            choices.put(key(codec, height), choice);
+        }
+        report.choices.add(choice);
+        Log.i(TAG, codec + " " + height + "p: " + best);
+    }
+
+    // Clearly faster wins; roughly as fast wins on CPU time
+    private static boolean beats(Trial trial, Trial best) {
+        if (trial.framesPerSecond > best.framesPerSecond * (1 + TIE_MARGIN)) {
+            return true;
+        }
+        return trial.framesPerSecond >= best.framesPerSecond * (1 - TIE_MARGIN)
+                && trial.cpuMsPerFrame < best.cpuMsPerFrame;
+    }
+
+    // Defaults first, then thread counts, then libav's threading kinds at full width
+    private static List<Map<String, String>> variants(long[] description) {
+        List<Map<String, String>> variants = new ArrayList<>();
+        variants.add(new LinkedHashMap<>());
+        int property = (int) description[DESCRIBE_THREAD_PROPERTY];
+        if (description[DESCRIBE_HARDWARE] != 0 || property < 0) {
+            return variants;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> counts = new TreeSet<>();
+        counts.add(1);
+        counts.add(Math.min(2, cores));
+        counts.add(Math.max(1, cores / 2));
+        counts.add(cores);
+        for (int count : counts) {
+            Map<String, String> properties = new LinkedHashMap<>();
+            properties.put(THREAD_PROPERTIES[property], String.valueOf(count));
+            variants.add(properties);
+        }
+        if (description[DESCRIBE_THREAD_TYPE] != 0 && cores > 1) {
+            for (String type : new String[] {"frame", "slice"}) {
+                Map<String, String> properties = new LinkedHashMap<>();
+                properties.put(THREAD_PROPERTIES[property], String.valueOf(cores));
+                properties.put("thread-type", type);
+                variants.add(properties);
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * Substitutes the tuned decoder into the launch string. Decoders the user configured
+     * with their own properties are kept, and only get the tuned settings they lack if
+     * they are the winner already. Call once GStreamer is initialized.
+     */
+    public String apply(String launch) {
+        GstLaunchModel model = GstLaunchModel.of(launch);
+        GstLaunchEditor editor = new GstLaunchEditor();
+        boolean autoplugs = false;
+        synchronized (this) {
+            load();
+            if (choices.isEmpty()) {
+                return launch;
+            }
+            int height = bucket(heightOf(model));
+            for (GstLaunchModel.Element element : model.getElements()) {
+                autoplugs |= element.factory.startsWith("decodebin") || element.factory.startsWith("uridecodebin")
+                        || element.factory.startsWith("playbin");
+                Choice choice = choiceFor(element.factory, height);
+                if (choice == null) {
+                    continue;
+                }
+                boolean configured = element.properties.size() > (element.name != null ? 1 : 0);
+                if (!element.factory.equals(choice.factory)) {
+                    if (configured) {
+                        continue;
+                    }
+                    editor.replaceFactory(element.index, choice.factory);
+                }
+                for (Map.Entry<String, String> property : choice.properties.entrySet()) {
+                    if (!element.properties.containsKey(property.getKey())) {
+                        editor.setProperty(element.index, property.getKey(), property.getValue());
+                    }
+                }
+                Log.i(TAG, "Decoding " + choice.codec + " with " + choice.description() + " instead of " + element);
+            }
+            if (autoplugs && !promoted) {
+                promoted = true;
+                for (Choice choice : choices.values()) {
+                    nativePromote(choice.factory);
+                }
+            }
+        }
+        return editor.apply(launch);
+    }
+
+    // The choice for the decoder's codec at the given height, or the nearest tuned height
+    private Choice choiceFor(String factory, int height) {
+        Choice nearest = null;
+        for (Choice choice : choices.values()) {
+            if (!choice.candidates.contains(factory)) {
+                continue;
+            }
+            if (nearest == null || Math.abs(choice.height - height) < Math.abs(nearest.height - height)) {
+                nearest = choice;
+            }
+        }
+        return nearest;
+    }
+
+    private static int heightOf(GstLaunchModel model) {
+        for (GstLaunchModel.Caps caps : model.getCaps()) {
+            String height = caps.fields.get("height");
+            if (height != null) {
+                try {
+                    return Integer.parseInt(height);
+                } catch (NumberFormatException e) {
+                    // A range or a list: fall through to the default
+                }
+            }
+        }
+        return DEFAULT_HEIGHT;
+    }
+
+    private static int bucket(int height) {
+        int best = HEIGHT_BUCKETS[0];
+        for (int bucket : HEIGHT_BUCKETS) {
+            if (Math.abs(bucket - height) < Math.abs(best - height)) {
+                best = bucket;
+            }
+        }
+        return best;
+    }
+
+    private static String key(String codec, int height) {
+        return codec + "@" + height;
+    }
+
+    static String describe(String factory, Map<String, String> properties) {
+        StringBuilder description = new StringBuilder(factory);
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            description.append(' ').append(property.getKey()).append('=').append(property.getValue());
+        }
+        return description.toString();
+    }
+
+    // Results are only valid for the build they were measured on
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray(prefs.getString(KEY_CHOICES, "[]"));
+            for (int i = 0; i < array.length(); i++) {
+                Choice choice = Choice.fromJson(array.getJSONObject(i));
+                choices.put(key(choice.codec, choice.height), choice);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable decoder choices", e);
+            choices.clear();
+        }
+    }
+
+    private synchronized void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Choice choice : choices.values()) {
+                array.put(choice.toJson());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to save decoder choices", e);
+            return;
+        }
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putString(KEY_CHOICES, array.toString())
+                .apply();
+        // Newly tuned winners take effect for auto-plugging at the next apply()
+        promoted = false;
+        generation++;
+    }
+
+    /** Changes whenever new choices are saved; launch strings from apply() before that are stale. */
+    int getGeneration() {
+        return generation;
+    }
+
+    private boolean ensureNative() {
+        if (nativeReady || nativeFailed) {
+            return nativeReady;
+        }
+        try {
+            GStreamerInit.await(context);
+            nativeReady = true;
+        } catch (Throwable e) {
+            Log.w(TAG, "Decoder tuning disabled, GStreamer unavailable", e);
+            nativeFailed = true;
+        }
+        return nativeReady;
+    }
+}
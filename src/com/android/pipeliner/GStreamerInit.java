@@ -0,0 +1,69 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.freedesktop.gstreamer.GStreamer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process-wide GStreamer initialization, done once and off the main thread: loading
+ * libgstreamer_android (tens of MB), GStreamer.init with its asset copies, and gst_init
+ * with the plugin registry. PipelinerApp starts it as the process comes up; activities
+ * continue from ready() and background users block in await().
+ */
+final class GStreamerInit {
+    private static final String TAG = "GStreamerInit";
+
+    private static CompletableFuture<Void> ready;
+    private static volatile long readyAtMs; // SystemClock.uptimeMillis() when done, 0 until then
+
+    private GStreamerInit() {
+    }
+
+    /** Starts initialization if it has not started yet; completes exceptionally if GStreamer is unavailable. */
+    static synchronized CompletableFuture<Void> ready(Context context) {
+        if (ready == null) {
+            final Context app = context.getApplicationContext();
+            ready = CompletableFuture.runAsync(() -> init(app), runnable -> {
+                Thread thread = new Thread(runnable, "gst-init");
+                thread.start();
+            });
+        }
+        return ready;
+    }
+
+    /** Blocks until GStreamer is ready. Not for the main thread. */
+    static void await(Context context) throws Exception {
+        try {
+            ready(context).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        }
+    }
+
+    static long readyAtMs() {
+        return readyAtMs;
+    }
+
+    private static void init(Context context) {
+        long start = SystemClock.uptimeMillis();
+        System.loadLibrary("gstreamer_android");
+        System.loadLibrary("pipeliner");
+        long loaded = SystemClock.uptimeMillis();
+        try {
+            GStreamer.init(context);
+        } catch (Exception e) {
+            Log.e(TAG, "GStreamer initialization failed", e);
+            throw new CompletionException(e);
+        }
+        readyAtMs = SystemClock.uptimeMillis();
+        Log.i(TAG, "GStreamer ready in " + (readyAtMs - start) + " ms (libraries " + (loaded - start)
+                + " ms, init " + (readyAtMs - loaded) + " ms)");
+    }
+}
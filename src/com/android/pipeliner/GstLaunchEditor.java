@@ -0,0 +1,147 @@
+package com.android.pipeliner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Edits a launch string by element index (as assigned by GstLaunchParser) without
+ * reformatting it: properties are appended, factories swapped and elements inserted
+ * in front, while bins, references and caps are re-emitted token by token.
+ */
+final class GstLaunchEditor {
+    private final Map<Integer, Map<String, String>> properties = new HashMap<>();
+    private final Map<Integer, String> factories = new HashMap<>();
+    private final Map<Integer, String> insertBefore = new HashMap<>();
+    private final Map<Integer, String> replacements = new HashMap<>();
+    private String namePrefix;
+
+    // Appends key=value to the element; a later call for the same key wins
+    void setProperty(int index, String key, String value) {
+        Map<String, String> set = properties.get(index);
+        if (set == null) {
+            set = new LinkedHashMap<>();
+            properties.put(index, set);
+        }
+        set.put(key, value);
+    }
+
+    void replaceFactory(int index, String factory) {
+        factories.put(index, factory);
+    }
+
+    // description is a complete element, e.g. "rtpjitterbuffer latency=50"; a link is added after it
+    void insertBefore(int index, String description) {
+        insertBefore.put(index, description);
+    }
+
+    // description replaces the whole element, its properties included
+    void replaceElement(int index, String description) {
+        replacements.put(index, description);
+    }
+
+    /**
+     * Prefixes every element name and the references to it, naming unnamed elements
+     * after their factory and index, and turns caps filters into named capsfilters.
+     * For splicing several launch strings into one pipeline and finding each one's
+     * elements again at runtime.
+     */
+    void setNamePrefix(String prefix) {
+        namePrefix = prefix;
+    }
+
+    boolean isEmpty() {
+        return properties.isEmpty() && factories.isEmpty() && insertBefore.isEmpty() && replacements.isEmpty()
+                && namePrefix == null;
+    }
+
+    String apply(String launch) {
+        if (isEmpty()) {
+            return launch;
+        }
+        List<String> tokens = GstLaunchParser.tokenize(launch);
+        Set<String> names = namePrefix != null
+                ? GstLaunchParser.parse(launch).getNamedElements().keySet() : Collections.<String>emptySet();
+        StringBuilder out = new StringBuilder(launch.length() + 128);
+        int index = -1;
+        int capsCount = 0;
+        boolean inElement = false;
+        boolean replaced = false;
+        String unnamed = null; // generated name for the current element, until it turns out to have one
+        for (String token : tokens) {
+            boolean property = inElement && GstLaunchParser.isProperty(token);
+            if (property) {
+                if (replaced) {
+                    continue;
+                }
+                if (namePrefix != null && token.startsWith("name=")) {
+                    token = "name=" + namePrefix + GstLaunchParser.unquote(token.substring(5));
+                    unnamed = null;
+                }
+                appendToken(out, token);
+                continue;
+            }
+            if (inElement) {
+                finishElement(out, index, replaced, unnamed);
+                inElement = false;
+            }
+            if (!token.equals("!") && !token.equals("(") && !token.equals(")")
+                    && !GstLaunchParser.isCaps(token) && !GstLaunchParser.isReference(token)
+                    && !GstLaunchParser.isProperty(token)) {
+                index++;
+                inElement = true;
+                String inserted = insertBefore.get(index);
+                if (inserted != null) {
+                    appendToken(out, inserted);
+                    appendToken(out, "!");
+                }
+                replaced = replacements.containsKey(index);
+                unnamed = namePrefix != null && !replaced ? namePrefix + token + index : null;
+                if (replaced) {
+                    token = replacements.get(index);
+                } else if (factories.containsKey(index)) {
+                    token = factories.get(index);
+                }
+            } else if (namePrefix != null && GstLaunchParser.isCaps(token)) {
+                token = "capsfilter name=" + namePrefix + "caps" + capsCount++
+                        + " caps=\"" + GstLaunchParser.unquote(token).replace("\"", "\\\"") + "\"";
+            } else if (namePrefix != null && GstLaunchParser.isReference(token)
+                    && names.contains(token.substring(0, token.indexOf('.')))) {
+                token = namePrefix + token;
+            }
+            appendToken(out, token);
+        }
+        if (inElement) {
+            finishElement(out, index, replaced, unnamed);
+        }
+        return out.toString();
+    }
+
+    private void finishElement(StringBuilder out, int index, boolean replaced, String unnamed) {
+        if (!replaced) {
+            appendProperties(out, properties.get(index));
+        }
+        if (unnamed != null) {
+            appendToken(out, "name=" + unnamed);
+        }
+    }
+
+    private static void appendProperties(StringBuilder out, Map<String, String> properties) {
+        if (properties == null) {
+            return;
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            appendToken(out, property.getKey() + "=" + property.getValue());
+        }
+    }
+
+    private static void appendToken(StringBuilder out, String token) {
+        if (out.length() > 0) {
+            out.append(' ');
+        }
+        out.append(token);
+    }
+}
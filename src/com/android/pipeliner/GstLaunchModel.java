@@ -0,0 +1,228 @@
+package com.android.pipeliner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structured, immutable view of a gst-launch string: elements with their properties,
+ * caps filters, links between elements and named branches (tee name=t ... t. ! ...).
+ *
+ * Models are parsed once per distinct launch string and shared through a cache keyed
+ * by content hash; element and property names are interned, so a library of thousands
+ * of near-identical channel pipelines keeps one copy of each name.
+ */
+public final class GstLaunchModel {
+    private static final int CACHE_SIZE = 4096;
+
+    public static final class Element {
+        public final int index;
+        public final String factory;
+        public final String name; // value of name=, or null
+        public final Map<String, String> properties;
+
+        Element(int index, String factory, String name, Map<String, String> properties) {
+            this.index = index;
+            this.factory = factory;
+            this.name = name;
+            this.properties = properties;
+        }
+
+        public String getProperty(String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String toString() {
+            return factory + (name != null ? "(" + name + ")" : "");
+        }
+    }
+
+    public static final class Caps {
+        public final String mediaType;
+        public final Map<String, String> fields;
+        public final String raw;
+
+        Caps(String mediaType, Map<String, String> fields, String raw) {
+            this.mediaType = mediaType;
+            this.fields = fields;
+            this.raw = raw;
+        }
+
+        @Override
+        public String toString() {
+            return raw;
+        }
+    }
+
+    /**
+     * One side of a link: an element, or a reference to a named element and optional pad
+     */
+    public static final class Endpoint {
+        public final Element element; // null for an unresolved reference
+        public final String reference; // "t" for "t." or "demux" for "demux.video_0", else null
+        public final String pad;
+
+        Endpoint(Element element, String reference, String pad) {
+            this.element = element;
+            this.reference = reference;
+            this.pad = pad;
+        }
+
+        @Override
+        public String toString() {
+            if (element != null && reference == null) {
+                return element.toString();
+            }
+            return reference + "." + (pad != null ? pad : "");
+        }
+    }
+
+    public static final class Link {
+        public final Endpoint from;
+        public final Endpoint to;
+        public final Caps caps; // caps filter between the two, or null
+
+        Link(Endpoint from, Endpoint to, Caps caps) {
+            this.from = from;
+            this.to = to;
+            this.caps = caps;
+        }
+
+        @Override
+        public String toString() {
+            return from + (caps != null ? " ! " + caps : "") + " ! " + to;
+        }
+    }
+
+    private final String launch;
+    private final List<Element> elements;
+    private final List<Caps> caps;
+    private final List<Link> links;
+    private final Map<String, Element> namedElements;
+    private final List<String> errors;
+
+    GstLaunchModel(String launch, List<Element> elements, List<Caps> caps, List<Link> links,
+                   Map<String, Element> namedElements, List<String> errors) {
+        this.launch = launch;
+        this.elements = Collections.unmodifiableList(elements);
+        this.caps = Collections.unmodifiableList(caps);
+        this.links = Collections.unmodifiableList(links);
+        this.namedElements = Collections.unmodifiableMap(namedElements);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    // Access-ordered LRU of parsed models
+    private static final Map<Long, GstLaunchModel> cache =
+            new LinkedHashMap<Long, GstLaunchModel>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, GstLaunchModel> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Returns the parsed model for a launch string, parsing it only the first time it is seen
+     */
+    public static GstLaunchModel of(String launch) {
+        long key = hash(launch);
+        synchronized (cache) {
+            GstLaunchModel model = cache.get(key);
+            if (model != null && model.launch.equals(launch)) {
+                return model;
+            }
+        }
+        GstLaunchModel model = GstLaunchParser.parse(launch);
+        synchronized (cache) {
+            cache.put(key, model);
+        }
+        return model;
+    }
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // 64-bit FNV-1a, also the key PipelineValidator caches results under
+    static long hash(String s) {
+        return fnv1a(FNV_OFFSET, s);
+    }
+
+    // Continues an FNV-1a hash over s; the one implementation every content hash uses
+    static long fnv1a(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public String getLaunch() { return launch; }
+    public List<Element> getElements() { return elements; }
+    public List<Caps> getCaps() { return caps; }
+    public List<Link> getLinks() { return links; }
+    public Map<String, Element> getNamedElements() { return namedElements; }
+    public List<String> getErrors() { return errors; }
+
+    public boolean hasElement(String factory) {
+        for (Element element : elements) {
+            if (element.factory.equals(factory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<Element> findElements(String factory) {
+        List<Element> found = new ArrayList<>();
+        for (Element element : elements) {
+            if (element.factory.equals(factory)) {
+                found.add(element);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Elements with no incoming link: the sources of each chain
+     */
+    public List<Element> getSources() {
+        boolean[] linkedTo = new boolean[elements.size()];
+        for (Link link : links) {
+            if (link.to.element != null) {
+                linkedTo[link.to.element.index] = true;
+            }
+        }
+        List<Element> sources = new ArrayList<>();
+        for (Element element : elements) {
+            if (!linkedTo[element.index]) {
+                sources.add(element);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Elements with no outgoing link: the sinks of each chain
+     */
+    public List<Element> getSinks() {
+        boolean[] linkedFrom = new boolean[elements.size()];
+        for (Link link : links) {
+            if (link.from.element != null) {
+                linkedFrom[link.from.element.index] = true;
+            }
+        }
+        List<Element> sinks = new ArrayList<>();
+        for (Element element : elements) {
+            if (!linkedFrom[element.index]) {
+                sinks.add(element);
+            }
+        }
+        return sinks;
+    }
+
+    @Override
+    public String toString() {
+        return "elements=" + elements + " links=" + links + " caps=" + caps;
+    }
+}
@@ -0,0 +1,255 @@
+package com.android.pipeliner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parser for gst-launch-1.0 syntax, producing a GstLaunchModel.
+ *
+ * Handles elements with properties, "!" links, caps filters (quoted or not),
+ * named references such as "t." and "demux.video_0", and bin parentheses.
+ * It is deliberately tolerant: malformed input yields a partial model plus
+ * entries in getErrors() rather than an exception, since the real check is
+ * gst_parse_launch on the device.
+ */
+public final class GstLaunchParser {
+    // Shared copies of element and property names across all parsed models
+    private static final Map<String, String> names = new ConcurrentHashMap<>();
+
+    private static final String LINK = "!";
+
+    private GstLaunchParser() {
+    }
+
+    static String intern(String s) {
+        String existing = names.putIfAbsent(s, s);
+        return existing != null ? existing : s;
+    }
+
+    // Link whose endpoints may still be unresolved references
+    private static final class PendingLink {
+        final Object from; // GstLaunchModel.Element or String[] {name, pad}
+        final Object to;
+        final GstLaunchModel.Caps caps;
+
+        PendingLink(Object from, Object to, GstLaunchModel.Caps caps) {
+            this.from = from;
+            this.to = to;
+            this.caps = caps;
+        }
+    }
+
+    public static GstLaunchModel parse(String launch) {
+        List<String> tokens = tokenize(launch);
+        List<GstLaunchModel.Element> elements = new ArrayList<>();
+        List<GstLaunchModel.Caps> capsList = new ArrayList<>();
+        List<PendingLink> pending = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+
+        // Element under construction
+        String factory = null;
+        Map<String, String> properties = null;
+
+        Object previous = null; // last element or reference of the current chain
+        boolean linkPending = false;
+        GstLaunchModel.Caps pendingCaps = null;
+
+        for (int i = 0; i <= tokens.size(); i++) {
+            String token = i < tokens.size() ? tokens.get(i) : null;
+
+            // Properties attach to the element under construction
+            if (token != null && factory != null && isProperty(token)) {
+                int eq = token.indexOf('=');
+                properties.put(intern(token.substring(0, eq).trim()), unquote(token.substring(eq + 1).trim()));
+                continue;
+            }
+
+            // Anything else finishes the element under construction
+            if (factory != null) {
+                GstLaunchModel.Element element = new GstLaunchModel.Element(elements.size(), factory,
+                        properties.get("name"), Collections.unmodifiableMap(properties));
+                elements.add(element);
+                if (linkPending && previous != null) {
+                    pending.add(new PendingLink(previous, element, pendingCaps));
+                }
+                previous = element;
+                linkPending = false;
+                pendingCaps = null;
+                factory = null;
+                properties = null;
+            }
+
+            if (token == null) {
+                break;
+            }
+
+            if (token.equals(LINK)) {
+                if (previous == null) {
+                    errors.add("Link without a source element");
+                }
+                linkPending = true;
+            } else if (token.equals("(") || token.equals(")")) {
+                // Bin boundaries: elements inside are linked like any other chain
+                previous = null;
+                linkPending = false;
+                pendingCaps = null;
+            } else if (isCaps(token)) {
+                GstLaunchModel.Caps caps = parseCaps(unquote(token));
+                capsList.add(caps);
+                if (!linkPending) {
+                    errors.add("Caps without a preceding link: " + token);
+                }
+                pendingCaps = caps;
+            } else if (isReference(token)) {
+                int dot = token.indexOf('.');
+                String[] reference = {
+                    token.substring(0, dot),
+                    dot + 1 < token.length() ? token.substring(dot + 1) : null
+                };
+                if (linkPending && previous != null) {
+                    pending.add(new PendingLink(previous, reference, pendingCaps));
+                }
+                previous = reference;
+                linkPending = false;
+                pendingCaps = null;
+            } else if (isProperty(token)) {
+                errors.add("Property without an element: " + token);
+            } else {
+                // Without a pending link this element starts a new chain
+                factory = intern(token);
+                properties = new LinkedHashMap<>();
+            }
+        }
+        if (linkPending) {
+            errors.add("Dangling link at end of pipeline");
+        }
+
+        Map<String, GstLaunchModel.Element> named = new LinkedHashMap<>();
+        for (GstLaunchModel.Element element : elements) {
+            if (element.name != null) {
+                named.put(element.name, element);
+            }
+        }
+
+        List<GstLaunchModel.Link> links = new ArrayList<>(pending.size());
+        for (PendingLink link : pending) {
+            links.add(new GstLaunchModel.Link(resolve(link.from, named, errors), resolve(link.to, named, errors), link.caps));
+        }
+
+        return new GstLaunchModel(launch, elements, capsList, links, named, errors);
+    }
+
+    private static GstLaunchModel.Endpoint resolve(Object node, Map<String, GstLaunchModel.Element> named,
+                                                   List<String> errors) {
+        if (node instanceof GstLaunchModel.Element) {
+            return new GstLaunchModel.Endpoint((GstLaunchModel.Element) node, null, null);
+        }
+        String[] reference = (String[]) node;
+        GstLaunchModel.Element element = named.get(reference[0]);
+        if (element == null) {
+            errors.add("Reference to unknown element: " + reference[0]);
+        }
+        return new GstLaunchModel.Endpoint(element, reference[0], reference[1]);
+    }
+
+    /**
+     * Splits on whitespace and "!", keeping quoted strings whole and joining
+     * caps that were written with spaces after commas
+     */
+    static List<String> tokenize(String launch) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        int castDepth = 0; // parentheses inside a token, e.g. width=(int)640
+        for (int i = 0; i < launch.length(); i++) {
+            char c = launch.charAt(i);
+            if (c == '\\' && quoted && i + 1 < launch.length()) {
+                current.append(c).append(launch.charAt(++i));
+            } else if (c == '"') {
+                quoted = !quoted;
+                current.append(c);
+            } else if (!quoted && c == '(' && current.length() > 0) {
+                castDepth++;
+                current.append(c);
+            } else if (!quoted && c == ')' && castDepth > 0) {
+                castDepth--;
+                current.append(c);
+            } else if (!quoted && (Character.isWhitespace(c) || c == '!' || c == '(' || c == ')')) {
+                boolean continuesCaps = Character.isWhitespace(c) && current.length() > 0
+                        && current.charAt(current.length() - 1) == ',';
+                if (continuesCaps) {
+                    continue;
+                }
+                if (current.length() > 0) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                }
+                if (!Character.isWhitespace(c)) {
+                    tokens.add(String.valueOf(c));
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    static boolean isProperty(String token) {
+        int eq = token.indexOf('=');
+        if (eq <= 0) {
+            return false;
+        }
+        int slash = token.indexOf('/');
+        int quote = token.indexOf('"');
+        return (slash < 0 || eq < slash) && (quote < 0 || eq < quote);
+    }
+
+    static boolean isCaps(String token) {
+        String t = unquote(token);
+        int slash = t.indexOf('/');
+        if (slash <= 0) {
+            return false;
+        }
+        int eq = t.indexOf('=');
+        return eq < 0 || slash < eq;
+    }
+
+    static boolean isReference(String token) {
+        int dot = token.indexOf('.');
+        return dot > 0 && token.indexOf('=') < 0 && token.indexOf('/') < 0
+                && !Character.isDigit(token.charAt(0));
+    }
+
+    static GstLaunchModel.Caps parseCaps(String raw) {
+        String[] parts = raw.split(",");
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (int i = 1; i < parts.length; i++) {
+            String field = parts[i].trim();
+            int eq = field.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String value = field.substring(eq + 1).trim();
+            // Drop type casts such as (int)1920
+            if (value.startsWith("(") && value.indexOf(')') > 0) {
+                value = value.substring(value.indexOf(')') + 1).trim();
+            }
+            fields.put(intern(field.substring(0, eq).trim()), unquote(value));
+        }
+        return new GstLaunchModel.Caps(intern(parts[0].trim()), Collections.unmodifiableMap(fields), raw);
+    }
+
+    static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1).replace("\\\"", "\"");
+        }
+        return value;
+    }
+}
@@ -3,15 +3,21 @@ package com.android.pipeliner;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.app.AlertDialog;
 import android.app.PictureInPictureParams;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Environment;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.MotionEvent;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
@@ -24,8 +30,13 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.core.content.ContextCompat;
 
-//IDK about this import
-import org.freedesktop.gstreamer.GStreamer;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
 
 public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Callback {
     private native void nativeInit();     // Initialize native code, build pipeline, etc
@@ -37,16 +48,48 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
     private native void nativeSurfaceFinalize();
     private native void nativeSetPipeline(String pipeline);
     private native void nativeReinit();
-    private native String nativeGetError(); // Poll for errors (thread-safe)
+    private native void nativeSwapTile(int index, String oldPrefix, String newPrefix, String branch);
+    private native void nativeStartRecording(String location, long segmentNs);
+    private native void nativeStopRecording();
+    private native long[] nativeGetRecordingStats();
+    private native void nativeSetStallTimeout(int stallMs);
+    private native long[] nativeGetWatchdogStats();
+    private native long[] nativeGetStartupTimeline();
+    private native void nativeSetBusFilter(int kinds);
+    private native boolean nativeSetBusRateLimit(int kind, int intervalMs);
     private android.view.Menu menu;
 
     private long native_custom_data;      // Native code will use this to keep private data
 
     private boolean is_playing_desired;   // Whether the user asked to go to PLAYING
+    private static boolean nativeClassInitialized; // Method IDs cached, once per process
+    private boolean nativeStarted;        // nativeInit done; before that, no native calls
     
-    private Handler errorPollHandler;     // Handler for error polling
-    private static final int ERROR_POLL_INTERVAL_MS = 500; // Poll every 500ms
-    
+    // Performance HUD: tracer snapshot plus the latest QoS and latency bus messages
+    private static final long HUD_REFRESH_MS = 500;
+    private final Handler hudHandler = new Handler(Looper.getMainLooper());
+    private boolean hudVisible;
+    private static final long RECORDING_REFRESH_MS = 1000;
+    private boolean recording;            // Asked to record, until the recorder is back to idle
+    private boolean recordingSeen;        // The recorder has reported the branch running
+    private long recordingRequestedMs;
+    private BusMessageListener.QosRecord hudLastQos;
+    private BusMessageListener.LatencyRecord hudLastLatency;
+
+    // Startup timeline of the launch from the list, recorded to its PipelineItem at the first frame
+    private static final long STARTUP_POLL_MS = 50;
+    private static final long STARTUP_TIMEOUT_MS = 30000;
+    private String startupPipelineId;     // Item being timed, null when there is nothing to record
+    private long startupTapNs;            // System.nanoTime() marks, 0 if not taken
+    private long startupActivityNs;
+    private long startupGstInitNs;
+    private long startupNativeInitNs;
+
+    // Bus listeners and the kinds each one asked for
+    private final BusListenerSet busListeners = new BusListenerSet();
+    private Mosaic mosaic;                // Tiles of the mosaic being played, null for a single pipeline
+    private int pipelineRequest;          // Bumped per loadAndSetPipeline(), so a stale mosaic lookup is dropped
+
     private static final int CAMERA_PERMISSION_REQUEST = 100;
     private ActivityResultLauncher<String[]> cameraPermissionLauncher;
     
@@ -55,6 +98,9 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
     // Pull custom pipelines
     private static final String PREF_NAME = "GStreamerPrefs";
     private static final String KEY_FULL_PIPELINE = "FullPipeline";
+    private static final String KEY_PIPELINE_ID = "PipelineId"; // Library item being played, if any
+    private static final String KEY_LOW_LATENCY = "LowLatency";
+    private static final String KEY_MOSAIC = "Mosaic";           // Mosaic.encode() of the mosaic being played, if any
     private ActivityResultLauncher<Intent> settingsActivityLauncher;
 
     //Menu
@@ -78,12 +124,34 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
     
     if (id == R.id.button_play) {
             is_playing_desired = true;
-            nativePlay();
+            if (nativeStarted) {
+                nativePlay();
+            }
             return true;
     }
     else if (id == R.id.button_stop) {
         is_playing_desired = false;
-        nativePause();
+        if (nativeStarted) {
+            nativePause();
+        }
+        return true;
+    }
+    if (!nativeStarted && (id == R.id.action_hud || id == R.id.action_record || id == R.id.action_verbose_log)) {
+        return true;
+    }
+    if (id == R.id.action_verbose_log) {
+        item.setChecked(!item.isChecked());
+        PipelineTracer.setVerboseLogging(item.isChecked());
+        return true;
+    }
+    if (id == R.id.action_hud) {
+        setHudVisible(!hudVisible);
+        item.setChecked(hudVisible);
+        return true;
+    }
+    if (id == R.id.action_record) {
+        setRecording(!item.isChecked());
+        item.setChecked(recording);
         return true;
     }
     if (id == R.id.action_settings) {
@@ -100,10 +168,48 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
     }
 
     private void loadAndSetPipeline() {
-        String pipeline = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
-                .getString(KEY_FULL_PIPELINE, "videotestsrc ! autovideosink");
+        if (!nativeClassInitialized) {
+            return; // Picked up from the preferences once GStreamer is ready
+        }
+        SharedPreferences prefs = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        String pipeline = prefs.getString(KEY_FULL_PIPELINE, "videotestsrc ! autovideosink");
         Log.i("GStreamer", "loadAndSetPipeline() called - Pipeline: " + pipeline);
+        String encodedMosaic = prefs.getString(KEY_MOSAIC, null);
+        final int request = ++pipelineRequest;
+        mosaic = null;
+        if (encodedMosaic == null) {
+            setPipeline(pipeline, null);
+            return;
+        }
+        // Rebuilt from the tiles' items, so swapped tiles survive a restart. The library
+        // may still be loading, so the items are looked up on the storage thread.
+        PipelineStorage storage = PipelineStorage.getInstance(this);
+        storage.supplyAsync(() -> Mosaic.decode(encodedMosaic, storage))
+            .thenAcceptAsync(decoded -> {
+                if (request == pipelineRequest && !isDestroyed()) {
+                    setPipeline(pipeline, decoded);
+                }
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    private void setPipeline(String pipeline, Mosaic decoded) {
+        SharedPreferences prefs = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        mosaic = decoded;
+        GStreamerSurfaceView surface = (GStreamerSurfaceView) findViewById(R.id.surface_video);
+        if (mosaic != null) {
+            pipeline = mosaic.toLaunch();
+            surface.media_width = mosaic.width;
+            surface.media_height = mosaic.height;
+            surface.requestLayout();
+        }
+        boolean lowLatency = prefs.getBoolean(KEY_LOW_LATENCY, false);
+        List<LowLatencyRewriter.Change> changes = new ArrayList<>();
+        pipeline = PlayerLaunch.build(this, pipeline, lowLatency, mosaic != null, changes);
+        for (LowLatencyRewriter.Change change : changes) {
+            Log.i("GStreamer", "Low-latency: " + change);
+        }
         nativeSetPipeline(pipeline);
+        nativeSetStallTimeout(StallWatchdog.stallMsFor(lowLatency));
         // Re init GSTREAMER
         nativeReinit();
         if (is_playing_desired) {
@@ -138,6 +244,7 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
     public void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        startupActivityNs = System.nanoTime();
         
         Log.i("GStreamer", "onCreate() called - lastProcessedIntentHash: " + lastProcessedIntentHash);
         
@@ -157,15 +264,6 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
                 }
         );
         
-        // Initialize GStreamer and warn if it fails
-        try {
-            GStreamer.init(this);
-        } catch (Exception e) {
-            Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
-            finish();
-            return;
-        }
-        
         // Check and request camera permissions if needed
         checkCameraPermissions();
 
@@ -184,6 +282,16 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
         SurfaceView sv = (SurfaceView) this.findViewById(R.id.surface_video);
         SurfaceHolder sh = sv.getHolder();
         sh.addCallback(this);
+        sv.setOnTouchListener((view, event) -> {
+            if (mosaic == null || event.getAction() != MotionEvent.ACTION_UP) {
+                return mosaic != null;
+            }
+            Mosaic.Tile tile = mosaic.tileAt(event.getX() / view.getWidth(), event.getY() / view.getHeight());
+            if (tile != null) {
+                chooseTile(tile);
+            }
+            return true;
+        });
 
         if (savedInstanceState != null) {
             is_playing_desired = savedInstanceState.getBoolean("playing");
@@ -192,14 +300,32 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
             is_playing_desired = false;
             Log.i ("GStreamer", "Activity created without saved state. Playing: false");
         }
-        
+
+        // GStreamer comes up on its own thread, started by PipelinerApp; the native side
+        // starts once it is ready instead of blocking here
+        GStreamerInit.ready(this).whenComplete((ignored, error) -> runOnUiThread(() -> onGStreamerReady(error)));
+    }
+
+    // The rest of onCreate, once GStreamer is initialized. Runs on the UI thread.
+    private void onGStreamerReady(Throwable error) {
+        if (isDestroyed()) {
+            return;
+        }
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Toast.makeText(this, "GStreamer unavailable: " + cause.getMessage(), Toast.LENGTH_LONG).show();
+            finish();
+            return;
+        }
+        startupGstInitNs = System.nanoTime();
+        if (!nativeClassInitialized) {
+            nativeClassInitialized = nativeClassInit();
+        }
+
         // Always call handleIntent - it will check if this specific intent was already processed
         Log.i("GStreamer", "About to call handleIntent, lastProcessedIntentHash: " + lastProcessedIntentHash);
         handleIntent(getIntent());
 
-        // Start error polling
-        startErrorPolling();
-
         // Custom Pipeline (only load if intent didn't already load one)
         Log.i("GStreamer", "After handleIntent, lastProcessedIntentHash: " + lastProcessedIntentHash);
         if (lastProcessedIntentHash == null) {
@@ -209,15 +335,326 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
             Log.i("GStreamer", "Hash is NOT null, skipping loadAndSetPipeline()");
         }
 
+        startupNativeInitNs = System.nanoTime();
         nativeInit();
+        watchStartup();
+        nativeSetStallTimeout(StallWatchdog.stallMsFor(
+                getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE).getBoolean(KEY_LOW_LATENCY, false)));
+        addBusMessageListener(statusBusListener,
+                BusMessageListener.KIND_BUFFERING | BusMessageListener.KIND_WARNING | BusMessageListener.KIND_EOS);
+        addBusMessageListener(latencyBusListener, BusMessageListener.KIND_LATENCY);
+        nativeStarted = true;
+
+        // The surface may have come up while GStreamer was still loading
+        Surface surface = ((SurfaceView) findViewById(R.id.surface_video)).getHolder().getSurface();
+        if (surface != null && surface.isValid()) {
+            nativeSurfaceInit(surface);
+        }
+    }
+
+    /**
+     * Subscribes to the given BusMessageListener.KIND_* bits of the running pipeline's
+     * bus. Calling it again for the same listener replaces its kinds.
+     */
+    public void addBusMessageListener(BusMessageListener listener, int kinds) {
+        nativeSetBusFilter(busListeners.put(listener, kinds));
+    }
+
+    public void removeBusMessageListener(BusMessageListener listener) {
+        if (busListeners.contains(listener)) {
+            nativeSetBusFilter(busListeners.remove(listener));
+        }
+    }
+
+    /**
+     * Delivers at most one message of a rate limited kind (QoS, buffering, element)
+     * per interval; 0 delivers all of them.
+     */
+    public void setBusRateLimit(int kind, int intervalMs) {
+        if (!nativeSetBusRateLimit(kind, intervalMs)) {
+            Log.w("GStreamer", "No rate limit for bus message kind " + kind);
+        }
+    }
+
+    private void setHudVisible(boolean visible) {
+        if (visible == hudVisible) {
+            return;
+        }
+        hudVisible = visible;
+        TextView hud = (TextView) findViewById(R.id.hud_overlay);
+        PipelineTracer.setEnabled(visible, 1);
+        if (visible) {
+            addBusMessageListener(hudBusListener, BusMessageListener.KIND_QOS | BusMessageListener.KIND_LATENCY);
+            hud.setVisibility(View.VISIBLE);
+            hudHandler.post(hudRefresh);
+        } else {
+            removeBusMessageListener(hudBusListener);
+            hudHandler.removeCallbacks(hudRefresh);
+            hud.setVisibility(View.GONE);
+            hudLastQos = null;
+            hudLastLatency = null;
+        }
+    }
+
+    // Records the stream to app storage alongside playback; the recorder splits it into segments
+    private void setRecording(boolean record) {
+        if (record == recording) {
+            return;
+        }
+        if (!record) {
+            nativeStopRecording(); // The refresh notices when the last segment is closed
+            return;
+        }
+        File dir = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            Toast.makeText(this, "No storage to record to", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CharSequence title = getSupportActionBar() != null ? getSupportActionBar().getTitle() : null;
+        String name = (title != null ? title.toString() : "recording").replaceAll("[^A-Za-z0-9._-]+", "_");
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        String location = new File(dir, name + "_" + stamp + "_%05d.mkv").getAbsolutePath();
+        Log.i("GStreamer", "Recording to " + location);
+        nativeStartRecording(location, RecordingTap.SEGMENT_NS);
+        recording = true;
+        recordingSeen = false;
+        recordingRequestedMs = SystemClock.elapsedRealtime();
+        hudHandler.removeCallbacks(recordingRefresh);
+        hudHandler.postDelayed(recordingRefresh, RECORDING_REFRESH_MS);
+    }
+
+    private final Runnable recordingRefresh = new Runnable() {
+        @Override
+        public void run() {
+            long[] values = nativeGetRecordingStats();
+            if (values == null) {
+                return;
+            }
+            RecordingTap.Stats stats = new RecordingTap.Stats(values);
+            recordingSeen |= stats.state != RecordingTap.STATE_IDLE;
+            // Idle again: stopped, cut off by a pipeline switch, or it never started (the error is shown)
+            boolean ended = stats.state == RecordingTap.STATE_IDLE
+                    && (recordingSeen || SystemClock.elapsedRealtime() - recordingRequestedMs > 2 * RECORDING_REFRESH_MS);
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(ended ? null : stats.toString());
+            }
+            if (!ended) {
+                hudHandler.postDelayed(this, RECORDING_REFRESH_MS);
+                return;
+            }
+            recording = false;
+            if (menu != null) {
+                menu.findItem(R.id.action_record).setChecked(false);
+            }
+            if (recordingSeen) {
+                Log.i("GStreamer", "Recording stopped: " + stats);
+                Toast.makeText(GstreamerMain.this, stats.toString(), Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    private void watchStartup() {
+        hudHandler.removeCallbacks(startupRefresh);
+        if (startupPipelineId != null) {
+            hudHandler.postDelayed(startupRefresh, STARTUP_POLL_MS);
+        }
     }
+
+    // Waits for the first frame of the pipeline requested for this launch
+    private final Runnable startupRefresh = new Runnable() {
+        @Override
+        public void run() {
+            long[] marks = nativeGetStartupTimeline();
+            if (marks == null || startupPipelineId == null) {
+                return;
+            }
+            // Marks of a pipeline requested before this launch started are not ours
+            boolean current = marks[StartupTimeline.MARK_REQUESTED] * 1000 >= startupActivityNs;
+            boolean timedOut = (System.nanoTime() - startupActivityNs) / 1000000 > STARTUP_TIMEOUT_MS;
+            if (!timedOut && (!current || marks[StartupTimeline.MARK_FIRST_FRAME] == 0)) {
+                hudHandler.postDelayed(this, STARTUP_POLL_MS);
+                return;
+            }
+            if (current && marks[StartupTimeline.MARK_FIRST_FRAME] > 0) {
+                PipelinerApp.reportColdStart(PipelinerApp.MILESTONE_FIRST_FRAME,
+                        marks[StartupTimeline.MARK_FIRST_FRAME] / 1000);
+            }
+            String id = startupPipelineId;
+            startupPipelineId = null;
+            if (current) {
+                recordStartup(id, StartupTimeline.assemble(startupTapNs, startupActivityNs, startupGstInitNs,
+                        startupNativeInitNs, marks));
+            }
+        }
+    };
+
+    private void recordStartup(String id, StartupTimeline.Record record) {
+        PipelineStorage storage = PipelineStorage.getInstance(this);
+        String played = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE).getString(KEY_FULL_PIPELINE, null);
+        // The library may still be loading after a restore straight into the player
+        storage.supplyAsync(() -> storage.getPipeline(id))
+            .thenAcceptAsync(item -> {
+                // Not after the pipeline was edited from the settings screen
+                if (item == null || !item.getPipeline().equals(played)) {
+                    return;
+                }
+                List<StartupTimeline.Record> previous = item.getStartups();
+                Log.i("GStreamer", "Startup: " + record);
+                if (record.firstFrameUs() >= 0 && StartupTimeline.isRegression(previous, record)) {
+                    String slow = String.format(Locale.US, "Slow start: first frame after %.0f ms, usually %.0f ms",
+                            record.firstFrameUs() / 1000.0,
+                            StartupTimeline.percentileUs(previous, StartupTimeline.PHASE_FIRST_FRAME, 50) / 1000.0);
+                    Log.w("GStreamer", slow);
+                    if (!isDestroyed()) {
+                        setMessage(slow);
+                    }
+                }
+                item.addStartup(record);
+                storage.updatePipeline(item);
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    private final Runnable hudRefresh = new Runnable() {
+        @Override
+        public void run() {
+            StringBuilder text = new StringBuilder(PipelineTracer.snapshot().toHudText());
+            if (hudLastLatency != null) {
+                text.append("latency ").append(hudLastLatency).append('\n');
+            }
+            if (hudLastQos != null) {
+                text.append("qos ").append(hudLastQos).append('\n');
+            }
+            long[] watchdog = nativeGetWatchdogStats();
+            if (watchdog != null) {
+                StallWatchdog.Stats stats = new StallWatchdog.Stats(watchdog);
+                if (stats.phase != StallWatchdog.PHASE_OFF) {
+                    text.append(stats).append('\n');
+                }
+            }
+            ((TextView) findViewById(R.id.hud_overlay)).setText(text);
+            hudHandler.postDelayed(this, HUD_REFRESH_MS);
+        }
+    };
+
+    private final BusMessageListener hudBusListener = new BusMessageListener() {
+        @Override
+        public void onQos(QosRecord qos) {
+            hudLastQos = qos;
+        }
+
+        @Override
+        public void onLatency(LatencyRecord latency) {
+            hudLastLatency = latency;
+        }
+    };
+
+    // Built-in subscriber: buffering progress, warnings and end of stream in the status area
+    private final BusMessageListener statusBusListener = new BusMessageListener() {
+        @Override
+        public void onBuffering(BufferingRecord buffering) {
+            View statusContainer = findViewById(R.id.status_container);
+            TextView statusText = (TextView) findViewById(R.id.status_text);
+            if (buffering.percent < 100) {
+                findViewById(R.id.loading_spinner).setVisibility(View.VISIBLE);
+                statusText.setText("Buffering " + buffering.percent + "%");
+                statusContainer.setVisibility(View.VISIBLE);
+            } else if (is_playing_desired) {
+                statusContainer.setVisibility(View.GONE);
+            }
+        }
+
+        @Override
+        public void onWarning(String source, String message) {
+            Log.w("GStreamer", "Warning from " + source + ": " + message);
+        }
+
+        @Override
+        public void onEos(String source) {
+            setMessage("End of stream");
+        }
+    };
     
+    // Remembers the pipeline latency of library items, per mode, for the low-latency comparison
+    private final BusMessageListener latencyBusListener = new BusMessageListener() {
+        @Override
+        public void onLatency(LatencyRecord latency) {
+            SharedPreferences prefs = getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+            String id = prefs.getString(KEY_PIPELINE_ID, null);
+            if (id == null || !latency.live || latency.minNs <= 0) {
+                return;
+            }
+            String played = prefs.getString(KEY_FULL_PIPELINE, null);
+            boolean lowLatency = prefs.getBoolean(KEY_LOW_LATENCY, false);
+            PipelineStorage storage = PipelineStorage.getInstance(GstreamerMain.this);
+            storage.supplyAsync(() -> storage.getPipeline(id))
+                .thenAcceptAsync(item -> {
+                    // Not after the pipeline was edited from the settings screen
+                    if (item == null || !item.getPipeline().equals(played)) {
+                        return;
+                    }
+                    long previous = lowLatency ? item.getLowLatencyNs() : item.getLatencyNs();
+                    if (previous != latency.minNs) {
+                        item.setMeasuredLatency(lowLatency, latency.minNs);
+                        storage.updatePipeline(item);
+                    }
+                }, ContextCompat.getMainExecutor(GstreamerMain.this));
+        }
+    };
+
+    // Offers the stored pipelines for a mosaic tile; only that tile's branch is rebuilt
+    private void chooseTile(final Mosaic.Tile tile) {
+        final Mosaic current = mosaic;
+        PipelineStorage.getInstance(this).getSortedPipelinesAsync("recent")
+            .thenAcceptAsync(pipelines -> {
+                // Not if the mosaic was replaced or left meanwhile
+                if (mosaic == current && !isFinishing()) {
+                    showTileDialog(tile, pipelines);
+                }
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    private void showTileDialog(Mosaic.Tile tile, List<PipelineItem> pipelines) {
+        String[] names = new String[pipelines.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = pipelines.get(i).getName();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Tile " + (tile.index + 1) + ": " + tile.item.getName())
+                .setItems(names, (dialog, which) -> swapTile(tile, pipelines.get(which)))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void swapTile(Mosaic.Tile tile, PipelineItem item) {
+        String oldPrefix = tile.prefix;
+        Mosaic.Tile swapped = mosaic.swap(tile.index, item);
+        if (swapped == null) {
+            Toast.makeText(this, item.getName() + " has no video to show in a tile", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Log.i("GStreamer", "Mosaic swap: " + swapped);
+        nativeSwapTile(swapped.index, oldPrefix, swapped.prefix,
+                DecoderTuner.getInstance(this).apply(Mosaic.branch(swapped, false)));
+        getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_MOSAIC, mosaic.encode())
+                .apply();
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
         setIntent(intent);
         lastProcessedIntentHash = null; // Reset hash for new intent
+        if (!nativeStarted) {
+            return; // onGStreamerReady handles it
+        }
+        // Already initialized: the launch goes straight to a pipeline switch
+        startupActivityNs = System.nanoTime();
+        startupGstInitNs = 0;
+        startupNativeInitNs = 0;
         handleIntent(intent);
+        watchStartup();
     }
     
     private void handleIntent(Intent intent) {
@@ -225,9 +662,11 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
         if (intent != null && intent.hasExtra("pipeline")) {
             String pipeline = intent.getStringExtra("pipeline");
             pipelineName = intent.getStringExtra("name");
+            boolean lowLatency = intent.getBooleanExtra("lowLatency", false);
+            String mosaicTiles = intent.getStringExtra("mosaic");
             
             // Create a unique hash for this intent
-            String intentHash = (pipeline + "|" + pipelineName).hashCode() + "";
+            String intentHash = (pipeline + "|" + pipelineName + "|" + lowLatency + "|" + mosaicTiles).hashCode() + "";
             
             // Check if we've already processed this exact intent
             if (intentHash.equals(lastProcessedIntentHash)) {
@@ -242,8 +681,14 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
             getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
                     .edit()
                     .putString(KEY_FULL_PIPELINE, pipeline)
+                    .putString(KEY_PIPELINE_ID, intent.getStringExtra("pipelineId"))
+                    .putBoolean(KEY_LOW_LATENCY, lowLatency)
+                    .putString(KEY_MOSAIC, mosaicTiles)
                     .apply();
             lastProcessedIntentHash = intentHash; // Store hash to prevent re-processing
+            // Mosaics are not a library item, and their first frame is the mixer's, not a stream's
+            startupPipelineId = mosaicTiles == null ? intent.getStringExtra("pipelineId") : null;
+            startupTapNs = intent.getLongExtra("tapNs", 0);
             is_playing_desired = true; // Auto-play when tapping from list
             loadAndSetPipeline();
         }
@@ -256,36 +701,6 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
         }
     }
     
-    private void startErrorPolling() {
-        errorPollHandler = new Handler(Looper.getMainLooper());
-        Runnable errorPollRunnable = new Runnable() {
-            @Override
-            public void run() {
-                String error = nativeGetError();
-                if (error != null && !error.isEmpty()) {
-                    showError(error);
-                }
-                errorPollHandler.postDelayed(this, ERROR_POLL_INTERVAL_MS);
-            }
-        };
-        errorPollHandler.post(errorPollRunnable);
-    }
-    
-    private void showError(String error) {
-        // Hide status container
-        View statusContainer = findViewById(R.id.status_container);
-        if (statusContainer != null) {
-            statusContainer.setVisibility(View.GONE);
-        }
-        
-        // Show error message
-        TextView tv = (TextView) this.findViewById(R.id.textview_message);
-        tv.setText(error);
-        tv.setTextColor(android.graphics.Color.RED);
-        Toast.makeText(this, error, Toast.LENGTH_LONG).show();
-        is_playing_desired = false;
-    }
-
     //PiP
     @Override
     protected void onUserLeaveHint() {
@@ -350,106 +765,134 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
     }
 
     protected void onDestroy() {
-        // Stop error polling
-        if (errorPollHandler != null) {
-            errorPollHandler.removeCallbacksAndMessages(null);
+        setHudVisible(false);
+        hudHandler.removeCallbacks(recordingRefresh);
+        hudHandler.removeCallbacks(startupRefresh);
+        if (nativeStarted) {
+            nativeFinalize();
         }
-        nativeFinalize();
         super.onDestroy();
     }
 
-    // Called from native code. This sets the content of the TextView from the UI thread.
-    private void setMessage(final String message) {
-        final TextView tv = (TextView) this.findViewById(R.id.textview_message);
-        runOnUiThread (new Runnable() {
-          public void run() {
-            if (message != null && !message.isEmpty()) {
-                tv.setText(message);
-                tv.setVisibility(View.VISIBLE);
-                
-                // Auto-hide success messages after 3 seconds
-                if (!message.toLowerCase().contains("error") && 
-                    !message.toLowerCase().contains("failed")) {
-                    tv.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            tv.setVisibility(View.GONE);
-                        }
-                    }, 3000);
-                }
-            } else {
-                tv.setVisibility(View.GONE);
-            }
-          }
-        });
-    }
-    
-    // Called from native code when there's an error
-    private void onGStreamerError(final String error) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                // Hide status indicator
-                findViewById(R.id.status_container).setVisibility(View.GONE);
-                
-                // Show error in message area
-                final TextView tv = (TextView) findViewById(R.id.textview_message);
-                tv.setText("ERROR: " + error);
-                tv.setVisibility(View.VISIBLE);
-                tv.setTextColor(0xFFFF4444); // Red color for errors
-                
-                // Also show a toast for critical errors
-                Toast.makeText(GstreamerMain.this, "Pipeline Error: " + error, Toast.LENGTH_LONG).show();
-                Log.e("GStreamer", "Pipeline error: " + error);
-                
-                // Keep error visible - don't auto-hide
-                is_playing_desired = false;
-            }
-        });
-    }
-    
-    // Called from native code when pipeline state changes
-    private void onGStreamerStateChanged(final String state) {
+    // Called from native code with every UI event queued since the last call, oldest first.
+    // Timestamps are CLOCK_MONOTONIC microseconds, the same clock as System.nanoTime().
+    // values holds BusListenerSet.EVENT_VALUE_COUNT numbers per event, laid out per type as in event_ring.h.
+    private void onNativeEvents(final int[] types, final long[] timestampsUs, final long[] values,
+                                final String[] sources, final String[] texts) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                final View statusContainer = findViewById(R.id.status_container);
-                final View loadingSpinner = findViewById(R.id.loading_spinner);
-                final TextView statusText = (TextView) findViewById(R.id.status_text);
-                final TextView messageView = (TextView) findViewById(R.id.textview_message);
-                
-                Log.i("GStreamer", "State changed to: " + state);
-                
-                // Hide error messages when state changes
-                if (!state.equals("NULL") && !state.equals("ERROR")) {
-                    messageView.setVisibility(View.GONE);
+                long nowUs = System.nanoTime() / 1000;
+                for (int i = 0; i < types.length; i++) {
+                    dispatchNativeEvent(types[i], values, i * BusListenerSet.EVENT_VALUE_COUNT, sources[i], texts[i]);
                 }
-                
-                if (state.equals("PLAYING")) {
-                    // Hide all status indicators when playing
-                    statusContainer.setVisibility(View.GONE);
-                } else if (state.equals("PAUSED")) {
-                    // Show paused indicator without spinner
-                    loadingSpinner.setVisibility(View.GONE);
-                    statusText.setText("Paused");
-                    statusContainer.setVisibility(View.VISIBLE);
-                } else if (state.equals("READY") || state.equals("NULL")) {
-                    // Show loading with spinner
-                    loadingSpinner.setVisibility(View.VISIBLE);
-                    statusText.setText("Buffering...");
-                    statusContainer.setVisibility(View.VISIBLE);
-                } else {
-                    // For any other state (READY, NULL, etc), show with spinner
-                    loadingSpinner.setVisibility(View.VISIBLE);
-                    statusText.setText(state);
-                    statusContainer.setVisibility(View.VISIBLE);
+                if (types.length > 0) {
+                    Log.d("GStreamer", "Delivered " + types.length + " native events, oldest "
+                            + (nowUs - timestampsUs[0]) / 1000.0 + " ms old");
                 }
             }
         });
     }
 
-    // Called from native code. Native code calls this once it has created its pipeline and
-    // the main loop is running, so it is ready to accept commands.
+    private void dispatchNativeEvent(int type, long[] values, int offset, String source, String text) {
+        switch (type) {
+            case BusListenerSet.EVENT_MESSAGE:
+                setMessage(text);
+                return;
+            case BusListenerSet.EVENT_ERROR:
+                onGStreamerError(text);
+                break;
+            case BusListenerSet.EVENT_INITIALIZED:
+                onGStreamerInitialized();
+                return;
+            case BusListenerSet.EVENT_STATE:
+                onGStreamerStateChanged(PipelineState.fromNative(values[offset + 1]));
+                break;
+            default:
+                break;
+        }
+        if (!busListeners.dispatch(type, values, offset, source, text)) {
+            Log.w("GStreamer", "Unknown native event type " + type);
+        }
+    }
+
+    // Sets the content of the TextView. Runs on the UI thread.
+    private void setMessage(final String message) {
+        final TextView tv = (TextView) this.findViewById(R.id.textview_message);
+        if (message != null && !message.isEmpty()) {
+            tv.setText(message);
+            tv.setVisibility(View.VISIBLE);
+
+            // Auto-hide success messages after 3 seconds
+            if (!message.toLowerCase().contains("error") &&
+                !message.toLowerCase().contains("failed")) {
+                tv.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        tv.setVisibility(View.GONE);
+                    }
+                }, 3000);
+            }
+        } else {
+            tv.setVisibility(View.GONE);
+        }
+    }
+
+    // Shows a pipeline error. Runs on the UI thread.
+    private void onGStreamerError(final String error) {
+        // Hide status indicator
+        findViewById(R.id.status_container).setVisibility(View.GONE);
+
+        // Show error in message area
+        final TextView tv = (TextView) findViewById(R.id.textview_message);
+        tv.setText("ERROR: " + error);
+        tv.setVisibility(View.VISIBLE);
+        tv.setTextColor(0xFFFF4444); // Red color for errors
+
+        // Also show a toast for critical errors
+        Toast.makeText(GstreamerMain.this, "Pipeline Error: " + error, Toast.LENGTH_LONG).show();
+        Log.e("GStreamer", "Pipeline error: " + error);
+
+        // Keep error visible - don't auto-hide
+        is_playing_desired = false;
+    }
+
+    // Updates the status indicator when the pipeline state changes. Runs on the UI thread.
+    private void onGStreamerStateChanged(final PipelineState state) {
+        final View statusContainer = findViewById(R.id.status_container);
+        final View loadingSpinner = findViewById(R.id.loading_spinner);
+        final TextView statusText = (TextView) findViewById(R.id.status_text);
+        final TextView messageView = (TextView) findViewById(R.id.textview_message);
+
+        Log.i("GStreamer", "State changed to: " + state);
+
+        // Hide error messages when state changes
+        if (state != PipelineState.NULL) {
+            messageView.setVisibility(View.GONE);
+        }
+
+        switch (state) {
+            case PLAYING:
+                // Hide all status indicators when playing
+                statusContainer.setVisibility(View.GONE);
+                break;
+            case PAUSED:
+                // Show paused indicator without spinner
+                loadingSpinner.setVisibility(View.GONE);
+                statusText.setText("Paused");
+                statusContainer.setVisibility(View.VISIBLE);
+                break;
+            default:
+                // READY, NULL: show loading with spinner
+                loadingSpinner.setVisibility(View.VISIBLE);
+                statusText.setText("Buffering...");
+                statusContainer.setVisibility(View.VISIBLE);
+                break;
+        }
+    }
+
+    // Native code reports this once it has created its pipeline and the main loop is
+    // running, so it is ready to accept commands. Runs on the UI thread.
     private void onGStreamerInitialized () {
         Log.i("GStreamer", "Gst initialized. Restoring state, playing:" + is_playing_desired);
         // Restore previous playing state
@@ -461,16 +904,11 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
 
         // Re-enable buttons, now that GStreamer is initialized
         if (menu != null) {
-            final GstreamerMain activity = this;
-            runOnUiThread(new Runnable() {
-                public void run() {
-                    activity.findViewById(R.id.button_play).setEnabled(true);
-                    activity.findViewById(R.id.button_stop).setEnabled(true);
-                }
-            });
+            findViewById(R.id.button_play).setEnabled(true);
+            findViewById(R.id.button_stop).setEnabled(true);
         }
     }
-    
+
     // Check if camera permissions are granted, request if not
     private void checkCameraPermissions() {
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED ||
@@ -485,17 +923,13 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
         }
     }
     
-    static {
-        System.loadLibrary("gstreamer_android");
-        System.loadLibrary("pipeliner");
-        nativeClassInit();
-    }
-
     public void surfaceChanged(SurfaceHolder holder, int format, int width,
             int height) {
         Log.d("GStreamer", "Surface changed to format " + format + " width "
                 + width + " height " + height);
-        nativeSurfaceInit (holder.getSurface());
+        if (nativeStarted) {
+            nativeSurfaceInit (holder.getSurface());
+        }
     }
 
     public void surfaceCreated(SurfaceHolder holder) {
@@ -504,7 +938,9 @@ public class GstreamerMain extends AppCompatActivity implements SurfaceHolder.Ca
 
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d("GStreamer", "Surface destroyed");
-        nativeSurfaceFinalize ();
+        if (nativeStarted) {
+            nativeSurfaceFinalize ();
+        }
     }
 
 }
@@ -0,0 +1,266 @@
+package com.android.pipeliner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a live network pipeline (UDP, RTP, RTSP, MPEG-TS) for low latency before it
+ * is handed to nativeSetPipeline. Templates are played as typed, with default queue
+ * sizes, 200 ms jitterbuffers, 700 ms tsdemux latency and clock-synced sinks, which
+ * adds hundreds of milliseconds nobody asked for.
+ *
+ * What it changes, only where the launch string does not already set the property:
+ *   udpsrc         2 MB socket buffer, so bursts are absorbed instead of dropped
+ *   rtspsrc        50 ms jitterbuffer latency, late packets dropped
+ *   RTP over UDP   an rtpjitterbuffer before the first depayloader, if there is none
+ *   rtpjitterbuffer 50 ms, late packets dropped
+ *   queue          leaky and short: 2 buffers after the decoder, 200 ms before it
+ *   queue2         200 ms, no buffering pauses
+ *   tsdemux        100 ms instead of 700 ms
+ *   avdec_h264/5   slice threads instead of frame threads (one frame of delay per thread)
+ *   video sinks    no clock sync without audio; otherwise 20 ms max lateness
+ *
+ * The model decides what to change; the edit is applied to the original tokens, so
+ * bins, references and caps come through untouched.
+ */
+public final class LowLatencyRewriter {
+    static final String JITTERBUFFER_LATENCY_MS = "50";
+
+    private static final Set<String> LIVE_SOURCES = new HashSet<>(Arrays.asList(
+            "udpsrc", "rtspsrc", "srtsrc", "srtclientsrc", "ristsrc", "tcpclientsrc", "rtmpsrc"));
+
+    public static final class Change {
+        public final String element;     // Element as written, e.g. "queue" or "queue(q1)"
+        public final String edit;        // e.g. "+ leaky=downstream" or "+ rtpjitterbuffer ... before"
+        public final String reason;
+
+        Change(String element, String edit, String reason) {
+            this.element = element;
+            this.edit = edit;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return element + ": " + edit + "  (" + reason + ")";
+        }
+    }
+
+    public static final class Result {
+        public final String original;
+        public final String launch;      // Rewritten, or the original if nothing applies
+        public final List<Change> changes;
+
+        Result(String original, String launch, List<Change> changes) {
+            this.original = original;
+            this.launch = launch;
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        public boolean isChanged() {
+            return !changes.isEmpty();
+        }
+
+        /**
+         * One line per change, for showing the user what low-latency mode does
+         */
+        public String diff() {
+            if (changes.isEmpty()) {
+                return "No changes: not a live network pipeline, or already tuned";
+            }
+            StringBuilder text = new StringBuilder();
+            for (Change change : changes) {
+                text.append(change.element).append(": ").append(change.edit)
+                    .append("\n    ").append(change.reason).append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    // The edit to make and, for the user, why
+    private static final class Plan {
+        final GstLaunchEditor editor = new GstLaunchEditor();
+        final List<Change> changes = new ArrayList<>();
+
+        void set(GstLaunchModel.Element element, String key, String value, String reason) {
+            if (element.properties.containsKey(key)) {
+                return;
+            }
+            editor.setProperty(element.index, key, value);
+            changes.add(new Change(element.toString(), "+ " + key + "=" + value, reason));
+        }
+
+        void insert(GstLaunchModel.Element before, String description, String reason) {
+            editor.insertBefore(before.index, description);
+            changes.add(new Change(before.toString(), "+ " + description + " in front", reason));
+        }
+    }
+
+    private LowLatencyRewriter() {
+    }
+
+    public static Result rewrite(String launch) {
+        GstLaunchModel model = GstLaunchModel.of(launch);
+        Plan plan = new Plan();
+        if (isLive(model) && model.getErrors().isEmpty()) {
+            analyze(model, plan);
+        }
+        if (plan.changes.isEmpty()) {
+            return new Result(launch, launch, plan.changes);
+        }
+        return new Result(launch, plan.editor.apply(launch), plan.changes);
+    }
+
+    public static boolean isLive(GstLaunchModel model) {
+        for (GstLaunchModel.Element element : model.getElements()) {
+            if (LIVE_SOURCES.contains(element.factory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void analyze(GstLaunchModel model, Plan plan) {
+        Set<GstLaunchModel.Element> decoded = downstreamOfDecoders(model);
+        boolean hasAudioSink = false;
+        boolean hasJitterbuffer = false;
+        GstLaunchModel.Element firstDepayloader = null;
+        for (GstLaunchModel.Element element : model.getElements()) {
+            hasAudioSink |= isAudioSink(element.factory);
+            hasJitterbuffer |= element.factory.equals("rtpjitterbuffer") || element.factory.equals("rtpbin");
+            if (firstDepayloader == null && element.factory.startsWith("rtp") && element.factory.endsWith("depay")) {
+                firstDepayloader = element;
+            }
+        }
+
+        for (GstLaunchModel.Element element : model.getElements()) {
+            switch (element.factory) {
+                case "udpsrc":
+                    plan.set(element, "buffer-size", "2097152", "2 MB socket buffer absorbs bursts instead of dropping packets");
+                    break;
+                case "rtspsrc":
+                    hasJitterbuffer = true;
+                    plan.set(element, "latency", JITTERBUFFER_LATENCY_MS, "jitterbuffer waits 50 ms instead of 2 s");
+                    plan.set(element, "drop-on-latency", "true", "late packets are dropped rather than queued");
+                    break;
+                case "rtpjitterbuffer":
+                    plan.set(element, "latency", JITTERBUFFER_LATENCY_MS, "jitterbuffer waits 50 ms instead of 200 ms");
+                    plan.set(element, "drop-on-latency", "true", "late packets are dropped rather than queued");
+                    break;
+                case "queue":
+                    tuneQueue(element, decoded.contains(element), plan);
+                    break;
+                case "queue2":
+                    plan.set(element, "use-buffering", "false", "no pause-to-buffer on a live stream");
+                    if (!setsAnySize(element)) {
+                        plan.set(element, "max-size-buffers", "0", "bounded by time only");
+                        plan.set(element, "max-size-bytes", "0", "bounded by time only");
+                        plan.set(element, "max-size-time", "200000000", "holds at most 200 ms instead of 2 s");
+                    }
+                    break;
+                case "tsdemux":
+                    plan.set(element, "latency", "100", "waits 100 ms for timestamps instead of 700 ms");
+                    break;
+                case "avdec_h264":
+                case "avdec_h265":
+                    plan.set(element, "thread-type", "slice", "frame threading delays output by one frame per thread");
+                    break;
+                default:
+                    if (isVideoSink(element.factory)) {
+                        if (!hasAudioSink) {
+                            plan.set(element, "sync", "false", "render on arrival; nothing to keep in sync with");
+                        } else {
+                            plan.set(element, "max-lateness", "20000000", "drop frames more than 20 ms late");
+                            plan.set(element, "qos", "true", "let the decoder skip frames when behind");
+                        }
+                    }
+                    break;
+            }
+        }
+
+        if (!hasJitterbuffer && firstDepayloader != null && model.hasElement("udpsrc")) {
+            plan.insert(firstDepayloader, "rtpjitterbuffer latency=" + JITTERBUFFER_LATENCY_MS + " drop-on-latency=true",
+                    "reorders RTP and bounds network jitter to 50 ms");
+        }
+    }
+
+    private static void tuneQueue(GstLaunchModel.Element queue, boolean raw, Plan plan) {
+        plan.set(queue, "leaky", "downstream", "drop the oldest data instead of building up delay");
+        if (setsAnySize(queue)) {
+            return;
+        }
+        plan.set(queue, "max-size-bytes", "0", "bounded by " + (raw ? "buffers" : "time") + " only");
+        if (raw) {
+            plan.set(queue, "max-size-time", "0", "bounded by buffers only");
+            plan.set(queue, "max-size-buffers", "2", "at most 2 decoded frames instead of 1 s");
+        } else {
+            plan.set(queue, "max-size-buffers", "0", "bounded by time only");
+            plan.set(queue, "max-size-time", "200000000", "at most 200 ms of compressed data instead of 1 s");
+        }
+    }
+
+    private static boolean setsAnySize(GstLaunchModel.Element element) {
+        return element.properties.containsKey("max-size-buffers")
+                || element.properties.containsKey("max-size-bytes")
+                || element.properties.containsKey("max-size-time");
+    }
+
+    // Elements fed by a decoder, i.e. handling raw frames
+    private static Set<GstLaunchModel.Element> downstreamOfDecoders(GstLaunchModel model) {
+        Map<GstLaunchModel.Element, List<GstLaunchModel.Element>> downstream = new HashMap<>();
+        for (GstLaunchModel.Link link : model.getLinks()) {
+            if (link.from.element == null || link.to.element == null) {
+                continue;
+            }
+            List<GstLaunchModel.Element> next = downstream.get(link.from.element);
+            if (next == null) {
+                next = new ArrayList<>(2);
+                downstream.put(link.from.element, next);
+            }
+            next.add(link.to.element);
+        }
+
+        Set<GstLaunchModel.Element> decoded = new HashSet<>();
+        Deque<GstLaunchModel.Element> pending = new ArrayDeque<>();
+        for (GstLaunchModel.Element element : model.getElements()) {
+            if (isDecoder(element.factory)) {
+                pending.add(element);
+            }
+        }
+        while (!pending.isEmpty()) {
+            List<GstLaunchModel.Element> next = downstream.get(pending.poll());
+            if (next == null) {
+                continue;
+            }
+            for (GstLaunchModel.Element element : next) {
+                if (decoded.add(element)) {
+                    pending.add(element);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    static boolean isDecoder(String factory) {
+        return factory.startsWith("avdec_") || factory.startsWith("decodebin") || factory.equals("uridecodebin")
+                || (factory.contains("dec") && !factory.contains("depay") && !factory.contains("demux"));
+    }
+
+    static boolean isAudioSink(String factory) {
+        return factory.endsWith("sink") && (factory.contains("audio") || factory.equals("openslessink")
+                || factory.equals("pulsesink") || factory.equals("alsasink"));
+    }
+
+    static boolean isVideoSink(String factory) {
+        return factory.endsWith("sink") && (factory.contains("video") || factory.contains("image")
+                || factory.startsWith("gl"));
+    }
+}
@@ -0,0 +1,221 @@
+package com.android.pipeliner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Mosaic mode: several stored pipelines as tiles of one compositor, rendered through a
+ * single video sink on one surface. Each item keeps its sources and decoders; its video
+ * sink becomes a tail that scales and rate-limits the stream to the tile's size on
+ * screen, and its audio sinks become fakesinks. Every element of a tile is named with
+ * the tile's prefix, so one tile can be swapped natively while the others keep playing.
+ */
+final class Mosaic {
+    static final String MIXER = "mosaic"; // Must match MOSAIC_MIXER in gstreamer_app.c
+    static final int MAX_TILES = 9;
+
+    // Tiles at least this tall on screen keep full motion, smaller ones get FPS_SMALL
+    private static final int FULL_RATE_MIN_HEIGHT = 480;
+    private static final int FPS_FULL = 30;
+    private static final int FPS_SMALL = 15;
+
+    static final class Tile {
+        final int index;
+        final PipelineItem item;
+        final String prefix;       // Name prefix of every element of the tile, unique per swap
+        final int x, y, width, height, fps;
+
+        Tile(int index, PipelineItem item, String prefix, int x, int y, int width, int height, int fps) {
+            this.index = index;
+            this.item = item;
+            this.prefix = prefix;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "tile %d: %s %dx%d@%d", index, item.getName(), width, height, fps);
+        }
+    }
+
+    final int width;
+    final int height;
+    final int columns;
+    final int rows;
+    private final List<Tile> tiles = new ArrayList<>();
+    private final List<String> skipped = new ArrayList<>();
+    private int swaps;
+
+    private Mosaic(int width, int height, int count) {
+        this.width = width;
+        this.height = height;
+        this.columns = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+        this.rows = Math.max(1, (count + columns - 1) / columns);
+    }
+
+    /**
+     * Lays out up to MAX_TILES items on a width x height canvas. Items that cannot be
+     * tiled (parse errors, no video sink) are left out and listed in getSkipped().
+     */
+    static Mosaic build(List<PipelineItem> items, int width, int height) {
+        List<PipelineItem> usable = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        for (PipelineItem item : items) {
+            String reason = unusableReason(item);
+            if (reason != null) {
+                skipped.add(item.getName() + ": " + reason);
+            } else if (usable.size() < MAX_TILES) {
+                usable.add(item);
+            } else {
+                skipped.add(item.getName() + ": more than " + MAX_TILES + " tiles");
+            }
+        }
+
+        Mosaic mosaic = new Mosaic(width, height, usable.size());
+        mosaic.skipped.addAll(skipped);
+        for (int i = 0; i < usable.size(); i++) {
+            mosaic.tiles.add(mosaic.tile(i, usable.get(i)));
+        }
+        return mosaic;
+    }
+
+    private static String unusableReason(PipelineItem item) {
+        GstLaunchModel model = GstLaunchModel.of(item.getPipeline());
+        if (!model.getErrors().isEmpty()) {
+            return model.getErrors().get(0);
+        }
+        for (GstLaunchModel.Element element : model.getElements()) {
+            if (LowLatencyRewriter.isVideoSink(element.factory)) {
+                return null;
+            }
+        }
+        return "no video sink element to replace";
+    }
+
+    private Tile tile(int index, PipelineItem item) {
+        // Even sizes keep chroma subsampled formats happy
+        int tileWidth = (width / columns) & ~1;
+        int tileHeight = (height / rows) & ~1;
+        int fps = tileHeight >= FULL_RATE_MIN_HEIGHT ? FPS_FULL : FPS_SMALL;
+        String prefix = "m" + index + "g" + swaps + "_";
+        return new Tile(index, item, prefix, (index % columns) * tileWidth, (index / columns) * tileHeight,
+                tileWidth, tileHeight, fps);
+    }
+
+    List<Tile> getTiles() {
+        return Collections.unmodifiableList(tiles);
+    }
+
+    List<String> getSkipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    // The tile under a point given as fractions of the surface, or null
+    Tile tileAt(float fx, float fy) {
+        int column = Math.min(columns - 1, Math.max(0, (int) (fx * columns)));
+        int row = Math.min(rows - 1, Math.max(0, (int) (fy * rows)));
+        int index = row * columns + column;
+        return index < tiles.size() ? tiles.get(index) : null;
+    }
+
+    /**
+     * Puts another item in a tile. Returns the new tile, whose branch() goes to the
+     * native swap together with the old tile's prefix, or null if the item cannot be tiled.
+     */
+    Tile swap(int index, PipelineItem item) {
+        if (index < 0 || index >= tiles.size() || unusableReason(item) != null) {
+            return null;
+        }
+        swaps++;
+        Tile tile = tile(index, item);
+        tiles.set(index, tile);
+        return tile;
+    }
+
+    String toLaunch() {
+        int fps = FPS_SMALL;
+        StringBuilder mixer = new StringBuilder("compositor name=" + MIXER + " background=black");
+        for (Tile tile : tiles) {
+            fps = Math.max(fps, tile.fps);
+            mixer.append(String.format(Locale.US, " sink_%d::xpos=%d sink_%d::ypos=%d sink_%d::width=%d sink_%d::height=%d",
+                    tile.index, tile.x, tile.index, tile.y, tile.index, tile.width, tile.index, tile.height));
+        }
+        mixer.append(String.format(Locale.US, " ! video/x-raw,width=%d,height=%d,framerate=%d/1", width, height, fps))
+                .append(" ! videoconvert name=").append(MIXER).append("_convert")
+                .append(" ! autovideosink name=").append(MIXER).append("_sink");
+        for (Tile tile : tiles) {
+            mixer.append("  ").append(branch(tile, true));
+        }
+        return mixer.toString();
+    }
+
+    // The tile's item rewritten to feed the mixer; unlinked, it ends at the tile's queue
+    static String branch(Tile tile, boolean linkToMixer) {
+        String launch = tile.item.getPipeline();
+        GstLaunchModel model = GstLaunchModel.of(launch);
+        GstLaunchEditor editor = new GstLaunchEditor();
+        editor.setNamePrefix(tile.prefix);
+        boolean tailPlaced = false;
+        for (GstLaunchModel.Element element : model.getElements()) {
+            if (LowLatencyRewriter.isVideoSink(element.factory) && !tailPlaced) {
+                editor.replaceElement(element.index, tail(tile, linkToMixer));
+                tailPlaced = true;
+            } else if (LowLatencyRewriter.isVideoSink(element.factory) || LowLatencyRewriter.isAudioSink(element.factory)) {
+                // One picture per tile and no sound: extra outputs decode into nothing
+                editor.replaceElement(element.index, "fakesink name=" + tile.prefix + "tile_discard" + element.index
+                        + " sync=false async=false");
+            }
+        }
+        return editor.apply(launch);
+    }
+
+    // Scaled with borders to the tile, never above the tile's rate, and never blocking
+    // the mixer: a tile that falls behind drops frames instead of stalling the others
+    private static String tail(Tile tile, boolean linkToMixer) {
+        // "tile_" keeps them apart from the item's own elements, whose names get the same prefix
+        String p = tile.prefix;
+        String tail = String.format(Locale.US,
+                "videoconvert name=%stile_convert ! videoscale name=%stile_scale ! videorate name=%stile_rate max-rate=%d"
+                        + " ! capsfilter name=%stile_size caps=\"video/x-raw,width=%d,height=%d,pixel-aspect-ratio=1/1\""
+                        + " ! queue name=%stile_queue leaky=downstream max-size-buffers=2 max-size-bytes=0 max-size-time=0",
+                p, p, p, tile.fps, p, tile.width, tile.height, p);
+        return linkToMixer ? tail + " ! " + MIXER + ".sink_" + tile.index : tail;
+    }
+
+    // "WIDTHxHEIGHT:id,id,..." to rebuild the same mosaic from storage
+    String encode() {
+        StringBuilder out = new StringBuilder().append(width).append('x').append(height).append(':');
+        for (int i = 0; i < tiles.size(); i++) {
+            out.append(i > 0 ? "," : "").append(tiles.get(i).item.getId());
+        }
+        return out.toString();
+    }
+
+    static Mosaic decode(String encoded, PipelineStorage storage) {
+        int colon = encoded != null ? encoded.indexOf(':') : -1;
+        int x = encoded != null ? encoded.indexOf('x') : -1;
+        if (colon < 0 || x < 0 || x > colon) {
+            return null;
+        }
+        try {
+            int width = Integer.parseInt(encoded.substring(0, x));
+            int height = Integer.parseInt(encoded.substring(x + 1, colon));
+            List<PipelineItem> items = new ArrayList<>();
+            for (String id : encoded.substring(colon + 1).split(",")) {
+                PipelineItem item = storage.getPipeline(id);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return items.isEmpty() ? null : build(items, width, height);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -10,12 +10,29 @@ import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.PopupMenu;
 import android.widget.TextView;
+import android.util.LruCache;
 import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.content.ContextCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-public class PipelineAdapter extends RecyclerView.Adapter<PipelineAdapter.ViewHolder> {
+public class PipelineAdapter extends RecyclerView.Adapter<PipelineAdapter.ViewHolder>
+        implements PipelineValidator.Listener {
 
     public interface OnPipelineClickListener {
         void onPipelineClick(PipelineItem item);
@@ -23,99 +40,380 @@ public class PipelineAdapter extends RecyclerView.Adapter<PipelineAdapter.ViewHo
         void onPipelineEdit(PipelineItem item);
         void onPipelineFavorite(PipelineItem item);
         void onPipelineShare(PipelineItem item);
+        void onPipelineLowLatency(PipelineItem item);
+        void onPipelineStartupTimes(PipelineItem item);
     }
 
-    private List<PipelineItem> pipelines;
+    // Change payloads: bit flags for the fields a partial rebind has to refresh
+    static final int PAYLOAD_NAME = 1;
+    static final int PAYLOAD_FAVORITE = 1 << 1;
+    static final int PAYLOAD_LAST_USED = 1 << 2;
+    static final int PAYLOAD_STATUS = 1 << 3;
+
+    private static final int STATUS_COLOR_OK = 0xFF2E7D32;      // Green
+    private static final int STATUS_COLOR_SLOW = 0xFFF9A825;    // Amber
+    private static final int STATUS_COLOR_BROKEN = 0xFFB00020;  // Red
+
+    /**
+     * Immutable snapshot of a row as it was bound. Items are mutated in place before
+     * they reach storage, so diffing the items themselves would never see a change.
+     * Built on ROW_EXECUTOR, so parsing for the category never happens on the main thread.
+     */
+    static final class Row {
+        final PipelineItem item;
+        final long stableId;
+        final String name;
+        final String pipeline;
+        final boolean favorite;
+        final long lastUsedTime;
+        final String category;
+        final int categoryColor;
+        final long checkedKey;          // PipelineValidator.keyOf(), what the row's result is under
+
+        Row(PipelineItem item, long stableId) {
+            this.item = item;
+            this.stableId = stableId;
+            this.name = item.getName();
+            this.pipeline = item.getPipeline();
+            this.favorite = item.isFavorite();
+            this.lastUsedTime = item.getLastUsedTime();
+            this.category = PipelineItem.categoryOf(pipeline);
+            this.categoryColor = PipelineItem.getCategoryColor(category);
+            this.checkedKey = PipelineValidator.keyOf(item);
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Row> DIFF_CALLBACK = new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow.stableId == newRow.stableId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow.item == newRow.item
+                    && oldRow.favorite == newRow.favorite
+                    && oldRow.lastUsedTime == newRow.lastUsedTime
+                    && oldRow.name.equals(newRow.name)
+                    && oldRow.pipeline.equals(newRow.pipeline)
+                    && oldRow.checkedKey == newRow.checkedKey;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Row oldRow, @NonNull Row newRow) {
+            // A new launch string or a replaced item object needs a full bind
+            if (oldRow.item != newRow.item || !oldRow.pipeline.equals(newRow.pipeline)) {
+                return null;
+            }
+            int changes = 0;
+            if (!oldRow.name.equals(newRow.name)) changes |= PAYLOAD_NAME;
+            if (oldRow.favorite != newRow.favorite) changes |= PAYLOAD_FAVORITE;
+            if (oldRow.lastUsedTime != newRow.lastUsedTime) changes |= PAYLOAD_LAST_USED;
+            if (oldRow.checkedKey != newRow.checkedKey) changes |= PAYLOAD_STATUS;
+            return changes;
+        }
+    };
+
+    // Diffs run on a background executor; results are dispatched on the main thread
+    private final AsyncListDiffer<Row> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    // RecyclerView ids per pipeline id, stable for the adapter's lifetime
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private long nextStableId;
+    private int rowsGeneration; // Bumped per updatePipelines(), so only the latest rows are shown
     private OnPipelineClickListener listener;
     private Context context;
+    private final PipelineValidator validator;
+
+    // Launch-string previews are laid out off the main thread and kept per launch string
+    private static final int PREVIEW_MAX_CHARS = 240;
+    private static final int PREVIEW_CACHE_SIZE = 512;
+    private static final Executor PREVIEW_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PipelineAdapter-Text");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private static final Executor ROW_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PipelineAdapter-Rows");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private static final Map<String, String> BADGE_LABELS = new HashMap<>();
+    private final LruCache<String, PrecomputedTextCompat> previewCache = new LruCache<>(PREVIEW_CACHE_SIZE);
+    private PrecomputedTextCompat.Params previewParams;
 
     public PipelineAdapter(Context context, List<PipelineItem> pipelines, OnPipelineClickListener listener) {
         this.context = context;
-        this.pipelines = pipelines;
         this.listener = listener;
+        this.validator = PipelineValidator.getInstance(context);
+        setHasStableIds(true);
+        updatePipelines(pipelines);
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_pipeline, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        // Listeners are attached once per ViewHolder, not per bind
+        for (View clickable : new View[] {holder.itemView, holder.favoriteIcon, holder.shareButton, holder.moreButton,
+                holder.statusBadge}) {
+            clickable.setTag(R.id.tag_view_holder, holder);
+            clickable.setOnClickListener(rowClickListener);
+        }
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        Row row = differ.getCurrentList().get(position);
+        int changes = 0;
+        for (Object payload : payloads) {
+            if (payload instanceof Integer) {
+                changes |= (Integer) payload;
+            }
+        }
+        if ((changes & PAYLOAD_NAME) != 0) {
+            holder.name.setText(row.name);
+        }
+        if ((changes & PAYLOAD_FAVORITE) != 0) {
+            bindFavorite(holder, row.favorite);
+        }
+        if ((changes & PAYLOAD_STATUS) != 0) {
+            bindStatus(holder, validator.getResult(row.checkedKey));
+        }
+        // Last-used time only affects ordering, which the diff already dispatched as a move
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        PipelineItem item = pipelines.get(position);
-        
-        holder.name.setText(item.getName());
-        holder.preview.setText(item.getPipeline());
+        Row row = differ.getCurrentList().get(position);
         
-        // Category badge
-        holder.categoryBadge.setText(item.getCategory().toUpperCase());
-        holder.categoryBadge.setBackgroundColor(item.getCategoryColor());
+        holder.name.setText(row.name);
+        bindPreview(holder, row.pipeline);
         
-        // Category indicator stripe
-        holder.categoryIndicator.setBackgroundColor(item.getCategoryColor());
+        // Category badge and indicator stripe, only touched when the category changes
+        if (!row.category.equals(holder.boundCategory)) {
+            holder.boundCategory = row.category;
+            holder.categoryBadge.setText(badgeLabel(row.category));
+            holder.categoryBadge.setBackgroundColor(row.categoryColor);
+            holder.categoryIndicator.setBackgroundColor(row.categoryColor);
+        }
         
+        bindFavorite(holder, row.favorite);
+        bindStatus(holder, validator.getResult(row.checkedKey));
+    }
 
-        // Favorite icon with animation
-        if (item.isFavorite()) {
+    private void bindFavorite(ViewHolder holder, boolean favorite) {
+        if (holder.boundFavorite != null && holder.boundFavorite == favorite) {
+            return;
+        }
+        holder.boundFavorite = favorite;
+        if (favorite) {
             holder.favoriteIcon.setImageResource(R.drawable.bookmark_fill_24dp);
             holder.favoriteIcon.setColorFilter(0xFFFFD700); // Gold color
         } else {
             holder.favoriteIcon.setImageResource(R.drawable.bookmark_24dp);
             holder.favoriteIcon.setColorFilter(0xFF9E9E9E); // Grey
         }
-        
-        // Click to play
-        holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onPipelineClick(item);
-            }
-        });
-        
-        // Favorite toggle
-        holder.favoriteIcon.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onPipelineFavorite(item);
+    }
+
+    private void bindStatus(ViewHolder holder, PipelineValidator.Result result) {
+        if (result == holder.boundStatus && holder.boundStatusSet) {
+            return;
+        }
+        holder.boundStatus = result;
+        holder.boundStatusSet = true;
+        if (result == null) {
+            holder.statusBadge.setVisibility(View.GONE);
+            return;
+        }
+        holder.statusBadge.setVisibility(View.VISIBLE);
+        holder.statusBadge.setText(result.label());
+        holder.statusBadge.setBackgroundColor(result.isValid() ? STATUS_COLOR_OK
+                : result.isBroken() ? STATUS_COLOR_BROKEN : STATUS_COLOR_SLOW);
+    }
+
+    /** Rebinds the badge of the rows with these item keys, one pass over longs. */
+    @Override
+    public void onValidated(Set<Long> itemKeys) {
+        List<Row> rows = differ.getCurrentList();
+        for (int i = 0; i < rows.size(); i++) {
+            if (itemKeys.contains(rows.get(i).checkedKey)) {
+                notifyItemChanged(i, PAYLOAD_STATUS);
             }
-        });
-        
-        // Share button
-        holder.shareButton.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onPipelineShare(item);
+        }
+    }
+
+    private void showStatus(PipelineItem item) {
+        PipelineValidator.Result result = validator.getResult(PipelineValidator.keyOf(item));
+        if (result == null) {
+            return;
+        }
+        new AlertDialog.Builder(context)
+            .setTitle(item.getName())
+            .setMessage(result.toString())
+            .setPositiveButton("OK", null)
+            .show();
+    }
+
+    /**
+     * Sets the launch-string preview from the layout cache, or hands the TextView a future
+     * that lays the text out on the background thread. Binds issued by RecyclerView
+     * prefetch therefore start the layout before the row is measured.
+     */
+    private void bindPreview(ViewHolder holder, String pipeline) {
+        if (holder.boundPipeline != null && holder.boundPipeline.equals(pipeline)) {
+            return;
+        }
+        holder.boundPipeline = pipeline;
+        if (!(holder.preview instanceof AppCompatTextView)) {
+            holder.preview.setText(pipeline);
+            return;
+        }
+        if (previewParams == null) {
+            previewParams = TextViewCompat.getTextMetricsParams(holder.preview);
+        }
+        PrecomputedTextCompat cached = previewCache.get(pipeline);
+        if (cached != null) {
+            // Drop a future from an earlier bind so it cannot overwrite this text on measure
+            ((AppCompatTextView) holder.preview).setTextFuture(null);
+            TextViewCompat.setPrecomputedText(holder.preview, cached);
+        } else {
+            ((AppCompatTextView) holder.preview).setTextFuture(precomputePreview(pipeline));
+        }
+    }
+
+    private Future<PrecomputedTextCompat> precomputePreview(String pipeline) {
+        PrecomputedTextCompat.Params params = previewParams;
+        FutureTask<PrecomputedTextCompat> task = new FutureTask<>(() -> {
+            PrecomputedTextCompat cached = previewCache.get(pipeline);
+            if (cached != null) {
+                return cached;
             }
+            // The preview shows two lines, there is no point measuring the rest
+            CharSequence text = pipeline.length() > PREVIEW_MAX_CHARS
+                    ? pipeline.substring(0, PREVIEW_MAX_CHARS) : pipeline;
+            PrecomputedTextCompat precomputed = PrecomputedTextCompat.create(text, params);
+            previewCache.put(pipeline, precomputed);
+            return precomputed;
         });
-        
-        // More options menu
-        holder.moreButton.setOnClickListener(v -> {
-            PopupMenu popup = new PopupMenu(context, holder.moreButton);
-            popup.inflate(R.menu.pipeline_item_menu);
-            popup.setOnMenuItemClickListener(menuItem -> {
-                int id = menuItem.getItemId();
-                if (id == R.id.action_edit) {
-                    showEditDialog(item);
-                    return true;
-                } else if (id == R.id.action_delete) {
-                    if (listener != null) {
-                        listener.onPipelineDelete(item);
-                    }
-                    return true;
+        PREVIEW_EXECUTOR.execute(task);
+        return task;
+    }
+
+    private static String badgeLabel(String category) {
+        String label = BADGE_LABELS.get(category);
+        if (label == null) {
+            label = category.toUpperCase(Locale.US);
+            BADGE_LABELS.put(category, label);
+        }
+        return label;
+    }
+
+    // Shared by every row; the row is found through the ViewHolder stored in the view's tag
+    private final View.OnClickListener rowClickListener = v -> {
+        ViewHolder holder = (ViewHolder) v.getTag(R.id.tag_view_holder);
+        int position = holder != null ? holder.getBindingAdapterPosition() : RecyclerView.NO_POSITION;
+        if (position == RecyclerView.NO_POSITION || position >= differ.getCurrentList().size()) {
+            return;
+        }
+        PipelineItem item = differ.getCurrentList().get(position).item;
+        int id = v.getId();
+        if (id == R.id.moreOptions) {
+            showItemMenu(holder, item);
+        } else if (id == R.id.statusBadge) {
+            showStatus(item);
+        } else if (listener == null) {
+            return;
+        } else if (id == R.id.favoriteIcon) {
+            listener.onPipelineFavorite(item);
+        } else if (id == R.id.shareButton) {
+            listener.onPipelineShare(item);
+        } else {
+            listener.onPipelineClick(item);
+        }
+    };
+
+    private void showItemMenu(ViewHolder holder, PipelineItem item) {
+        PopupMenu popup = new PopupMenu(context, holder.moreButton);
+        popup.inflate(R.menu.pipeline_item_menu);
+        popup.getMenu().findItem(R.id.action_low_latency).setChecked(item.isLowLatency());
+        popup.setOnMenuItemClickListener(menuItem -> {
+            int id = menuItem.getItemId();
+            if (id == R.id.action_edit) {
+                showEditDialog(item);
+                return true;
+            } else if (id == R.id.action_low_latency) {
+                if (listener != null) {
+                    listener.onPipelineLowLatency(item);
                 }
-                return false;
-            });
-            popup.show();
+                return true;
+            } else if (id == R.id.action_startup_times) {
+                if (listener != null) {
+                    listener.onPipelineStartupTimes(item);
+                }
+                return true;
+            } else if (id == R.id.action_delete) {
+                if (listener != null) {
+                    listener.onPipelineDelete(item);
+                }
+                return true;
+            }
+            return false;
         });
+        popup.show();
     }
 
     @Override
     public int getItemCount() {
-        return pipelines.size();
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).stableId;
+    }
+
+    public PipelineItem getPipelineAt(int position) {
+        return differ.getCurrentList().get(position).item;
     }
 
+    /**
+     * Snapshots the new list and diffs it against the displayed one off the main thread;
+     * only changed positions are dispatched. Must be called on the main thread, which
+     * only hands out stable ids; the rows are built on ROW_EXECUTOR.
+     */
     public void updatePipelines(List<PipelineItem> newPipelines) {
-        this.pipelines = newPipelines;
-        notifyDataSetChanged();
+        List<PipelineItem> items = new ArrayList<>(newPipelines);
+        long[] ids = new long[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stableIdFor(items.get(i).getId());
+        }
+        int generation = ++rowsGeneration;
+        ROW_EXECUTOR.execute(() -> {
+            List<Row> rows = new ArrayList<>(items.size());
+            for (int i = 0; i < ids.length; i++) {
+                rows.add(new Row(items.get(i), ids[i]));
+            }
+            ContextCompat.getMainExecutor(context).execute(() -> {
+                if (generation == rowsGeneration) {
+                    differ.submitList(rows);
+                }
+            });
+        });
+    }
+
+    private long stableIdFor(String pipelineId) {
+        Long stableId = stableIds.get(pipelineId);
+        if (stableId == null) {
+            stableId = nextStableId++;
+            stableIds.put(pipelineId, stableId);
+        }
+        return stableId;
     }
 
     private void showEditDialog(PipelineItem item) {
@@ -140,34 +438,29 @@ public class PipelineAdapter extends RecyclerView.Adapter<PipelineAdapter.ViewHo
             .show();
     }
 
-    private void duplicatePipeline(PipelineItem item) {
-        PipelineItem duplicate = new PipelineItem(
-            item.getName() + " (Copy)",
-            item.getPipeline()
-        );
-        PipelineStorage storage = new PipelineStorage(context);
-        storage.addPipeline(duplicate);
-        
-        // Refresh the list
-        pipelines = storage.getSortedPipelines("recent");
-        notifyDataSetChanged();
-    }
-
     static class ViewHolder extends RecyclerView.ViewHolder {
         TextView name;
         TextView preview;
         TextView date;
         TextView categoryBadge;
+        TextView statusBadge;
         View categoryIndicator;
         ImageView favoriteIcon;
         ImageButton moreButton;
         ImageButton shareButton;
+        // What is currently shown, so rebinding an unchanged row touches no views
+        String boundCategory;
+        String boundPipeline;
+        Boolean boundFavorite;
+        PipelineValidator.Result boundStatus;
+        boolean boundStatusSet;
 
         ViewHolder(View view) {
             super(view);
             name = view.findViewById(R.id.pipelineName);
             preview = view.findViewById(R.id.pipelinePreview);
             categoryBadge = view.findViewById(R.id.categoryBadge);
+            statusBadge = view.findViewById(R.id.statusBadge);
             categoryIndicator = view.findViewById(R.id.categoryIndicator);
             favoriteIcon = view.findViewById(R.id.favoriteIcon);
             moreButton = view.findViewById(R.id.moreOptions);
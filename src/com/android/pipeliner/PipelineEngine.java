@@ -0,0 +1,286 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs several pipelines at once, independently of the one GstreamerMain plays.
+ * open() hands out an integer handle that start, pause, setSurface, getStats and
+ * close take. The pipelines share a small pool of native worker threads for their
+ * bus handling; streaming runs on GStreamer's own threads as usual.
+ *
+ * At most getMaxPipelines() run at once (never more than MAX_PIPELINES); open()
+ * returns INVALID_HANDLE beyond that. Bus listeners are per handle and, as with
+ * GstreamerMain, add and remove them on the UI thread; they are called there too.
+ */
+public final class PipelineEngine {
+    private static final String TAG = "PipelineEngine";
+
+    private native boolean nativeAttach();
+    private native void nativeConfigure(int maxPipelines, int workerThreads);
+    private native int nativeCreate(String launch);
+    private native boolean nativeDestroy(int handle);
+    private native boolean nativeSetState(int handle, int state);
+    private native boolean nativeSetSurface(int handle, Object surface);
+    private native boolean nativeSetBusFilter(int handle, int kinds);
+    private native long[] nativeGetStats(int handle);
+
+    // Must match PIPELINE_MANAGER_MAX_PIPELINES and the create errors in pipeline_manager.h
+    public static final int MAX_PIPELINES = 8;
+    public static final int INVALID_HANDLE = -1;
+    private static final int ERROR_LIMIT = -1;
+    private static final int DEFAULT_MAX_PIPELINES = 4;
+
+    // Layout of nativeGetStats, must match APP_STAT_* in gstreamer_app.h
+    private static final int STAT_STATE = 0;
+    private static final int STAT_PENDING_STATE = 1;
+    private static final int STAT_CPU_NS = 2;
+    private static final int STAT_THREADS = 3;
+    private static final int STAT_BUILD_BYTES = 4;
+    private static final int STAT_QUEUED_BYTES = 5;
+    private static final int STAT_UPTIME_MS = 6;
+    private static final int STAT_WORKER = 7;
+
+    public static class Stats {
+        public final int handle;
+        public final PipelineState state;
+        public final PipelineState pending;
+        public final long cpuNs;            // Streaming thread CPU time spent in this pipeline
+        public final double cpuPercent;     // Of one core since the previous getStats of the handle, -1 the first time
+        public final int streamingThreads;
+        public final long buildBytes;       // Heap growth while parsing it, an estimate; 0 if it came from the preroll pool
+        public final long queuedBytes;      // Held in queue and queue2 elements right now
+        public final long uptimeMs;
+        public final int worker;            // Native worker thread its bus runs on
+
+        Stats(int handle, long[] values, double cpuPercent) {
+            this.handle = handle;
+            this.state = PipelineState.fromNative(values[STAT_STATE]);
+            this.pending = PipelineState.fromNative(values[STAT_PENDING_STATE]);
+            this.cpuNs = values[STAT_CPU_NS];
+            this.cpuPercent = cpuPercent;
+            this.streamingThreads = (int) values[STAT_THREADS];
+            this.buildBytes = values[STAT_BUILD_BYTES];
+            this.queuedBytes = values[STAT_QUEUED_BYTES];
+            this.uptimeMs = values[STAT_UPTIME_MS];
+            this.worker = (int) values[STAT_WORKER];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "#%d %s cpu=%s threads=%d build=%dKB queued=%dKB up=%ds worker=%d",
+                    handle, state, cpuPercent < 0 ? "?" : String.format(Locale.US, "%.1f%%", cpuPercent),
+                    streamingThreads, buildBytes / 1024, queuedBytes / 1024, uptimeMs / 1000, worker);
+        }
+    }
+
+    private static class Entry {
+        final String launch;
+        final BusListenerSet listeners = new BusListenerSet();
+        long lastCpuNs = -1;
+        long lastSampleNs;
+
+        Entry(String launch) {
+            this.launch = launch;
+        }
+    }
+
+    private static PipelineEngine instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private int maxPipelines = DEFAULT_MAX_PIPELINES;
+    private int workerThreads;            // 0 lets native pick from the core count
+    private boolean nativeReady;
+    private boolean nativeFailed;
+
+    public static synchronized PipelineEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new PipelineEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PipelineEngine(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Sets how many pipelines may run at once (capped at MAX_PIPELINES) and how many
+     * worker threads they share. The thread count only applies before the first open().
+     */
+    public synchronized void configure(int maxPipelines, int workerThreads) {
+        this.maxPipelines = Math.max(1, Math.min(maxPipelines, MAX_PIPELINES));
+        this.workerThreads = Math.max(0, workerThreads);
+        if (nativeReady) {
+            nativeConfigure(this.maxPipelines, this.workerThreads);
+        }
+    }
+
+    public synchronized int getMaxPipelines() {
+        return maxPipelines;
+    }
+
+    /**
+     * Builds and starts prerolling a pipeline. Parse errors arrive asynchronously
+     * through BusMessageListener.onError of the handle's listeners.
+     */
+    public synchronized int open(String launch) {
+        if (!ensureNative()) {
+            return INVALID_HANDLE;
+        }
+        int handle = nativeCreate(launch);
+        if (handle < 0) {
+            Log.w(TAG, handle == ERROR_LIMIT
+                    ? "Not opening pipeline, already running " + entries.size() + " of " + maxPipelines
+                    : "Not opening pipeline, engine not attached");
+            return INVALID_HANDLE;
+        }
+        entries.put(handle, new Entry(launch));
+        Log.i(TAG, "Opened pipeline #" + handle + ": " + launch);
+        return handle;
+    }
+
+    public synchronized boolean start(int handle) {
+        return setState(handle, PipelineState.PLAYING);
+    }
+
+    public synchronized boolean pause(int handle) {
+        return setState(handle, PipelineState.PAUSED);
+    }
+
+    private boolean setState(int handle, PipelineState state) {
+        return entries.containsKey(handle) && nativeSetState(handle, state.ordinal());
+    }
+
+    /**
+     * Renders the handle's video sink into the surface; null detaches it, which also
+     * drops the pipeline to READY until the next start().
+     */
+    public synchronized boolean setSurface(int handle, Surface surface) {
+        return entries.containsKey(handle) && nativeSetSurface(handle, surface);
+    }
+
+    /**
+     * Stops and frees the pipeline; blocks until it is off its worker thread.
+     */
+    public synchronized void close(int handle) {
+        if (entries.remove(handle) != null) {
+            nativeDestroy(handle);
+            Log.i(TAG, "Closed pipeline #" + handle);
+        }
+    }
+
+    public synchronized void closeAll() {
+        for (Integer handle : entries.keySet().toArray(new Integer[0])) {
+            close(handle);
+        }
+    }
+
+    public synchronized int[] getHandles() {
+        int[] handles = new int[entries.size()];
+        int i = 0;
+        for (int handle : entries.keySet()) {
+            handles[i++] = handle;
+        }
+        return handles;
+    }
+
+    public synchronized String getLaunch(int handle) {
+        Entry entry = entries.get(handle);
+        return entry != null ? entry.launch : null;
+    }
+
+    /**
+     * Current resource use of a pipeline, null if the handle is not open. CPU load is
+     * worked out against the previous call for the same handle, so poll at a steady rate.
+     */
+    public synchronized Stats getStats(int handle) {
+        Entry entry = entries.get(handle);
+        long[] values = entry != null ? nativeGetStats(handle) : null;
+        if (values == null) {
+            return null;
+        }
+        long nowNs = System.nanoTime();
+        double cpuPercent = -1;
+        if (entry.lastCpuNs >= 0 && nowNs > entry.lastSampleNs) {
+            cpuPercent = Math.max(0, values[STAT_CPU_NS] - entry.lastCpuNs) * 100.0 / (nowNs - entry.lastSampleNs);
+        }
+        entry.lastCpuNs = values[STAT_CPU_NS];
+        entry.lastSampleNs = nowNs;
+        return new Stats(handle, values, cpuPercent);
+    }
+
+    /**
+     * Subscribes to the given BusMessageListener.KIND_* bits of one pipeline's bus.
+     * Calling it again for the same listener replaces its kinds.
+     */
+    public synchronized void addBusMessageListener(int handle, BusMessageListener listener, int kinds) {
+        Entry entry = entries.get(handle);
+        if (entry != null) {
+            nativeSetBusFilter(handle, entry.listeners.put(listener, kinds));
+        }
+    }
+
+    public synchronized void removeBusMessageListener(int handle, BusMessageListener listener) {
+        Entry entry = entries.get(handle);
+        if (entry != null && entry.listeners.contains(listener)) {
+            nativeSetBusFilter(handle, entry.listeners.remove(listener));
+        }
+    }
+
+    // Called from native code on a worker thread with the events of one pipeline, oldest
+    // first; same layout as GstreamerMain.onNativeEvents
+    private void onNativeEvents(final int handle, final int[] types, final long[] timestampsUs, final long[] values,
+                                final String[] sources, final String[] texts) {
+        mainHandler.post(() -> {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(handle);
+            }
+            if (entry == null) {
+                return; // Closed while the batch was on its way
+            }
+            for (int i = 0; i < types.length; i++) {
+                int type = types[i];
+                if (type == BusListenerSet.EVENT_MESSAGE || type == BusListenerSet.EVENT_INITIALIZED) {
+                    Log.d(TAG, "#" + handle + ": " + (texts[i] != null ? texts[i] : "surface ready"));
+                    continue;
+                }
+                if (type == BusListenerSet.EVENT_ERROR) {
+                    Log.w(TAG, "#" + handle + ": " + texts[i]);
+                }
+                if (!entry.listeners.dispatch(type, values, i * BusListenerSet.EVENT_VALUE_COUNT, sources[i], texts[i])) {
+                    Log.w(TAG, "Unknown native event type " + type);
+                }
+            }
+        });
+    }
+
+    private boolean ensureNative() {
+        if (nativeReady || nativeFailed) {
+            return nativeReady;
+        }
+        try {
+            GStreamerInit.await(context);
+            nativeReady = nativeAttach();
+            if (nativeReady) {
+                nativeConfigure(maxPipelines, workerThreads);
+            } else {
+                nativeFailed = true;
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, "Pipeline engine disabled, GStreamer unavailable", e);
+            nativeFailed = true;
+        }
+        return nativeReady;
+    }
+}
@@ -0,0 +1,427 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the /sdcard/GStreamerPipelines .gstpipe mirror in sync with the library.
+ *
+ * Only records whose content hash changed are rewritten. Each file is written to a
+ * temp file and renamed into place, so a crash never leaves a half-written mirror.
+ * Files of deleted or renamed records are removed.
+ *
+ * Which file belongs to which record is kept in a manifest inside the directory, an
+ * append-only log of one line per change, so a sync costs O(changes) there too. A
+ * full sync also diffs the directory listing against the library. Files left over
+ * from before the manifest are deleted if their launch string is still in the
+ * library, and moved into .orphaned otherwise, since they may be files the user put
+ * there to import. All file work runs on a single background thread.
+ */
+public class PipelineFileSync {
+    private static final String TAG = "PipelineFileSync";
+    private static final String PREFS_NAME = "pipeline_file_sync";
+    private static final String EXTENSION = ".gstpipe";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String MANIFEST_NAME = ".manifest";
+    private static final String ORPHANED_DIR = ".orphaned";
+    private static final int MANIFEST_SLACK_LINES = 64;
+
+    // Counts of files touched by one sync pass
+    public static class SyncResult {
+        public int written;
+        public int renamed;
+        public int deleted;
+        public int unchanged;
+        public int failed;
+
+        public int touched() {
+            return written + renamed + deleted;
+        }
+
+        @Override
+        public String toString() {
+            return "written=" + written + " renamed=" + renamed + " deleted=" + deleted
+                    + " unchanged=" + unchanged + " failed=" + failed;
+        }
+    }
+
+    // Immutable copy of the fields the mirror needs, taken when the sync is queued
+    private static class Record {
+        final String id;
+        final String name;
+        final String pipeline;
+        final long hash;
+
+        Record(PipelineItem item) {
+            this.id = item.getId();
+            this.name = item.getName();
+            this.pipeline = item.getPipeline();
+            this.hash = item.getContentHash();
+        }
+    }
+
+    // Manifest entry: which file holds a record, and the hash of what was written
+    private static class Entry {
+        final String fileName;
+        final long hash;
+
+        Entry(String fileName, long hash) {
+            this.fileName = fileName;
+            this.hash = hash;
+        }
+    }
+
+    private final SharedPreferences legacyManifestPrefs; // Where the manifest used to be kept
+    private final File directory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PipelineFileSync");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // Only touched on the executor thread
+    private Map<String, Entry> manifest;
+    private final Map<String, String> fileOwners = new HashMap<>();
+    private int manifestLines;
+
+    public PipelineFileSync(Context context, File directory) {
+        this.legacyManifestPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.directory = directory;
+    }
+
+    /**
+     * Queues a differential sync of changed and deleted records
+     */
+    public void syncChanges(List<PipelineItem> changed, Set<String> deletedIds) {
+        if (changed.isEmpty() && deletedIds.isEmpty()) {
+            return;
+        }
+        List<Record> records = snapshot(changed);
+        Set<String> deleted = new HashSet<>(deletedIds);
+        executor.execute(() -> runSync(records, deleted, false));
+    }
+
+    /**
+     * Queues a full reconciliation: writes anything out of date and removes
+     * files of records that no longer exist
+     */
+    public void syncAll(List<PipelineItem> all) {
+        List<Record> records = snapshot(all);
+        executor.execute(() -> runSync(records, new HashSet<>(), true));
+    }
+
+    private static List<Record> snapshot(List<PipelineItem> items) {
+        List<Record> records = new ArrayList<>(items.size());
+        for (PipelineItem item : items) {
+            records.add(new Record(item));
+        }
+        return records;
+    }
+
+    private void runSync(List<Record> records, Set<String> deletedIds, boolean full) {
+        SyncResult result = new SyncResult();
+        if (directory == null || !directory.exists()) {
+            Log.w(TAG, "Backup directory not available");
+            return;
+        }
+        loadManifest();
+        StringBuilder log = new StringBuilder();
+
+        for (String id : deletedIds) {
+            removeRecord(id, log, result);
+        }
+
+        Set<String> liveIds = new HashSet<>();
+        for (Record record : records) {
+            liveIds.add(record.id);
+            syncRecord(record, log, result);
+        }
+
+        if (full) {
+            // Records that are gone, then files no record owns
+            for (String id : new ArrayList<>(manifest.keySet())) {
+                if (!liveIds.contains(id)) {
+                    removeRecord(id, log, result);
+                }
+            }
+            removeOrphans(records, result);
+        }
+
+        appendManifest(log);
+        Log.i(TAG, "Sync complete: " + result);
+    }
+
+    private void syncRecord(Record record, StringBuilder log, SyncResult result) {
+        Entry entry = manifest.get(record.id);
+        String fileName = fileNameFor(record);
+
+        if (entry != null && entry.hash == record.hash && entry.fileName.equals(fileName)
+                && new File(directory, fileName).exists()) {
+            result.unchanged++;
+            return;
+        }
+
+        File target = new File(directory, fileName);
+        if (entry != null && !entry.fileName.equals(fileName) && entry.hash == record.hash) {
+            // Same content under a new name: a rename is enough
+            File old = new File(directory, entry.fileName);
+            if (old.exists() && old.renameTo(target)) {
+                fileOwners.remove(entry.fileName);
+                putEntry(record.id, new Entry(fileName, record.hash), log);
+                result.renamed++;
+                return;
+            }
+        }
+
+        if (!writeAtomically(record, target)) {
+            result.failed++;
+            return;
+        }
+        if (entry != null && !entry.fileName.equals(fileName)) {
+            new File(directory, entry.fileName).delete();
+            fileOwners.remove(entry.fileName);
+            result.deleted++;
+        }
+        putEntry(record.id, new Entry(fileName, record.hash), log);
+        result.written++;
+    }
+
+    private void removeRecord(String id, StringBuilder log, SyncResult result) {
+        Entry entry = manifest.remove(id);
+        if (entry == null) {
+            return;
+        }
+        log.append(id).append('\n');
+        fileOwners.remove(entry.fileName);
+        File file = new File(directory, entry.fileName);
+        if (file.exists() && file.delete()) {
+            result.deleted++;
+        }
+    }
+
+    /**
+     * Deletes or moves aside every .gstpipe file that no record owns. Runs after the
+     * records were synced, so each live record already owns its file.
+     */
+    private void removeOrphans(List<Record> records, SyncResult result) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Set<String> pipelines = null;
+        for (File file : files) {
+            if (fileOwners.containsKey(file.getName())) {
+                continue;
+            }
+            if (pipelines == null) {
+                pipelines = new HashSet<>();
+                for (Record record : records) {
+                    pipelines.add(record.pipeline);
+                }
+            }
+            if (isStaleCopy(file, pipelines)) {
+                if (file.delete()) {
+                    result.deleted++;
+                }
+                continue;
+            }
+            File orphaned = new File(directory, ORPHANED_DIR);
+            if ((orphaned.isDirectory() || orphaned.mkdirs()) && file.renameTo(new File(orphaned, file.getName()))) {
+                Log.i(TAG, "Moved " + file.getName() + " to " + ORPHANED_DIR + ", it is not in the library");
+                result.renamed++;
+            } else {
+                result.failed++;
+            }
+        }
+    }
+
+    // A file whose every pipeline is in the library under some record: an old copy of ours
+    private static boolean isStaleCopy(File file, Set<String> pipelines) {
+        PipelineImporter.ParsedFile parsed = PipelineImporter.parseFile(file);
+        if (parsed.error != null || parsed.items.isEmpty()) {
+            return false;
+        }
+        for (PipelineItem item : parsed.items) {
+            if (!pipelines.contains(item.getPipeline())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sanitized name, with a short id suffix if another record already owns that file
+     */
+    private String fileNameFor(Record record) {
+        String safeFileName = record.name.replaceAll("[^a-zA-Z0-9_\\-]", "_");
+        String fileName = safeFileName + EXTENSION;
+        String owner = fileOwners.get(fileName);
+        if (owner != null && !owner.equals(record.id)) {
+            fileName = safeFileName + "_" + record.id.substring(0, Math.min(8, record.id.length())) + EXTENSION;
+        }
+        return fileName;
+    }
+
+    private boolean writeAtomically(Record record, File target) {
+        File temp = new File(directory, "." + target.getName() + TEMP_SUFFIX);
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("name", record.name);
+            obj.put("pipeline", record.pipeline);
+
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                fos.write(obj.toString(2).getBytes(StandardCharsets.UTF_8)); // Pretty print with indent
+                fos.flush();
+                fos.getFD().sync();
+            }
+            if (!temp.renameTo(target)) {
+                throw new IOException("rename failed: " + temp + " -> " + target);
+            }
+            return true;
+        } catch (JSONException | IOException e) {
+            Log.e(TAG, "Failed to save pipeline to file: " + record.name, e);
+            temp.delete();
+            return false;
+        }
+    }
+
+    private void putEntry(String id, Entry entry, StringBuilder log) {
+        manifest.put(id, entry);
+        fileOwners.put(entry.fileName, id);
+        log.append(id).append('\t').append(entry.hash).append('\t').append(entry.fileName).append('\n');
+    }
+
+    /**
+     * Manifest lines are "id<TAB>hash<TAB>file" for a record's file and a bare "id"
+     * once it has none; the last line for an id wins. A torn last line is ignored.
+     */
+    private void loadManifest() {
+        if (manifest != null) {
+            return;
+        }
+        manifest = new HashMap<>();
+        File file = new File(directory, MANIFEST_NAME);
+        if (!file.exists()) {
+            migrateManifest();
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                manifestLines++;
+                String[] fields = line.split("\t");
+                if (fields.length == 1) {
+                    Entry removed = manifest.remove(fields[0]);
+                    if (removed != null) {
+                        fileOwners.remove(removed.fileName);
+                    }
+                } else if (fields.length == 3) {
+                    try {
+                        Entry entry = new Entry(fields[2], Long.parseLong(fields[1]));
+                        Entry previous = manifest.put(fields[0], entry);
+                        if (previous != null) {
+                            fileOwners.remove(previous.fileName);
+                        }
+                        fileOwners.put(entry.fileName, fields[0]);
+                    } catch (NumberFormatException ignored) {
+                        // Torn line, the record will simply be rewritten
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable manifest, every file will be rewritten once", e);
+        }
+    }
+
+    private void appendManifest(StringBuilder log) {
+        if (log.length() == 0) {
+            return;
+        }
+        if (manifestLines > 2 * manifest.size() + MANIFEST_SLACK_LINES) {
+            writeManifest();
+            return;
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(directory, MANIFEST_NAME), true),
+                StandardCharsets.UTF_8)) {
+            out.write(log.toString());
+            for (int i = 0; i < log.length(); i++) {
+                if (log.charAt(i) == '\n') {
+                    manifestLines++;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to update manifest", e);
+        }
+    }
+
+    // Rewrites the manifest with one line per record, via a temp file
+    private void writeManifest() {
+        File file = new File(directory, MANIFEST_NAME);
+        File temp = new File(directory, MANIFEST_NAME + TEMP_SUFFIX);
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, Entry> e : manifest.entrySet()) {
+            lines.append(e.getKey()).append('\t').append(e.getValue().hash).append('\t')
+                    .append(e.getValue().fileName).append('\n');
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            out.write(lines.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write manifest", e);
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(file)) {
+            manifestLines = manifest.size();
+        } else {
+            temp.delete();
+        }
+    }
+
+    // One-time move of the manifest out of SharedPreferences, where every change rewrote all of it
+    private void migrateManifest() {
+        Map<String, ?> legacy = legacyManifestPrefs.getAll();
+        if (legacy.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, ?> e : legacy.entrySet()) {
+            if (!(e.getValue() instanceof String)) {
+                continue;
+            }
+            String value = (String) e.getValue();
+            int sep = value.indexOf('|');
+            if (sep <= 0) {
+                continue;
+            }
+            try {
+                Entry entry = new Entry(value.substring(sep + 1), Long.parseLong(value.substring(0, sep)));
+                manifest.put(e.getKey(), entry);
+                fileOwners.put(entry.fileName, e.getKey());
+            } catch (NumberFormatException ignored) {
+                // Corrupt entry, the record will simply be rewritten
+            }
+        }
+        writeManifest();
+        legacyManifestPrefs.edit().clear().apply();
+    }
+}
@@ -0,0 +1,256 @@
+package com.android.pipeliner;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk import of .gstpipe directories and JSON library exports.
+ *
+ * Files are parsed with a streaming JSON reader on a bounded worker pool,
+ * de-duplicated against the library (by id, then by name + launch string hash)
+ * and committed to PipelineStorage as one batch, so importing N files costs one
+ * write instead of N full rewrites.
+ */
+public class PipelineImporter {
+    private static final String TAG = "PipelineImporter";
+    private static final int MAX_THREADS = 4;
+
+    public static class ImportResult {
+        public int files;
+        public int imported;
+        public int duplicates;
+        public long elapsedMs;
+        public final List<String> errors = new ArrayList<>();
+
+        public double filesPerSecond() {
+            return elapsedMs > 0 ? files * 1000.0 / elapsedMs : files;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US,
+                    "%d files: %d imported, %d duplicates, %d errors in %d ms (%.0f files/s)",
+                    files, imported, duplicates, errors.size(), elapsedMs, filesPerSecond());
+        }
+    }
+
+    // Parse outcome of one file: items, or the reason it failed
+    static class ParsedFile {
+        final List<PipelineItem> items = new ArrayList<>();
+        String error;
+    }
+
+    private final PipelineStorage storage;
+
+    public PipelineImporter(PipelineStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Imports every file in parallel and commits the new pipelines in one batch.
+     * Blocks until done, so call it off the main thread.
+     */
+    public ImportResult importFiles(File[] files) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult();
+        result.files = files.length;
+
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<ParsedFile>> futures = new ArrayList<>(files.length);
+        try {
+            for (File file : files) {
+                futures.add(pool.submit(() -> parseFile(file)));
+            }
+
+            List<PipelineItem> parsed = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    ParsedFile pf = futures.get(i).get();
+                    if (pf.error != null) {
+                        result.errors.add(files[i].getName() + ": " + pf.error);
+                    } else {
+                        parsed.addAll(pf.items);
+                    }
+                } catch (ExecutionException e) {
+                    result.errors.add(files[i].getName() + ": " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.errors.add(files[i].getName() + ": interrupted");
+                    break;
+                }
+            }
+            commit(parsed, result);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        result.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        Log.i(TAG, "Imported " + result);
+        return result;
+    }
+
+    /**
+     * Imports one file on the caller's thread; a worker pool isn't worth it for a single parse
+     */
+    public ImportResult importFile(File file) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult();
+        result.files = 1;
+        ParsedFile parsed = parseFile(file);
+        if (parsed.error != null) {
+            result.errors.add(file.getName() + ": " + parsed.error);
+        } else {
+            commit(parsed.items, result);
+        }
+        result.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        Log.i(TAG, "Imported " + result);
+        return result;
+    }
+
+    /**
+     * Streams a JSON array of pipeline objects, validating as it reads.
+     * Missing ids and timestamps are filled in; name and pipeline are required.
+     */
+    public static List<PipelineItem> readJson(Reader reader) throws IOException {
+        List<PipelineItem> items = new ArrayList<>();
+        try (JsonReader json = new JsonReader(reader)) {
+            if (json.peek() == JsonToken.BEGIN_ARRAY) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    items.add(readItem(json));
+                }
+                json.endArray();
+            } else {
+                items.add(readItem(json));
+            }
+        }
+        return items;
+    }
+
+    private static PipelineItem readItem(JsonReader json) throws IOException {
+        String id = null;
+        String name = null;
+        String pipeline = null;
+        long now = System.currentTimeMillis();
+        long createdTime = now;
+        long lastUsedTime = now;
+        boolean favorite = false;
+        boolean lowLatency = false;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.skipValue();
+                continue;
+            }
+            switch (key) {
+                case "id": id = json.nextString(); break;
+                case "name": name = json.nextString(); break;
+                case "pipeline": pipeline = json.nextString(); break;
+                case "createdTime": createdTime = json.nextLong(); break;
+                case "lastUsedTime": lastUsedTime = json.nextLong(); break;
+                case "isFavorite": favorite = json.nextBoolean(); break;
+                case "lowLatency": lowLatency = json.nextBoolean(); break;
+                default: json.skipValue(); break;
+            }
+        }
+        json.endObject();
+
+        if (name == null || pipeline == null) {
+            throw new IOException("Pipeline entry is missing \"name\" or \"pipeline\"");
+        }
+        PipelineItem item = new PipelineItem(id != null ? id : UUID.randomUUID().toString(),
+                name, pipeline, createdTime, lastUsedTime, favorite);
+        item.setLowLatency(lowLatency);
+        return item;
+    }
+
+    /**
+     * Parses one .gstpipe file. JSON files are streamed; plain-text files (as written
+     * by the share action) are read as a launch string named after the file.
+     */
+    static ParsedFile parseFile(File file) {
+        ParsedFile result = new ParsedFile();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            in.mark(1);
+            int first = in.read();
+            while (first != -1 && Character.isWhitespace(first)) {
+                in.mark(1);
+                first = in.read();
+            }
+            if (first == -1) {
+                result.error = "empty file";
+                return result;
+            }
+            in.reset();
+
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+            if (first == '{' || first == '[') {
+                for (PipelineItem item : readJson(reader)) {
+                    // Files carry no identity of their own, always import as new
+                    result.items.add(new PipelineItem(item.getName(), item.getPipeline()));
+                }
+            } else {
+                StringBuilder sb = new StringBuilder();
+                BufferedReader lines = new BufferedReader(reader);
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    if (sb.length() > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(line.trim());
+                }
+                String name = file.getName();
+                if (name.endsWith(".gstpipe")) {
+                    name = name.substring(0, name.length() - ".gstpipe".length());
+                }
+                result.items.add(new PipelineItem(name, sb.toString().trim()));
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            result.error = e.getMessage();
+        }
+        return result;
+    }
+
+    private void commit(List<PipelineItem> parsed, ImportResult result) {
+        Set<String> knownIds = new HashSet<>();
+        Set<Long> knownHashes = new HashSet<>();
+        for (PipelineItem existing : storage.loadPipelines()) {
+            knownIds.add(existing.getId());
+            knownHashes.add(existing.getContentHash());
+        }
+
+        List<PipelineItem> batch = new ArrayList<>(parsed.size());
+        for (PipelineItem item : parsed) {
+            if (!knownIds.add(item.getId()) || !knownHashes.add(item.getContentHash())) {
+                result.duplicates++;
+                continue;
+            }
+            batch.add(item);
+        }
+        storage.addPipelines(batch);
+        result.imported = batch.size();
+    }
+}
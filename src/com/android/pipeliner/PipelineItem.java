@@ -1,5 +1,8 @@
 package com.android.pipeliner;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 public class PipelineItem {
@@ -9,8 +12,14 @@ public class PipelineItem {
     private long createdTime;
     private long lastUsedTime;
     private boolean isFavorite;
-    private String category; // "test", "rtsp", "udp", "file", "effects", "custom"
+    private String category; // "test", "rtsp", "udp", "file", "effects", "custom", null until computed
     private int categoryColor; // Color for visual distinction
+    private GstLaunchModel model; // Parsed launch string, null until first needed
+    private long contentHash; // Hash of name + pipeline, 0 until computed
+    private boolean lowLatency; // Play through LowLatencyRewriter
+    private long latencyNs; // Last measured pipeline latency as written, 0 if unknown
+    private long lowLatencyNs; // Last measured pipeline latency after the rewrite, 0 if unknown
+    private final List<StartupTimeline.Record> startups = new ArrayList<>(); // Timed launches, oldest first
 
     public PipelineItem(String name, String pipeline) {
         this.id = UUID.randomUUID().toString();
@@ -19,8 +28,6 @@ public class PipelineItem {
         this.createdTime = System.currentTimeMillis();
         this.lastUsedTime = System.currentTimeMillis();
         this.isFavorite = false;
-        this.category = detectCategory(pipeline);
-        this.categoryColor = getCategoryColor(this.category);
     }
 
     // Constructor for loading from storage
@@ -31,20 +38,43 @@ public class PipelineItem {
         this.createdTime = createdTime;
         this.lastUsedTime = lastUsedTime;
         this.isFavorite = isFavorite;
-        this.category = detectCategory(pipeline);
-        this.categoryColor = getCategoryColor(this.category);
     }
 
-    private String detectCategory(String pipeline) {
-        if (pipeline.contains("videotestsrc")) return "test";
-        if (pipeline.contains("rtspsrc")) return "rtsp";
-        if (pipeline.contains("udpsrc")) return "udp";
-        if (pipeline.contains("filesrc")) return "file";
-        if (pipeline.contains("edge") || pipeline.contains("aging") || pipeline.contains("mixer")) return "effects";
+    /**
+     * Independent copy for the storage I/O thread, which must not read an item the
+     * UI may still be changing
+     */
+    public PipelineItem copy() {
+        PipelineItem copy = new PipelineItem(id, name, pipeline, createdTime, lastUsedTime, isFavorite);
+        copy.category = category;
+        copy.categoryColor = categoryColor;
+        copy.model = model;
+        copy.contentHash = contentHash;
+        copy.lowLatency = lowLatency;
+        copy.latencyNs = latencyNs;
+        copy.lowLatencyNs = lowLatencyNs;
+        copy.startups.addAll(startups);
+        return copy;
+    }
+
+    private static String detectCategory(GstLaunchModel model) {
+        if (model.hasElement("videotestsrc")) return "test";
+        if (model.hasElement("rtspsrc")) return "rtsp";
+        if (model.hasElement("udpsrc")) return "udp";
+        if (model.hasElement("filesrc")) return "file";
+        for (GstLaunchModel.Element element : model.getElements()) {
+            String factory = element.factory;
+            if (factory.contains("edge") || factory.contains("aging") || factory.contains("mixer")) return "effects";
+        }
         return "custom";
     }
 
-    private int getCategoryColor(String category) {
+    // Category of a launch string, for callers that must not touch an item's caches
+    static String categoryOf(String pipeline) {
+        return detectCategory(GstLaunchModel.of(pipeline));
+    }
+
+    static int getCategoryColor(String category) {
         switch (category) {
             case "test": return 0xFFFF9800; // Orange
             case "rtsp": return 0xFF03A9F4; // Blue
@@ -60,15 +90,79 @@ public class PipelineItem {
     public long getCreatedTime() { return createdTime; }
     public long getLastUsedTime() { return lastUsedTime; }
     public boolean isFavorite() { return isFavorite; }
-    public String getCategory() { return category; }
-    public int getCategoryColor() { return categoryColor; }
+    public String getCategory() {
+        if (category == null) {
+            category = detectCategory(getModel());
+            categoryColor = getCategoryColor(category);
+        }
+        return category;
+    }
+    public int getCategoryColor() {
+        getCategory();
+        return categoryColor;
+    }
+
+    // Parsed launch string, shared with every other item that has the same pipeline
+    public GstLaunchModel getModel() {
+        if (model == null) {
+            model = GstLaunchModel.of(pipeline);
+        }
+        return model;
+    }
+
+    // Hash of the user-visible content (name and launch string), used to detect changed records
+    public long getContentHash() {
+        if (contentHash == 0) {
+            contentHash = hashContent(name, pipeline);
+        }
+        return contentHash;
+    }
+
+    // 64-bit FNV-1a over name, a separator and the launch string
+    public static long hashContent(String name, String pipeline) {
+        long hash = GstLaunchModel.fnv1a(GstLaunchModel.FNV_OFFSET, name);
+        hash = GstLaunchModel.fnv1a(hash, "\n");
+        hash = GstLaunchModel.fnv1a(hash, pipeline);
+        return hash != 0 ? hash : 1;
+    }
 
-    public void setName(String name) { this.name = name; }
+    public void setName(String name) {
+        this.name = name;
+        this.contentHash = 0;
+    }
     public void setPipeline(String pipeline) {
         this.pipeline = pipeline;
-        this.category = detectCategory(pipeline);
-        this.categoryColor = getCategoryColor(this.category);
+        this.contentHash = 0;
+        this.model = null;
+        this.category = null;
+        this.latencyNs = 0;
+        this.lowLatencyNs = 0;
+        this.startups.clear();
     }
     public void setLastUsedTime(long time) { this.lastUsedTime = time; }
     public void setFavorite(boolean favorite) { this.isFavorite = favorite; }
+
+    public boolean isLowLatency() { return lowLatency; }
+    public void setLowLatency(boolean lowLatency) { this.lowLatency = lowLatency; }
+    public long getLatencyNs() { return latencyNs; }
+    public long getLowLatencyNs() { return lowLatencyNs; }
+
+    // Records a latency measurement for the mode it was taken in
+    public void setMeasuredLatency(boolean lowLatencyMode, long ns) {
+        if (lowLatencyMode) {
+            lowLatencyNs = ns;
+        } else {
+            latencyNs = ns;
+        }
+    }
+
+    public List<StartupTimeline.Record> getStartups() { return Collections.unmodifiableList(startups); }
+
+    // Adds a timed launch, dropping the oldest beyond StartupTimeline.MAX_HISTORY
+    public void addStartup(StartupTimeline.Record record) {
+        startups.add(record);
+        while (startups.size() > StartupTimeline.MAX_HISTORY) {
+            startups.remove(0);
+        }
+    }
 }
@@ -0,0 +1,423 @@
+package com.android.pipeliner;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal holding the pipeline library.
+ *
+ * Every add, update and delete is appended as one binary record, so a write costs
+ * O(record size) no matter how large the library is, and is fsync'd before the
+ * call returns. On startup the journal is replayed into memory. Once superseded
+ * records make up most of the file it is compacted into a fresh snapshot, written
+ * to a temp file and renamed into place. The snapshot is built from the encoded
+ * records the journal keeps of each live pipeline, never from items the UI may be
+ * changing at the same time.
+ *
+ * File layout: magic + version, then records of
+ *   [int length][byte op][payload][int crc32(op + payload)]
+ * A torn, corrupt or undecodable record ends the replay: the records before it are
+ * kept, and the rest of the file is copied to a timestamped .corrupt file before
+ * the journal is truncated there.
+ *
+ * Not thread-safe; PipelineStorage only calls it from its I/O thread.
+ */
+public class PipelineJournal {
+    private static final String TAG = "PipelineJournal";
+    private static final int MAGIC = 0x504C4A31; // "PLJ1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+
+    // Compact once the file is this much larger than the live records, and at least this big
+    private static final int COMPACTION_RATIO = 2;
+    private static final long MIN_COMPACTION_BYTES = 256 * 1024;
+
+    private final File file;
+    private FileOutputStream out;
+    private long fileSize;
+    // Encoded body of the latest record of each live pipeline, in insertion order
+    private final Map<String, byte[]> liveRecords = new LinkedHashMap<>();
+    private long liveBytes;
+
+    public PipelineJournal(File file) {
+        this.file = file;
+    }
+
+    public boolean exists() {
+        return file.exists() && file.length() >= HEADER_SIZE;
+    }
+
+    /**
+     * Replays the journal and returns the live pipelines in insertion order
+     */
+    public Map<String, PipelineItem> replay() throws IOException {
+        Map<String, PipelineItem> items = new LinkedHashMap<>();
+        liveRecords.clear();
+        liveBytes = 0;
+
+        if (!exists()) {
+            writeSnapshot(liveRecords);
+            return items;
+        }
+
+        long goodOffset = HEADER_SIZE;
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a pipeline journal: " + file);
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > file.length()) {
+                    Log.w(TAG, "Corrupt record length at offset " + goodOffset + ", truncating");
+                    break;
+                }
+                byte[] body = new byte[length];
+                int storedCrc;
+                try {
+                    in.readFully(body);
+                    storedCrc = in.readInt();
+                } catch (EOFException e) {
+                    Log.w(TAG, "Torn record at offset " + goodOffset + ", truncating");
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, body.length);
+                if ((int) crc.getValue() != storedCrc) {
+                    Log.w(TAG, "Checksum mismatch at offset " + goodOffset + ", truncating");
+                    break;
+                }
+                try {
+                    apply(body, items);
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Undecodable record at offset " + goodOffset + ", truncating", e);
+                    break;
+                }
+                goodOffset += 4 + length + 4;
+                records++;
+            }
+        }
+
+        if (goodOffset < file.length()) {
+            saveTail(goodOffset);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(goodOffset);
+            }
+        }
+        fileSize = goodOffset;
+        Log.i(TAG, "Replayed " + records + " records, " + items.size() + " live pipelines, " + fileSize + " bytes");
+        return items;
+    }
+
+    // Copies everything from the offset on into a .corrupt file, so truncating loses nothing
+    private void saveTail(long offset) throws IOException {
+        File corrupt = corruptFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileOutputStream fos = new FileOutputStream(corrupt)) {
+            raf.seek(offset);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = raf.read(buffer)) > 0) {
+                fos.write(buffer, 0, n);
+            }
+            fos.getFD().sync();
+        }
+        Log.w(TAG, "Saved " + (file.length() - offset) + " unreadable bytes to " + corrupt);
+    }
+
+    // A name no earlier .corrupt file has, so none is ever overwritten
+    private File corruptFile() {
+        long stamp = System.currentTimeMillis();
+        File corrupt;
+        do {
+            corrupt = new File(file.getParentFile(), file.getName() + "." + stamp++ + ".corrupt");
+        } while (corrupt.exists());
+        return corrupt;
+    }
+
+    // Decodes the whole record before touching items, so a failure leaves them as they were
+    private void apply(byte[] body, Map<String, PipelineItem> items) throws IOException {
+        DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(body));
+        byte op = in.readByte();
+        String id = readString(in);
+        if (op == OP_DELETE) {
+            items.remove(id);
+            untrackLive(id);
+            return;
+        }
+        PipelineItem item = new PipelineItem(
+            id,
+            readString(in),
+            readString(in),
+            in.readLong(),
+            in.readLong(),
+            in.readBoolean()
+        );
+        // Low-latency fields were added later; older records simply end here
+        if (in.available() > 0) {
+            item.setLowLatency(in.readBoolean());
+            item.setMeasuredLatency(false, in.readLong());
+            item.setMeasuredLatency(true, in.readLong());
+        }
+        // Startup timelines came after that
+        if (in.available() > 0) {
+            int count = in.readShort();
+            for (int i = 0; i < count; i++) {
+                item.addStartup(StartupTimeline.Record.read(in));
+            }
+        }
+        items.put(id, item);
+        trackLive(id, body);
+    }
+
+    /**
+     * Appends changed and deleted records as one durable write
+     */
+    public void append(Collection<PipelineItem> changed, Collection<String> deletedIds) throws IOException {
+        if (changed.isEmpty() && deletedIds.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        List<String> deleted = new ArrayList<>();
+        for (String id : deletedIds) {
+            if (liveRecords.containsKey(id)) {
+                writeRecord(batch, encodeDelete(id));
+                deleted.add(id);
+            }
+        }
+        Map<String, byte[]> puts = new LinkedHashMap<>();
+        for (PipelineItem item : changed) {
+            byte op = liveRecords.containsKey(item.getId()) ? OP_UPDATE : OP_ADD;
+            byte[] body = encodePut(op, item);
+            writeRecord(batch, body);
+            puts.put(item.getId(), body);
+        }
+
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        try {
+            batch.writeTo(out);
+            out.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            discardPartialWrite();
+            throw e;
+        }
+        fileSize += batch.size();
+        // Only once the batch is durable
+        for (String id : deleted) {
+            untrackLive(id);
+        }
+        for (Map.Entry<String, byte[]> put : puts.entrySet()) {
+            trackLive(put.getKey(), put.getValue());
+        }
+    }
+
+    public boolean needsCompaction() {
+        return fileSize > MIN_COMPACTION_BYTES && fileSize > liveBytes * COMPACTION_RATIO;
+    }
+
+    /**
+     * Rewrites the journal as a snapshot of its live records
+     */
+    public void compact() throws IOException {
+        long before = fileSize;
+        writeSnapshot(liveRecords);
+        Log.i(TAG, "Compacted journal " + before + " -> " + fileSize + " bytes");
+    }
+
+    /**
+     * Rewrites the journal as a snapshot of the given pipelines
+     */
+    public void compact(Collection<PipelineItem> items) throws IOException {
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        for (PipelineItem item : items) {
+            records.put(item.getId(), encodePut(OP_ADD, item));
+        }
+        long before = fileSize;
+        writeSnapshot(records);
+        liveRecords.clear();
+        liveBytes = 0;
+        for (Map.Entry<String, byte[]> record : records.entrySet()) {
+            trackLive(record.getKey(), record.getValue());
+        }
+        Log.i(TAG, "Compacted journal " + before + " -> " + fileSize + " bytes");
+    }
+
+    private void writeSnapshot(Map<String, byte[]> records) throws IOException {
+        closeOutput();
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        long size = 0;
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(buffer);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            for (byte[] body : records.values()) {
+                if (body[0] != OP_ADD) {
+                    body = body.clone();
+                    body[0] = OP_ADD;
+                }
+                writeRecord(buffer, body);
+                // Keep the buffer small for large libraries
+                if (buffer.size() > 64 * 1024) {
+                    size += buffer.size();
+                    buffer.writeTo(fos);
+                    buffer.reset();
+                }
+            }
+            size += buffer.size();
+            buffer.writeTo(fos);
+            fos.flush();
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace journal " + file);
+        }
+        fileSize = size;
+    }
+
+    /**
+     * Moves an unreadable journal aside, under a timestamped .corrupt name, and starts
+     * a new, empty one
+     */
+    public void reset() throws IOException {
+        closeOutput();
+        if (file.exists()) {
+            File corrupt = corruptFile();
+            if (!file.renameTo(corrupt)) {
+                throw new IOException("Failed to move " + file + " aside");
+            }
+            Log.w(TAG, "Moved unreadable journal to " + corrupt);
+        }
+        liveRecords.clear();
+        liveBytes = 0;
+        writeSnapshot(liveRecords);
+    }
+
+    public void close() {
+        closeOutput();
+    }
+
+    // Cuts a failed batch off again, or replay would stop at it and drop every later record
+    private void discardPartialWrite() {
+        try {
+            out.getChannel().truncate(fileSize);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to truncate journal back to " + fileSize + " bytes", e);
+        }
+        // Reopened at the truncated end by the next append
+        closeOutput();
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close journal", e);
+            }
+            out = null;
+        }
+    }
+
+    private void trackLive(String id, byte[] body) {
+        byte[] previous = liveRecords.put(id, body);
+        if (previous != null) {
+            liveBytes -= 4 + previous.length + 4;
+        }
+        liveBytes += 4 + body.length + 4;
+    }
+
+    private void untrackLive(String id) {
+        byte[] previous = liveRecords.remove(id);
+        if (previous != null) {
+            liveBytes -= 4 + previous.length + 4;
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(body.length);
+        data.write(body);
+        data.writeInt((int) crc.getValue());
+    }
+
+    private static byte[] encodePut(byte op, PipelineItem item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + item.getPipeline().length());
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(op);
+        writeString(data, item.getId());
+        writeString(data, item.getName());
+        writeString(data, item.getPipeline());
+        data.writeLong(item.getCreatedTime());
+        data.writeLong(item.getLastUsedTime());
+        data.writeBoolean(item.isFavorite());
+        data.writeBoolean(item.isLowLatency());
+        data.writeLong(item.getLatencyNs());
+        data.writeLong(item.getLowLatencyNs());
+        List<StartupTimeline.Record> startups = item.getStartups();
+        data.writeShort(startups.size());
+        for (StartupTimeline.Record record : startups) {
+            record.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDelete(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(OP_DELETE);
+        writeString(data, id);
+        return bytes.toByteArray();
+    }
+
+    // Length-prefixed UTF-8; unlike writeUTF this has no 64 KB limit
+    private static void writeString(DataOutputStream data, String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(utf8.length);
+        data.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -3,13 +3,16 @@ package com.android.pipeliner;
 import android.Manifest;
 import android.app.AlertDialog;
 import android.content.Intent;
+import android.graphics.Typeface;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -17,6 +20,8 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -24,9 +29,13 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.snackbar.Snackbar;
 import android.view.LayoutInflater;
 import java.io.BufferedReader;
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PipelineListActivity extends AppCompatActivity implements PipelineAdapter.OnPipelineClickListener {
 
@@ -40,6 +49,7 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
     private ActivityResultLauncher<Intent> manageStorageLauncher;
     private PipelineItem pipelineToShare; // Temp holder for share operation
     private static String lastProcessedImportUri = null; // Track last imported file
+    private String searchQuery = "";
 
     private void checkStoragePermission() {
         // Android 11+ (API 30+) requires MANAGE_EXTERNAL_STORAGE for top-level directory access
@@ -86,11 +96,22 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_pipeline_list);
 
+        // A cold start to the list ends when it is first drawn
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                PipelinerApp.reportColdStart(PipelinerApp.MILESTONE_LIST, SystemClock.uptimeMillis());
+                return true;
+            }
+        });
+
         if (getSupportActionBar() != null) {
             getSupportActionBar().setTitle("Pipeliner");
         }
 
-        storage = new PipelineStorage(this);
+        storage = PipelineStorage.getInstance(this);
         
         // Setup MANAGE_EXTERNAL_STORAGE launcher for Android 11+
         manageStorageLauncher = registerForActivityResult(
@@ -123,8 +144,8 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
         // Check and request storage permission for Android 6.0+
         checkStoragePermission();
         
-        // Load default templates if this is the first time
-        PipelineTemplates.loadDefaultTemplatesIfEmpty(storage);
+        // Load default templates if this is the first time (queued before the first list load)
+        storage.runAsync(() -> PipelineTemplates.loadDefaultTemplatesIfEmpty(storage));
         
         videoPlayerLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
@@ -159,8 +180,10 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
             @Override
             public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
                 int position = viewHolder.getAdapterPosition();
-                List<PipelineItem> pipelines = storage.getSortedPipelines("recent");
-                PipelineItem deletedItem = pipelines.get(position);
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                PipelineItem deletedItem = adapter.getPipelineAt(position);
                 
                 storage.deletePipeline(deletedItem.getId());
                 loadPipelines();
@@ -176,9 +199,190 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
         itemTouchHelper.attachToRecyclerView(recyclerView);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(android.view.Menu menu) {
+        getMenuInflater().inflate(R.menu.pipeline_list_menu, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint("name, element:rtspsrc, port=1650...");
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchQuery = newText != null ? newText.trim() : "";
+                loadPipelines();
+                return true;
+            }
+        });
+        menu.findItem(R.id.action_validate_preroll).setChecked(PipelineValidator.getInstance(this).isPrerollEnabled());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(android.view.MenuItem item) {
+        if (item.getItemId() == R.id.action_import_folder) {
+            importBackupFolder();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_mosaic) {
+            chooseMosaic();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_tune_decoders) {
+            tuneDecoders();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_validate_preroll) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            PipelineValidator.getInstance(this).setPrerollEnabled(enabled);
+            loadPipelines();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void chooseMosaic() {
+        storage.getSortedPipelinesAsync("recent")
+            .thenAcceptAsync(pipelines -> {
+                if (!isFinishing()) {
+                    showMosaicDialog(pipelines);
+                }
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    private void showMosaicDialog(List<PipelineItem> pipelines) {
+        if (pipelines.isEmpty()) {
+            Toast.makeText(this, "No pipelines to show", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] names = new String[pipelines.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = pipelines.get(i).getName();
+        }
+        List<PipelineItem> chosen = new ArrayList<>();
+        new AlertDialog.Builder(this)
+            .setTitle("Mosaic (up to " + Mosaic.MAX_TILES + ")")
+            .setMultiChoiceItems(names, null, (dialog, which, checked) -> {
+                PipelineItem picked = pipelines.get(which);
+                if (!checked) {
+                    chosen.remove(picked);
+                } else if (chosen.size() < Mosaic.MAX_TILES) {
+                    chosen.add(picked);
+                } else {
+                    ((AlertDialog) dialog).getListView().setItemChecked(which, false);
+                    Toast.makeText(this, "At most " + Mosaic.MAX_TILES + " tiles", Toast.LENGTH_SHORT).show();
+                }
+            })
+            .setPositiveButton("Play", (dialog, which) -> playMosaic(chosen))
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    private void playMosaic(List<PipelineItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        // 16:9 canvas no larger than the screen: tiles are never composed above what is shown
+        android.util.DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int width = Math.min(1920, Math.max(metrics.widthPixels, metrics.heightPixels)) & ~1;
+        int height = (width * 9 / 16) & ~1;
+        Mosaic mosaic = Mosaic.build(items, width, height);
+        if (!mosaic.getSkipped().isEmpty()) {
+            Toast.makeText(this, "Left out: " + String.join("; ", mosaic.getSkipped()), Toast.LENGTH_LONG).show();
+        }
+        if (mosaic.getTiles().isEmpty()) {
+            return;
+        }
+        Intent intent = new Intent(this, GstreamerMain.class);
+        intent.putExtra("pipeline", mosaic.toLaunch());
+        intent.putExtra("name", "Mosaic (" + mosaic.getTiles().size() + ")");
+        intent.putExtra("mosaic", mosaic.encode());
+        intent.putExtra("lowLatency", false);
+        videoPlayerLauncher.launch(intent);
+    }
+
+    private void tuneDecoders() {
+        Toast.makeText(this, "Benchmarking decoders, this can take a few minutes...", Toast.LENGTH_LONG).show();
+        // Warm pipelines would compete for the CPU being measured
+        PrerollPool.getInstance(this).clear();
+        storage.getSortedPipelinesAsync("recent")
+            .thenCompose(pipelines -> DecoderTuner.getInstance(this).tune(pipelines))
+            .thenAcceptAsync(report -> new AlertDialog.Builder(this)
+                    .setTitle("Decoder tuning")
+                    .setMessage(report.toText())
+                    .setPositiveButton("OK", null)
+                    .show(), ContextCompat.getMainExecutor(this));
+    }
+
+    private void importBackupFolder() {
+        Toast.makeText(this, "Importing pipelines...", Toast.LENGTH_SHORT).show();
+        CompletableFuture
+            .supplyAsync(() -> new PipelineImporter(storage).importFiles(storage.listPipelineFiles()))
+            .thenAcceptAsync(result -> {
+                for (String error : result.errors) {
+                    android.util.Log.w("PipelineListActivity", "Import error: " + error);
+                }
+                Toast.makeText(this, "Imported " + result.imported + " of " + result.files + " files ("
+                        + result.duplicates + " duplicates, " + result.errors.size() + " errors, "
+                        + Math.round(result.filesPerSecond()) + " files/s)", Toast.LENGTH_LONG).show();
+                loadPipelines();
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Write any debounced changes before we might be killed
+        storage.flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (adapter != null) {
+            PipelineValidator.getInstance(this).removeListener(adapter);
+        }
+    }
+
     private void loadPipelines() {
-        List<PipelineItem> pipelines = storage.getSortedPipelines("recent");
-        
+        if (!searchQuery.isEmpty()) {
+            final String query = searchQuery;
+            storage.searchPipelinesAsync(query, "recent")
+                .thenAcceptAsync(results -> {
+                    // A later keystroke already asked for another query
+                    if (query.equals(searchQuery)) {
+                        showPipelines(results);
+                    }
+                }, ContextCompat.getMainExecutor(this));
+            return;
+        }
+        storage.getSortedPipelinesAsync("recent")
+            .thenAcceptAsync(pipelines -> {
+                showPipelines(pipelines);
+                // Favorites and most recently used come first, exactly the ones worth keeping warm
+                PrerollPool.getInstance(this).warm(pipelines);
+                PipelineValidator.getInstance(this).validate(pipelines);
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            PrerollPool.getInstance(this).clear();
+        }
+    }
+
+    private void showPipelines(List<PipelineItem> pipelines) {
+        if (isDestroyed()) {
+            return;
+        }
+
         // Update count (null check for when activity is launched via import intent)
         int count = pipelines.size();
         if (pipelineCount != null) {
@@ -201,6 +405,7 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
             if (adapter == null) {
                 adapter = new PipelineAdapter(this, pipelines, this);
                 recyclerView.setAdapter(adapter);
+                PipelineValidator.getInstance(this).setListener(adapter);
             } else {
                 adapter.updatePipelines(pipelines);
             }
@@ -235,6 +440,7 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
 
     @Override
     public void onPipelineClick(PipelineItem item) {
+        long tapNs = System.nanoTime(); // Start of the startup timeline
         // Update last used time
         item.setLastUsedTime(System.currentTimeMillis());
         storage.updatePipeline(item);
@@ -243,6 +449,9 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
         Intent intent = new Intent(this, GstreamerMain.class);
         intent.putExtra("pipeline", item.getPipeline());
         intent.putExtra("name", item.getName());
+        intent.putExtra("pipelineId", item.getId());
+        intent.putExtra("lowLatency", item.isLowLatency());
+        intent.putExtra("tapNs", tapNs);
         videoPlayerLauncher.launch(intent);
     }
 
@@ -274,6 +483,64 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
         loadPipelines();
     }
     
+    @Override
+    public void onPipelineLowLatency(PipelineItem item) {
+        if (item.isLowLatency()) {
+            item.setLowLatency(false);
+            storage.updatePipeline(item);
+            loadPipelines(); // Checked again as it now runs
+            Toast.makeText(this, "Low-latency mode off", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        LowLatencyRewriter.Result result = LowLatencyRewriter.rewrite(item.getPipeline());
+        StringBuilder message = new StringBuilder(result.diff());
+        message.append("\nMeasured latency: ")
+            .append(formatLatency(item.getLatencyNs())).append(" as written, ")
+            .append(formatLatency(item.getLowLatencyNs())).append(" low-latency");
+        if (result.isChanged()) {
+            message.append("\n\nRewritten pipeline:\n").append(result.launch);
+        }
+
+        AlertDialog.Builder dialog = new AlertDialog.Builder(this)
+            .setTitle("Low-latency mode")
+            .setMessage(message.toString())
+            .setNegativeButton("Cancel", null);
+        if (result.isChanged()) {
+            dialog.setPositiveButton("Enable", (d, which) -> {
+                item.setLowLatency(true);
+                storage.updatePipeline(item);
+                loadPipelines();
+                Toast.makeText(this, "Low-latency mode on; latency is measured on next play", Toast.LENGTH_SHORT).show();
+            });
+        }
+        dialog.show();
+    }
+
+    @Override
+    public void onPipelineStartupTimes(PipelineItem item) {
+        List<StartupTimeline.Record> startups = item.getStartups();
+        StringBuilder message = new StringBuilder(StartupTimeline.summarize(startups));
+        if (!startups.isEmpty()) {
+            message.append("\nLast launch: ").append(startups.get(startups.size() - 1));
+        }
+        TextView text = new TextView(this);
+        text.setTypeface(Typeface.MONOSPACE);
+        text.setTextIsSelectable(true);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        text.setPadding(padding, padding, padding, 0);
+        text.setText(message);
+        new AlertDialog.Builder(this)
+            .setTitle("Startup times: " + item.getName())
+            .setView(text)
+            .setPositiveButton("OK", null)
+            .show();
+    }
+
+    private static String formatLatency(long ns) {
+        return ns > 0 ? String.format(Locale.US, "%.0f ms", ns / 1e6) : "not measured";
+    }
+
     @Override
     public void onPipelineShare(PipelineItem item) {
         try {
@@ -324,9 +591,23 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
     }
     
     private void importSinglePipeline(Uri uri) {
-        try {
-            InputStream is = getContentResolver().openInputStream(uri);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        // The file can be slow to read (a download, a network share), keep it off the UI thread
+        CompletableFuture
+            .supplyAsync(() -> readPipelineFile(uri))
+            .whenCompleteAsync((pipeline, error) -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    Toast.makeText(this, "Import failed: " + cause.getMessage(), Toast.LENGTH_LONG).show();
+                    android.util.Log.e("PipelineListActivity", "Import error", cause);
+                    return;
+                }
+                addImportedPipeline(uri, pipeline);
+            }, ContextCompat.getMainExecutor(this));
+    }
+
+    private String readPipelineFile(Uri uri) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(getContentResolver().openInputStream(uri)))) {
             StringBuilder sb = new StringBuilder();
             String line;
             while ((line = reader.readLine()) != null) {
@@ -335,29 +616,29 @@ public class PipelineListActivity extends AppCompatActivity implements PipelineA
                 }
                 sb.append(line);
             }
-            reader.close();
-            
-            String pipeline = sb.toString().trim();
-            if (!pipeline.isEmpty()) {
-                // Extract filename as pipeline name
-                String filename = uri.getLastPathSegment();
-                if (filename != null && filename.contains(".gstpipe")) {
-                    filename = filename.substring(0, filename.lastIndexOf(".gstpipe"));
-                }
-                if (filename == null || filename.isEmpty()) {
-                    filename = "Imported Pipeline";
-                }
-                
-                PipelineItem newItem = new PipelineItem(filename, pipeline);
-                storage.addPipeline(newItem);
-                loadPipelines();
-                Toast.makeText(this, "Pipeline imported: " + filename, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "Pipeline file is empty", Toast.LENGTH_SHORT).show();
+            return sb.toString().trim();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void addImportedPipeline(Uri uri, String pipeline) {
+        if (!pipeline.isEmpty()) {
+            // Extract filename as pipeline name
+            String filename = uri.getLastPathSegment();
+            if (filename != null && filename.contains(".gstpipe")) {
+                filename = filename.substring(0, filename.lastIndexOf(".gstpipe"));
             }
-        } catch (Exception e) {
-            Toast.makeText(this, "Import failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            android.util.Log.e("PipelineListActivity", "Import error", e);
+            if (filename == null || filename.isEmpty()) {
+                filename = "Imported Pipeline";
+            }
+            
+            PipelineItem newItem = new PipelineItem(filename, pipeline);
+            storage.addPipeline(newItem);
+            loadPipelines();
+            Toast.makeText(this, "Pipeline imported: " + filename, Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Pipeline file is empty", Toast.LENGTH_SHORT).show();
         }
     }
     
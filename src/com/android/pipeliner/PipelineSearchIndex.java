@@ -0,0 +1,192 @@
+package com.android.pipeliner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over pipeline names and gst-launch strings.
+ *
+ * Terms come from the parsed GstLaunchModel, all lower-case:
+ *   words of the name            vast, name:vast
+ *   element factory names        udpsrc, element:udpsrc
+ *   property keys and values     port, 1650, port:1650, prop:port
+ *   caps media types and fields  application/x-rtp, caps:application/x-rtp, encoding-name:av1
+ *     (caps filters and caps="..." properties alike)
+ *
+ * Queries are whitespace-separated terms that must all match (AND). Every term is a
+ * prefix match, so results narrow as the user types. "key=value" is accepted as an
+ * alias for "key:value". Updated incrementally by PipelineStorage.
+ *
+ * Not thread-safe; PipelineStorage guards it with its own lock.
+ */
+public class PipelineSearchIndex {
+    private final TreeMap<String, Set<String>> postings = new TreeMap<>();
+    // Terms and content hash per indexed pipeline, for incremental updates
+    private final Map<String, String[]> termsById = new HashMap<>();
+    private final Map<String, Long> hashById = new HashMap<>();
+
+    public void rebuild(Collection<PipelineItem> items) {
+        postings.clear();
+        termsById.clear();
+        hashById.clear();
+        for (PipelineItem item : items) {
+            put(item);
+        }
+    }
+
+    /**
+     * Indexes a pipeline, replacing its old terms. A no-op if name and launch string are unchanged.
+     */
+    public void put(PipelineItem item) {
+        Long hash = hashById.get(item.getId());
+        if (hash != null && hash == item.getContentHash()) {
+            return;
+        }
+        remove(item.getId());
+
+        Set<String> terms = tokenize(item.getName(), item.getModel());
+        for (String term : terms) {
+            Set<String> ids = postings.get(term);
+            if (ids == null) {
+                ids = new HashSet<>(4);
+                postings.put(term, ids);
+            }
+            ids.add(item.getId());
+        }
+        termsById.put(item.getId(), terms.toArray(new String[0]));
+        hashById.put(item.getId(), item.getContentHash());
+    }
+
+    public void remove(String id) {
+        String[] terms = termsById.remove(id);
+        hashById.remove(id);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Set<String> ids = postings.get(term);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ids matching every term of the query. The first term costs the size
+     * of its postings, every further one only narrows the set so far.
+     */
+    public Set<String> search(String query) {
+        List<String> terms = parseQuery(query);
+        if (terms.isEmpty()) {
+            return new HashSet<>(termsById.keySet());
+        }
+
+        Set<String> matches = null;
+        for (String term : terms) {
+            Set<String> termMatches = new HashSet<>();
+            NavigableMap<String, Set<String>> range = postings.subMap(term, true, term + Character.MAX_VALUE, false);
+            for (Set<String> ids : range.values()) {
+                if (matches == null) {
+                    termMatches.addAll(ids);
+                } else {
+                    for (String id : ids) {
+                        if (matches.contains(id)) {
+                            termMatches.add(id);
+                        }
+                    }
+                }
+            }
+            matches = termMatches;
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    static List<String> parseQuery(String query) {
+        List<String> terms = new ArrayList<>();
+        for (String raw : query.trim().toLowerCase(Locale.US).split("\\s+")) {
+            if (raw.isEmpty()) {
+                continue;
+            }
+            int eq = raw.indexOf('=');
+            if (eq > 0) {
+                raw = raw.substring(0, eq) + ":" + stripQuotes(raw.substring(eq + 1));
+            }
+            terms.add(raw);
+        }
+        return terms;
+    }
+
+    /**
+     * Collects index terms from a name and the parsed launch string
+     */
+    static Set<String> tokenize(String name, GstLaunchModel model) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add(name.toLowerCase(Locale.US));
+        for (String word : name.toLowerCase(Locale.US).split("[^\\p{Alnum}]+")) {
+            if (!word.isEmpty()) {
+                terms.add(word);
+                terms.add("name:" + word);
+            }
+        }
+
+        for (GstLaunchModel.Element element : model.getElements()) {
+            String factory = element.factory.toLowerCase(Locale.US);
+            terms.add(factory);
+            terms.add("element:" + factory);
+            for (Map.Entry<String, String> property : element.properties.entrySet()) {
+                String key = property.getKey().toLowerCase(Locale.US);
+                String value = property.getValue().toLowerCase(Locale.US);
+                terms.add(key);
+                terms.add("prop:" + key);
+                if (!value.isEmpty()) {
+                    terms.add(value);
+                    terms.add(key + ":" + value);
+                }
+                // e.g. udpsrc caps="application/x-rtp,media=video"
+                if (GstLaunchParser.isCaps(property.getValue())) {
+                    addCapsTerms(terms, GstLaunchParser.parseCaps(property.getValue()));
+                }
+            }
+        }
+
+        for (GstLaunchModel.Caps caps : model.getCaps()) {
+            addCapsTerms(terms, caps);
+        }
+        return terms;
+    }
+
+    private static void addCapsTerms(Set<String> terms, GstLaunchModel.Caps caps) {
+        String mediaType = caps.mediaType.toLowerCase(Locale.US);
+        terms.add(mediaType);
+        terms.add("caps:" + mediaType);
+        for (Map.Entry<String, String> field : caps.fields.entrySet()) {
+            String key = field.getKey().toLowerCase(Locale.US);
+            String value = field.getValue().toLowerCase(Locale.US);
+            terms.add(key);
+            terms.add(value);
+            terms.add(key + ":" + value);
+        }
+    }
+
+    private static String stripQuotes(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
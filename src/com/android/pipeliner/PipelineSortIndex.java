@@ -0,0 +1,355 @@
+package com.android.pipeliner;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Live sorted views of the library, one per sort order, each with favorites first.
+ *
+ * Each pipeline is indexed by an immutable snapshot of its sort fields, so an item
+ * that was mutated before updatePipeline() can still be found and re-positioned.
+ * Each order is a persistent AVL tree: inserts, updates and deletes are O(log N) and
+ * copy only the path they touch, so handing out a list is O(1) and the list is an
+ * immutable snapshot no later change can disturb.
+ *
+ * Not thread-safe; PipelineStorage guards it with its own lock.
+ */
+public class PipelineSortIndex {
+    public static final String SORT_NAME = "name";
+    public static final String SORT_RECENT = "recent";
+    public static final String SORT_CREATED = "created";
+
+    // Snapshot of the fields the orders depend on
+    private static final class SortKey {
+        final PipelineItem item;
+        final String name;
+        final boolean favorite;
+        final long lastUsedTime;
+        final long createdTime;
+        final long sequence; // insertion order, keeps equal keys stable and distinct
+
+        SortKey(PipelineItem item, long sequence) {
+            this.item = item;
+            this.name = item.getName();
+            this.favorite = item.isFavorite();
+            this.lastUsedTime = item.getLastUsedTime();
+            this.createdTime = item.getCreatedTime();
+            this.sequence = sequence;
+        }
+
+        boolean sameAs(PipelineItem other) {
+            return item == other && favorite == other.isFavorite()
+                    && lastUsedTime == other.getLastUsedTime()
+                    && createdTime == other.getCreatedTime()
+                    && name.equals(other.getName());
+        }
+    }
+
+    private static final Comparator<SortKey> BY_NAME = (a, b) -> {
+        if (a.favorite != b.favorite) return a.favorite ? -1 : 1;
+        int c = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+        return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+    };
+
+    private static final Comparator<SortKey> BY_RECENT = (a, b) -> {
+        if (a.favorite != b.favorite) return a.favorite ? -1 : 1;
+        int c = Long.compare(b.lastUsedTime, a.lastUsedTime);
+        return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+    };
+
+    private static final Comparator<SortKey> BY_CREATED = (a, b) -> {
+        if (a.favorite != b.favorite) return a.favorite ? -1 : 1;
+        int c = Long.compare(b.createdTime, a.createdTime);
+        return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+    };
+
+    // Immutable AVL node with its subtree size; an update copies the path from the root,
+    // so a root handed out earlier keeps describing the library as it was then
+    private static final class Node {
+        final SortKey key;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+
+        Node(SortKey key, Node left, Node right) {
+            this.key = key;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(heightOf(left), heightOf(right));
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+    }
+
+    // One sort order: its comparator and the current root
+    private static final class Tree {
+        final Comparator<SortKey> order;
+        Node root;
+
+        Tree(Comparator<SortKey> order) {
+            this.order = order;
+        }
+
+        void add(SortKey key) {
+            root = insert(root, key, order);
+        }
+
+        void remove(SortKey key) {
+            root = delete(root, key, order);
+        }
+    }
+
+    // Read-only list over one root: O(1) to create, O(log N) per get(i), O(N) to iterate
+    private static final class View extends AbstractList<PipelineItem> {
+        private final Node root;
+
+        View(Node root) {
+            this.root = root;
+        }
+
+        @Override
+        public int size() {
+            return sizeOf(root);
+        }
+
+        @Override
+        public PipelineItem get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            Node node = root;
+            while (true) {
+                int leftSize = sizeOf(node.left);
+                if (index < leftSize) {
+                    node = node.left;
+                } else if (index == leftSize) {
+                    return node.key.item;
+                } else {
+                    index -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public Iterator<PipelineItem> iterator() {
+            return new Iterator<PipelineItem>() {
+                private final Deque<Node> path = new ArrayDeque<>();
+
+                {
+                    descend(root);
+                }
+
+                private void descend(Node node) {
+                    for (; node != null; node = node.left) {
+                        path.push(node);
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return !path.isEmpty();
+                }
+
+                @Override
+                public PipelineItem next() {
+                    if (path.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    Node node = path.pop();
+                    descend(node.right);
+                    return node.key.item;
+                }
+            };
+        }
+    }
+
+    // select() sorts the matches itself while they are fewer than 1/8 of the library
+    private static final int SELECT_SORT_RATIO = 8;
+
+    private final Map<String, SortKey> keys = new HashMap<>();
+    private final Tree byName = new Tree(BY_NAME);
+    private final Tree byRecent = new Tree(BY_RECENT);
+    private final Tree byCreated = new Tree(BY_CREATED);
+    private long nextSequence;
+
+    public void rebuild(Collection<PipelineItem> items) {
+        keys.clear();
+        byName.root = null;
+        byRecent.root = null;
+        byCreated.root = null;
+        for (PipelineItem item : items) {
+            put(item);
+        }
+    }
+
+    /**
+     * Inserts a pipeline or re-positions it after its fields changed
+     */
+    public void put(PipelineItem item) {
+        SortKey old = keys.get(item.getId());
+        if (old != null && old.sameAs(item)) {
+            return;
+        }
+        if (old != null) {
+            removeKey(old);
+        }
+        SortKey key = new SortKey(item, old != null ? old.sequence : nextSequence++);
+        keys.put(item.getId(), key);
+        byName.add(key);
+        byRecent.add(key);
+        byCreated.add(key);
+    }
+
+    public void remove(String id) {
+        SortKey old = keys.remove(id);
+        if (old != null) {
+            removeKey(old);
+        }
+    }
+
+    /**
+     * Returns the pipelines in the given order, favorites first. O(1): the list is a
+     * read-only view of the current tree, which later changes never modify, so it
+     * stays valid and can be handed to other threads.
+     */
+    public List<PipelineItem> get(String sortBy) {
+        switch (sortBy) {
+            case SORT_NAME:
+                return new View(byName.root);
+            case SORT_CREATED:
+                return new View(byCreated.root);
+            case SORT_RECENT:
+            default:
+                return new View(byRecent.root);
+        }
+    }
+
+    /**
+     * Returns just the given pipelines, in the given order. A few matches are sorted
+     * on their own in O(k log k); only when they are a good part of the library is the
+     * whole order walked.
+     */
+    public List<PipelineItem> select(String sortBy, Set<String> ids) {
+        List<PipelineItem> all = get(sortBy);
+        List<PipelineItem> selected = new ArrayList<>(Math.min(ids.size(), all.size()));
+        if (ids.size() * SELECT_SORT_RATIO < all.size()) {
+            List<SortKey> matches = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                SortKey key = keys.get(id);
+                if (key != null) {
+                    matches.add(key);
+                }
+            }
+            Collections.sort(matches, orderOf(sortBy));
+            for (SortKey key : matches) {
+                selected.add(key.item);
+            }
+        } else {
+            for (PipelineItem item : all) {
+                if (ids.contains(item.getId())) {
+                    selected.add(item);
+                }
+            }
+        }
+        return selected;
+    }
+
+    private Comparator<SortKey> orderOf(String sortBy) {
+        switch (sortBy) {
+            case SORT_NAME:
+                return BY_NAME;
+            case SORT_CREATED:
+                return BY_CREATED;
+            case SORT_RECENT:
+            default:
+                return BY_RECENT;
+        }
+    }
+
+    private void removeKey(SortKey key) {
+        byName.remove(key);
+        byRecent.remove(key);
+        byCreated.remove(key);
+    }
+
+    private static int heightOf(Node node) {
+        return node != null ? node.height : 0;
+    }
+
+    private static int sizeOf(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    // Keys are never equal under an order: the sequence breaks every tie
+    private static Node insert(Node node, SortKey key, Comparator<SortKey> order) {
+        if (node == null) {
+            return new Node(key, null, null);
+        }
+        if (order.compare(key, node.key) < 0) {
+            return balance(node.key, insert(node.left, key, order), node.right);
+        }
+        return balance(node.key, node.left, insert(node.right, key, order));
+    }
+
+    private static Node delete(Node node, SortKey key, Comparator<SortKey> order) {
+        if (node == null) {
+            return null;
+        }
+        int c = order.compare(key, node.key);
+        if (c < 0) {
+            return balance(node.key, delete(node.left, key, order), node.right);
+        }
+        if (c > 0) {
+            return balance(node.key, node.left, delete(node.right, key, order));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, node.left, deleteFirst(node.right));
+    }
+
+    private static Node deleteFirst(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, deleteFirst(node.left), node.right);
+    }
+
+    // New node over left and right, rotated if their heights differ by more than one
+    private static Node balance(SortKey key, Node left, Node right) {
+        if (heightOf(left) > heightOf(right) + 1) {
+            if (heightOf(left.left) >= heightOf(left.right)) {
+                return new Node(left.key, left.left, new Node(key, left.right, right));
+            }
+            return new Node(left.right.key, new Node(left.key, left.left, left.right.left),
+                    new Node(key, left.right.right, right));
+        }
+        if (heightOf(right) > heightOf(left) + 1) {
+            if (heightOf(right.right) >= heightOf(right.left)) {
+                return new Node(right.key, new Node(key, left, right.left), right.right);
+            }
+            return new Node(right.left.key, new Node(key, left, right.left.left),
+                    new Node(right.key, right.left.right, right.right));
+        }
+        return new Node(key, left, right);
+    }
+}
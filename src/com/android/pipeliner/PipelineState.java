@@ -0,0 +1,18 @@
+package com.android.pipeliner;
+
+/**
+ * GstState, in native order so ordinal() matches the C enum.
+ */
+public enum PipelineState {
+    VOID_PENDING,
+    NULL,
+    READY,
+    PAUSED,
+    PLAYING;
+
+    private static final PipelineState[] VALUES = values();
+
+    public static PipelineState fromNative(long state) {
+        return state >= 0 && state < VALUES.length ? VALUES[(int) state] : VOID_PENDING;
+    }
+}
@@ -9,27 +9,114 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class PipelineStorage {
     private static final String TAG = "PipelineStorage";
     private static final String PREFS_NAME = "pipeline_storage";
-    private static final String KEY_PIPELINES = "pipelines_json";
+    private static final String KEY_PIPELINES = "pipelines_json"; // Legacy storage, migrated to the journal
+    private static final String KEY_PIPELINES_BACKUP = "pipelines_json.bak"; // Raw legacy blob, kept after migration
+    private static final String JOURNAL_FILE_NAME = "pipelines.journal";
     private static final String BACKUP_DIR_NAME = "GStreamerPipelines";
+    private static final long DEFAULT_WRITE_DEBOUNCE_MS = 300; // Mutations inside this window share one write
+    private static final long WRITE_RETRY_MS = 5000;   // After a failed write, e.g. a full disk
+
+    private static PipelineStorage instance;
     
     private SharedPreferences prefs;
     private Context context;
 
-    public PipelineStorage(Context context) {
+    // In-memory repository, keyed by pipeline id (insertion order preserved)
+    private final Map<String, PipelineItem> pipelines = new LinkedHashMap<>();
+    // Copies of the records added or changed since the last persist, taken when each change
+    // was committed, so the I/O thread never encodes an item the UI is still changing
+    private final Map<String, PipelineItem> dirty = new LinkedHashMap<>();
+    // Favorites-first sorted views, kept up to date on every change
+    private final PipelineSortIndex sortIndex = new PipelineSortIndex();
+    // Full-text index over names and launch strings
+    private final PipelineSearchIndex searchIndex = new PipelineSearchIndex();
+    // Records removed since the last persist
+    private final Set<String> deletedIds = new HashSet<>();
+
+    private final PipelineFileSync fileSync;
+    // Only touched on the I/O thread
+    private final PipelineJournal journal;
+
+    // All disk I/O (initial load, persists, file sync hand-off) runs here, in submission order
+    private final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "PipelineStorage-IO");
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    // Index reads for the UI; the indexes are guarded by the monitor, so these never queue
+    // behind journal writes, compaction or migration on the I/O thread
+    private final ExecutorService readExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PipelineStorage-Read");
+        t.setPriority(Thread.NORM_PRIORITY);
+        return t;
+    });
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    // Mutations made before the library is loaded, applied in order right after it; null once loaded
+    private List<Runnable> deferredMutations = new ArrayList<>();
+    private ScheduledFuture<?> pendingPersist;
+    private volatile long writeDebounceMs = DEFAULT_WRITE_DEBOUNCE_MS;
+
+    /**
+     * Returns the process-wide repository, loading the library from disk on first use
+     */
+    public static synchronized PipelineStorage getInstance(Context context) {
+        if (instance == null) {
+            instance = new PipelineStorage(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    PipelineStorage(Context context) {
         this.context = context;
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         createBackupDirectory();
+        this.fileSync = new PipelineFileSync(context, getBackupDirectory());
+        this.journal = new PipelineJournal(new File(context.getFilesDir(), JOURNAL_FILE_NAME));
+        // Replay the library off the caller's thread; reads wait for it, mutations are deferred
+        ioExecutor.execute(() -> {
+            loadLibrary();
+            loaded.countDown();
+        });
+    }
+
+    private void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Caller holds the lock. True if the mutation was queued to run once the library is loaded.
+    private boolean deferUntilLoaded(Runnable mutation) {
+        if (deferredMutations == null) {
+            return false;
+        }
+        deferredMutations.add(mutation);
+        return true;
     }
     
     /**
@@ -51,9 +138,8 @@ public class PipelineStorage {
      */
     public void createBackupDirectoryWithPermission() {
         createBackupDirectory();
-        // After creating directory, save all existing pipelines to individual files
-        List<PipelineItem> pipelines = loadPipelines();
-        savePipelinesToIndividualFiles(pipelines);
+        // After creating directory, reconcile the .gstpipe mirror with the library
+        ioExecutor.execute(() -> fileSync.syncAll(copyPipelines()));
     }
     
     /**
@@ -61,112 +147,248 @@ public class PipelineStorage {
      * Path: /sdcard/GStreamerPipelines (requires MANAGE_EXTERNAL_STORAGE on Android 11+)
      */
     public File getBackupDirectory() {
-        if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
             return new File("/sdcard", BACKUP_DIR_NAME);
         }
         return null;
     }
 
-    public List<PipelineItem> loadPipelines() {
-        List<PipelineItem> pipelines = new ArrayList<>();
-        String json = prefs.getString(KEY_PIPELINES, "[]");
-        
+    /**
+     * Replays the journal into the in-memory repository, migrating the legacy
+     * SharedPreferences JSON on first run. Runs once, on the I/O thread.
+     */
+    private void loadLibrary() {
+        Map<String, PipelineItem> items;
         try {
-            JSONArray array = new JSONArray(json);
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject obj = array.getJSONObject(i);
-                pipelines.add(new PipelineItem(
-                    obj.getString("id"),
-                    obj.getString("name"),
-                    obj.getString("pipeline"),
-                    obj.getLong("createdTime"),
-                    obj.getLong("lastUsedTime"),
-                    obj.getBoolean("isFavorite")
-                ));
+            if (!journal.exists() && prefs.contains(KEY_PIPELINES)) {
+                items = migrateFromPrefs();
+            } else {
+                items = journal.replay();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load pipeline journal, starting empty", e);
+            items = new LinkedHashMap<>();
+            try {
+                journal.reset();
+            } catch (IOException resetError) {
+                Log.e(TAG, "Failed to reset pipeline journal", resetError);
+            }
+        }
+
+        synchronized (this) {
+            pipelines.clear();
+            pipelines.putAll(items);
+            sortIndex.rebuild(items.values());
+            searchIndex.rebuild(items.values());
+            dirty.clear();
+            deletedIds.clear();
+            List<Runnable> deferred = deferredMutations;
+            deferredMutations = null;
+            for (Runnable mutation : deferred) {
+                mutation.run();
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
-        
-        return pipelines;
     }
 
-    public void savePipelines(List<PipelineItem> pipelines) {
-        JSONArray array = new JSONArray();
-        
-        for (PipelineItem item : pipelines) {
-            try {
-                JSONObject obj = new JSONObject();
-                obj.put("id", item.getId());
-                obj.put("name", item.getName());
-                obj.put("pipeline", item.getPipeline());
-                obj.put("createdTime", item.getCreatedTime());
-                obj.put("lastUsedTime", item.getLastUsedTime());
-                obj.put("isFavorite", item.isFavorite());
-                array.put(obj);
-            } catch (JSONException e) {
-                e.printStackTrace();
+    /**
+     * One-time migration of the pipelines_json blob into a journal snapshot.
+     * Entries that can't be read are skipped and logged. The raw blob is copied
+     * to pipelines_json.bak first, and the old key is only removed once the
+     * journal is safely on disk.
+     */
+    private Map<String, PipelineItem> migrateFromPrefs() throws IOException {
+        Map<String, PipelineItem> items = new LinkedHashMap<>();
+        String json = prefs.getString(KEY_PIPELINES, "[]");
+        if (!prefs.edit().putString(KEY_PIPELINES_BACKUP, json).commit()) {
+            throw new IOException("Failed to back up " + KEY_PIPELINES + " before migrating it");
+        }
+
+        int skipped = 0;
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject obj = array.optJSONObject(i);
+                String name = obj != null && !obj.isNull("name") ? obj.optString("name", null) : null;
+                String pipeline = obj != null && !obj.isNull("pipeline") ? obj.optString("pipeline", null) : null;
+                if (name == null || pipeline == null) {
+                    Log.w(TAG, "Skipping legacy pipeline #" + i + " without a name or launch string: " + obj);
+                    skipped++;
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                String id = obj.isNull("id") ? UUID.randomUUID().toString() : obj.optString("id", null);
+                PipelineItem item = new PipelineItem(
+                    id,
+                    name,
+                    pipeline,
+                    obj.optLong("createdTime", now),
+                    obj.optLong("lastUsedTime", now),
+                    obj.optBoolean("isFavorite", false)
+                );
+                item.setLowLatency(obj.optBoolean("lowLatency", false));
+                items.put(item.getId(), item);
             }
+        } catch (JSONException e) {
+            // Nothing readable; the blob survives in pipelines_json.bak
+            Log.e(TAG, "Legacy pipelines are not a JSON array, kept in " + KEY_PIPELINES_BACKUP, e);
         }
         
-        String jsonString = array.toString();
-        prefs.edit().putString(KEY_PIPELINES, jsonString).apply();
-        
-        // Save each pipeline to its own file
-        savePipelinesToIndividualFiles(pipelines);
+        journal.compact(items.values());
+        prefs.edit().remove(KEY_PIPELINES).commit();
+        Log.i(TAG, "Migrated " + items.size() + " pipelines from SharedPreferences to the journal, skipped " + skipped);
+        return items;
     }
     
     /**
-     * Saves each pipeline to its own file in /sdcard/GStreamerPipelines/
+     * Returns a snapshot of the library. Items are shared with the repository,
+     * so changes must be committed back through updatePipeline().
      */
-    private void savePipelinesToIndividualFiles(List<PipelineItem> pipelines) {
-        File backupDir = getBackupDirectory();
-        if (backupDir == null || !backupDir.exists()) {
-            Log.w(TAG, "Backup directory not available");
-            return;
+    public List<PipelineItem> loadPipelines() {
+        awaitLoaded();
+        synchronized (this) {
+            return new ArrayList<>(pipelines.values());
         }
+    }
         
-        // Clean up old files first, is this needed.
+    // Copies of every record, safe to read on the I/O thread
+    private synchronized List<PipelineItem> copyPipelines() {
+        List<PipelineItem> copies = new ArrayList<>(pipelines.size());
+        for (PipelineItem item : pipelines.values()) {
+            copies.add(item.copy());
+        }
+        return copies;
+    }
 
-        File[] existingFiles = backupDir.listFiles((dir, name) -> name.endsWith(".gstpipe"));
-        //if (existingFiles != null) {
-        //    for (File file : existingFiles) {
-        //        file.delete();
-        //    }
-        //}
+    public PipelineItem getPipeline(String id) {
+        awaitLoaded();
+        synchronized (this) {
+            return pipelines.get(id);
+        }
+    }
 
-        // Save each pipeline to individual file
-        for (PipelineItem item : pipelines) {
-            savePipelineToFile(item);
+    public int getPipelineCount() {
+        awaitLoaded();
+        synchronized (this) {
+            return pipelines.size();
         }
     }
     
     /**
-     * Saves a single pipeline to a .gstpipe file
+     * Sets how long mutations are collected before they are written as one batch.
+     * Takes effect from the next write that is scheduled.
      */
-    private void savePipelineToFile(PipelineItem item) {
-        File backupDir = getBackupDirectory();
-        if (backupDir == null || !backupDir.exists()) {
+    public void setWriteDebounceMs(long debounceMs) {
+        this.writeDebounceMs = Math.max(0, debounceMs);
+    }
+
+    /**
+     * Schedules a persist after the debounce window, unless one is already pending.
+     * Every mutation inside the window ends up in the same write.
+     */
+    private void schedulePersist() {
+        schedulePersist(writeDebounceMs);
+    }
+
+    private synchronized void schedulePersist(long delayMs) {
+        if (pendingPersist != null && !pendingPersist.isDone()) {
             return;
         }
-        
-        // Sanitize filename
-        String safeFileName = item.getName().replaceAll("[^a-zA-Z0-9_\\-]", "_");
-        File pipelineFile = new File(backupDir, safeFileName + ".gstpipe");
-        
+        pendingPersist = ioExecutor.schedule(this::persist, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes all pending changes now instead of waiting for the debounce window.
+     * Call from onPause so nothing is lost if the process is killed.
+     */
+    public CompletableFuture<Void> flush() {
+        synchronized (this) {
+            if (pendingPersist != null) {
+                pendingPersist.cancel(false);
+                pendingPersist = null;
+            }
+        }
+        return CompletableFuture.runAsync(this::persist, ioExecutor);
+    }
+
+    /**
+     * Runs a task on the storage I/O thread, after everything already queued
+     */
+    public CompletableFuture<Void> runAsync(Runnable task) {
+        return CompletableFuture.runAsync(task, ioExecutor);
+    }
+
+    /**
+     * Computes a value on the storage I/O thread, after the library is loaded
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, ioExecutor);
+    }
+
+    /**
+     * Appends pending changes to the journal, compacting it when needed.
+     * Runs on the I/O thread.
+     */
+    private void persist() {
+        List<PipelineItem> changed;
+        Set<String> deleted;
+        synchronized (this) {
+            // Changes made from here on need a write of their own
+            pendingPersist = null;
+            if (dirty.isEmpty() && deletedIds.isEmpty()) {
+                return;
+            }
+
+            changed = new ArrayList<>(dirty.values());
+            deleted = new HashSet<>(deletedIds);
+            dirty.clear();
+            deletedIds.clear();
+        }
+
         try {
-            JSONObject obj = new JSONObject();
-            obj.put("name", item.getName());
-            obj.put("pipeline", item.getPipeline());
-            
-            try (FileOutputStream fos = new FileOutputStream(pipelineFile)) {
-                fos.write(obj.toString(2).getBytes()); // Pretty print with indent
-                fos.flush();
-                Log.i(TAG, "Pipeline saved to: " + pipelineFile.getAbsolutePath());
+            journal.append(changed, deleted);
+            Log.d(TAG, "Journaled " + changed.size() + " changed and " + deleted.size() + " deleted records");
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to write pipeline journal, will retry", e);
+            synchronized (this) {
+                for (PipelineItem item : changed) {
+                    // Unless it was deleted or changed again meanwhile
+                    if (pipelines.containsKey(item.getId()) && !dirty.containsKey(item.getId())) {
+                        dirty.put(item.getId(), item);
+                    }
+                }
+                for (String id : deleted) {
+                    if (!pipelines.containsKey(id)) {
+                        deletedIds.add(id);
+                    }
+                }
             }
-        } catch (JSONException | IOException e) {
-            Log.e(TAG, "Failed to save pipeline to file: " + item.getName(), e);
+            schedulePersist(WRITE_RETRY_MS);
+            return;
         }
+
+        if (journal.needsCompaction()) {
+            try {
+                journal.compact();
+            } catch (IOException e) {
+                // The appended records are durable, compaction is tried again after the next write
+                Log.w(TAG, "Failed to compact pipeline journal", e);
+            }
+        }
+        
+        // Only the changed records need their own file rewritten
+        fileSync.syncChanges(changed, deleted);
+    }
+        
+    private static JSONObject toJson(PipelineItem item) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", item.getId());
+        obj.put("name", item.getName());
+        obj.put("pipeline", item.getPipeline());
+        obj.put("createdTime", item.getCreatedTime());
+        obj.put("lastUsedTime", item.getLastUsedTime());
+        obj.put("isFavorite", item.isFavorite());
+        obj.put("lowLatency", item.isLowLatency());
+        return obj;
     }
     
     /**
@@ -184,120 +406,197 @@ public class PipelineStorage {
     }
     
     /**
-     * Imports a single pipeline from a .gstpipe file
+     * Imports a single pipeline from a .gstpipe file, parsed on the I/O thread
      * @param file The .gstpipe file to import
-     * @return true if import was successful
+     * @return completes with true if import was successful
      */
-    public boolean importPipelineFromFile(File file) {
+    public CompletableFuture<Boolean> importPipelineFromFile(File file) {
         if (file == null || !file.exists()) {
             Log.e(TAG, "Import file does not exist");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
-        
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[(int) file.length()];
-            fis.read(buffer);
-            String json = new String(buffer);
-            
-            JSONObject obj = new JSONObject(json);
-            PipelineItem item = new PipelineItem(
-                java.util.UUID.randomUUID().toString(),
-                obj.getString("name"),
-                obj.getString("pipeline"),
-                System.currentTimeMillis(),
-                System.currentTimeMillis(),
-                false
-            );
-            
-            addPipeline(item);
+
+        return CompletableFuture.supplyAsync(() -> {
+            PipelineImporter.ImportResult result = new PipelineImporter(this).importFile(file);
+            if (!result.errors.isEmpty()) {
+                Log.e(TAG, "Failed to import pipeline from file: " + result.errors.get(0));
+                return false;
+            }
             Log.i(TAG, "Pipeline imported from: " + file.getAbsolutePath());
             return true;
-        } catch (IOException | JSONException e) {
-            Log.e(TAG, "Failed to import pipeline from file", e);
-            return false;
+        }, ioExecutor);
+    }
+            
+    public void addPipeline(PipelineItem item) {
+        PipelineItem snapshot = item.copy();
+        synchronized (this) {
+            if (deferUntilLoaded(() -> putPipeline(item, snapshot))) {
+                return;
+            }
+            putPipeline(item, snapshot);
         }
     }
 
-    public void addPipeline(PipelineItem item) {
-        List<PipelineItem> pipelines = loadPipelines();
-        pipelines.add(item);
-        savePipelines(pipelines);
+    /**
+     * Adds many pipelines as a single batch: one persist for the whole set
+     */
+    public void addPipelines(Collection<PipelineItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        List<PipelineItem> snapshots = copyOf(items);
+        synchronized (this) {
+            if (deferUntilLoaded(() -> putPipelines(items, snapshots))) {
+                return;
+            }
+            putPipelines(items, snapshots);
+        }
+    }
+
+    /**
+     * Replaces the whole library with the given pipelines
+     */
+    public void replaceAll(List<PipelineItem> items) {
+        List<PipelineItem> snapshots = copyOf(items);
+        synchronized (this) {
+            if (deferUntilLoaded(() -> replacePipelines(items, snapshots))) {
+                return;
+            }
+            replacePipelines(items, snapshots);
+        }
     }
 
     public void updatePipeline(PipelineItem item) {
-        List<PipelineItem> pipelines = loadPipelines();
-        for (int i = 0; i < pipelines.size(); i++) {
-            if (pipelines.get(i).getId().equals(item.getId())) {
-                pipelines.set(i, item);
-                break;
+        PipelineItem snapshot = item.copy();
+        synchronized (this) {
+            if (deferUntilLoaded(() -> {
+                if (pipelines.containsKey(item.getId())) {
+                    putPipeline(item, snapshot);
+                }
+            })) {
+                return;
+            }
+            if (!pipelines.containsKey(item.getId())) {
+                return;
             }
+            putPipeline(item, snapshot);
         }
-        savePipelines(pipelines);
     }
 
     public void deletePipeline(String id) {
-        List<PipelineItem> pipelines = loadPipelines();
-        pipelines.removeIf(item -> item.getId().equals(id));
-        savePipelines(pipelines);
+        synchronized (this) {
+            if (deferUntilLoaded(() -> deletePipeline(id))) {
+                return;
+            }
+            if (pipelines.remove(id) == null) {
+                return;
+            }
+            sortIndex.remove(id);
+            searchIndex.remove(id);
+            dirty.remove(id);
+            deletedIds.add(id);
+            schedulePersist();
+        }
+    }
+
+    // Taken on the caller's thread, right after it finished changing the items
+    private static List<PipelineItem> copyOf(Collection<PipelineItem> items) {
+        List<PipelineItem> snapshots = new ArrayList<>(items.size());
+        for (PipelineItem item : items) {
+            snapshots.add(item.copy());
+        }
+        return snapshots;
+    }
+
+    // Caller holds the lock
+    private void putPipeline(PipelineItem item, PipelineItem snapshot) {
+        pipelines.put(item.getId(), item);
+        sortIndex.put(item);
+        searchIndex.put(item);
+        dirty.put(item.getId(), snapshot);
+        deletedIds.remove(item.getId());
+        schedulePersist();
+    }
+
+    // Caller holds the lock
+    private void putPipelines(Collection<PipelineItem> items, List<PipelineItem> snapshots) {
+        int i = 0;
+        for (PipelineItem item : items) {
+            pipelines.put(item.getId(), item);
+            sortIndex.put(item);
+            searchIndex.put(item);
+            dirty.put(item.getId(), snapshots.get(i++));
+            deletedIds.remove(item.getId());
+        }
+        schedulePersist();
     }
 
+    // Caller holds the lock
+    private void replacePipelines(List<PipelineItem> items, List<PipelineItem> snapshots) {
+        deletedIds.addAll(pipelines.keySet());
+        pipelines.clear();
+        sortIndex.rebuild(Collections.<PipelineItem>emptyList());
+        searchIndex.rebuild(Collections.<PipelineItem>emptyList());
+        dirty.clear();
+        putPipelines(items, snapshots);
+    }
+
+    public CompletableFuture<List<PipelineItem>> getSortedPipelinesAsync(String sortBy) {
+        return CompletableFuture.supplyAsync(() -> getSortedPipelines(sortBy), readExecutor);
+    }
+
+    /**
+     * Returns the library sorted by "name", "recent" or "created", favorites always on top.
+     * Served from the maintained index; the returned list is unmodifiable.
+     */
     public List<PipelineItem> getSortedPipelines(String sortBy) {
-        List<PipelineItem> pipelines = loadPipelines();
-        
-        switch (sortBy) {
-            case "name":
-                Collections.sort(pipelines, new Comparator<PipelineItem>() {
-                    @Override
-                    public int compare(PipelineItem a, PipelineItem b) {
-                        return a.getName().compareToIgnoreCase(b.getName());
-                    }
-                });
-                break;
-            case "recent":
-                Collections.sort(pipelines, new Comparator<PipelineItem>() {
-                    @Override
-                    public int compare(PipelineItem a, PipelineItem b) {
-                        return Long.compare(b.getLastUsedTime(), a.getLastUsedTime());
-                    }
-                });
-                break;
-            case "created":
-                Collections.sort(pipelines, new Comparator<PipelineItem>() {
-                    @Override
-                    public int compare(PipelineItem a, PipelineItem b) {
-                        return Long.compare(b.getCreatedTime(), a.getCreatedTime());
-                    }
-                });
-                break;
+        awaitLoaded();
+        synchronized (this) {
+            return sortIndex.get(sortBy);
         }
+    }
         
-        // Favorites always on top
-        Collections.sort(pipelines, new Comparator<PipelineItem>() {
-            @Override
-            public int compare(PipelineItem a, PipelineItem b) {
-                return Boolean.compare(b.isFavorite(), a.isFavorite());
+    /**
+     * Searches on the read thread, so typing never waits for the library to load or
+     * for a journal write
+     */
+    public CompletableFuture<List<PipelineItem>> searchPipelinesAsync(String query, String sortBy) {
+        return CompletableFuture.supplyAsync(() -> searchPipelines(query, sortBy), readExecutor);
+    }
+
+    /**
+     * Returns exactly the pipelines matching every term of the query, in the given sort order.
+     * Waits for the library to load; use searchPipelinesAsync() from the main thread.
+     */
+    public List<PipelineItem> searchPipelines(String query, String sortBy) {
+        awaitLoaded();
+        synchronized (this) {
+            if (query == null || query.trim().isEmpty()) {
+                return sortIndex.get(sortBy);
             }
-        });
-        
-        return pipelines;
+            return sortIndex.select(sortBy, searchIndex.search(query));
+        }
     }
 
     public String exportToJson() {
-        return prefs.getString(KEY_PIPELINES, "[]");
+        JSONArray array = new JSONArray();
+        for (PipelineItem item : loadPipelines()) {
+            try {
+                array.put(toJson(item));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        return array.toString();
     }
 
     public boolean importFromJson(String json) {
         try {
-            JSONArray array = new JSONArray(json);
-            // Validate structure before importing
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject obj = array.getJSONObject(i);
-                obj.getString("name");
-                obj.getString("pipeline");
-            }
-            prefs.edit().putString(KEY_PIPELINES, json).apply();
+            // Streams and validates every entry before anything is replaced
+            List<PipelineItem> items = PipelineImporter.readJson(new StringReader(json));
+            replaceAll(items);
             return true;
-        } catch (JSONException e) {
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
             e.printStackTrace();
             return false;
         }
@@ -0,0 +1,235 @@
+package com.android.pipeliner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-element performance numbers of the running pipeline, collected by the native
+ * tracer (perf_tracer.c): processing time and end-to-end latency histograms, buffer
+ * rates and queue fill levels.
+ *
+ * Off by default. While on, every pushed buffer costs a few atomic adds; with a sample
+ * interval of N only every Nth buffer also pays for the latency query and for timing
+ * the hooks themselves. Snapshot.overheadPercent() reports what the hooks cost.
+ */
+public final class PipelineTracer {
+    // Snapshot layout, must match perf_tracer.h
+    private static final int HEADER_GENERATION = 0;
+    private static final int HEADER_ENABLED = 1;
+    private static final int HEADER_SAMPLE_INTERVAL = 2;
+    private static final int HEADER_ELEMENTS = 3;
+    private static final int HEADER_HOOK_CALLS = 4;
+    private static final int HEADER_OVERHEAD_NS = 5;
+    private static final int HEADER_TRACKED_NS = 6;
+    private static final int HEADER_COUNT = 8;
+
+    private static final int FIELD_FLAGS = 0;
+    private static final int FIELD_BUFFERS_IN = 1;
+    private static final int FIELD_BUFFERS_OUT = 2;
+    private static final int FIELD_BYTES_OUT = 3;
+    private static final int FIELD_RATE_MILLI = 4;
+    private static final int FIELD_PROC_COUNT = 5;
+    private static final int FIELD_PROC_TOTAL_NS = 6;
+    private static final int FIELD_PROC_MAX_NS = 7;
+    private static final int FIELD_LATENCY_COUNT = 8;
+    private static final int FIELD_LATENCY_TOTAL_NS = 9;
+    private static final int FIELD_LATENCY_MAX_NS = 10;
+    private static final int FIELD_QUEUE_PERMILLE = 11;
+    private static final int FIELD_QUEUE_TIME_NS = 12;
+    private static final int FIELD_QUEUE_BUFFERS = 13;
+    private static final int FIELD_PROC_HISTOGRAM = 14;
+    public static final int HISTOGRAM_BUCKETS = 20;
+    private static final int FIELD_LATENCY_HISTOGRAM = FIELD_PROC_HISTOGRAM + HISTOGRAM_BUCKETS;
+    private static final int ELEMENT_FIELD_COUNT = FIELD_LATENCY_HISTOGRAM + HISTOGRAM_BUCKETS;
+
+    public static final int FLAG_SOURCE = 1;
+    public static final int FLAG_SINK = 1 << 1;
+    public static final int FLAG_QUEUE = 1 << 2;
+    public static final int FLAG_VIDEO_SINK = 1 << 3;
+
+    private static native void nativeSetEnabled(boolean enabled, int sampleInterval);
+    private static native void nativeSetVerboseLogging(boolean verbose);
+    private static native long[] nativeGetStats();
+    private static native String[] nativeGetElementNames();
+
+    // Element names only change with the tracked pipeline
+    private static String[] names = new String[0];
+    private static long namesGeneration = -1;
+
+    private PipelineTracer() {
+    }
+
+    public static void setEnabled(boolean enabled, int sampleInterval) {
+        nativeSetEnabled(enabled, sampleInterval);
+    }
+
+    /**
+     * GStreamer logs at WARNING unless this is on; LOG level slows every element down,
+     * so leave it off while measuring.
+     */
+    public static void setVerboseLogging(boolean verbose) {
+        nativeSetVerboseLogging(verbose);
+    }
+
+    public static synchronized Snapshot snapshot() {
+        long[] raw = nativeGetStats();
+        if (raw[HEADER_GENERATION] != namesGeneration) {
+            names = nativeGetElementNames();
+            namesGeneration = raw[HEADER_GENERATION];
+        }
+        return new Snapshot(raw, names);
+    }
+
+    public static class ElementStats {
+        public final String name;
+        public final int flags;
+        public final long buffersIn;
+        public final long buffersOut;
+        public final long bytesOut;
+        public final double buffersPerSecond; // Out, or in for sinks, since the previous snapshot
+        public final long procCount;
+        public final double procMeanMs;
+        public final double procMaxMs;
+        public final long latencyCount;       // Sinks only
+        public final double latencyMeanMs;
+        public final double latencyMaxMs;
+        public final int queueFillPercent;    // -1 if not a queue
+        public final double queueLevelMs;
+        public final long queueBuffers;
+        private final long[] procHistogram = new long[HISTOGRAM_BUCKETS];
+        private final long[] latencyHistogram = new long[HISTOGRAM_BUCKETS];
+
+        ElementStats(String name, long[] raw, int offset) {
+            this.name = name;
+            this.flags = (int) raw[offset + FIELD_FLAGS];
+            this.buffersIn = raw[offset + FIELD_BUFFERS_IN];
+            this.buffersOut = raw[offset + FIELD_BUFFERS_OUT];
+            this.bytesOut = raw[offset + FIELD_BYTES_OUT];
+            this.buffersPerSecond = raw[offset + FIELD_RATE_MILLI] / 1000.0;
+            this.procCount = raw[offset + FIELD_PROC_COUNT];
+            this.procMeanMs = procCount == 0 ? 0 : raw[offset + FIELD_PROC_TOTAL_NS] / 1e6 / procCount;
+            this.procMaxMs = raw[offset + FIELD_PROC_MAX_NS] / 1e6;
+            this.latencyCount = raw[offset + FIELD_LATENCY_COUNT];
+            this.latencyMeanMs = latencyCount == 0 ? 0 : raw[offset + FIELD_LATENCY_TOTAL_NS] / 1e6 / latencyCount;
+            this.latencyMaxMs = raw[offset + FIELD_LATENCY_MAX_NS] / 1e6;
+            long permille = raw[offset + FIELD_QUEUE_PERMILLE];
+            this.queueFillPercent = permille < 0 ? -1 : (int) (permille / 10);
+            this.queueLevelMs = raw[offset + FIELD_QUEUE_TIME_NS] / 1e6;
+            this.queueBuffers = raw[offset + FIELD_QUEUE_BUFFERS];
+            System.arraycopy(raw, offset + FIELD_PROC_HISTOGRAM, procHistogram, 0, HISTOGRAM_BUCKETS);
+            System.arraycopy(raw, offset + FIELD_LATENCY_HISTOGRAM, latencyHistogram, 0, HISTOGRAM_BUCKETS);
+        }
+
+        public boolean is(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        // Upper bound of the histogram bucket holding the given quantile, e.g. 0.95
+        public double procPercentileMs(double quantile) {
+            return percentileMs(procHistogram, quantile, procMaxMs);
+        }
+
+        public double latencyPercentileMs(double quantile) {
+            return percentileMs(latencyHistogram, quantile, latencyMaxMs);
+        }
+
+        public long[] getProcHistogram() {
+            return procHistogram.clone();
+        }
+
+        public long[] getLatencyHistogram() {
+            return latencyHistogram.clone();
+        }
+    }
+
+    // Bucket 0 is under 1us, bucket k covers [2^(k-1), 2^k) us, the last one is open ended
+    static double percentileMs(long[] histogram, double quantile, double maxMs) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= target) {
+                return bucket == histogram.length - 1 ? maxMs : Math.min(maxMs, (1L << bucket) / 1000.0);
+            }
+        }
+        return maxMs;
+    }
+
+    public static class Snapshot {
+        public final long generation;
+        public final boolean enabled;
+        public final int sampleInterval;
+        public final long hookCalls;
+        public final long overheadNs;
+        public final long trackedNs;
+        public final List<ElementStats> elements;
+
+        Snapshot(long[] raw, String[] names) {
+            generation = raw[HEADER_GENERATION];
+            enabled = raw[HEADER_ENABLED] != 0;
+            sampleInterval = (int) raw[HEADER_SAMPLE_INTERVAL];
+            hookCalls = raw[HEADER_HOOK_CALLS];
+            overheadNs = raw[HEADER_OVERHEAD_NS];
+            trackedNs = raw[HEADER_TRACKED_NS];
+            int count = (int) Math.min(raw[HEADER_ELEMENTS], (raw.length - HEADER_COUNT) / ELEMENT_FIELD_COUNT);
+            List<ElementStats> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = i < names.length ? names[i] : "element" + i;
+                list.add(new ElementStats(name, raw, HEADER_COUNT + i * ELEMENT_FIELD_COUNT));
+            }
+            elements = Collections.unmodifiableList(list);
+        }
+
+        // Time spent in the tracer's hooks, as a share of one core since tracking started
+        public double overheadPercent() {
+            return trackedNs == 0 ? 0 : overheadNs * 100.0 / trackedNs;
+        }
+
+        // Rate of the video sink, or of the busiest sink if there is no overlay sink
+        public double framesPerSecond() {
+            ElementStats best = null;
+            for (ElementStats element : elements) {
+                if (element.is(FLAG_VIDEO_SINK)) {
+                    return element.buffersPerSecond;
+                }
+                if (element.is(FLAG_SINK) && (best == null || element.buffersIn > best.buffersIn)) {
+                    best = element;
+                }
+            }
+            return best != null ? best.buffersPerSecond : 0;
+        }
+
+        /**
+         * Fixed-width text for the on-video HUD, one line per element
+         */
+        public String toHudText() {
+            StringBuilder text = new StringBuilder(64 * (elements.size() + 2));
+            text.append(String.format(Locale.US, "%.1f fps  tracer %.2f%% cpu  1/%d sampled%n",
+                    framesPerSecond(), overheadPercent(), sampleInterval));
+            text.append(String.format(Locale.US, "%-16s %6s %17s %s%n", "element", "buf/s", "proc p50/p95/max", "queue/latency"));
+            for (ElementStats element : elements) {
+                String name = element.name.length() > 16 ? element.name.substring(0, 16) : element.name;
+                String proc = element.procCount == 0 ? "-" : String.format(Locale.US, "%.2f/%.2f/%.1f",
+                        element.procPercentileMs(0.5), element.procPercentileMs(0.95), element.procMaxMs);
+                String extra = "";
+                if (element.queueFillPercent >= 0) {
+                    extra = String.format(Locale.US, "%d%% %.0fms", element.queueFillPercent, element.queueLevelMs);
+                } else if (element.latencyCount > 0) {
+                    extra = String.format(Locale.US, "lat %.0f/%.0fms",
+                            element.latencyPercentileMs(0.5), element.latencyPercentileMs(0.95));
+                }
+                text.append(String.format(Locale.US, "%-16s %6.1f %17s %s%n", name, element.buffersPerSecond, proc, extra));
+            }
+            return text.toString();
+        }
+    }
+}
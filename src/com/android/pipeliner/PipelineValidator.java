@@ -0,0 +1,487 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks every stored pipeline in the background, so a broken launch string shows as
+ * a badge in the list instead of an error after tapping it.
+ *
+ * Each distinct launch string, as it would run (built by PlayerLaunch), is parsed
+ * natively, which finds syntax errors, missing elements, unknown properties and
+ * failed links (pipeline_validator.c). With prerolling on it is also
+ * taken to PAUSED, with its sinks swapped for fakesink and its network and capture
+ * sources for an idle live source, so nothing is shown, played, fetched or opened.
+ *
+ * Checks run on a small pool of low-priority threads. Results are kept by content
+ * hash, in memory and in a file, so an unchanged launch string is checked once per
+ * app and system build. Callers look results up by item key (keyOf), which the
+ * coordinator maps to the launch string's hash once per item content and tuning.
+ */
+final class PipelineValidator {
+    private static final String TAG = "PipelineValidator";
+    private static final String PREFS_NAME = "PipelineValidator";
+    private static final String KEY_PREROLL = "preroll";
+    private static final String CACHE_FILE = "pipeline_validation.bin";
+    private static final int CACHE_MAGIC = 0x504C5631; // "PLV1"
+
+    private static final int MAX_THREADS = 4;
+    static final int PREROLL_TIMEOUT_MS = 5000;
+
+    // Must match ValidateStatus in pipeline_validator.h
+    static final int STATUS_OK = 0;
+    static final int STATUS_SYNTAX = 1;
+    static final int STATUS_MISSING_ELEMENT = 2;
+    static final int STATUS_BAD_PROPERTY = 3;
+    static final int STATUS_LINK = 4;
+    static final int STATUS_STATE_CHANGE = 5;
+    static final int STATUS_PREROLL_ERROR = 6;
+    static final int STATUS_PREROLL_TIMEOUT = 7;
+
+    // Layout of nativeCheck's values, must match VALIDATE_RESULT_* in pipeline_validator.h
+    private static final int RESULT_STATUS = 0;
+    private static final int RESULT_PARSE_US = 1;
+    private static final int RESULT_PREROLL_US = 2;
+    private static final int RESULT_COUNT = 3;
+
+    // Sources that would reach out to the network or open a device while prerolling
+    private static final Set<String> SHORT_CIRCUIT_SOURCES = new HashSet<>(Arrays.asList(
+            "udpsrc", "rtspsrc", "srtsrc", "srtclientsrc", "ristsrc", "tcpclientsrc", "tcpserversrc",
+            "rtmpsrc", "rtmp2src", "souphttpsrc", "ahcsrc", "ahc2src", "openslessrc"));
+    private static final Set<String> URI_ELEMENTS = new HashSet<>(Arrays.asList(
+            "playbin", "playbin3", "uridecodebin", "uridecodebin3", "urisourcebin"));
+
+    private static native String[] nativeCheck(String launch, int prerollTimeoutMs, long[] out);
+
+    static final class Result {
+        final int status;
+        final boolean prerolled;    // The preroll check ran, or there was nothing it could check
+        final long parseUs;
+        final long prerollUs;       // -1 if not prerolled
+        final String message;       // "" if valid
+        final List<String> missing; // Factories not in the registry
+
+        Result(int status, boolean prerolled, long parseUs, long prerollUs, String message, List<String> missing) {
+            this.status = status;
+            this.prerolled = prerolled;
+            this.parseUs = parseUs;
+            this.prerollUs = prerollUs;
+            this.message = message;
+            this.missing = Collections.unmodifiableList(missing);
+        }
+
+        boolean isValid() {
+            return status == STATUS_OK;
+        }
+
+        // A timeout is no proof of a problem: a slow start, or a source that needs the network
+        boolean isBroken() {
+            return status != STATUS_OK && status != STATUS_PREROLL_TIMEOUT;
+        }
+
+        String label() {
+            switch (status) {
+                case STATUS_OK: return "OK";
+                case STATUS_MISSING_ELEMENT: return "MISSING";
+                case STATUS_PREROLL_TIMEOUT: return "SLOW";
+                default: return "BROKEN";
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(isValid() ? "Valid" : message);
+            if (!missing.isEmpty()) {
+                text.append("\nNot installed: ").append(String.join(", ", missing));
+            }
+            text.append(String.format(Locale.US, "\n\nParsed in %.1f ms", parseUs / 1000.0));
+            if (prerollUs >= 0) {
+                text.append(String.format(Locale.US, ", prerolled in %.0f ms", prerollUs / 1000.0));
+            } else if (prerolled && isValid()) {
+                text.append(", nothing to preroll without the network");
+            }
+            return text.toString();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(status);
+            out.writeBoolean(prerolled);
+            out.writeLong(parseUs);
+            out.writeLong(prerollUs);
+            out.writeUTF(message);
+            out.writeShort(missing.size());
+            for (String factory : missing) {
+                out.writeUTF(factory);
+            }
+        }
+
+        static Result read(DataInputStream in) throws IOException {
+            int status = in.readByte();
+            boolean prerolled = in.readBoolean();
+            long parseUs = in.readLong();
+            long prerollUs = in.readLong();
+            String message = in.readUTF();
+            int count = in.readShort();
+            List<String> missing = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                missing.add(in.readUTF());
+            }
+            return new Result(status, prerolled, parseUs, prerollUs, message, missing);
+        }
+    }
+
+    /** Called on the main thread when the results of these items (keyOf) come in. */
+    interface Listener {
+        void onValidated(Set<Long> itemKeys);
+    }
+
+    private static PipelineValidator instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Decides what to check and owns the cache file
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PipelineValidator");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final ExecutorService checkers;
+    private final Map<Long, Result> results = new ConcurrentHashMap<>();
+    private final Map<Long, Long> launchHashes = new ConcurrentHashMap<>(); // Item key -> launch hash
+    private Map<Long, Set<Long>> itemsByLaunch = new HashMap<>(); // Coordinator thread only
+    private int tunerGeneration = -1; // Coordinator thread only, what launchHashes were built with
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Set<Long> library = Collections.emptySet(); // Hashes of the last validate(), kept on save
+    private volatile boolean preroll;
+    private Listener listener;      // Main thread only
+    private boolean loaded;         // Coordinator thread only
+    private boolean dirty;          // Coordinator thread only
+    private boolean nativeReady;
+    private boolean nativeFailed;
+
+    static synchronized PipelineValidator getInstance(Context context) {
+        if (instance == null) {
+            instance = new PipelineValidator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PipelineValidator(Context context) {
+        this.context = context;
+        this.preroll = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getBoolean(KEY_PREROLL, false);
+        // Hardware decoders are few and shared with playback, keep the pool small
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger count = new AtomicInteger();
+        this.checkers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "PipelineValidator-" + count.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void removeListener(Listener listener) {
+        if (this.listener == listener) {
+            this.listener = null;
+        }
+    }
+
+    boolean isPrerollEnabled() {
+        return preroll;
+    }
+
+    /** Turns the preroll check on or off; launch strings only parsed so far are checked again. */
+    void setPrerollEnabled(boolean enabled) {
+        preroll = enabled;
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().putBoolean(KEY_PREROLL, enabled).apply();
+    }
+
+    /** What results are looked up by: cheap once the item's content hash is known. */
+    static long keyOf(PipelineItem item) {
+        long hash = item.getContentHash();
+        return item.isLowLatency() ? ~hash : hash;
+    }
+
+    /** The cached result for an item key, null until it has been checked. */
+    Result getResult(long itemKey) {
+        Long launchHash = launchHashes.get(itemKey);
+        return launchHash != null ? results.get(launchHash) : null;
+    }
+
+    /**
+     * Queues a check of every launch string in the library that has no result yet for
+     * the current mode. Results arrive through the listener.
+     */
+    void validate(List<PipelineItem> pipelines) {
+        List<PipelineItem> items = new ArrayList<>(pipelines);
+        final boolean prerollNow = preroll;
+        coordinator.execute(() -> {
+            if (!ensureNative()) {
+                return;
+            }
+            load();
+            int generation = DecoderTuner.getInstance(context).getGeneration();
+            if (generation != tunerGeneration) {
+                tunerGeneration = generation;
+                launchHashes.clear();
+            }
+            Set<Long> seen = new HashSet<>();
+            Set<Long> current = new HashSet<>();
+            Set<Long> mapped = new HashSet<>(); // Items that can show a cached result now
+            Map<Long, Set<Long>> byLaunch = new HashMap<>();
+            int queued = 0;
+            for (int i = 0; i < items.size(); i++) {
+                long itemKey = keyOf(items.get(i));
+                if (!current.add(itemKey)) {
+                    continue;
+                }
+                // Building the launch string is a full rewrite, done once per item content
+                String launch = null;
+                Long launchHash = launchHashes.get(itemKey);
+                if (launchHash == null) {
+                    launch = PlayerLaunch.of(context, items.get(i));
+                    launchHash = GstLaunchModel.hash(launch);
+                    launchHashes.put(itemKey, launchHash);
+                    if (results.containsKey(launchHash)) {
+                        mapped.add(itemKey);
+                    }
+                }
+                long key = launchHash;
+                byLaunch.computeIfAbsent(key, k -> new HashSet<>()).add(itemKey);
+                if (!seen.add(key)) {
+                    continue;
+                }
+                Result cached = results.get(key);
+                if ((cached != null && (cached.prerolled || !prerollNow)) || inFlight.contains(key)) {
+                    continue;
+                }
+                if (launch == null) {
+                    launch = PlayerLaunch.of(context, items.get(i));
+                }
+                inFlight.add(key);
+                pending.incrementAndGet();
+                queued++;
+                final String checked = launch;
+                checkers.execute(() -> check(key, checked, prerollNow));
+            }
+            launchHashes.keySet().retainAll(current);
+            itemsByLaunch = byLaunch;
+            publish(mapped);
+            library = seen;
+            if (queued > 0) {
+                Log.i(TAG, "Checking " + queued + " of " + seen.size() + " launch strings"
+                        + (prerollNow ? " with preroll" : ""));
+            } else if (pending.get() == 0 && !seen.containsAll(results.keySet())) {
+                dirty = true;
+                save(); // Drops the results of pipelines that are gone
+            }
+        });
+    }
+
+    private void check(long key, String launch, boolean withPreroll) {
+        Result result = null;
+        try {
+            result = ensureNative() ? run(launch, withPreroll) : null;
+        } catch (Throwable e) {
+            Log.w(TAG, "Could not check \"" + launch + "\"", e);
+        } finally {
+            inFlight.remove(key);
+        }
+        if (result != null) {
+            results.put(key, result);
+            coordinator.execute(() -> {
+                Set<Long> itemKeys = itemsByLaunch.get(key);
+                if (itemKeys != null) {
+                    publish(itemKeys);
+                }
+            });
+        }
+        if (pending.decrementAndGet() == 0) {
+            coordinator.execute(() -> {
+                dirty = true;
+                save();
+            });
+        }
+    }
+
+    private void publish(Set<Long> itemKeys) {
+        if (itemKeys.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            if (listener != null) {
+                listener.onValidated(itemKeys);
+            }
+        });
+    }
+
+    private static Result run(String launch, boolean withPreroll) {
+        long[] values = new long[RESULT_COUNT];
+        String[] strings = nativeCheck(launch, 0, values);
+        Result parsed = result(values, strings, false);
+        if (!withPreroll || !parsed.isValid()) {
+            return parsed;
+        }
+        String prerollable = prerollForm(launch);
+        if (prerollable == null) {
+            return result(values, strings, true);
+        }
+        long parseUs = values[RESULT_PARSE_US];
+        strings = nativeCheck(prerollable, PREROLL_TIMEOUT_MS, values);
+        values[RESULT_PARSE_US] = parseUs;
+        return result(values, strings, true);
+    }
+
+    private static Result result(long[] values, String[] strings, boolean prerolled) {
+        List<String> missing = strings.length > 1
+                ? Arrays.asList(strings).subList(1, strings.length) : Collections.<String>emptyList();
+        return new Result((int) values[RESULT_STATUS], prerolled, values[RESULT_PARSE_US],
+                prerolled ? values[RESULT_PREROLL_US] : -1, strings.length > 0 ? strings[0] : "", new ArrayList<>(missing));
+    }
+
+    /**
+     * The launch string with every sink a fakesink and network and capture sources an
+     * idle live fakesrc (through a tee, which links wherever the source did), or null
+     * if it fetches a network URI that cannot be swapped out.
+     */
+    static String prerollForm(String launch) {
+        GstLaunchModel model = GstLaunchModel.of(launch);
+        GstLaunchEditor editor = new GstLaunchEditor();
+        for (GstLaunchModel.Element element : model.getElements()) {
+            String name = element.name != null ? " name=" + element.name : "";
+            if (URI_ELEMENTS.contains(element.factory)) {
+                String uri = element.getProperty("uri");
+                if (uri == null || !GstLaunchParser.unquote(uri).startsWith("file:")) {
+                    return null;
+                }
+                if (element.factory.startsWith("playbin")) {
+                    editor.setProperty(element.index, "video-sink", "fakesink");
+                    editor.setProperty(element.index, "audio-sink", "fakesink");
+                }
+            } else if (SHORT_CIRCUIT_SOURCES.contains(element.factory)) {
+                editor.replaceElement(element.index, "fakesrc is-live=true ! tee" + name);
+            }
+        }
+        for (GstLaunchModel.Element sink : model.getSinks()) {
+            if (sink.factory.endsWith("sink")) {
+                editor.replaceElement(sink.index, "fakesink sync=false" + (sink.name != null ? " name=" + sink.name : ""));
+            }
+        }
+        return editor.apply(launch);
+    }
+
+    // Results are only valid for the app and system build they were made on
+    private String fingerprint() {
+        String app = "";
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            app = info.versionCode + ":" + info.lastUpdateTime;
+        } catch (Exception e) {
+            Log.w(TAG, "No package info, cached results are kept for this run only", e);
+        }
+        return Build.FINGERPRINT + "/" + app;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = new File(context.getFilesDir(), CACHE_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CACHE_MAGIC || !fingerprint().equals(in.readUTF())) {
+                Log.i(TAG, "New build, checking every pipeline again");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                results.putIfAbsent(key, Result.read(in));
+            }
+            Log.i(TAG, "Loaded " + count + " cached results");
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable validation cache", e);
+        }
+    }
+
+    private void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Set<Long> keep = library;
+        File file = new File(context.getFilesDir(), CACHE_FILE);
+        File temp = new File(context.getFilesDir(), CACHE_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            List<Map.Entry<Long, Result>> entries = new ArrayList<>();
+            for (Map.Entry<Long, Result> entry : results.entrySet()) {
+                if (keep.contains(entry.getKey())) {
+                    entries.add(entry);
+                } else {
+                    results.remove(entry.getKey());
+                }
+            }
+            out.writeInt(CACHE_MAGIC);
+            out.writeUTF(fingerprint());
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, Result> entry : entries) {
+                out.writeLong(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save validation results", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace " + file);
+        }
+    }
+
+    private synchronized boolean ensureNative() {
+        if (nativeReady || nativeFailed) {
+            return nativeReady;
+        }
+        try {
+            GStreamerInit.await(context);
+            nativeReady = true;
+        } catch (Throwable e) {
+            Log.w(TAG, "Pipeline validation disabled, GStreamer unavailable", e);
+            nativeFailed = true;
+        }
+        return nativeReady;
+    }
+}
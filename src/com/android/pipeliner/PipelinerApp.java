@@ -0,0 +1,42 @@
+package com.android.pipeliner;
+
+import android.app.Application;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Starts GStreamer initialization as soon as the process exists, so it overlaps with
+ * the list screen coming up instead of blocking the first player launch, and reports
+ * how long the cold start took to each milestone.
+ */
+public class PipelinerApp extends Application {
+    private static final String TAG = "PipelinerApp";
+
+    static final String MILESTONE_LIST = "list screen";
+    static final String MILESTONE_FIRST_FRAME = "first frame";
+
+    private static final Set<String> reported = new HashSet<>();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        GStreamerInit.ready(this);
+    }
+
+    /**
+     * Logs the time from process start to a milestone, the first time it is reached in
+     * this process. atUptimeMs is on SystemClock.uptimeMillis(), i.e. System.nanoTime() / 1e6.
+     */
+    static synchronized void reportColdStart(String milestone, long atUptimeMs) {
+        if (!reported.add(milestone)) {
+            return;
+        }
+        long processStart = Process.getStartUptimeMillis();
+        long gstReady = GStreamerInit.readyAtMs();
+        Log.i(TAG, "Cold start to " + milestone + ": " + (atUptimeMs - processStart) + " ms"
+                + (gstReady > 0 ? ", GStreamer ready at " + (gstReady - processStart) + " ms" : ", GStreamer not ready yet"));
+    }
+}
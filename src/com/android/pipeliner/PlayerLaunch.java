@@ -0,0 +1,44 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * The launch string GstreamerMain plays for a pipeline. Everything that has to match
+ * it exactly, the preroll pool's keys and the strings PipelineValidator checks, builds
+ * it here rather than repeating the steps.
+ */
+final class PlayerLaunch {
+
+    private PlayerLaunch() {
+    }
+
+    /**
+     * As played from the library. DecoderTuner may promote decoder ranks natively, so
+     * call this once GStreamer is initialized, off the main thread.
+     */
+    static String of(Context context, PipelineItem item) {
+        return build(context, item.getPipeline(), item.isLowLatency(), false, null);
+    }
+
+    /**
+     * Low-latency rewrite if asked for, then the recording tap unless it is a mosaic,
+     * which has no single stream to record, then the tuned decoders. The rewrite's
+     * changes go to changes, if given.
+     */
+    static String build(Context context, String pipeline, boolean lowLatency, boolean mosaic,
+                        List<LowLatencyRewriter.Change> changes) {
+        if (lowLatency) {
+            LowLatencyRewriter.Result rewrite = LowLatencyRewriter.rewrite(pipeline);
+            if (changes != null) {
+                changes.addAll(rewrite.changes);
+            }
+            pipeline = rewrite.launch;
+        }
+        if (!mosaic) {
+            pipeline = RecordingTap.insert(pipeline);
+        }
+        return DecoderTuner.getInstance(context).apply(pipeline);
+    }
+}
@@ -0,0 +1,214 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the top favorite and recently used pipelines warm in native code, so that
+ * opening one in GstreamerMain skips parsing, plugin loading and, for live network
+ * sources, joining the stream and waiting for caps and a keyframe.
+ *
+ * Budgets:
+ *   entries        at most maxEntries pipelines are pooled, least recently used evicted first
+ *   CPU            at most maxHotEntries live pipelines keep decoding in the background
+ *   memory         native heap growth caused by warming is tracked per entry and kept
+ *                  under memoryBudgetBytes (an estimate: allocations on other threads
+ *                  during a warm are attributed to it too)
+ *
+ * All native work runs on one background thread.
+ */
+public class PrerollPool {
+    private static final String TAG = "PrerollPool";
+
+    private static native void nativeConfigure(int maxEntries, int maxHotEntries);
+    private static native boolean nativeWarm(String launch);
+    private static native void nativeEvict(String launch);
+    private static native void nativeClear();
+    private static native long[] nativeGetStats();
+
+    public static class Stats {
+        public final int entries;
+        public final int hotEntries;
+        public final long hotHits;
+        public final long readyHits;
+        public final long misses;
+        public final long ttffHotMs;
+        public final long ttffReadyMs;
+        public final long ttffMissMs;
+
+        Stats(long[] raw) {
+            entries = (int) raw[0];
+            hotEntries = (int) raw[1];
+            hotHits = raw[2];
+            readyHits = raw[3];
+            misses = raw[4];
+            ttffHotMs = raw[5] / 1000;
+            ttffReadyMs = raw[6] / 1000;
+            ttffMissMs = raw[7] / 1000;
+        }
+
+        public double hitRate() {
+            long total = hotHits + readyHits + misses;
+            return total == 0 ? 0 : (double) (hotHits + readyHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US,
+                    "entries=%d (hot %d) hit rate=%.0f%% (hot %d, ready %d, miss %d) ttff hot=%dms ready=%dms miss=%dms",
+                    entries, hotEntries, hitRate() * 100, hotHits, readyHits, misses,
+                    ttffHotMs, ttffReadyMs, ttffMissMs);
+        }
+    }
+
+    private static PrerollPool instance;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PrerollPool");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    // Estimated native bytes per pooled launch string, least recently warmed first
+    private final LinkedHashMap<String, Long> entryBytes = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries = 3;
+    private int maxHotEntries = 1;
+    private long memoryBudgetBytes = 64L * 1024 * 1024;
+    private boolean nativeReady;
+    private boolean nativeFailed;
+
+    public static synchronized PrerollPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new PrerollPool(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PrerollPool(Context context) {
+        this.context = context;
+    }
+
+    public void configure(int maxEntries, int maxHotEntries, long memoryBudgetBytes) {
+        executor.execute(() -> {
+            this.maxEntries = maxEntries;
+            this.maxHotEntries = maxHotEntries;
+            this.memoryBudgetBytes = memoryBudgetBytes;
+            if (nativeReady) {
+                nativeConfigure(maxEntries, maxHotEntries);
+                enforceBudget();
+            }
+        });
+    }
+
+    /**
+     * Warms the first pipelines of the given list, which should already be in priority
+     * order (favorites first, then most recently used). Returns immediately.
+     */
+    public void warm(List<PipelineItem> candidates) {
+        List<PipelineItem> items = new ArrayList<>(candidates);
+        executor.execute(() -> {
+            if (!ensureNative()) return;
+            List<String> launches = new ArrayList<>(maxEntries);
+            for (PipelineItem item : items) {
+                if (launches.size() >= maxEntries) break;
+                // As the player builds it, or the warm copy would never be taken
+                String launch = PlayerLaunch.of(context, item);
+                if (!launches.contains(launch)) {
+                    launches.add(launch);
+                }
+            }
+            // Warm the lowest priority first, so the top candidate ends up most recently used
+            for (int i = launches.size() - 1; i >= 0; i--) {
+                String launch = launches.get(i);
+                long before = Debug.getNativeHeapAllocatedSize();
+                if (nativeWarm(launch)) {
+                    long grown = Math.max(0, Debug.getNativeHeapAllocatedSize() - before);
+                    Long previous = entryBytes.get(launch);
+                    entryBytes.put(launch, previous != null ? Math.max(previous, grown) : grown);
+                } else {
+                    entryBytes.remove(launch);
+                }
+            }
+            enforceBudget();
+            Log.i(TAG, getStatsNow().toString());
+        });
+    }
+
+    public void evict(String launch) {
+        executor.execute(() -> {
+            if (entryBytes.remove(launch) != null && nativeReady) {
+                nativeEvict(launch);
+            }
+        });
+    }
+
+    /**
+     * Drops every pooled pipeline, e.g. when the system is low on memory
+     */
+    public void clear() {
+        executor.execute(() -> {
+            entryBytes.clear();
+            if (nativeReady) {
+                nativeClear();
+            }
+        });
+    }
+
+    public Stats getStats() {
+        return nativeReady ? getStatsNow() : new Stats(new long[8]);
+    }
+
+    private Stats getStatsNow() {
+        return new Stats(nativeGetStats());
+    }
+
+    private void enforceBudget() {
+        // The native pool evicts by count on its own; mirror that, then apply the memory budget
+        while (entryBytes.size() > maxEntries) {
+            dropEldest();
+        }
+        long total = 0;
+        for (long bytes : entryBytes.values()) {
+            total += bytes;
+        }
+        Iterator<Map.Entry<String, Long>> it = entryBytes.entrySet().iterator();
+        while (total > memoryBudgetBytes && entryBytes.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            total -= eldest.getValue();
+            it.remove();
+            nativeEvict(eldest.getKey());
+            Log.i(TAG, "Evicted pooled pipeline over memory budget (" + (eldest.getValue() / 1024) + " KB)");
+        }
+    }
+
+    private void dropEldest() {
+        Iterator<String> it = entryBytes.keySet().iterator();
+        String eldest = it.next();
+        it.remove();
+        nativeEvict(eldest);
+    }
+
+    private boolean ensureNative() {
+        if (nativeReady || nativeFailed) {
+            return nativeReady;
+        }
+        try {
+            GStreamerInit.await(context);
+            nativeConfigure(maxEntries, maxHotEntries);
+            nativeReady = true;
+        } catch (Throwable e) {
+            Log.w(TAG, "Preroll pool disabled, GStreamer unavailable", e);
+            nativeFailed = true;
+        }
+        return nativeReady;
+    }
+}
@@ -0,0 +1,93 @@
+package com.android.pipeliner;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Gives a pipeline a place to record from. A tee goes right after the first video
+ * parser, or after the AV1 RTP depayloader when there is no parser, where the stream
+ * is still encoded: recording then writes it as it arrives, without a second decode.
+ * With nothing attached the tee just passes buffers through, so every pipeline gets
+ * one and recording can start and stop at any time without a rebuild.
+ */
+final class RecordingTap {
+    static final String TEE = "rec_tee"; // Must match RECORDER_TEE in recorder.h
+    static final long SEGMENT_NS = 5L * 60 * 1000000000L;
+
+    private static final Set<String> PARSERS = new HashSet<>(Arrays.asList(
+            "h264parse", "h265parse", "av1parse", "vp9parse", "mpeg4videoparse", "mpegvideoparse"));
+    private static final String AV1_DEPAYLOADER = "rtpav1depay";
+
+    // Recorder states and stats layout, must match recorder.h
+    static final int STATE_IDLE = 0;
+    static final int STATE_RECORDING = 1;
+    static final int STATE_FINALIZING = 2;
+    private static final int STAT_STATE = 0;
+    private static final int STAT_BYTES = 1;
+    private static final int STAT_SEGMENTS = 2;
+    private static final int STAT_DROPPED = 3;
+    private static final int STAT_DURATION_MS = 4;
+
+    static final class Stats {
+        final int state;
+        final long bytes;          // Stream bytes written, container overhead not included
+        final long segments;
+        final long dropped;        // Buffers left out: before the first keyframe, or the disk fell behind
+        final long durationMs;
+
+        Stats(long[] values) {
+            this.state = (int) values[STAT_STATE];
+            this.bytes = values[STAT_BYTES];
+            this.segments = values[STAT_SEGMENTS];
+            this.dropped = values[STAT_DROPPED];
+            this.durationMs = values[STAT_DURATION_MS];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %d:%02d %.1f MB in %d segment%s, %d dropped",
+                    state == STATE_FINALIZING ? "closing" : state == STATE_RECORDING ? "rec" : "recorded",
+                    durationMs / 60000, durationMs / 1000 % 60, bytes / (1024.0 * 1024.0),
+                    segments, segments == 1 ? "" : "s", dropped);
+        }
+    }
+
+    private RecordingTap() {
+    }
+
+    /**
+     * The launch string with the tee in place, or unchanged if it has no encoded video
+     * stage to tap (raw sources, playbin, decodebin doing its own parsing).
+     */
+    static String insert(String launch) {
+        GstLaunchModel model = GstLaunchModel.of(launch);
+        if (!model.getErrors().isEmpty() || model.getNamedElements().containsKey(TEE)) {
+            return launch;
+        }
+        GstLaunchModel.Element tap = null;
+        for (GstLaunchModel.Element element : model.getElements()) {
+            if (PARSERS.contains(element.factory)) {
+                tap = element;
+                break;
+            }
+            if (tap == null && AV1_DEPAYLOADER.equals(element.factory)) {
+                tap = element;
+            }
+        }
+        if (tap == null) {
+            return launch;
+        }
+        // Only a plain "tap ! next" link: a tee in front of a reference would change what it points at
+        for (GstLaunchModel.Link link : model.getLinks()) {
+            if (link.from.element == tap && link.from.reference == null
+                    && link.to.element != null && link.to.reference == null) {
+                GstLaunchEditor editor = new GstLaunchEditor();
+                editor.insertBefore(link.to.element.index, "tee name=" + TEE + " allow-not-linked=true");
+                return editor.apply(launch);
+            }
+        }
+        return launch;
+    }
+}
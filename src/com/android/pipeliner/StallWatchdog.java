@@ -0,0 +1,57 @@
+package com.android.pipeliner;
+
+import java.util.Locale;
+
+/**
+ * Settings and stats of the native stall watchdog (watchdog.c). Live pipelines that
+ * stop delivering buffers, or whose source fails, get only their source restarted
+ * while the decoder and sink keep running, and display resumes at the next keyframe.
+ */
+final class StallWatchdog {
+    static final int DEFAULT_STALL_MS = 3000;  // Must match WATCHDOG_DEFAULT_STALL_MS in watchdog.h
+    static final int LOW_LATENCY_STALL_MS = 1000;
+
+    // Phases and stats layout, must match watchdog.h
+    static final int PHASE_OFF = 0;
+    static final int PHASE_WATCHING = 1;
+    static final int PHASE_STALLED = 2;
+    private static final int STAT_PHASE = 0;
+    private static final int STAT_STALLS = 1;
+    private static final int STAT_RESTARTS = 2;
+    private static final int STAT_SOURCE_ERRORS = 3;
+    private static final int STAT_LAST_RECOVERY_MS = 4;
+    private static final int STAT_MAX_RECOVERY_MS = 5;
+
+    static final class Stats {
+        final int phase;
+        final long stalls;
+        final long restarts;          // Source restarts, retries during one stall included
+        final long sourceErrors;
+        final long lastRecoveryMs;    // Last frame before a stall to the first one after it
+        final long maxRecoveryMs;
+
+        Stats(long[] values) {
+            this.phase = (int) values[STAT_PHASE];
+            this.stalls = values[STAT_STALLS];
+            this.restarts = values[STAT_RESTARTS];
+            this.sourceErrors = values[STAT_SOURCE_ERRORS];
+            this.lastRecoveryMs = values[STAT_LAST_RECOVERY_MS];
+            this.maxRecoveryMs = values[STAT_MAX_RECOVERY_MS];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s stalls %d restarts %d errors %d recovery %d/%d ms",
+                    phase == PHASE_STALLED ? "STALLED" : "watch",
+                    stalls, restarts, sourceErrors, lastRecoveryMs, maxRecoveryMs);
+        }
+    }
+
+    private StallWatchdog() {
+    }
+
+    /** Stall timeout for a pipeline: live low-latency streams are expected to keep a tighter pace. */
+    static int stallMsFor(boolean lowLatency) {
+        return lowLatency ? LOW_LATENCY_STALL_MS : DEFAULT_STALL_MS;
+    }
+}
@@ -0,0 +1,169 @@
+package com.android.pipeliner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Time from tapping a pipeline to seeing its first frame, phase by phase. The Java
+ * side marks the tap, activity creation, GStreamer being ready and nativeInit; the rest
+ * comes from the native timeline (startup_timeline.h). All marks are System.nanoTime()
+ * / CLOCK_MONOTONIC, so they line up. One Record per launch is kept with the
+ * PipelineItem, and percentiles over them show where startup time goes and when it
+ * got worse.
+ */
+final class StartupTimeline {
+    static final int MAX_HISTORY = 32; // Records kept per pipeline, newest last
+
+    static final int PHASE_TAP = 0;            // onPipelineClick
+    static final int PHASE_ACTIVITY = 1;       // GstreamerMain.onCreate
+    static final int PHASE_GST_INIT = 2;       // GStreamer initialized (awaited, it starts with the process)
+    static final int PHASE_NATIVE_INIT = 3;    // nativeInit called
+    static final int PHASE_BUILT = 4;          // gst_parse_launch done, or taken from the preroll pool
+    static final int PHASE_READY = 5;
+    static final int PHASE_PAUSED = 6;
+    static final int PHASE_PLAYING = 7;
+    static final int PHASE_FIRST_BUFFER = 8;   // First buffer out of a source pad
+    static final int PHASE_FIRST_FRAME = 9;    // First frame at the video sink
+    static final int PHASE_COUNT = 10;
+
+    static final String[] PHASE_NAMES = {
+            "tap", "activity", "gst init", "native init", "built",
+            "ready", "paused", "playing", "first buffer", "first frame"
+    };
+
+    // Native marks layout, must match startup_timeline.h
+    static final int MARK_REQUESTED = 0;
+    private static final int MARK_BUILT = 1;
+    private static final int MARK_READY = 2;
+    private static final int MARK_PAUSED = 3;
+    private static final int MARK_PLAYING = 4;
+    private static final int MARK_FIRST_BUFFER = 5;
+    static final int MARK_FIRST_FRAME = 6;
+    private static final int MARK_POOL = 7;
+    private static final int[] PHASE_OF_MARK = {
+            -1, PHASE_BUILT, PHASE_READY, PHASE_PAUSED, PHASE_PLAYING, PHASE_FIRST_BUFFER, PHASE_FIRST_FRAME
+    };
+
+    static final class Record {
+        final long wallTimeMs;      // When the launch happened, for display
+        final int pool;             // PrerollPool take result: 0 parsed, 1 ready, 2 hot
+        final long[] offsetsUs;     // Per phase, since the tap (or activity creation); -1 if not reached
+
+        Record(long wallTimeMs, int pool, long[] offsetsUs) {
+            this.wallTimeMs = wallTimeMs;
+            this.pool = pool;
+            this.offsetsUs = offsetsUs;
+        }
+
+        long firstFrameUs() {
+            return offsetsUs[PHASE_FIRST_FRAME];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int phase = PHASE_ACTIVITY; phase < PHASE_COUNT; phase++) {
+                if (offsetsUs[phase] >= 0) {
+                    text.append(text.length() == 0 ? "" : ", ").append(PHASE_NAMES[phase])
+                            .append(String.format(Locale.US, " +%.1f ms", offsetsUs[phase] / 1000.0));
+                }
+            }
+            return text.append(pool == 2 ? " (hot pool)" : pool == 1 ? " (ready pool)" : "").toString();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(wallTimeMs);
+            out.writeByte(pool);
+            out.writeByte(offsetsUs.length);
+            for (long offset : offsetsUs) {
+                out.writeLong(offset);
+            }
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            long wallTimeMs = in.readLong();
+            int pool = in.readByte();
+            int count = in.readByte();
+            long[] offsets = new long[PHASE_COUNT];
+            Arrays.fill(offsets, -1);
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                if (i < PHASE_COUNT) {
+                    offsets[i] = offset;
+                }
+            }
+            return new Record(wallTimeMs, pool, offsets);
+        }
+    }
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Builds the record of one launch. Java marks are System.nanoTime() values, 0 if
+     * not taken; nativeMarks is what nativeGetStartupTimeline returned.
+     */
+    static Record assemble(long tapNs, long activityNs, long gstInitNs, long nativeInitNs, long[] nativeMarks) {
+        long[] absoluteUs = new long[PHASE_COUNT];
+        absoluteUs[PHASE_TAP] = tapNs / 1000;
+        absoluteUs[PHASE_ACTIVITY] = activityNs / 1000;
+        absoluteUs[PHASE_GST_INIT] = gstInitNs / 1000;
+        absoluteUs[PHASE_NATIVE_INIT] = nativeInitNs / 1000;
+        for (int mark = MARK_BUILT; mark < PHASE_OF_MARK.length; mark++) {
+            absoluteUs[PHASE_OF_MARK[mark]] = nativeMarks[mark];
+        }
+        long originUs = tapNs > 0 ? absoluteUs[PHASE_TAP] : absoluteUs[PHASE_ACTIVITY];
+        long[] offsetsUs = new long[PHASE_COUNT];
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            offsetsUs[phase] = absoluteUs[phase] > 0 ? absoluteUs[phase] - originUs : -1;
+        }
+        return new Record(System.currentTimeMillis(), (int) nativeMarks[MARK_POOL], offsetsUs);
+    }
+
+    // Nearest-rank percentile of the phase's offset over the records that reached it, -1 if none did
+    static long percentileUs(List<Record> records, int phase, int percent) {
+        List<Long> values = new ArrayList<>();
+        for (Record record : records) {
+            if (record.offsetsUs[phase] >= 0) {
+                values.add(record.offsetsUs[phase]);
+            }
+        }
+        if (values.isEmpty()) {
+            return -1;
+        }
+        Collections.sort(values);
+        int rank = (int) Math.ceil(percent / 100.0 * values.size());
+        return values.get(Math.max(0, rank - 1));
+    }
+
+    /** p50, p90 and max per phase, one line each, for the launches in records. */
+    static String summarize(List<Record> records) {
+        if (records.isEmpty()) {
+            return "No launches timed yet";
+        }
+        StringBuilder text = new StringBuilder(String.format(Locale.US,
+                "%d launch%s, ms since tap (p50 / p90 / max)\n", records.size(), records.size() == 1 ? "" : "es"));
+        for (int phase = PHASE_ACTIVITY; phase < PHASE_COUNT; phase++) {
+            long p50 = percentileUs(records, phase, 50);
+            if (p50 < 0) {
+                continue;
+            }
+            text.append(String.format(Locale.US, "%-13s %6.0f / %6.0f / %6.0f\n", PHASE_NAMES[phase],
+                    p50 / 1000.0, percentileUs(records, phase, 90) / 1000.0,
+                    percentileUs(records, phase, 100) / 1000.0));
+        }
+        return text.toString();
+    }
+
+    /** True if the latest launch took longer to first frame than 90% of the ones before it. */
+    static boolean isRegression(List<Record> previous, Record latest) {
+        long p90 = previous.size() >= 5 ? percentileUs(previous, PHASE_FIRST_FRAME, 90) : -1;
+        return p90 > 0 && latest.firstFrameUs() > p90;
+    }
+}
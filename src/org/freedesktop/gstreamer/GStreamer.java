@@ -6,22 +6,75 @@
 package org.freedesktop.gstreamer;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
 import android.content.res.AssetManager;
+import android.system.ErrnoException;
 import android.system.Os;
+import android.util.Log;
 
 public class GStreamer {
     private static native void nativeInit(Context context) throws Exception;
 
+    private static final String STAMP_FILE = "gstreamer_assets.stamp";
+
     public static void init(Context context) throws Exception {
-        copyFonts(context);
-        //copyCaCertificates(context);
+        // Assets and the plugin registry only change with the app: same install, same files
+        String stamp = installStamp(context);
+        boolean current = stamp.equals(readStamp(context));
+        if (!current) {
+            copyFonts(context);
+            //copyCaCertificates(context);
+        } else {
+            try {
+                // Load registry.bin as written last time instead of checking every plugin against it
+                Os.setenv("GST_REGISTRY_UPDATE", "no", true);
+            } catch (ErrnoException e) {
+                Log.w("GStreamer", "Could not skip the registry update", e);
+            }
+        }
         nativeInit(context);
+        if (!current) {
+            writeStamp(context, stamp);
+        }
+    }
+
+    private static String installStamp(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionCode + ":" + info.lastUpdateTime;
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    private static String readStamp(Context context) {
+        File file = new File(context.getFilesDir(), STAMP_FILE);
+        if (!file.exists() || !new File(context.getFilesDir(), "fontconfig/fonts.conf").exists()) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) Math.min(file.length(), 256)];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = in.read(bytes);
+            return read > 0 ? new String(bytes, 0, read, "UTF-8") : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeStamp(Context context, String stamp) {
+        if (stamp.isEmpty()) return;
+        try (OutputStream out = new FileOutputStream(new File(context.getFilesDir(), STAMP_FILE))) {
+            out.write(stamp.getBytes("UTF-8"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private static void copyFonts(Context context) {
@@ -0,0 +1,60 @@
+package com.android.pipeliner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GstLaunchEditorTest {
+
+    @Test
+    public void leavesTheLaunchAloneWithoutEdits() {
+        String launch = "videotestsrc   !  autovideosink";
+        assertEquals(launch, new GstLaunchEditor().apply(launch));
+    }
+
+    @Test
+    public void appendsPropertiesLaterCallsWinning() {
+        GstLaunchEditor editor = new GstLaunchEditor();
+        editor.setProperty(1, "leaky", "upstream");
+        editor.setProperty(1, "leaky", "downstream");
+        editor.setProperty(1, "max-size-buffers", "2");
+        assertEquals("videotestsrc ! queue leaky=downstream max-size-buffers=2 ! autovideosink",
+                editor.apply("videotestsrc ! queue ! autovideosink"));
+    }
+
+    @Test
+    public void replacesFactoriesAndInsertsElements() {
+        GstLaunchEditor editor = new GstLaunchEditor();
+        editor.replaceFactory(2, "avdec_h264");
+        editor.insertBefore(1, "rtpjitterbuffer latency=50");
+        assertEquals("udpsrc port=5000 ! rtpjitterbuffer latency=50 ! rtph264depay ! avdec_h264 ! fakesink",
+                editor.apply("udpsrc port=5000 ! rtph264depay ! decodebin ! fakesink"));
+    }
+
+    @Test
+    public void replacesWholeElementsWithTheirProperties() {
+        GstLaunchEditor editor = new GstLaunchEditor();
+        editor.replaceElement(0, "fakesrc num-buffers=1");
+        assertEquals("fakesrc num-buffers=1 ! fakesink", editor.apply("videotestsrc pattern=ball is-live=true ! fakesink"));
+    }
+
+    @Test
+    public void keepsCapsReferencesAndBinsUntouched() {
+        String launch = "videotestsrc ! video/x-raw,width=320 ! tee name=t t. ! queue ! fakesink ( t. ! queue ! fakesink )";
+        GstLaunchEditor editor = new GstLaunchEditor();
+        editor.setProperty(4, "leaky", "downstream");
+        assertEquals("videotestsrc ! video/x-raw,width=320 ! tee name=t t. ! queue ! fakesink ( t. ! queue leaky=downstream ! fakesink )",
+                editor.apply(launch));
+    }
+
+    @Test
+    public void prefixesNamesReferencesAndCaps() {
+        GstLaunchEditor editor = new GstLaunchEditor();
+        editor.setNamePrefix("m0_");
+        String edited = editor.apply("videotestsrc ! video/x-raw,width=320 ! tee name=t t. ! fakesink");
+        assertEquals("videotestsrc name=m0_videotestsrc0 ! capsfilter name=m0_caps0 caps=\"video/x-raw,width=320\""
+                + " ! tee name=m0_t m0_t. ! fakesink name=m0_fakesink2", edited);
+        assertTrue(GstLaunchParser.parse(edited).getErrors().isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+package com.android.pipeliner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GstLaunchParserTest {
+
+    @Test
+    public void tokenizesLinksQuotesAndSpacedCaps() {
+        assertEquals(Arrays.asList("udpsrc", "port=5000", "!", "video/x-raw,width=640", "!", "fakesink"),
+                GstLaunchParser.tokenize("udpsrc port=5000 ! video/x-raw, width=640 ! fakesink"));
+        assertEquals(Arrays.asList("textoverlay", "text=\"a ! b\"", "!", "fakesink"),
+                GstLaunchParser.tokenize("textoverlay text=\"a ! b\"!fakesink"));
+    }
+
+    @Test
+    public void parsesElementsPropertiesAndLinks() {
+        GstLaunchModel model = GstLaunchParser.parse("videotestsrc pattern=ball ! queue ! autovideosink");
+        assertTrue(model.getErrors().isEmpty());
+        assertEquals(3, model.getElements().size());
+        assertEquals("ball", model.getElements().get(0).getProperty("pattern"));
+        assertEquals(2, model.getLinks().size());
+        assertSame(model.getElements().get(1), model.getLinks().get(0).to.element);
+    }
+
+    @Test
+    public void attachesCapsToTheLink() {
+        GstLaunchModel model = GstLaunchParser.parse(
+                "udpsrc caps=\"application/x-rtp,media=video\" ! rtph264depay ! video/x-h264,stream-format=(string)byte-stream ! fakesink");
+        assertTrue(model.getErrors().isEmpty());
+        assertEquals("application/x-rtp,media=video", model.getElements().get(0).getProperty("caps"));
+        GstLaunchModel.Caps caps = model.getLinks().get(1).caps;
+        assertEquals("video/x-h264", caps.mediaType);
+        assertEquals("byte-stream", caps.fields.get("stream-format"));
+    }
+
+    @Test
+    public void resolvesNamedReferences() {
+        GstLaunchModel model = GstLaunchParser.parse(
+                "videotestsrc ! tee name=t t. ! queue ! fakesink t. ! queue ! autovideosink");
+        assertTrue(model.getErrors().isEmpty());
+        GstLaunchModel.Element tee = model.getNamedElements().get("t");
+        int fromTee = 0;
+        for (GstLaunchModel.Link link : model.getLinks()) {
+            if (link.from.element == tee) {
+                fromTee++;
+            }
+        }
+        assertEquals(2, fromTee);
+    }
+
+    @Test
+    public void reportsMalformedInputInsteadOfThrowing() {
+        GstLaunchModel model = GstLaunchParser.parse("! fakesrc ! ghost. ! ");
+        assertFalse(model.getErrors().isEmpty());
+        assertEquals(1, model.getElements().size());
+    }
+
+    @Test
+    public void classifiesTokens() {
+        assertTrue(GstLaunchParser.isProperty("port=5000"));
+        assertFalse(GstLaunchParser.isProperty("video/x-raw,width=640"));
+        assertTrue(GstLaunchParser.isCaps("\"video/x-raw, format=NV12\""));
+        assertTrue(GstLaunchParser.isReference("demux.video_0"));
+        assertFalse(GstLaunchParser.isReference("1.5"));
+        assertEquals("a \"b\"", GstLaunchParser.unquote("\"a \\\"b\\\"\""));
+        assertNull(GstLaunchParser.parse("fakesrc").getElements().get(0).name);
+    }
+}
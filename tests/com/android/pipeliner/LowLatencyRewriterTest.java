@@ -0,0 +1,69 @@
+package com.android.pipeliner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LowLatencyRewriterTest {
+
+    @Test
+    public void leavesNonLivePipelinesAlone() {
+        String launch = "videotestsrc ! queue ! autovideosink";
+        LowLatencyRewriter.Result result = LowLatencyRewriter.rewrite(launch);
+        assertFalse(result.isChanged());
+        assertEquals(launch, result.launch);
+    }
+
+    @Test
+    public void leavesUnparseablePipelinesAlone() {
+        String launch = "udpsrc port=5000 ! ! fakesink !";
+        assertEquals(launch, LowLatencyRewriter.rewrite(launch).launch);
+    }
+
+    @Test
+    public void insertsAJitterbufferForRtpOverUdp() {
+        LowLatencyRewriter.Result result = LowLatencyRewriter.rewrite(
+                "udpsrc port=5000 ! rtph264depay ! avdec_h264 ! autovideosink");
+        assertEquals("udpsrc port=5000 buffer-size=2097152"
+                + " ! rtpjitterbuffer latency=50 drop-on-latency=true ! rtph264depay"
+                + " ! avdec_h264 thread-type=slice ! autovideosink sync=false", result.launch);
+        assertTrue(GstLaunchParser.parse(result.launch).getErrors().isEmpty());
+    }
+
+    @Test
+    public void keepsPropertiesTheUserSet() {
+        LowLatencyRewriter.Result result = LowLatencyRewriter.rewrite(
+                "rtspsrc location=rtsp://cam latency=0 ! rtph264depay ! avdec_h264 ! autovideosink sync=true");
+        assertEquals("rtspsrc location=rtsp://cam latency=0 drop-on-latency=true ! rtph264depay"
+                + " ! avdec_h264 thread-type=slice ! autovideosink sync=true", result.launch);
+    }
+
+    @Test
+    public void sizesQueuesByWhatTheyHold() {
+        LowLatencyRewriter.Result result = LowLatencyRewriter.rewrite(
+                "udpsrc port=5000 ! queue ! tsdemux ! h264parse ! avdec_h264 ! queue ! autovideosink");
+        assertEquals("udpsrc port=5000 buffer-size=2097152"
+                + " ! queue leaky=downstream max-size-bytes=0 max-size-buffers=0 max-size-time=200000000"
+                + " ! tsdemux latency=100 ! h264parse ! avdec_h264 thread-type=slice"
+                + " ! queue leaky=downstream max-size-bytes=0 max-size-time=0 max-size-buffers=2"
+                + " ! autovideosink sync=false", result.launch);
+    }
+
+    @Test
+    public void keepsClockSyncWithAnAudioSink() {
+        LowLatencyRewriter.Result result = LowLatencyRewriter.rewrite(
+                "udpsrc port=5000 ! tsdemux name=d d. ! queue ! avdec_h264 ! autovideosink d. ! queue ! avdec_aac ! autoaudiosink");
+        assertTrue(result.launch.contains("autovideosink max-lateness=20000000 qos=true"));
+        assertFalse(result.launch.contains("sync=false"));
+    }
+
+    @Test
+    public void isIdempotent() {
+        String once = LowLatencyRewriter.rewrite("udpsrc port=5000 ! rtph264depay ! avdec_h264 ! queue ! autovideosink").launch;
+        LowLatencyRewriter.Result twice = LowLatencyRewriter.rewrite(once);
+        assertFalse(twice.isChanged());
+        assertEquals(once, twice.launch);
+    }
+}
@@ -0,0 +1,228 @@
+package com.android.pipeliner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineJournalTest {
+    private static final byte OP_ADD = 1; // PipelineJournal's record ops
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, "pipelines.journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replaysAddsUpdatesAndDeletes() throws IOException {
+        PipelineJournal journal = new PipelineJournal(file);
+        journal.replay();
+        PipelineItem a = item("a", "videotestsrc ! autovideosink");
+        PipelineItem b = item("b", "udpsrc port=5000 ! fakesink");
+        journal.append(Arrays.asList(a, b), Collections.<String>emptyList());
+        a.setFavorite(true);
+        a.setLowLatency(true);
+        a.setMeasuredLatency(true, 42);
+        journal.append(Collections.singletonList(a), Collections.singletonList("b"));
+        journal.close();
+
+        Map<String, PipelineItem> items = new PipelineJournal(file).replay();
+        assertEquals(1, items.size());
+        PipelineItem replayed = items.get("a");
+        assertEquals(a.getName(), replayed.getName());
+        assertEquals(a.getPipeline(), replayed.getPipeline());
+        assertTrue(replayed.isFavorite());
+        assertTrue(replayed.isLowLatency());
+        assertEquals(42, replayed.getLowLatencyNs());
+    }
+
+    @Test
+    public void truncatesTornTail() throws IOException {
+        long good = writeTwo();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            // Length of a record whose body never made it to disk
+            out.write(new byte[] { 0, 0, 0, 100, OP_ADD, 0, 0 });
+        }
+
+        Map<String, PipelineItem> items = new PipelineJournal(file).replay();
+        assertEquals(2, items.size());
+        assertEquals(good, file.length());
+        assertEquals(1, corruptFiles().length);
+    }
+
+    @Test
+    public void truncatesAtChecksumMismatch() throws IOException {
+        long afterFirst = writeOne("a");
+        writeOne("b");
+        // Flip a byte inside the second record's body
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(afterFirst + 8);
+            int value = raf.read();
+            raf.seek(afterFirst + 8);
+            raf.write(value ^ 0xFF);
+        }
+
+        Map<String, PipelineItem> items = new PipelineJournal(file).replay();
+        assertEquals(Collections.singleton("a"), items.keySet());
+        assertEquals(afterFirst, file.length());
+        assertEquals(1, corruptFiles().length);
+    }
+
+    @Test
+    public void keepsRecordsBeforeAnUndecodableOne() throws IOException {
+        long good = writeTwo();
+        // Valid length and CRC, but the id claims more bytes than the record has
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte(OP_ADD);
+        data.writeInt(10_000);
+        appendRaw(body.toByteArray());
+        appendRaw(firstVersionRecord("c"));
+
+        Map<String, PipelineItem> items = new PipelineJournal(file).replay();
+        assertEquals(2, items.size());
+        assertFalse(items.containsKey("c"));
+        assertEquals(good, file.length());
+        assertEquals(1, corruptFiles().length);
+    }
+
+    @Test
+    public void readsRecordsWrittenBeforeLowLatencyAndStartups() throws IOException {
+        new PipelineJournal(file).replay();
+        appendRaw(firstVersionRecord("old"));
+
+        PipelineItem item = new PipelineJournal(file).replay().get("old");
+        assertEquals("Pipeline old", item.getName());
+        assertEquals(2000, item.getLastUsedTime());
+        assertTrue(item.isFavorite());
+        assertFalse(item.isLowLatency());
+        assertTrue(item.getStartups().isEmpty());
+    }
+
+    @Test
+    public void compactionKeepsLatestRecords() throws IOException {
+        PipelineJournal journal = new PipelineJournal(file);
+        journal.replay();
+        PipelineItem a = item("a", "videotestsrc ! autovideosink");
+        for (int i = 0; i < 10; i++) {
+            a.setLastUsedTime(i);
+            journal.append(Collections.singletonList(a), Collections.<String>emptyList());
+        }
+        journal.append(Collections.singletonList(item("b", "fakesrc ! fakesink")), Collections.<String>emptyList());
+        long before = file.length();
+        journal.compact();
+        assertTrue(file.length() < before);
+        journal.close();
+
+        Map<String, PipelineItem> items = new PipelineJournal(file).replay();
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(items.keySet().toArray()));
+        assertEquals(9, items.get("a").getLastUsedTime());
+    }
+
+    @Test
+    public void resetKeepsEarlierCorruptFiles() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write("not a journal".getBytes(StandardCharsets.UTF_8));
+            }
+            PipelineJournal journal = new PipelineJournal(file);
+            try {
+                journal.replay();
+                throw new AssertionError("replay accepted a file without the journal header");
+            } catch (IOException expected) {
+                journal.reset();
+            }
+        }
+        assertEquals(2, corruptFiles().length);
+        assertTrue(new PipelineJournal(file).replay().isEmpty());
+    }
+
+    private static PipelineItem item(String id, String pipeline) {
+        return new PipelineItem(id, "Pipeline " + id, pipeline, 1, 1, false);
+    }
+
+    // Journal holding "a" and "b"; returns its length
+    private long writeTwo() throws IOException {
+        PipelineJournal journal = new PipelineJournal(file);
+        journal.replay();
+        journal.append(Arrays.asList(item("a", "videotestsrc ! autovideosink"), item("b", "fakesrc ! fakesink")),
+                Collections.<String>emptyList());
+        journal.close();
+        return file.length();
+    }
+
+    private long writeOne(String id) throws IOException {
+        PipelineJournal journal = new PipelineJournal(file);
+        journal.replay();
+        journal.append(Collections.singletonList(item(id, "fakesrc ! fakesink")), Collections.<String>emptyList());
+        journal.close();
+        return file.length();
+    }
+
+    // Appends one framed record with a correct checksum
+    private void appendRaw(byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    // First version of a put record: id, name, pipeline, times and favorite only
+    private static byte[] firstVersionRecord(String id) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte(OP_ADD);
+        writeString(data, id);
+        writeString(data, "Pipeline " + id);
+        writeString(data, "videotestsrc ! autovideosink");
+        data.writeLong(1000);
+        data.writeLong(2000);
+        data.writeBoolean(true);
+        return body.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream data, String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(utf8.length);
+        data.write(utf8);
+    }
+
+    private File[] corruptFiles() {
+        return dir.listFiles((d, name) -> name.endsWith(".corrupt"));
+    }
+}
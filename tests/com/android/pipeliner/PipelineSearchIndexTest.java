@@ -0,0 +1,46 @@
+package com.android.pipeliner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class PipelineSearchIndexTest {
+
+    private static PipelineSearchIndex index(PipelineItem... items) {
+        PipelineSearchIndex index = new PipelineSearchIndex();
+        index.rebuild(Arrays.asList(items));
+        return index;
+    }
+
+    @Test
+    public void matchesEveryTermAsAPrefix() {
+        PipelineSearchIndex index = index(
+                new PipelineItem("a", "Drone feed", "udpsrc port=5600 ! fakesink", 1, 1, false),
+                new PipelineItem("b", "Drone test", "videotestsrc ! fakesink", 1, 1, false));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), index.search("dro"));
+        assertEquals(Collections.singleton("a"), index.search("drone port=56"));
+        assertEquals(Collections.<String>emptySet(), index.search("drone rtspsrc"));
+    }
+
+    @Test
+    public void indexesCapsInsideCapsProperties() {
+        PipelineSearchIndex index = index(new PipelineItem("a", "RTP", "udpsrc port=5000"
+                + " caps=\"application/x-rtp,media=video,encoding-name=H264\" ! rtph264depay ! fakesink", 1, 1, false));
+        assertEquals(Collections.singleton("a"), index.search("media=video"));
+        assertEquals(Collections.singleton("a"), index.search("caps:application/x-rtp encoding-name:h264"));
+    }
+
+    @Test
+    public void dropsOldTermsOnUpdate() {
+        PipelineItem item = new PipelineItem("a", "Camera", "rtspsrc location=rtsp://cam ! fakesink", 1, 1, false);
+        PipelineSearchIndex index = index(item);
+        item.setPipeline("videotestsrc ! fakesink");
+        index.put(item);
+        assertEquals(Collections.<String>emptySet(), index.search("rtspsrc"));
+        assertEquals(Collections.singleton("a"), index.search("camera videotestsrc"));
+    }
+}
@@ -0,0 +1,239 @@
+package com.android.pipeliner;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineStorageTest {
+    private File dir;
+    private File journalFile;
+    private PipelineStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("storage", "");
+        dir.delete();
+        dir.mkdirs();
+        journalFile = new File(dir, "pipelines.journal");
+        storage = new PipelineStorage(new TestContext(dir));
+        storage.runAsync(() -> { }).get(5, TimeUnit.SECONDS); // Loaded
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storage.flush().get(5, TimeUnit.SECONDS);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void writesOnceTheWindowHasPassed() throws Exception {
+        storage.setWriteDebounceMs(50);
+        long before = journalFile.length();
+        storage.addPipeline(item("a"));
+        storage.addPipeline(item("b"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journalFile.length() == before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        storage.runAsync(() -> { }).get(5, TimeUnit.SECONDS); // The write has finished
+        assertEquals(2, replayed().size());
+    }
+
+    @Test
+    public void holdsWritesForTheConfiguredWindow() throws Exception {
+        storage.setWriteDebounceMs(60_000);
+        long before = journalFile.length();
+        storage.addPipeline(item("a"));
+
+        Thread.sleep(1000); // Well past the default window
+        assertEquals(before, journalFile.length());
+
+        storage.flush().get(5, TimeUnit.SECONDS);
+        assertTrue(journalFile.length() > before);
+        assertEquals(1, replayed().size());
+    }
+
+    private Map<String, PipelineItem> replayed() throws IOException {
+        return new PipelineJournal(journalFile).replay();
+    }
+
+    private static PipelineItem item(String id) {
+        return new PipelineItem(id, "Pipeline " + id, "videotestsrc ! autovideosink", 1, 1, false);
+    }
+
+    // Just what PipelineStorage asks of its context: files and preferences
+    private static final class TestContext extends ContextWrapper {
+        private final File filesDir;
+        private final Map<String, SharedPreferences> prefs = new HashMap<>();
+
+        TestContext(File filesDir) {
+            super(null);
+            this.filesDir = filesDir;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return filesDir;
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return prefs.computeIfAbsent(name, n -> new MemoryPreferences());
+        }
+    }
+
+    private static final class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private final class MemoryEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<>();
+            private boolean clear;
+
+            private Editor put(String key, Object value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                return put(key, null);
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                if (clear) {
+                    values.clear();
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        values.remove(change.getKey());
+                    } else {
+                        values.put(change.getKey(), change.getValue());
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
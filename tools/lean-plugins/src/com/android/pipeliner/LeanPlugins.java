@@ -0,0 +1,685 @@
+package com.android.pipeliner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Build-time tool behind ./gradlew leanPlugins: works out which GStreamer plugins the
+ * pipeline library actually needs and writes them as GSTREAMER_PLUGINS_LEAN for the
+ * "lean" build variant, instead of linking every plugin group.
+ *
+ * Launch strings come from .gstpipe files and JSON library exports, and from string
+ * literals in Java sources (PipelineTemplates). Each is parsed with GstLaunchModel, as
+ * written and as LowLatencyRewriter would run it, and the factories are resolved to
+ * plugins through the symbol tables of the SDK's static plugin archives. Elements that
+ * are only picked at run time (decodebin's decoders, autovideosink's sink, rtspsrc's
+ * rtpbin) and the ones the app builds itself are added by the tables below.
+ *
+ * Usage: LeanPlugins --gst-root DIR --output FILE --report FILE [--builds DIR] INPUT...
+ * where DIR is one ABI of the SDK (e.g. $GSTREAMER_ROOT_ANDROID/arm64) and each INPUT
+ * is a file or a directory of them.
+ */
+final class LeanPlugins {
+    // The groups jni/CMakeLists.txt links in the full build
+    private static final String[] FULL_GROUPS = {
+            "CORE", "PLAYBACK", "CODECS", "CODECS_RESTRICTED", "PARSE", "NET", "SYS", "EFFECTS"
+    };
+
+    private static final String PLUGIN = "plugin:"; // Marks a plugin rather than a factory in the tables
+
+    // Factories the app creates itself, whatever is in the library
+    private static final String[][] APP_ELEMENTS = {
+            {"fallback pipeline", "videotestsrc", "videoconvert", "textoverlay", "autovideosink"},
+            {"mosaic", "compositor", "capsfilter", "videoconvert", "videoscale", "videorate", "queue",
+                    "fakesink", "videotestsrc", "autovideosink"},
+            {"recording", "tee", "queue", "splitmuxsink", "matroskamux"},
+            {"preroll pool", "fakesink"},
+            {"decoder bench", "videotestsrc", "capsfilter", "videoconvert", "identity", "matroskamux",
+                    "filesink", "filesrc", "parsebin", "fakesink"},
+    };
+
+    // What an element creates by name at run time: bins' children, autodetect's choice on Android
+    private static final Map<String, String[]> RUNTIME_ELEMENTS = new HashMap<>();
+    static {
+        RUNTIME_ELEMENTS.put("autovideosink", new String[] {"glimagesink"});
+        RUNTIME_ELEMENTS.put("autoaudiosink", new String[] {"openslessink"});
+        RUNTIME_ELEMENTS.put("playbin", new String[] {"uridecodebin", "playsink", "audioconvert", "audioresample",
+                "volume", "videoconvert", "videoscale", "autoaudiosink", "autovideosink"});
+        RUNTIME_ELEMENTS.put("playbin3", new String[] {"uridecodebin3", "playsink", "audioconvert", "audioresample",
+                "volume", "videoconvert", "videoscale", "autoaudiosink", "autovideosink"});
+        RUNTIME_ELEMENTS.put("uridecodebin", new String[] {"decodebin", "queue2", "typefind"});
+        RUNTIME_ELEMENTS.put("uridecodebin3", new String[] {"urisourcebin", "decodebin3"});
+        RUNTIME_ELEMENTS.put("urisourcebin", new String[] {"queue2", "typefind"});
+        RUNTIME_ELEMENTS.put("decodebin", new String[] {"typefind", "multiqueue", "capsfilter", PLUGIN + "typefindfunctions"});
+        RUNTIME_ELEMENTS.put("decodebin3", new String[] {"parsebin", "multiqueue"});
+        RUNTIME_ELEMENTS.put("parsebin", new String[] {"typefind", "capsfilter", PLUGIN + "typefindfunctions"});
+        RUNTIME_ELEMENTS.put("typefind", new String[] {PLUGIN + "typefindfunctions"});
+        RUNTIME_ELEMENTS.put("rtspsrc", new String[] {"rtpbin", "udpsrc", "udpsink"});
+        RUNTIME_ELEMENTS.put("rtpbin", new String[] {"rtpsession", "rtpssrcdemux", "rtpjitterbuffer", "rtpptdemux"});
+        RUNTIME_ELEMENTS.put("splitmuxsink", new String[] {"multiqueue", "filesink"});
+    }
+
+    // Autopluggers that pick parsers, and decoders, from the registry
+    private static final Set<String> PARSING_BINS = new HashSet<>(Arrays.asList(
+            "parsebin", "decodebin", "decodebin3", "uridecodebin", "uridecodebin3", "playbin", "playbin3"));
+    private static final Set<String> DECODING_BINS = new HashSet<>(Arrays.asList(
+            "decodebin", "decodebin3", "uridecodebin", "uridecodebin3", "playbin", "playbin3"));
+
+    private static final Map<String, String> URI_SOURCES = new HashMap<>();
+    static {
+        URI_SOURCES.put("file", "filesrc");
+        URI_SOURCES.put("http", "souphttpsrc");
+        URI_SOURCES.put("https", "souphttpsrc");
+        URI_SOURCES.put("rtsp", "rtspsrc");
+        URI_SOURCES.put("rtsps", "rtspsrc");
+        URI_SOURCES.put("udp", "udpsrc");
+        URI_SOURCES.put("srt", "srtsrc");
+    }
+
+    // Factories registered under generated names, so they have no symbol of their own
+    private static final String[][] DYNAMIC_PREFIXES = {
+            {"avdec_", "libav"}, {"avenc_", "libav"}, {"avmux_", "libav"}, {"avdemux_", "libav"},
+            {"amcviddec", "androidmedia"}, {"amcvidenc", "androidmedia"}, {"amcauddec", "androidmedia"},
+    };
+
+    private static final class Codec {
+        final String name;
+        final String[] tokens;      // Found in factory names, media types or encoding-names
+        final String parser;        // Or null
+        final String depayloader;
+        final String[] decoders;
+
+        Codec(String name, String[] tokens, String parser, String depayloader, String... decoders) {
+            this.name = name;
+            this.tokens = tokens;
+            this.parser = parser;
+            this.depayloader = depayloader;
+            this.decoders = decoders;
+        }
+    }
+
+    private static final Codec[] CODECS = {
+            new Codec("h264", new String[] {"h264", "avc"}, "h264parse", "rtph264depay",
+                    "avdec_h264", PLUGIN + "androidmedia"),
+            new Codec("h265", new String[] {"h265", "hevc"}, "h265parse", "rtph265depay",
+                    "avdec_h265", PLUGIN + "androidmedia"),
+            new Codec("av1", new String[] {"av1"}, "av1parse", "rtpav1depay", "dav1ddec", PLUGIN + "androidmedia"),
+            new Codec("vp8", new String[] {"vp8"}, null, "rtpvp8depay", "vp8dec", PLUGIN + "androidmedia"),
+            new Codec("vp9", new String[] {"vp9"}, "vp9parse", "rtpvp9depay", "vp9dec", PLUGIN + "androidmedia"),
+            new Codec("jpeg", new String[] {"jpeg"}, "jpegparse", "rtpjpegdepay", "jpegdec"),
+            new Codec("aac", new String[] {"aac", "mp4a", "mpeg4-generic"}, "aacparse", "rtpmp4gdepay", "avdec_aac"),
+            new Codec("opus", new String[] {"opus"}, "opusparse", "rtpopusdepay", "opusdec"),
+    };
+
+    // Assumed when an autoplugging pipeline gives no hint of what it carries
+    private static final String[] DEFAULT_CODECS = {"h264", "h265", "av1", "vp9", "aac", "opus"};
+
+    private static final Pattern JAVA_STRING = Pattern.compile("\"((?:[^\"\\\\\\n]|\\\\.)*)\"");
+    private static final Pattern JSON_PIPELINE = Pattern.compile("\"pipeline\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern CMAKE_GROUP = Pattern.compile("set\\s*\\(\\s*GSTREAMER_PLUGINS_(\\w+)([^)]*)\\)");
+
+    private final File gstRoot;
+    private final List<String> launches = new ArrayList<>();
+    private final List<String> problems = new ArrayList<>();
+
+    // Factory -> why it is needed, in the order found
+    private final Map<String, String> factories = new LinkedHashMap<>();
+    private final Set<String> codecs = new TreeSet<>();
+
+    // Plugin -> factories that pulled it in
+    private final Map<String, Set<String>> plugins = new TreeMap<>();
+    private final Set<String> unresolved = new TreeSet<>();
+    private final Set<String> resolvedByName = new TreeSet<>();
+
+    private final Map<String, String> pluginOfFactory = new HashMap<>();
+    private final Map<String, File> archives = new TreeMap<>();
+    private final Map<String, byte[]> archiveContents = new HashMap<>();
+
+    private LeanPlugins(File gstRoot) {
+        this.gstRoot = gstRoot;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File gstRoot = null, output = null, report = null, builds = null;
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--gst-root": gstRoot = new File(args[++i]); break;
+                case "--output": output = new File(args[++i]); break;
+                case "--report": report = new File(args[++i]); break;
+                case "--builds": builds = new File(args[++i]); break;
+                default: inputs.add(new File(args[i])); break;
+            }
+        }
+        if (gstRoot == null || output == null || report == null) {
+            System.err.println("Usage: LeanPlugins --gst-root DIR --output FILE --report FILE [--builds DIR] INPUT...");
+            System.exit(2);
+        }
+
+        LeanPlugins tool = new LeanPlugins(gstRoot);
+        for (File input : inputs) {
+            tool.collect(input);
+        }
+        tool.loadArchives();
+        tool.analyze();
+        if (tool.plugins.isEmpty()) {
+            throw new IOException("No plugins resolved, is " + gstRoot + " one ABI of the GStreamer Android SDK?");
+        }
+
+        String text = tool.report(builds);
+        write(output, tool.cmake());
+        write(report, text);
+        System.out.print(text);
+    }
+
+    // Launch strings
+
+    private void collect(File input) throws IOException {
+        if (input.isDirectory()) {
+            File[] children = input.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    collect(child);
+                }
+            }
+            return;
+        }
+        if (!input.isFile()) {
+            problems.add(input + ": not found, skipped");
+            return;
+        }
+        String content = new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8);
+        String name = input.getName();
+        if (name.endsWith(".java")) {
+            // Templates are single literals; anything with a link in it is taken as a launch string
+            Matcher m = JAVA_STRING.matcher(content);
+            while (m.find()) {
+                String literal = unescape(m.group(1));
+                if (literal.contains(" ! ")) {
+                    launches.add(literal);
+                }
+            }
+        } else if (name.endsWith(".gstpipe") || name.endsWith(".json")) {
+            String trimmed = content.trim();
+            if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+                Matcher m = JSON_PIPELINE.matcher(content);
+                while (m.find()) {
+                    launches.add(unescape(m.group(1)));
+                }
+            } else if (!trimmed.isEmpty()) {
+                // Plain text as written by the share action, one launch string over several lines
+                launches.add(trimmed.replaceAll("\\s*\\n\\s*", " "));
+            }
+        }
+    }
+
+    // Java and JSON escapes are the same for what a launch string holds
+    private static String unescape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= s.length()) {
+                out.append(c);
+                continue;
+            }
+            char e = s.charAt(++i);
+            switch (e) {
+                case 'n': out.append('\n'); break;
+                case 't': out.append('\t'); break;
+                case 'r': out.append('\r'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (i + 4 < s.length()) {
+                        out.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default: out.append(e); break;
+            }
+        }
+        return out.toString();
+    }
+
+    // Factories and their dependencies
+
+    private void analyze() {
+        boolean decoding = false, parsing = false, rtsp = false, guessed = false;
+        for (String launch : launches) {
+            GstLaunchModel model = GstLaunchModel.of(launch);
+            if (!model.getErrors().isEmpty()) {
+                problems.add("\"" + abbreviate(launch) + "\": " + model.getErrors().get(0));
+            }
+            // Low-latency mode is a per-launch switch, so the rewritten form counts too
+            String rewritten = LowLatencyRewriter.rewrite(launch).launch;
+            Set<String> found = new HashSet<>();
+            for (GstLaunchModel candidate : rewritten.equals(launch)
+                    ? Collections.singletonList(model) : Arrays.asList(model, GstLaunchModel.of(rewritten))) {
+                found.addAll(addModel(candidate, "\"" + abbreviate(launch) + "\""));
+            }
+            boolean autoplugs = false;
+            for (GstLaunchModel.Element element : model.getElements()) {
+                decoding |= DECODING_BINS.contains(element.factory);
+                autoplugs |= PARSING_BINS.contains(element.factory);
+                rtsp |= element.factory.equals("rtspsrc");
+            }
+            parsing |= autoplugs;
+            if (autoplugs && found.isEmpty()) {
+                guessed = true;
+                problems.add("\"" + abbreviate(launch) + "\": autoplugs with no codec named, assuming "
+                        + String.join(", ", DEFAULT_CODECS));
+            }
+            codecs.addAll(found);
+        }
+        if (guessed) {
+            codecs.addAll(Arrays.asList(DEFAULT_CODECS));
+        }
+
+        for (String[] feature : APP_ELEMENTS) {
+            for (int i = 1; i < feature.length; i++) {
+                add(feature[i], feature[0]);
+            }
+        }
+
+        // Recording needs the parsers whatever the pipelines parse with; autopluggers pick
+        // them, and the decoders, from whatever is registered
+        for (Codec codec : CODECS) {
+            if (!codecs.contains(codec.name)) {
+                continue;
+            }
+            if (codec.parser != null) {
+                add(codec.parser, codec.name + " parser for recording" + (parsing ? " and autoplugging" : ""));
+            }
+            if (decoding) {
+                for (String decoder : codec.decoders) {
+                    add(decoder, codec.name + " decoder for autoplugging");
+                }
+            }
+            if (decoding && rtsp) {
+                add(codec.depayloader, codec.name + " depayloader for rtspsrc into an autoplugger");
+            }
+        }
+
+        for (String factory : new ArrayList<>(factories.keySet())) {
+            expand(factory);
+        }
+        for (String factory : factories.keySet()) {
+            for (String plugin : resolve(factory)) {
+                plugins.computeIfAbsent(plugin, k -> new TreeSet<>()).add(factory);
+            }
+        }
+    }
+
+    // Adds the model's factories; returns the codecs it mentions
+    private Set<String> addModel(GstLaunchModel model, String source) {
+        Set<String> hints = new HashSet<>();
+        for (GstLaunchModel.Element element : model.getElements()) {
+            add(element.factory, source);
+            hints.add(element.factory);
+            String caps = element.getProperty("caps");
+            if (caps != null) {
+                hints.add(caps);
+            }
+            String uri = element.getProperty("uri");
+            if (uri != null) {
+                int colon = uri.indexOf(':');
+                String scheme = colon > 0 ? uri.substring(0, colon).replace("\"", "").toLowerCase(Locale.US) : "";
+                String uriSource = URI_SOURCES.get(scheme);
+                if (uriSource != null) {
+                    add(uriSource, element.factory + " uri " + scheme + "://");
+                } else {
+                    problems.add(source + ": no source known for uri " + uri);
+                }
+            }
+        }
+        for (GstLaunchModel.Caps caps : model.getCaps()) {
+            add("capsfilter", "caps between elements");
+            hints.add(caps.raw);
+        }
+
+        Set<String> found = new HashSet<>();
+        for (String hint : hints) {
+            String lower = hint.toLowerCase(Locale.US);
+            for (Codec codec : CODECS) {
+                for (String token : codec.tokens) {
+                    if (lower.contains(token)) {
+                        found.add(codec.name);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private void add(String factory, String reason) {
+        factories.putIfAbsent(factory, reason);
+    }
+
+    private void expand(String factory) {
+        String[] children = RUNTIME_ELEMENTS.get(factory);
+        if (children == null) {
+            return;
+        }
+        for (String child : children) {
+            if (!factories.containsKey(child)) {
+                factories.put(child, "created by " + factory);
+                expand(child);
+            }
+        }
+    }
+
+    // Plugins
+
+    private void loadArchives() throws IOException {
+        File dir = new File(gstRoot, "lib/gstreamer-1.0");
+        File[] files = dir.listFiles((d, name) -> name.startsWith("libgst") && name.endsWith(".a"));
+        if (files == null) {
+            throw new IOException(dir + " not found, is --gst-root one ABI of the GStreamer Android SDK?");
+        }
+        for (File file : files) {
+            String plugin = file.getName().substring("libgst".length(), file.getName().length() - ".a".length());
+            archives.put(plugin, file);
+            List<String> symbols = readSymbolTable(file);
+            if (symbols == null) {
+                symbols = scanSymbols(archiveContent(plugin));
+            }
+            for (String symbol : symbols) {
+                if (symbol.startsWith("gst_element_register_")) {
+                    pluginOfFactory.putIfAbsent(symbol.substring("gst_element_register_".length()), plugin);
+                }
+            }
+        }
+    }
+
+    private List<String> resolve(String factory) {
+        if (factory.startsWith(PLUGIN)) {
+            String plugin = factory.substring(PLUGIN.length());
+            if (archives.containsKey(plugin)) {
+                return Collections.singletonList(plugin);
+            }
+            unresolved.add(factory);
+            return Collections.emptyList();
+        }
+        String plugin = pluginOfFactory.get(factory.replace('-', '_'));
+        if (plugin != null) {
+            return Collections.singletonList(plugin);
+        }
+        for (String[] prefix : DYNAMIC_PREFIXES) {
+            if (factory.startsWith(prefix[0]) && archives.containsKey(prefix[1])) {
+                return Collections.singletonList(prefix[1]);
+            }
+        }
+        // Registered without GST_ELEMENT_REGISTER_DEFINE: look for the name itself
+        byte[] needle = ("\0" + factory + "\0").getBytes(StandardCharsets.US_ASCII);
+        List<String> found = new ArrayList<>();
+        for (String candidate : archives.keySet()) {
+            if (indexOf(archiveContent(candidate), needle) >= 0) {
+                found.add(candidate);
+            }
+        }
+        if (found.isEmpty()) {
+            unresolved.add(factory);
+        } else {
+            resolvedByName.add(factory + " -> " + String.join(", ", found));
+        }
+        return found;
+    }
+
+    private byte[] archiveContent(String plugin) {
+        return archiveContents.computeIfAbsent(plugin, p -> {
+            try {
+                return Files.readAllBytes(archives.get(p).toPath());
+            } catch (IOException e) {
+                problems.add(archives.get(p) + ": " + e.getMessage());
+                return new byte[0];
+            }
+        });
+    }
+
+    // Defined symbols from the archive's GNU symbol table ("/" or "/SYM64/"), or null if it has none
+    static List<String> readSymbolTable(File archive) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(archive)))) {
+            byte[] magic = new byte[8];
+            in.readFully(magic);
+            if (!"!<arch>\n".equals(new String(magic, StandardCharsets.US_ASCII))) {
+                return null;
+            }
+            byte[] header = new byte[60];
+            in.readFully(header);
+            String name = new String(header, 0, 16, StandardCharsets.US_ASCII).trim();
+            int width = name.equals("/") ? 4 : name.equals("/SYM64/") ? 8 : 0;
+            if (width == 0) {
+                return null;
+            }
+            byte[] table = new byte[Integer.parseInt(new String(header, 48, 10, StandardCharsets.US_ASCII).trim())];
+            in.readFully(table);
+            ByteBuffer buffer = ByteBuffer.wrap(table); // Big-endian, as ar writes it
+            long count = width == 4 ? buffer.getInt() & 0xffffffffL : buffer.getLong();
+            int pos = (int) (width + count * width);
+            List<String> symbols = new ArrayList<>();
+            for (long i = 0; i < count && pos < table.length; i++) {
+                int end = pos;
+                while (end < table.length && table[end] != 0) {
+                    end++;
+                }
+                symbols.add(new String(table, pos, end - pos, StandardCharsets.US_ASCII));
+                pos = end + 1;
+            }
+            return symbols;
+        }
+    }
+
+    // Without a symbol table: every gst_element_register_ name in the string tables
+    private static List<String> scanSymbols(byte[] content) {
+        byte[] prefix = "gst_element_register_".getBytes(StandardCharsets.US_ASCII);
+        List<String> symbols = new ArrayList<>();
+        for (int at = indexOf(content, prefix, 0); at >= 0; at = indexOf(content, prefix, at + 1)) {
+            int end = at + prefix.length;
+            while (end < content.length && (Character.isLetterOrDigit(content[end]) || content[end] == '_')) {
+                end++;
+            }
+            symbols.add(new String(content, at, end - at, StandardCharsets.US_ASCII));
+        }
+        return symbols;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        return indexOf(haystack, needle, 0);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // The plugins of the full build, from the SDK's plugins.cmake
+    private Set<String> fullPlugins() throws IOException {
+        File file = new File(gstRoot, "share/gst-android/ndk-build/plugins.cmake");
+        Set<String> full = new TreeSet<>();
+        if (!file.isFile()) {
+            problems.add(file + " not found, no full build to compare with");
+            return full;
+        }
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Map<String, List<String>> groups = new HashMap<>();
+        Matcher m = CMAKE_GROUP.matcher(content);
+        while (m.find()) {
+            List<String> members = new ArrayList<>();
+            for (String token : m.group(2).trim().split("\\s+")) {
+                if (token.startsWith("${GSTREAMER_PLUGINS_") && token.endsWith("}")) {
+                    List<String> nested = groups.get(token.substring("${GSTREAMER_PLUGINS_".length(), token.length() - 1));
+                    if (nested != null) {
+                        members.addAll(nested);
+                    }
+                } else if (!token.isEmpty()) {
+                    members.add(token);
+                }
+            }
+            groups.put(m.group(1), members);
+        }
+        for (String group : FULL_GROUPS) {
+            List<String> members = groups.get(group);
+            if (members != null) {
+                full.addAll(members);
+            }
+        }
+        return full;
+    }
+
+    // Output
+
+    private String cmake() {
+        StringBuilder text = new StringBuilder()
+                .append("# Generated by ./gradlew leanPlugins from ").append(launches.size())
+                .append(" launch strings, do not edit.\n")
+                .append("# Linked instead of the full plugin groups when PIPELINER_LEAN_PLUGINS is ON.\n")
+                .append("set(GSTREAMER_PLUGINS_LEAN\n");
+        for (String plugin : plugins.keySet()) {
+            text.append("    ").append(plugin).append('\n');
+        }
+        return text.append(")\n").toString();
+    }
+
+    private String report(File builds) throws IOException {
+        Set<String> full = fullPlugins();
+        long fullBytes = archiveBytes(full);
+        long leanBytes = archiveBytes(plugins.keySet());
+
+        StringWriter out = new StringWriter();
+        PrintWriter text = new PrintWriter(out);
+        text.printf(Locale.US, "Lean plugin set from %d launch strings, %d element factories, codecs %s%n%n",
+                launches.size(), factories.size(), codecs.isEmpty() ? "none" : String.join(", ", codecs));
+        text.printf(Locale.US, "Plugins         %4d lean / %4d full%n", plugins.size(), full.size());
+        if (fullBytes > 0) {
+            text.printf(Locale.US, "Static archives %6.1f MB lean / %6.1f MB full (-%.0f%%)%n",
+                    leanBytes / 1e6, fullBytes / 1e6, 100.0 * (fullBytes - leanBytes) / fullBytes);
+        }
+        File fullSo = builds != null ? findLibrary(builds, "full") : null;
+        File leanSo = builds != null ? findLibrary(builds, "lean") : null;
+        if (fullSo != null && leanSo != null) {
+            text.printf(Locale.US, "libgstreamer_android.so %6.1f MB lean / %6.1f MB full (-%.0f%%)%n",
+                    leanSo.length() / 1e6, fullSo.length() / 1e6, 100.0 * (fullSo.length() - leanSo.length()) / fullSo.length());
+        } else {
+            text.println("libgstreamer_android.so: build both variants to compare their sizes");
+        }
+        if (fullBytes > 0 && !full.isEmpty()) {
+            // Loading the library scales with its size, gst_init with the plugins it registers
+            text.printf(Locale.US, "Load time, estimated: library load -%.0f%%, gst_init plugin registration -%.0f%%%n",
+                    100.0 * (fullBytes - leanBytes) / fullBytes, 100.0 * (full.size() - plugins.size()) / full.size());
+            text.println("  Measured: compare the \"GStreamer ready in ... (libraries ... ms, init ... ms)\"");
+            text.println("  log line of the lean and full builds, cold started on the same device.");
+        }
+
+        text.println();
+        text.println("Plugins and the factories that need them:");
+        for (Map.Entry<String, Set<String>> entry : plugins.entrySet()) {
+            text.printf(Locale.US, "  %-20s %s%s%n", entry.getKey(), String.join(", ", entry.getValue()),
+                    full.isEmpty() || full.contains(entry.getKey()) ? "" : "  (not in the full build)");
+        }
+        text.println();
+        text.println("Why each factory is needed:");
+        for (Map.Entry<String, String> entry : factories.entrySet()) {
+            text.printf(Locale.US, "  %-20s %s%n", entry.getKey(), entry.getValue());
+        }
+        printSection(text, "Resolved by name only, check these:", resolvedByName);
+        printSection(text, "Not found in any plugin archive:", unresolved);
+        printSection(text, "Problems:", problems);
+        text.flush();
+        return out.toString();
+    }
+
+    private static void printSection(PrintWriter text, String title, Iterable<String> lines) {
+        if (!lines.iterator().hasNext()) {
+            return;
+        }
+        text.println();
+        text.println(title);
+        for (String line : lines) {
+            text.println("  " + line);
+        }
+    }
+
+    private long archiveBytes(Set<String> names) {
+        long bytes = 0;
+        for (String name : names) {
+            File archive = archives.get(name);
+            bytes += archive != null ? archive.length() : 0;
+        }
+        return bytes;
+    }
+
+    // The largest libgstreamer_android.so under a path with a directory starting with the flavor (fullRelease, leanDebug)
+    private static File findLibrary(File dir, String flavor) {
+        File best = null;
+        for (File file : walk(dir, new ArrayList<>())) {
+            if (!file.getName().equals("libgstreamer_android.so")) {
+                continue;
+            }
+            boolean match = false;
+            for (File parent = file.getParentFile(); parent != null && !parent.equals(dir); parent = parent.getParentFile()) {
+                match |= parent.getName().startsWith(flavor);
+            }
+            if (match && (best == null || file.length() > best.length())) {
+                best = file;
+            }
+        }
+        return best;
+    }
+
+    private static List<File> walk(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    walk(child, files);
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String abbreviate(String launch) {
+        return launch.length() > 60 ? launch.substring(0, 57) + "..." : launch;
+    }
+}